@@ -100,6 +100,33 @@ function notAvailableInReducedMemMode(statValue) {
   return statValue.toString();
 }
 
+function appendHotDocIds(table, label, hotDocIds, numUnique) {
+  var tr = document.createElement('tr');
+  var td = document.createElement('td');
+  td.appendChild(document.createTextNode(label));
+  tr.appendChild(td);
+  td = document.createElement('td');
+  if (numUnique < 0) {
+    td.appendChild(document.createTextNode(
+        notAvailableInReducedMemMode(numUnique)));
+  } else if (!hotDocIds.length) {
+    td.appendChild(document.createTextNode('None yet'));
+  }
+  tr.appendChild(td);
+  table.append(tr);
+  $.each(hotDocIds, function(i, hotDocId) {
+    tr = document.createElement('tr');
+    td = document.createElement('td');
+    td.appendChild(document.createTextNode(hotDocId.docId));
+    tr.appendChild(td);
+    td = document.createElement('td');
+    td.appendChild(document.createTextNode(
+        hotDocId.count + ' (' + hotDocId.error + ')'));
+    tr.appendChild(td);
+    table.append(tr);
+  });
+}
+
 function getStatsCallback(result, error) {
   if (result === null) {
     throw error;
@@ -126,6 +153,18 @@ function getStatsCallback(result, error) {
       data.simpleStats.numTotalNonGsaRequests);
   $('#gaf-num-unique-non-gsa-requests').text(
       notAvailableInReducedMemMode(data.simpleStats.numUniqueNonGsaRequests));
+  $('#gaf-num-feed-connection-hits').text(
+      data.simpleStats.numFeedConnectionHits);
+  $('#gaf-num-feed-connection-misses').text(
+      data.simpleStats.numFeedConnectionMisses);
+  $('#gaf-num-content-cache-hits').text(
+      data.simpleStats.numContentCacheHits);
+  $('#gaf-num-content-cache-misses').text(
+      data.simpleStats.numContentCacheMisses);
+  $('#gaf-num-authz-cache-hits').text(data.simpleStats.numAuthzCacheHits);
+  $('#gaf-num-authz-cache-misses').text(data.simpleStats.numAuthzCacheMisses);
+  $('#gaf-authz-cache-millis-saved').text(
+      data.simpleStats.authzCacheMillisSaved);
   $('#gaf-when-started').text(String(new Date(data.simpleStats.whenStarted)));
   $('#gaf-time-resolution').text(data.simpleStats.timeResolution);
 
@@ -145,6 +184,14 @@ function getStatsCallback(result, error) {
       ? "Started " + String(new Date(curFullPushStart))
       : "None in progress");
 
+  var partitionRetries = [];
+  $.each(data.partitionStats, function(name, partition) {
+    partitionRetries.push(name + ": " + partition.retries
+        + (partition.failed ? " (failed)" : ""));
+  });
+  $('#gaf-partition-retries').text(
+      partitionRetries.length ? partitionRetries.join(", ") : "None");
+
   var hadSuccessfulIncrementalPush = Boolean(
       data.simpleStats.lastSuccessfulIncrementalPushStart);
   $('#gaf-last-successful-incr-push-start').text(
@@ -161,6 +208,16 @@ function getStatsCallback(result, error) {
       ? "Started " + String(new Date(curIncrementalPushStart))
       : "None in progress");
 
+  var hotDocIdsTable = $('#gaf-hot-doc-ids-table');
+  hotDocIdsTable.empty();
+  appendHotDocIds(hotDocIdsTable, 'Pushed', data.hotDocIdStats.pushed,
+      data.simpleStats.numUniqueDocIdsPushed);
+  appendHotDocIds(hotDocIdsTable, 'GSA requested',
+      data.hotDocIdStats.gsaRequested, data.simpleStats.numUniqueGsaRequests);
+  appendHotDocIds(hotDocIdsTable, 'Non-GSA requested',
+      data.hotDocIdStats.nonGsaRequested,
+      data.simpleStats.numUniqueNonGsaRequests);
+
   var vals = [];
   vals.push(formatChartData(data.stats[0], data.simpleStats.timeResolution));
   vals.push(formatChartData(data.stats[1], data.simpleStats.timeResolution));
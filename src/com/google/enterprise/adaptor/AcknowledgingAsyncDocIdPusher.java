@@ -0,0 +1,49 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.concurrent.Future;
+
+/**
+ * {@link AsyncDocIdPusher} that can report when the GSA has accepted a pushed
+ * item. The pusher provided by {@link AdaptorContext#getAsyncDocIdPusher}
+ * implements this interface, so callers that must not lose items can check
+ * for it with {@code instanceof}, and limit how many items they have waiting
+ * to be sent.
+ */
+public interface AcknowledgingAsyncDocIdPusher extends AsyncDocIdPusher {
+  /**
+   * Push a {@code Record} asynchronously to the GSA, without blocking. The
+   * returned future completes with {@code true} once the GSA has accepted the
+   * feed containing the record, or with {@code false} if the record was
+   * dropped or could not be sent.
+   *
+   * @param record that is to be crawled
+   * @return future completed once the record is sent or given up on
+   */
+  public Future<Boolean> pushRecordWithAck(DocIdPusher.Record record);
+
+  /**
+   * Push a named resource asynchronously to the GSA, without blocking. The
+   * returned future completes with {@code true} once the GSA has accepted the
+   * feed containing the named resource, or with {@code false} if it was
+   * dropped or could not be sent.
+   *
+   * @param docId name or label of the access control list
+   * @param acl is the access control list mapped onto by docId
+   * @return future completed once the named resource is sent or given up on
+   */
+  public Future<Boolean> pushNamedResourceWithAck(DocId docId, Acl acl);
+}
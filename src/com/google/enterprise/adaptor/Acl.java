@@ -24,7 +24,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -70,6 +69,20 @@ public class Acl {
   private final String inheritFromFragment;
   private final InheritanceType inheritType;
   private final boolean caseSensitive;
+  /**
+   * Groups as arrays, so that checking them does not need to allocate. Only
+   * used when case sensitive.
+   */
+  private final GroupPrincipal[] permitGroupArray;
+  private final GroupPrincipal[] denyGroupArray;
+  /**
+   * Case-folded keys of the principals, as computed by {@link #foldedKey}. Only
+   * used when case insensitive.
+   */
+  private final String[] foldedPermitGroups;
+  private final String[] foldedDenyGroups;
+  private final Set<String> foldedPermitUsers;
+  private final Set<String> foldedDenyUsers;
 
   private Acl(Set<GroupPrincipal> permitGroups, Set<GroupPrincipal> denyGroups,
       Set<UserPrincipal> permitUsers, Set<UserPrincipal> denyUsers,
@@ -89,6 +102,41 @@ public class Acl {
     this.inheritFromFragment = inheritFromFragment;
     this.inheritType = inheritType;
     this.caseSensitive = caseSensitive;
+    if (caseSensitive) {
+      this.permitGroupArray
+          = permitGroups.toArray(new GroupPrincipal[permitGroups.size()]);
+      this.denyGroupArray
+          = denyGroups.toArray(new GroupPrincipal[denyGroups.size()]);
+      this.foldedPermitGroups = null;
+      this.foldedDenyGroups = null;
+      this.foldedPermitUsers = null;
+      this.foldedDenyUsers = null;
+    } else {
+      this.permitGroupArray = null;
+      this.denyGroupArray = null;
+      this.foldedPermitGroups = foldKeys(permitGroups).toArray(new String[0]);
+      this.foldedDenyGroups = foldKeys(denyGroups).toArray(new String[0]);
+      this.foldedPermitUsers = foldKeys(permitUsers);
+      this.foldedDenyUsers = foldKeys(denyUsers);
+    }
+  }
+
+  /**
+   * Returns a key that is equal for two principals exactly when {@link
+   * CaseInsensitiveCmp} considers them equal. The namespace's length is
+   * included so that the namespace and name can't run together.
+   */
+  static String foldedKey(Principal p) {
+    String ns = p.getNamespace().toLowerCase(CASE_LOCALE);
+    return ns.length() + ":" + ns + p.getName().toLowerCase(CASE_LOCALE);
+  }
+
+  private static Set<String> foldKeys(Collection<? extends Principal> ps) {
+    Set<String> keys = new HashSet<String>(ps.size() * 2);
+    for (Principal p : ps) {
+      keys.add(foldedKey(p));
+    }
+    return keys;
   }
 
   private <P extends Principal> Set<P> cmpWrap(Set<P> unwrapped) {
@@ -216,32 +264,46 @@ public class Acl {
    * indeterminate.
    */
   public AuthzStatus isAuthorizedLocal(AuthnIdentity userIdentity) {
-    UserPrincipal userIdentifier = userIdentity.getUser();
-    Set<GroupPrincipal> commonGroups;
+    return isAuthorizedLocal(new MatchableIdentity(userIdentity));
+  }
+
+  private AuthzStatus isAuthorizedLocal(MatchableIdentity identity) {
     if (caseSensitive) {
-      commonGroups = new HashSet<GroupPrincipal>(denyGroups);
+      Set<GroupPrincipal> userGroups = identity.groups;
+      if (denyUsers.contains(identity.user)
+          || containsAny(userGroups, denyGroupArray)) {
+        return AuthzStatus.DENY;
+      }
+      if (permitUsers.contains(identity.user)
+          || containsAny(userGroups, permitGroupArray)) {
+        return AuthzStatus.PERMIT;
+      }
     } else {
-      commonGroups = cmpWrap(denyGroups);
-    }
-
-    Set<GroupPrincipal> userGroups = userIdentity.getGroups();
-    if (!caseSensitive) {
-      userGroups = Collections.unmodifiableSet(cmpWrap(userGroups));
-    }
-
-    commonGroups.retainAll(userGroups);
-    if (denyUsers.contains(userIdentifier) || !commonGroups.isEmpty()) {
-      return AuthzStatus.DENY;
+      String user = identity.getFoldedUser();
+      Set<String> userGroups = identity.getFoldedGroups();
+      if (foldedDenyUsers.contains(user)
+          || containsAny(userGroups, foldedDenyGroups)) {
+        return AuthzStatus.DENY;
+      }
+      if (foldedPermitUsers.contains(user)
+          || containsAny(userGroups, foldedPermitGroups)) {
+        return AuthzStatus.PERMIT;
+      }
     }
+    return AuthzStatus.INDETERMINATE;
+  }
 
-    commonGroups.clear();
-    commonGroups.addAll(permitGroups);
-    commonGroups.retainAll(userGroups);
-    if (permitUsers.contains(userIdentifier) || !commonGroups.isEmpty()) {
-      return AuthzStatus.PERMIT;
+  /**
+   * Checks the ACL's side against the user's set, since the user's set
+   * supports fast lookups and the ACL's side is normally the smaller one.
+   */
+  private static boolean containsAny(Set<?> set, Object[] items) {
+    for (Object item : items) {
+      if (set.contains(item)) {
+        return true;
+      }
     }
-
-    return AuthzStatus.INDETERMINATE;
+    return false;
   }
 
   /**
@@ -294,10 +356,15 @@ public class Acl {
    */
   public static AuthzStatus isAuthorized(AuthnIdentity userIdentity,
                                          List<Acl> aclChain) {
+    return isAuthorized(new MatchableIdentity(userIdentity), aclChain);
+  }
+
+  private static AuthzStatus isAuthorized(MatchableIdentity userIdentity,
+                                          List<Acl> aclChain) {
     // Check for completely broken chains. Users of the API should be aware
     // enough to easily prevent these from happening. These also don't directly
     // relate to a case on the GSA because the GSA is working more on the
-    // isAuthorizedRecurse level.
+    // isAuthorizedChain level.
     if (aclChain.size() < 1) {
       throw new IllegalArgumentException(
           "aclChain must contain at least one ACL");
@@ -333,31 +400,53 @@ public class Acl {
         return AuthzStatus.INDETERMINATE;
       }
     }
-    AuthzStatus result = isAuthorizedRecurse(userIdentity, aclChain);
+    AuthzStatus result = isAuthorizedChain(userIdentity, aclChain);
     return (result == AuthzStatus.INDETERMINATE) ? AuthzStatus.DENY : result;
   }
 
-  private static AuthzStatus isAuthorizedRecurse(
-      final AuthnIdentity userIdentity, final List<Acl> aclChain) {
-    if (aclChain.size() == 1) {
-      return aclChain.get(0).isAuthorizedLocal(userIdentity);
-    }
-    Decision parentDecision = new Decision() {
-      @Override
-      protected AuthzStatus computeDecision() {
-        return aclChain.get(0).isAuthorizedLocal(userIdentity);
-      }
-    };
-    Decision childDecision = new Decision() {
-      @Override
-      protected AuthzStatus computeDecision() {
-        // Recurse.
-        return isAuthorizedRecurse(userIdentity,
-            aclChain.subList(1, aclChain.size()));
+  /**
+   * Computes the non-local decision of the root by walking from the leaf to
+   * the root. This is equivalent to combining each entry's local decision with
+   * its child's non-local decision via {@link InheritanceType#isAuthorized},
+   * but without the recursion and with each local decision only computed when
+   * the inheritance type needs it.
+   */
+  private static AuthzStatus isAuthorizedChain(MatchableIdentity userIdentity,
+                                               List<Acl> aclChain) {
+    int last = aclChain.size() - 1;
+    AuthzStatus result = aclChain.get(last).isAuthorizedLocal(userIdentity);
+    for (int i = last - 1; i >= 0; i--) {
+      Acl parent = aclChain.get(i);
+      switch (parent.getInheritanceType()) {
+        case CHILD_OVERRIDES:
+          if (result == AuthzStatus.INDETERMINATE) {
+            result = parent.isAuthorizedLocal(userIdentity);
+          }
+          break;
+        case PARENT_OVERRIDES:
+          AuthzStatus local = parent.isAuthorizedLocal(userIdentity);
+          if (local != AuthzStatus.INDETERMINATE) {
+            result = local;
+          }
+          break;
+        case AND_BOTH_PERMIT:
+          if (result == AuthzStatus.PERMIT
+              && parent.isAuthorizedLocal(userIdentity) == AuthzStatus.PERMIT) {
+            result = AuthzStatus.PERMIT;
+          } else {
+            result = AuthzStatus.DENY;
+          }
+          break;
+        default:
+          // LEAF_NODE is rejected by isAuthorized() before getting here; let
+          // the inheritance type report it like any other misuse.
+          result = parent.getInheritanceType().isAuthorized(
+              new FixedDecision(result),
+              new FixedDecision(parent.isAuthorizedLocal(userIdentity)));
+          break;
       }
-    };
-    return aclChain.get(0).getInheritanceType()
-        .isAuthorized(childDecision, parentDecision);
+    }
+    return result;
   }
 
   /**
@@ -379,17 +468,43 @@ public class Acl {
   public static Map<DocId, AuthzStatus> isAuthorizedBatch(
       AuthnIdentity userIdentity, Collection<DocId> ids,
       BatchRetriever retriever) throws IOException {
-    Map<DocId, Acl> acls = retrieveNecessaryAcls(ids, retriever);
+    return isAuthorizedBatch(userIdentity, ids, retriever, null);
+  }
+
+  /**
+   * Same as {@link #isAuthorizedBatch(AuthnIdentity, Collection,
+   * BatchRetriever)}, but inherited ACLs are looked up in {@code cache} before
+   * asking {@code retriever} for them, and are remembered there afterwards.
+   *
+   * @param userIdentity identity containing the user's username and all the
+   *     groups the user belongs to
+   * @param ids collection of DocIds that need authz performed
+   * @param retriever object to use to obtain an ACL for a given DocId
+   * @param cache inherited ACLs, usually from {@link
+   *     AdaptorContext#getInheritedAclCache}, or {@code null} to not cache
+   * @throws IOException if the retriever throws an IOException
+   */
+  public static Map<DocId, AuthzStatus> isAuthorizedBatch(
+      AuthnIdentity userIdentity, Collection<DocId> ids,
+      BatchRetriever retriever, InheritedAclCache cache) throws IOException {
+    if (cache != null && !cache.isEnabled()) {
+      cache = null;
+    }
+    Map<DocId, Acl> acls = retrieveNecessaryAcls(ids, retriever, cache);
     Map<DocId, AuthzStatus> results
         = new HashMap<DocId, AuthzStatus>(ids.size() * 2);
+    // Documents in the same folder share the chain of the folder.
+    Map<DocId, List<Acl>> parentChains = new HashMap<DocId, List<Acl>>();
+    // Share the user's prepared groups across all the chains.
+    MatchableIdentity identity = new MatchableIdentity(userIdentity);
     for (DocId docId : ids) {
-      List<Acl> chain = createChain(docId, acls);
+      List<Acl> chain = createChain(docId, acls, parentChains);
       AuthzStatus result;
       if (chain == null) {
         // There was a cycle or other problem generating the chain.
         result = AuthzStatus.INDETERMINATE;
       } else {
-        result = isAuthorized(userIdentity, chain);
+        result = isAuthorized(identity, chain);
       }
       results.put(docId, result);
     }
@@ -397,7 +512,10 @@ public class Acl {
   }
 
   private static Map<DocId, Acl> retrieveNecessaryAcls(Collection<DocId> ids,
-        BatchRetriever retriever) throws IOException {
+        BatchRetriever retriever, InheritedAclCache cache) throws IOException {
+    CacheInvalidations.Retrieval cacheRetrieval
+        = cache == null ? null : cache.startRetrieval();
+    Set<DocId> cachedAcls = new HashSet<DocId>();
     Map<DocId, Acl> acls = new HashMap<DocId, Acl>(ids.size() * 2);
     Set<DocId> missingAcls = new HashSet<DocId>();
     Set<DocId> pendingRetrieval = new HashSet<DocId>(ids);
@@ -448,34 +566,80 @@ public class Acl {
             // Already have the parent ACLs, so check parent.
             acl = acls.get(parent);
           } else {
-            // Request parent ACLs.
-            pendingRetrieval.add(parent);
-            break;
+            Acl cached = cache == null ? null : cache.get(parent);
+            if (cached == null) {
+              // Request parent ACLs.
+              pendingRetrieval.add(parent);
+              break;
+            }
+            acls.put(parent, cached);
+            cachedAcls.add(parent);
+            acl = cached;
           }
         }
       }
     }
+    if (cache != null) {
+      // Remember the retrieved ACLs that were inherited.
+      for (Acl acl : acls.values()) {
+        DocId parent = acl.getInheritFrom();
+        if (parent != null && !cachedAcls.contains(parent)
+            && acls.containsKey(parent)) {
+          cache.put(parent, acls.get(parent), cacheRetrieval);
+        }
+      }
+    }
     return acls;
   }
 
-  private static List<Acl> createChain(DocId docId, Map<DocId, Acl> acls) {
-    List<Acl> chain = new LinkedList<Acl>();
+  private static List<Acl> createChain(DocId docId, Map<DocId, Acl> acls,
+      Map<DocId, List<Acl>> parentChains) {
+    Acl acl = acls.get(docId);
+    if (acl == null) {
+      // The GSA turns this into a chain containing only an empty ACL (which
+      // eventually becomes indeterminate), but we want this to be
+      // indeterminate immediately because we do not have public/private
+      // flags for documents and we don't want to accidentally cause a
+      // document to become public.
+      log.log(Level.FINE, "Document does not seem to use ACLs: {0}", docId);
+      return null;
+    }
+    DocId parent = acl.getInheritFrom();
+    if (parent == null) {
+      return Collections.singletonList(acl);
+    }
+    List<Acl> parentChain;
+    if (parentChains.containsKey(parent)) {
+      parentChain = parentChains.get(parent);
+    } else {
+      parentChain = createParentChain(parent, acls);
+      parentChains.put(parent, parentChain);
+    }
+    if (parentChain == null) {
+      return null;
+    }
+    // A cycle through acl would also be a cycle through parent, so it has
+    // already been detected.
+    List<Acl> chain = new ArrayList<Acl>(parentChain.size() + 1);
+    chain.addAll(parentChain);
+    chain.add(acl);
+    return Collections.unmodifiableList(chain);
+  }
+
+  /**
+   * Returns the chain from the root to the ACL of {@code docId}, which is
+   * inherited by another document, or {@code null} if the chain is broken.
+   */
+  private static List<Acl> createParentChain(DocId docId,
+      Map<DocId, Acl> acls) {
+    List<Acl> chain = new ArrayList<Acl>();
     Set<Acl> used = new HashSet<Acl>();
     DocId cur = docId;
     while (cur != null) {
       Acl acl = acls.get(cur);
       if (acl == null) {
-        if (chain.isEmpty()) {
-          // The GSA turns this into a chain containing only an empty ACL (which
-          // eventually becomes indeterminate), but we want this to be
-          // indeterminate immediately because we do not have public/private
-          // flags for documents and we don't want to accidentally cause a
-          // document to become public.
-          log.log(Level.FINE, "Document does not seem to use ACLs: {0}", cur);
-        } else {
-          log.log(Level.WARNING, "Missing ACLs for document ''{0}'' inherited "
-              + "from another document", cur);
-        }
+        log.log(Level.WARNING, "Missing ACLs for document ''{0}'' inherited "
+            + "from another document", cur);
         return null;
       }
       if (used.contains(acl)) {
@@ -483,10 +647,11 @@ public class Acl {
         return null;
       }
       used.add(acl);
-      chain.add(0, acl);
+      chain.add(acl);
       cur = acl.getInheritFrom();
     }
-    return Collections.unmodifiableList(chain);
+    Collections.reverse(chain);
+    return chain;
   }
 
   /**
@@ -896,4 +1061,51 @@ public class Acl {
      */
     protected abstract AuthzStatus computeDecision();
   }
+
+  /**
+   * Decision that is already known.
+   */
+  private static class FixedDecision extends Decision {
+    private final AuthzStatus status;
+
+    public FixedDecision(AuthzStatus status) {
+      this.status = status;
+    }
+
+    @Override
+    protected AuthzStatus computeDecision() {
+      return status;
+    }
+  }
+
+  /**
+   * User's identity prepared for matching against many ACLs. The case-folded
+   * forms are computed at most once, no matter how many case-insensitive ACLs
+   * are checked.
+   */
+  private static class MatchableIdentity {
+    final UserPrincipal user;
+    final Set<GroupPrincipal> groups;
+    private String foldedUser;
+    private Set<String> foldedGroups;
+
+    public MatchableIdentity(AuthnIdentity identity) {
+      this.user = identity.getUser();
+      this.groups = identity.getGroups();
+    }
+
+    String getFoldedUser() {
+      if (foldedUser == null && user != null) {
+        foldedUser = foldedKey(user);
+      }
+      return foldedUser;
+    }
+
+    Set<String> getFoldedGroups() {
+      if (foldedGroups == null) {
+        foldedGroups = foldKeys(groups);
+      }
+      return foldedGroups;
+    }
+  }
 }
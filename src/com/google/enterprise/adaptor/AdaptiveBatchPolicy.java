@@ -0,0 +1,122 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Chooses the batch size and maximum latency used by {@link AsyncDocIdSender},
+ * based on how long feeds take to post, whether they fail, and how many items
+ * are waiting to be sent. The batch size and latency stay within the bounds
+ * provided; if the minimum and maximum are equal, they never change.
+ *
+ * <p>When items arrive faster than they can be sent, the batch size and
+ * latency grow so that fewer, larger feeds are sent. When the queue is idle,
+ * the latency shrinks so that items are sent promptly. When a feed fails, the
+ * batch size shrinks and the latency grows, to lessen the load on the GSA. The
+ * latency is never shorter than the typical time to post a feed, since sending
+ * feeds more often than that only produces more feeds.
+ */
+class AdaptiveBatchPolicy {
+  private static final Logger log
+      = Logger.getLogger(AdaptiveBatchPolicy.class.getName());
+
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long minLatencyNanos;
+  private final long maxLatencyNanos;
+
+  private int batchSize;
+  private long latencyNanos;
+  /** Moving average of feed post durations. Zero until a push is recorded. */
+  private long averagePushNanos;
+
+  public AdaptiveBatchPolicy(int minBatchSize, int maxBatchSize,
+      long minLatency, long maxLatency, TimeUnit latencyUnit) {
+    if (latencyUnit == null) {
+      throw new NullPointerException();
+    }
+    if (minBatchSize < 1 || minBatchSize > maxBatchSize) {
+      throw new IllegalArgumentException("Batch sizes must be positive and "
+          + "minBatchSize must not be larger than maxBatchSize");
+    }
+    if (minLatency < 0 || minLatency > maxLatency) {
+      throw new IllegalArgumentException("Latencies must not be negative and "
+          + "minLatency must not be larger than maxLatency");
+    }
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.minLatencyNanos = latencyUnit.toNanos(minLatency);
+    this.maxLatencyNanos = latencyUnit.toNanos(maxLatency);
+    // Large batches cost nothing when idle, and a short latency keeps
+    // items from waiting.
+    this.batchSize = maxBatchSize;
+    this.latencyNanos = minLatencyNanos;
+  }
+
+  /** Returns a policy that always uses the provided values. */
+  public static AdaptiveBatchPolicy fixed(int batchSize, long latency,
+      TimeUnit latencyUnit) {
+    return new AdaptiveBatchPolicy(batchSize, batchSize, latency, latency,
+        latencyUnit);
+  }
+
+  public synchronized int getBatchSize() {
+    return batchSize;
+  }
+
+  public synchronized long getLatency(TimeUnit unit) {
+    return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Adjusts the batch size and latency after sending a batch.
+   *
+   * @param filled whether the batch was sent because it reached the batch
+   *     size, instead of because the latency expired
+   * @param failed whether not all items in the batch were sent
+   * @param queueDepth number of items waiting to be sent after the batch
+   * @param duration how long it took to send the batch
+   */
+  public synchronized void recordPush(boolean filled, boolean failed,
+      int queueDepth, long duration, TimeUnit durationUnit) {
+    long durationNanos = durationUnit.toNanos(duration);
+    averagePushNanos = averagePushNanos == 0 ? durationNanos
+        : (averagePushNanos * 7 + durationNanos) / 8;
+    int oldBatchSize = batchSize;
+    long oldLatencyNanos = latencyNanos;
+    if (failed) {
+      batchSize = Math.max(minBatchSize, batchSize / 2);
+      latencyNanos = Math.min(maxLatencyNanos, latencyNanos * 2);
+    } else if (queueDepth >= batchSize) {
+      // Items arrive faster than they are sent.
+      batchSize = (int) Math.min(maxBatchSize, 2L * batchSize);
+      latencyNanos = Math.min(maxLatencyNanos, latencyNanos * 2);
+    } else if (filled) {
+      batchSize = (int) Math.min(maxBatchSize, 2L * batchSize);
+    } else if (queueDepth == 0) {
+      latencyNanos = Math.max(minLatencyNanos, latencyNanos / 2);
+    }
+    latencyNanos = Math.max(latencyNanos,
+        Math.min(maxLatencyNanos, averagePushNanos));
+    if (batchSize != oldBatchSize || latencyNanos != oldLatencyNanos) {
+      log.log(Level.FINE, "Async batch size now {0} and latency {1} ms",
+          new Object[] {batchSize,
+              TimeUnit.NANOSECONDS.toMillis(latencyNanos)});
+    }
+  }
+}
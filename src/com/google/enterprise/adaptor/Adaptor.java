@@ -33,6 +33,8 @@ import java.io.IOException;
  * @see com.google.enterprise.adaptor.examples.AdaptorTemplate
  * @see AbstractAdaptor
  * @see PollingIncrementalLister
+ * @see PartitionedLister
+ * @see LastModifiedProvider
  */
 public interface Adaptor {
   /**
@@ -42,6 +44,10 @@ public interface Adaptor {
    * twenty or more concurrent calls is typical when the GSA is recrawling
    * unmodified content.
    *
+   * <p>This method is not called when the adaptor implements {@link
+   * LastModifiedProvider} and the client's copy of the document is already
+   * current.
+   *
    * <p>If you experience a fatal error, feel free to throw an {@link
    * IOException} or {@link RuntimeException}. In the case of an error, the GSA
    * will determine if and when to retry.
@@ -62,11 +68,16 @@ public interface Adaptor {
    * DocIdPusher#pushDocIds} one or more times and {@link
    * DocIdPusher#pushNamedResources} if using named resources.
    *
-   * <p>{@code pusher} is provided as convenience and is the same object
-   * provided to {@link #init} previously. This method may take a while and
+   * <p>{@code pusher} is provided as convenience and pushes to the same place
+   * as the one provided to {@link #init} previously. It also implements {@link
+   * CheckpointingDocIdPusher}, which long listings can use to resume where they
+   * left off after a failure. This method may take a while and
    * implementations are free to call {@link Thread#sleep} occasionally to
    * reduce load.
    *
+   * <p>This method is not called if the adaptor implements {@link
+   * PartitionedLister}.
+   *
    * <p>If you experience a fatal error, feel free to throw an {@link
    * IOException} or {@link RuntimeException}. In the case of an error, the
    * {@link ExceptionHandler} in use in {@link AdaptorContext} will
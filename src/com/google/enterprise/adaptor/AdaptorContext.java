@@ -91,6 +91,15 @@ public interface AdaptorContext {
    */
   public SensitiveValueDecoder getSensitiveValueDecoder();
 
+  /**
+   * Cache of inherited ACLs to pass to {@link Acl#isAuthorizedBatch(
+   * AuthnIdentity, java.util.Collection, Acl.BatchRetriever, InheritedAclCache)
+   * Acl.isAuthorizedBatch()}. ACLs are dropped from it when they are pushed.
+   * It does not cache anything unless {@code adaptor.inheritedAclCacheSize} is
+   * configured.
+   */
+  public InheritedAclCache getInheritedAclCache();
+
   /**
    * Registers a handler with the library's {@link
    * com.sun.net.httpserver.HttpServer} in similar fashion to {@link
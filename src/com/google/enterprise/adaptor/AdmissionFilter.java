@@ -0,0 +1,72 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Filter that limits how many requests are processed at once. Requests beyond
+ * the limit are answered with 503 Service Unavailable and a {@code
+ * Retry-After} header, instead of waiting or having their connection dropped.
+ */
+class AdmissionFilter extends Filter {
+  private static final Logger log
+      = Logger.getLogger(AdmissionFilter.class.getName());
+
+  private final Semaphore permits;
+  private final long retryAfterSecs;
+
+  public AdmissionFilter(int maxConcurrentRequests, long retryAfterSecs) {
+    if (maxConcurrentRequests < 1) {
+      throw new IllegalArgumentException(
+          "maxConcurrentRequests must be positive");
+    }
+    if (retryAfterSecs < 0) {
+      throw new IllegalArgumentException(
+          "retryAfterSecs must not be negative");
+    }
+    this.permits = new Semaphore(maxConcurrentRequests);
+    this.retryAfterSecs = retryAfterSecs;
+  }
+
+  @Override
+  public String description() {
+    return "Filter that rejects requests when too many are being processed";
+  }
+
+  @Override
+  public void doFilter(HttpExchange ex, Filter.Chain chain) throws IOException {
+    if (!permits.tryAcquire()) {
+      log.log(Level.FINE, "Rejecting request for {0} due to load",
+          ex.getRequestURI());
+      ex.getResponseHeaders().set("Retry-After", "" + retryAfterSecs);
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_UNAVAILABLE,
+          Translation.HTTP_SERVICE_UNAVAILABLE);
+      return;
+    }
+    try {
+      chain.doFilter(ex);
+    } finally {
+      permits.release();
+    }
+  }
+}
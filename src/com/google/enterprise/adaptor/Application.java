@@ -45,6 +45,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -370,17 +371,7 @@ public final class Application {
       }
     }
 
-    int maxThreads = config.getServerMaxWorkerThreads();
-    int queueCapacity = config.getServerQueueCapacity();
-    BlockingQueue<Runnable> blockingQueue
-        = new ArrayBlockingQueue<Runnable>(queueCapacity);
-    // The Executor can't reject jobs directly, because HttpServer does not
-    // appear to handle that case.
-    RejectedExecutionHandler policy
-        = new SuggestHandlerAbortPolicy(HttpExchanges.abortImmediately);
-    Executor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
-        1, TimeUnit.MINUTES, blockingQueue, policy);
-    server.setExecutor(executor);
+    server.setExecutor(createExecutor(config));
 
     try {
       server.bind(new InetSocketAddress(config.getServerPort()), 0);
@@ -394,6 +385,35 @@ public final class Application {
     return server;
   }
 
+  static ThreadPoolExecutor createExecutor(Config config) {
+    // The Executor can't reject jobs directly, because HttpServer does not
+    // appear to handle that case.
+    RejectedExecutionHandler policy
+        = new SuggestHandlerAbortPolicy(HttpExchanges.abortImmediately);
+    switch (config.getServerExecutor()) {
+      case FIXED:
+        int maxThreads = config.getServerMaxWorkerThreads();
+        int queueCapacity = config.getServerQueueCapacity();
+        BlockingQueue<Runnable> blockingQueue
+            = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        return new ThreadPoolExecutor(maxThreads, maxThreads,
+            1, TimeUnit.MINUTES, blockingQueue, policy);
+      case CACHED:
+        // Threads are created on demand and reaped once idle, so slow
+        // retrievals do not hold up other requests behind a small pool.
+        // Admission is limited by an AdmissionFilter, which answers requests
+        // beyond server.maxConcurrentRequests with 503. The pool leaves room
+        // for the threads sending those replies; only past that are
+        // connections dropped.
+        int maxRequests = config.getServerMaxConcurrentRequests();
+        int maxPoolSize = (int) Math.min(Integer.MAX_VALUE, 2L * maxRequests);
+        return new ThreadPoolExecutor(0, maxPoolSize,
+            1, TimeUnit.MINUTES, new SynchronousQueue<Runnable>(), policy);
+      default:
+        throw new AssertionError();
+    }
+  }
+
   static HttpServer createDashboardHttpServer(Config config)
       throws IOException {
     boolean secure = config.isServerSecure();
@@ -600,6 +620,14 @@ public final class Application {
     }
   }
 
+  /** How the retriever's {@link HttpServer} runs requests. */
+  static enum ExecutorMode {
+    /** A fixed number of threads, with a bounded queue of waiting requests. */
+    FIXED,
+    /** Threads created as needed, up to a limit of concurrent requests. */
+    CACHED,
+  }
+
   /**
    * Executes Runnable in current thread, but only after setting a thread-local
    * object. The code that will be run, is expected to take notice of the set
@@ -17,12 +17,17 @@ package com.google.enterprise.adaptor;
 /**
  * Interface that allows asynchronous at-will pushing of {@code DocId}s
  * to the GSA.
+ *
+ * <p>What happens when the queue is full depends on the {@code
+ * server.asyncDocIdSenderOverflowPolicy} configuration property. By default,
+ * items are dropped and a warning is logged. Callers that must not lose items
+ * can instead use {@link AcknowledgingAsyncDocIdPusher}.
  */
 public interface AsyncDocIdPusher {
   /**
    * Push a {@code DocId} asynchronously to the GSA. The {@code DocId} is
    * enqueued and sent in the next batch to the GSA. If the queue is full,
-   * then the item will be dropped and a warning will be logged.
+   * then by default the item will be dropped and a warning will be logged.
    *
    * @param docId that is to be crawled
    * @return {@code true} if the DocId was accepted, {@code false} otherwise
@@ -32,7 +37,7 @@ public interface AsyncDocIdPusher {
   /**
    * Push a {@code Record} asynchronously to the GSA. The {@code Record}
    * is enqueued and sent in the next batch to the GSA. If the queue is full,
-   * then the item will be dropped and a warning will be logged.
+   * then by default the item will be dropped and a warning will be logged.
    *
    * @param record that is to be crawled
    * @return {@code true} if the Record was accepted, {@code false} otherwise
@@ -42,7 +47,7 @@ public interface AsyncDocIdPusher {
   /**
    * Push a named resource asynchronously to the GSA. The named resource is
    * enqueued and sent in the next batch to the GSA. If the queue is full,
-   * then the item will be dropped and a warning will be logged.
+   * then by default the item will be dropped and a warning will be logged.
    *
    * <p>Named resources are {@code DocId}s without any content or metadata,
    * that only exist for ACL inheritance. These {@code DocId} will never be
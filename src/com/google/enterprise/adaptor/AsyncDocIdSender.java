@@ -14,11 +14,21 @@
 
 package com.google.enterprise.adaptor;
 
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,16 +37,40 @@ import java.util.logging.Logger;
  * Asynchronous sender of feed items. {@code worker()} must be started by client
  * and running for items to be sent.
  */
-class AsyncDocIdSender implements AsyncDocIdPusher,
+class AsyncDocIdSender implements AcknowledgingAsyncDocIdPusher,
     DocumentHandler.AsyncPusher {
   private static final Logger log
       = Logger.getLogger(AsyncDocIdSender.class.getName());
 
+  /** What to do with an item when the queue is full. */
+  enum OverflowPolicy {
+    /** Drop the item and log a warning. */
+    DROP,
+    /**
+     * Wait for room in the queue, up to a timeout, and then drop the item.
+     * This slows down producers instead of losing their items.
+     */
+    BLOCK,
+    /** Add the item to an {@link ItemSpill}, to be queued once there's room. */
+    SPILL,
+  }
+
   private final ItemPusher itemPusher;
-  private final int maxBatchSize;
-  private final long maxLatency;
-  private final TimeUnit maxLatencyUnit;
-  private final BlockingQueue<DocIdSender.Item> queue;
+  private final AdaptiveBatchPolicy batchPolicy;
+  private final BlockingQueue<PendingItem> queue;
+  private final int queueCapacity;
+  private final OverflowPolicy overflowPolicy;
+  private final long blockTimeoutMillis;
+  /** Only used with {@link OverflowPolicy#SPILL}. Also guards spilledAcks. */
+  private final ItemSpill spill;
+  /**
+   * Acknowledgements for the items at the end of {@link #spill}. Items spilled
+   * before a restart have none, so there may be fewer than spilled items.
+   */
+  private final Queue<SettableFuture<Boolean>> spilledAcks
+      = new LinkedList<SettableFuture<Boolean>>();
+  private final RelativeTimeProvider timeProvider
+      = new SystemRelativeTimeProvider();
   private final Runnable worker = new WorkerRunnable();
 
   /**
@@ -48,32 +82,86 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
    */
   public AsyncDocIdSender(ItemPusher itemPusher, int maxBatchSize,
       long maxLatency, TimeUnit maxLatencyUnit, int queueCapacity) {
-    if (itemPusher == null || maxLatencyUnit == null) {
+    this(itemPusher, checkedFixedPolicy(maxBatchSize, maxLatency,
+        maxLatencyUnit), queueCapacity);
+  }
+
+  /**
+   * Sends items in batches whose size and maximum latency are chosen by
+   * {@code batchPolicy}. The same advice about {@code queueCapacity} applies
+   * as for the other constructor, using the policy's largest batch size.
+   * Items are dropped when the queue is full.
+   */
+  public AsyncDocIdSender(ItemPusher itemPusher,
+      AdaptiveBatchPolicy batchPolicy, int queueCapacity) {
+    this(itemPusher, batchPolicy, queueCapacity, OverflowPolicy.DROP, 0, null);
+  }
+
+  /**
+   * Same as the other constructors, but handles a full queue using {@code
+   * overflowPolicy}. {@code blockTimeoutMillis} is only used with {@link
+   * OverflowPolicy#BLOCK}, and {@code spill} must be provided with {@link
+   * OverflowPolicy#SPILL}.
+   */
+  public AsyncDocIdSender(ItemPusher itemPusher,
+      AdaptiveBatchPolicy batchPolicy, int queueCapacity,
+      OverflowPolicy overflowPolicy, long blockTimeoutMillis,
+      ItemSpill spill) {
+    if (itemPusher == null || batchPolicy == null || overflowPolicy == null) {
+      throw new NullPointerException();
+    }
+    if (overflowPolicy == OverflowPolicy.SPILL && spill == null) {
+      throw new NullPointerException("SPILL requires a spill");
+    }
+    this.itemPusher = itemPusher;
+    this.batchPolicy = batchPolicy;
+    this.queue = new ArrayBlockingQueue<PendingItem>(queueCapacity);
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    this.spill = overflowPolicy == OverflowPolicy.SPILL ? spill : null;
+  }
+
+  /** Returns the number of items waiting in the queue to be sent. */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  /** Returns the maximum number of items the queue can hold. */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Returns the number of items waiting in the spill, or {@code 0} if not
+   * using {@link OverflowPolicy#SPILL}.
+   */
+  public int getSpillSize() {
+    return spill == null ? 0 : spill.size();
+  }
+
+  private static AdaptiveBatchPolicy checkedFixedPolicy(int maxBatchSize,
+      long maxLatency, TimeUnit maxLatencyUnit) {
+    if (maxLatencyUnit == null) {
       throw new NullPointerException();
     }
     if (maxBatchSize < 1) {
       throw new IllegalArgumentException("maxBatchSize must be positive");
     }
-    this.itemPusher = itemPusher;
-    this.maxBatchSize = maxBatchSize;
-    this.maxLatency = maxLatency;
-    this.maxLatencyUnit = maxLatencyUnit;
-    this.queue = new ArrayBlockingQueue<DocIdSender.Item>(queueCapacity);
+    return AdaptiveBatchPolicy.fixed(maxBatchSize, maxLatency, maxLatencyUnit);
   }
 
   /**
    * Enqueue {@code item} to be sent by worker. If the queue is full, then the
-   * item will be dropped and a warning will be logged.
+   * item is handled according to the {@link OverflowPolicy}: it is dropped
+   * and a warning is logged, or this method blocks until there is room, or the
+   * item is spilled to disk.
    *
    * @return {@code true} if the item was accepted, {@code false} otherwise
    */
   @Override
   public boolean asyncPushItem(final DocIdSender.Item item) {
-    if (!queue.offer(item)) {
-      log.log(Level.WARNING, "Failed to queue item: {0}", item);
-      return false;
-    }
-    return true;
+    return enqueue(new PendingItem(item, null), true);
   }
 
   @Override
@@ -91,6 +179,102 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
     return asyncPushItem(new DocIdSender.AclItem(docId, null, acl));
   }
 
+  @Override
+  public Future<Boolean> pushRecordWithAck(DocIdPusher.Record record) {
+    return asyncPushItemWithAck(record);
+  }
+
+  @Override
+  public Future<Boolean> pushNamedResourceWithAck(DocId docId, Acl acl) {
+    return asyncPushItemWithAck(new DocIdSender.AclItem(docId, null, acl));
+  }
+
+  /**
+   * Enqueue {@code item} without blocking, returning a future that completes
+   * once the item is sent. With {@link OverflowPolicy#BLOCK}, a full queue
+   * causes the item to be dropped instead of blocking.
+   */
+  private Future<Boolean> asyncPushItemWithAck(DocIdSender.Item item) {
+    SettableFuture<Boolean> ack = SettableFuture.create();
+    if (!enqueue(new PendingItem(item, ack), false)) {
+      ack.set(false);
+    }
+    return ack;
+  }
+
+  private boolean enqueue(PendingItem pending, boolean mayBlock) {
+    if (overflowPolicy == OverflowPolicy.SPILL) {
+      synchronized (spill) {
+        // Once items are spilled, later items must wait behind them.
+        if (spill.isEmpty() && queue.offer(pending)) {
+          return true;
+        }
+        try {
+          spill.add(pending.item);
+        } catch (IOException ex) {
+          log.log(Level.WARNING, "Failed to spill item: " + pending.item, ex);
+          return false;
+        }
+        spilledAcks.add(pending.ack);
+        return true;
+      }
+    }
+    if (overflowPolicy == OverflowPolicy.BLOCK && mayBlock) {
+      try {
+        if (queue.offer(pending, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          return true;
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (queue.offer(pending)) {
+      return true;
+    }
+    log.log(Level.WARNING, "Failed to queue item: {0}", pending.item);
+    return false;
+  }
+
+  /**
+   * Moves as many spilled items to the queue as fit.
+   *
+   * @return whether spilled items remain
+   */
+  private boolean refillFromSpill() {
+    if (spill == null) {
+      return false;
+    }
+    synchronized (spill) {
+      while (!spill.isEmpty() && queue.remainingCapacity() > 0) {
+        // Items spilled before a restart are at the front and have no ack.
+        SettableFuture<Boolean> ack = spill.size() > spilledAcks.size()
+            ? null : spilledAcks.remove();
+        DocIdSender.Item item;
+        try {
+          item = spill.remove();
+        } catch (IOException ex) {
+          log.log(Level.WARNING, "Failed to read spilled items. Discarding "
+              + spill.size() + " spilled items", ex);
+          discardSpill();
+          return false;
+        }
+        // Can't fail, since other threads only add to the queue while holding
+        // the lock.
+        queue.offer(new PendingItem(item, ack));
+      }
+      return !spill.isEmpty();
+    }
+  }
+
+  private void discardSpill() {
+    try {
+      spill.clear();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to clear " + spill, ex);
+    }
+    failAcks(spilledAcks);
+    spilledAcks.clear();
+  }
+
   public Runnable worker() {
     return worker;
   }
@@ -98,13 +282,23 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
   private class WorkerRunnable implements Runnable {
     @Override
     public void run() {
-      Set<DocIdSender.Item> items = new LinkedHashSet<DocIdSender.Item>();
+      List<PendingItem> batch = new ArrayList<PendingItem>();
       try {
         while (true) {
-          BlockingQueueBatcher.take(
-              queue, items, maxBatchSize, maxLatency, maxLatencyUnit);
-          itemPusher.pushItems(items.iterator(), null);
-          items.clear();
+          // Don't wait for more items when there are spilled items that
+          // couldn't fit in the queue.
+          boolean backlogged = refillFromSpill();
+          int batchSize = batchPolicy.getBatchSize();
+          int taken = BlockingQueueBatcher.take(queue, batch, batchSize,
+              backlogged ? 0 : batchPolicy.getLatency(TimeUnit.NANOSECONDS),
+              TimeUnit.NANOSECONDS);
+          long start = timeProvider.relativeTime(TimeUnit.NANOSECONDS);
+          DocIdSender.Item failed = push(batch, null);
+          long duration
+              = timeProvider.relativeTime(TimeUnit.NANOSECONDS) - start;
+          batchPolicy.recordPush(taken >= batchSize, failed != null,
+              queue.size(), duration, TimeUnit.NANOSECONDS);
+          batch.clear();
         }
       } catch (InterruptedException ex) {
         log.log(Level.FINE, "AsyncDocIdSender worker shutting down", ex);
@@ -113,20 +307,77 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
           // sent because of maxLatency, so we try to send those now.
           // If we were interrupted between calls to take(), then take() may
           // have interrupted itself before draining the queue; might as well
-          // send everything that was put on the queue.
-          queue.drainTo(items);
-          itemPusher.pushItems(items.iterator(),
-              ExceptionHandlers.noRetryHandler());
+          // send everything that was put on the queue. Spilled items stay on
+          // disk for the next start.
+          queue.drainTo(batch);
+          push(batch, ExceptionHandlers.noRetryHandler());
         } catch (InterruptedException ex2) {
           // Ignore, because we are going to interrupt anyway. This should
           // actually not happen because of the ExceptionHandler we are using,
           // but the precise behavior of pushItems() may change in the future.
         } finally {
+          // Anything not acknowledged yet won't be sent by this worker.
+          for (PendingItem pending : batch) {
+            if (pending.ack != null) {
+              pending.ack.set(false);
+            }
+          }
+          if (spill != null) {
+            synchronized (spill) {
+              failAcks(spilledAcks);
+            }
+          }
           log.log(Level.FINE, "AsyncDocIdSender worker shutdown", ex);
           Thread.currentThread().interrupt();
         }
       }
     }
+
+    /**
+     * Sends the items in {@code batch} and completes their acknowledgements.
+     */
+    private DocIdSender.Item push(List<PendingItem> batch,
+        ExceptionHandler handler) throws InterruptedException {
+      Set<DocIdSender.Item> items = new LinkedHashSet<DocIdSender.Item>();
+      for (PendingItem pending : batch) {
+        items.add(pending.item);
+      }
+      DocIdSender.Item failed = itemPusher.pushItems(items.iterator(), handler);
+      // Items are sent in order, so those before the failed item were sent.
+      Set<DocIdSender.Item> sent = new HashSet<DocIdSender.Item>();
+      for (DocIdSender.Item item : items) {
+        if (item.equals(failed)) {
+          break;
+        }
+        sent.add(item);
+      }
+      for (PendingItem pending : batch) {
+        if (pending.ack != null) {
+          pending.ack.set(sent.contains(pending.item));
+        }
+      }
+      return failed;
+    }
+  }
+
+  private static void failAcks(Collection<SettableFuture<Boolean>> acks) {
+    for (SettableFuture<Boolean> ack : acks) {
+      if (ack != null) {
+        ack.set(false);
+      }
+    }
+  }
+
+  /** An item waiting to be sent. */
+  private static class PendingItem {
+    final DocIdSender.Item item;
+    /** Completed once the item is sent, or {@code null} if not needed. */
+    final SettableFuture<Boolean> ack;
+
+    PendingItem(DocIdSender.Item item, SettableFuture<Boolean> ack) {
+      this.item = item;
+      this.ack = ack;
+    }
   }
 
   public interface ItemPusher {
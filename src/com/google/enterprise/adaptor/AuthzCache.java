@@ -0,0 +1,259 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size- and time-bounded cache of the decisions made by an {@link
+ * AuthzAuthority}, so that the GSA asking about the same user and document
+ * again only asks the adaptor about the documents it has no decision for.
+ * Decisions are keyed by a fingerprint of the whole {@link AuthnIdentity}, so
+ * users with different groups or passwords never share decisions.
+ *
+ * <p>{@code PERMIT} decisions are always cached and {@code DENY} decisions
+ * only if requested; {@code INDETERMINATE}, or no decision at all, is never
+ * cached and is answered as {@code INDETERMINATE}. Decisions are
+ * dropped when their DocId is pushed, as described by {@link
+ * CacheInvalidations}. Documents that inherit from a pushed ACL keep their
+ * decisions until they expire.
+ */
+class AuthzCache {
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  /** Fingerprint used for anonymous users. */
+  private static final HashCode ANONYMOUS = HASH_FUNCTION.hashLong(0);
+
+  private final long ttlMillis;
+  private final boolean cacheDenials;
+  private final Journal journal;
+  private final TimeProvider timeProvider;
+  private final Map<Key, Decision> cache;
+  private final CacheInvalidations invalidations;
+
+  /**
+   * {@code maxSize} or {@code ttlMillis} of zero disables caching, so that the
+   * authority is always called.
+   */
+  public AuthzCache(int maxSize, long ttlMillis, boolean cacheDenials,
+      Journal journal, TimeProvider timeProvider) {
+    if (journal == null || timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (maxSize < 0 || ttlMillis < 0) {
+      throw new IllegalArgumentException(
+          "Size and time to live must not be negative");
+    }
+    this.ttlMillis = maxSize == 0 ? 0 : ttlMillis;
+    this.cacheDenials = cacheDenials;
+    this.journal = journal;
+    this.timeProvider = timeProvider;
+    this.cache = CacheInvalidations.newLruMap(maxSize);
+    this.invalidations
+        = new CacheInvalidations(this.ttlMillis, maxSize, timeProvider);
+  }
+
+  public boolean isEnabled() {
+    return ttlMillis > 0;
+  }
+
+  /**
+   * Returns an authority that answers from this cache, only calling {@code
+   * authority} for the DocIds without a cached decision. Returns {@code
+   * authority} itself if the cache is disabled or {@code authority} is {@code
+   * null}.
+   */
+  public AuthzAuthority wrap(final AuthzAuthority authority) {
+    if (authority == null || !isEnabled()) {
+      return authority;
+    }
+    return new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        return AuthzCache.this.isUserAuthorized(authority, userIdentity, ids);
+      }
+    };
+  }
+
+  Map<DocId, AuthzStatus> isUserAuthorized(AuthzAuthority authority,
+      AuthnIdentity userIdentity, Collection<DocId> ids) throws IOException {
+    HashCode fingerprint = fingerprint(userIdentity);
+    Map<DocId, AuthzStatus> statuses
+        = new HashMap<DocId, AuthzStatus>(ids.size() * 2);
+    List<DocId> missing = new ArrayList<DocId>();
+    long now = timeProvider.currentTimeMillis();
+    long startGeneration;
+    synchronized (this) {
+      startGeneration = invalidations.getGeneration();
+      invalidations.forgetOld(now);
+      for (DocId id : ids) {
+        Key key = new Key(fingerprint, id);
+        Decision decision = cache.get(key);
+        if (decision != null) {
+          if (now < decision.expiresAt
+              && invalidations.isCurrent(id, decision.generation)) {
+            statuses.put(id, decision.status);
+            continue;
+          }
+          cache.remove(key);
+        }
+        missing.add(id);
+      }
+    }
+    journal.recordAuthzCacheHits(statuses.size());
+    if (missing.isEmpty()) {
+      return statuses;
+    }
+
+    long start = timeProvider.currentTimeMillis();
+    Map<DocId, AuthzStatus> fresh
+        = authority.isUserAuthorized(userIdentity, missing);
+    journal.recordAuthzCacheMisses(missing.size(),
+        timeProvider.currentTimeMillis() - start);
+    synchronized (this) {
+      for (DocId id : missing) {
+        // No answer for a DocId is the same as INDETERMINATE, and likewise is
+        // never cached.
+        AuthzStatus status = fresh == null ? null : fresh.get(id);
+        if (status == null) {
+          status = AuthzStatus.INDETERMINATE;
+        }
+        statuses.put(id, status);
+        if (status == AuthzStatus.PERMIT
+            || (status == AuthzStatus.DENY && cacheDenials)) {
+          if (invalidations.isCurrent(id, startGeneration)) {
+            cache.put(new Key(fingerprint, id),
+                new Decision(status, now + ttlMillis, startGeneration));
+          }
+        }
+      }
+    }
+    return statuses;
+  }
+
+  /** Drops any cached decisions for {@code docId}, for all users. */
+  public synchronized void invalidate(DocId docId) {
+    if (!isEnabled()) {
+      return;
+    }
+    if (!invalidations.invalidate(docId)) {
+      // Too many to track individually, so everything was invalidated.
+      cache.clear();
+    }
+  }
+
+  /** Drops all cached decisions. */
+  public synchronized void invalidateAll() {
+    invalidations.invalidateAll();
+    cache.clear();
+  }
+
+  /**
+   * Hash of everything in {@code identity} that could affect a decision. The
+   * groups are combined in a way that does not depend on their order.
+   */
+  static HashCode fingerprint(AuthnIdentity identity) {
+    if (identity == null) {
+      return ANONYMOUS;
+    }
+    long groupsHigh = 0;
+    long groupsLow = 0;
+    int groupCount = -1;
+    if (identity.getGroups() != null) {
+      groupCount = identity.getGroups().size();
+      for (GroupPrincipal group : identity.getGroups()) {
+        byte[] bytes = putPrincipal(HASH_FUNCTION.newHasher(), group).hash()
+            .asBytes();
+        groupsHigh += toLong(bytes, 0);
+        groupsLow += toLong(bytes, 8);
+      }
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    putPrincipal(hasher, identity.getUser());
+    String password = identity.getPassword();
+    hasher.putBoolean(password != null);
+    if (password != null) {
+      hasher.putString(password);
+    }
+    hasher.putInt(groupCount);
+    hasher.putLong(groupsHigh);
+    hasher.putLong(groupsLow);
+    return hasher.hash();
+  }
+
+  private static Hasher putPrincipal(Hasher hasher, Principal principal) {
+    // Lengths keep the boundary between the fields unambiguous.
+    hasher.putInt(principal.getName().length());
+    hasher.putString(principal.getName());
+    hasher.putInt(principal.getNamespace().length());
+    hasher.putString(principal.getNamespace());
+    return hasher;
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  private static class Key {
+    final HashCode fingerprint;
+    final DocId docId;
+
+    Key(HashCode fingerprint, DocId docId) {
+      this.fingerprint = fingerprint;
+      this.docId = docId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return fingerprint.equals(key.fingerprint) && docId.equals(key.docId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * fingerprint.hashCode() + docId.hashCode();
+    }
+  }
+
+  private static class Decision {
+    final AuthzStatus status;
+    final long expiresAt;
+    final long generation;
+
+    Decision(AuthzStatus status, long expiresAt, long generation) {
+      this.status = status;
+      this.expiresAt = expiresAt;
+      this.generation = generation;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bookkeeping shared by the caches whose entries are dropped when their DocId
+ * is pushed. Pushing a DocId is how adaptors announce that a document or its
+ * ACL has changed, so anything cached about that DocId must be forgotten
+ * then. Each entry remembers the generation it was computed at; entries
+ * computed before their DocId was last invalidated are stale, including ones
+ * that were still being computed when the invalidation happened.
+ *
+ * <p>Not thread-safe; callers must hold the lock guarding their cache.
+ */
+class CacheInvalidations {
+  private final long ttlMillis;
+  private final int maxSize;
+  private final TimeProvider timeProvider;
+  /**
+   * DocIds invalidated within the last {@link #ttlMillis}, in the order they
+   * were invalidated. Older invalidations can be forgotten, since any entry
+   * they would apply to has expired.
+   */
+  private final LinkedHashMap<DocId, Invalidation> invalidations
+      = new LinkedHashMap<DocId, Invalidation>();
+  /** Number of invalidations, to detect ones racing with a computation. */
+  private long generation;
+  /** Entries computed before this generation are all stale. */
+  private long minValidGeneration;
+
+  /**
+   * @param ttlMillis how long cache entries live
+   * @param maxSize number of DocIds tracked individually before everything
+   *     is invalidated at once
+   */
+  public CacheInvalidations(long ttlMillis, int maxSize,
+      TimeProvider timeProvider) {
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    this.ttlMillis = ttlMillis;
+    this.maxSize = maxSize;
+    this.timeProvider = timeProvider;
+  }
+
+  /**
+   * Returns a map holding at most {@code maxSize} entries, which drops the
+   * least recently used entry when full.
+   */
+  public static <K, V> Map<K, V> newLruMap(final int maxSize) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /** Returns the generation to record with entries computed after now. */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Returns what to record with an entry whose computation starts now. The
+   * entry must expire {@code ttlMillis} after {@link Retrieval#startMillis}
+   * rather than after it is stored, since invalidations are only remembered
+   * for that long.
+   */
+  public Retrieval startRetrieval() {
+    return new Retrieval(generation, timeProvider.currentTimeMillis());
+  }
+
+  /**
+   * Marks entries for {@code docId} as stale. Returns {@code false} if too
+   * many DocIds were invalidated to track individually, in which case all
+   * entries are now stale and the cache should be cleared.
+   */
+  public boolean invalidate(DocId docId) {
+    generation++;
+    // Re-inserting keeps the map in invalidation order.
+    invalidations.remove(docId);
+    invalidations.put(docId, new Invalidation(generation,
+        timeProvider.currentTimeMillis()));
+    if (invalidations.size() > maxSize) {
+      invalidateAll();
+      return false;
+    }
+    return true;
+  }
+
+  /** Marks all entries as stale. */
+  public void invalidateAll() {
+    generation++;
+    minValidGeneration = generation;
+    invalidations.clear();
+  }
+
+  /**
+   * Whether an entry for {@code docId} computed at {@code entryGeneration} has
+   * not been invalidated since.
+   */
+  public boolean isCurrent(DocId docId, long entryGeneration) {
+    if (entryGeneration < minValidGeneration) {
+      return false;
+    }
+    Invalidation invalidation = invalidations.get(docId);
+    return invalidation == null || invalidation.generation <= entryGeneration;
+  }
+
+  /** Forgets invalidations older than any unexpired entry. */
+  public void forgetOld(long now) {
+    Iterator<Invalidation> it = invalidations.values().iterator();
+    while (it.hasNext()) {
+      Invalidation invalidation = it.next();
+      if (now - invalidation.time < ttlMillis) {
+        break;
+      }
+      it.remove();
+    }
+  }
+
+  /** The generation and time at which the computation of an entry began. */
+  static class Retrieval {
+    final long generation;
+    final long startMillis;
+
+    Retrieval(long generation, long startMillis) {
+      this.generation = generation;
+      this.startMillis = startMillis;
+    }
+  }
+
+  private static class Invalidation {
+    final long generation;
+    final long time;
+
+    Invalidation(long generation, long time) {
+      this.generation = generation;
+      this.time = time;
+    }
+  }
+}
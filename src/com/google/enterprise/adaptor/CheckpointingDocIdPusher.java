@@ -0,0 +1,46 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+/**
+ * A {@link DocIdPusher} that allows a full listing to record how far it has
+ * gotten, so that a later attempt can continue from there instead of starting
+ * over. The pusher provided to {@link Adaptor#getDocIds} implements this
+ * interface; adaptors that are able to resume their listing should check for
+ * it with {@code instanceof}.
+ *
+ * <p>A checkpoint is an opaque string chosen by the adaptor, like a page token
+ * or the last path listed. It is kept until the full push completes
+ * successfully, including across retries of {@code getDocIds} and, if {@code
+ * adaptor.fullListingCheckpointFile} is configured, across restarts of the
+ * adaptor.
+ */
+public interface CheckpointingDocIdPusher extends DocIdPusher {
+  /**
+   * Returns the checkpoint last saved by an incomplete full listing, or {@code
+   * null} if the listing should start from the beginning.
+   */
+  public String getCheckpoint();
+
+  /**
+   * Records that everything up to and including {@code checkpoint} has been
+   * sent to the GSA. Only call this after the push methods have returned
+   * successfully for the DocIds it covers.
+   *
+   * @param checkpoint opaque position in the listing, or {@code null} to
+   *     start from the beginning next time
+   */
+  public void saveCheckpoint(String checkpoint);
+}
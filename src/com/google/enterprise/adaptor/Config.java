@@ -73,6 +73,55 @@ import java.util.logging.Logger;
  * <tr><td> </td><td>adaptor.pushDocIdsOnStartup </td><td> whether to invoke
  *     {@link Adaptor#getDocIds Adaptor.getDocIds} on process start
  *     (in addition to adaptor.fullListingSchedule).   Defaults to true
+ * <tr><td> </td><td>adaptor.fullListingCheckpointFile </td><td> file in
+ *     which to keep the {@link CheckpointingDocIdPusher checkpoint} of an
+ *     incomplete full listing, so that it can resume after a restart.  If no
+ *     file is specified, the checkpoint is only kept in memory
+ * <tr><td> </td><td>adaptor.fullListingMaxPartitionThreads </td><td> max
+ *     number of partitions listed at the same time by adaptors that implement
+ *     {@link PartitionedLister}.  Defaults to 4
+ * <tr><td> </td><td>adaptor.authzBatchChunkSize </td><td> number of
+ *     documents in each chunk when splitting SAML batch authorization
+ *     requests from the GSA into chunks that are checked concurrently.
+ *     Documents not checked within adaptor.authzBatchTimeoutMillis are
+ *     denied.  Defaults to 0, which checks the whole batch at once
+ * <tr><td> </td><td>adaptor.authzBatchThreads </td><td> number of threads
+ *     checking chunks of SAML batch authorization requests, shared by all
+ *     requests.  Defaults to 8
+ * <tr><td> </td><td>adaptor.authzBatchTimeoutMillis </td><td> time allowed
+ *     for checking all chunks of a SAML batch authorization request.
+ *     Defaults to 5000
+ * <tr><td> </td><td>adaptor.authzCacheSize </td><td> max number of
+ *     authorization decisions remembered for each user and document, so that
+ *     repeated checks do not call the adaptor's {@link AuthzAuthority}.
+ *     Decisions are dropped when their DocId is pushed.  Defaults to 0, which
+ *     disables the cache
+ * <tr><td> </td><td>adaptor.authzCacheSecs </td><td> number of seconds to
+ *     remember authorization decisions.  Defaults to 30
+ * <tr><td> </td><td>adaptor.authzCacheDenials </td><td> whether DENY
+ *     decisions are remembered along with PERMIT decisions.  Defaults to
+ *     false
+ * <tr><td> </td><td>adaptor.groupIndexSize </td><td> max number of group
+ *     memberships, from definitions pushed with {@link
+ *     DocIdPusher#pushGroupDefinitions DocIdPusher.pushGroupDefinitions},
+ *     remembered to add the groups users are indirectly members of before
+ *     calling the adaptor's {@link AuthzAuthority}.  If more are pushed, none
+ *     are used until restart.  Only definitions the GSA accepted are
+ *     remembered, and only in memory, so nothing is added after a restart
+ *     until groups are pushed again.  Defaults to 0, which disables the index
+ * <tr><td> </td><td>adaptor.inheritedAclCacheSize </td><td> max number of
+ *     inherited ACLs remembered by {@link
+ *     AdaptorContext#getInheritedAclCache}, so that folders' ACLs are not
+ *     retrieved again for each request.  ACLs are dropped when their DocId is
+ *     pushed.
+ *     Defaults to 0, which disables the cache
+ * <tr><td> </td><td>adaptor.inheritedAclCacheSecs </td><td> number of
+ *     seconds to remember inherited ACLs.  Defaults to 60
+ * <tr><td> </td><td>adaptor.lastModifiedCacheSecs </td><td> number of
+ *     seconds to remember the last modification times returned by adaptors
+ *     that implement {@link LastModifiedProvider}.  Defaults to 60
+ * <tr><td> </td><td>adaptor.lastModifiedCacheSize </td><td> max number of
+ *     last modification times remembered.  Defaults to 10000
  * <tr><td> </td><td>adaptor.domainFormat </td><td> whether ACL names
  *     are DNS (name@domain.com), NETBIOS (domain\name),
  *     or NETBIOS_FORWARDSLASH (domain/name), or NONE (name).
@@ -95,12 +144,28 @@ import java.util.logging.Logger;
  *     all documents as recrawlable (equivalent to value of false)
  * <tr><td> </td><td>feed.maxUrls </td><td> set max number of URLs included
  *     per feed file.    Defaults to 5000
+ * <tr><td> </td><td>feed.maxInFlight </td><td> max number of feed files
+ *     being sent to the GSA at the same time during a single push. When
+ *     greater than 1, the next feed file is built while earlier ones are being
+ *     sent. Defaults to 1
  * <tr><td> </td><td>feed.name </td><td> source name used in feeds. Generated
  *     if not provided
  * <tr><td> </td><td>feed.archiveDirectory </td><td> specifies a directory in
  *     which all feeds sent to the GSA will be archived.  Feeds that failed to
  *     be sent to the GSA will be tagged with "FAILED" in the file name.
  *     If no directory is specified, feed files will not be saved.
+ * <tr><td> </td><td>feed.fingerprintFile </td><td> specifies a file in
+ *     which to keep fingerprints of the records and named resources sent to
+ *     the GSA.  When set, full pushes only send those that are new or changed
+ *     since they were last sent.  Delete the file to make the next full push
+ *     send everything.  If no file is specified, everything is always sent
+ * <tr><td> </td><td>feed.deleteUnlistedDocIds </td><td> whether a full push
+ *     sends deletes for records it previously sent but that are no longer
+ *     listed.  Requires feed.fingerprintFile.  Defaults to false
+ * <tr><td> </td><td>feed.spoolDirectory </td><td> specifies a directory in
+ *     which feeds are kept while they are being sent to the GSA.  Feeds left
+ *     there when the adaptor stops are sent when it next starts.  If no
+ *     directory is specified, feeds are not spooled.
  * <tr><td> </td><td>gsa.version </td><td> version number used to configure
  *     expected GSA features.  Defaults to acquiring from GSA.
  *     Uses 7.0.14-114 if acquiring fails.
@@ -120,14 +185,53 @@ import java.util.logging.Logger;
  * <tr><td> </td><td>gsa.samlEntityId </td><td> The SAML Entity ID that
  *     identifies the GSA. Defaults to
  *     http://google.com/enterprise/gsa/security-manager
- * <tr><td> </td><td>journal.reducedMem </td><td> avoid tracking per URL 
- *     information in RAM; suggested with over five hundred thousand documents.
- *     Defaults to true
+ * <tr><td> </td><td>journal.reducedMem </td><td> avoid tracking which
+ *     document ids are pushed and requested most often. The tracking is
+ *     approximate and uses about 3 MB of RAM regardless of the number of
+ *     documents.  Defaults to true
  * <tr><td> </td><td>gsa.scoringType</td><td> type of relevance algorithm
  *      GSA utilizes to rank documents.  Either content or web.  Is sent
  *      when gsa.acceptsDocControlsHeader is true.  Defaults to content
  * <tr><td> </td><td>server.asyncDocIdSenderQueueSize </td><td> queue size of
  *     the asynchronous DocId sender.  Defaults to 2 * feed.maxUrls
+ * <tr><td> </td><td>server.asyncDocIdSenderMinBatchSize </td><td> smallest
+ *     feed the asynchronous DocId sender shrinks to after the GSA fails to
+ *     accept feeds.  The largest is feed.maxUrls.  Defaults to 100
+ * <tr><td> </td><td>server.asyncDocIdSenderMinLatencySecs </td><td> shortest
+ *     time the asynchronous DocId sender waits for more items before sending
+ *     a feed, used when few items are being sent.  Setting it below
+ *     server.asyncDocIdSenderMaxLatencySecs lets the wait adapt to the load,
+ *     starting from this value.  Defaults to 300, so the wait does not
+ *     adapt
+ * <tr><td> </td><td>server.asyncDocIdSenderMaxLatencySecs </td><td> longest
+ *     time the asynchronous DocId sender waits for more items before sending
+ *     a feed, used when many items are being sent or the GSA is failing.
+ *     Defaults to 300
+ * <tr><td> </td><td>server.asyncDocIdSenderOverflowPolicy </td><td> what the
+ *     asynchronous DocId sender does with items when its queue is full.
+ *     DROP logs a warning and drops the item.  BLOCK makes the caller wait
+ *     for room, up to server.asyncDocIdSenderBlockTimeoutSecs, before
+ *     dropping the item.  SPILL writes the item to
+ *     server.asyncDocIdSenderSpillFile, to be sent once there is room; items
+ *     still in the file when the adaptor stops are sent after it restarts.
+ *     Defaults to DROP
+ * <tr><td> </td><td>server.asyncDocIdSenderBlockTimeoutSecs </td><td> longest
+ *     time to wait for room in the asynchronous DocId sender's queue with the
+ *     BLOCK overflow policy.  Defaults to 30
+ * <tr><td> </td><td>server.asyncDocIdSenderSpillFile </td><td> file holding
+ *     the items that did not fit in the asynchronous DocId sender's queue with
+ *     the SPILL overflow policy.  Required by SPILL
+ * <tr><td> </td><td>server.contentCacheMaxBytes </td><td> memory to use
+ *     for caching retrieved documents, so that documents requested again are
+ *     served without calling the adaptor.  A cached document is dropped
+ *     when its DocId is pushed again or server.contentCacheSecs have passed,
+ *     so only enable the cache for adaptors that push changed documents.
+ *     Defaults to 0, which disables the cache
+ * <tr><td> </td><td>server.contentCacheMaxEntryBytes </td><td> largest
+ *     document content that is cached.  Defaults to 1048576
+ * <tr><td> </td><td>server.contentCacheSecs </td><td> number of seconds a
+ *     cached document is served for, counted from when its retrieval
+ *     started.  Defaults to 300
  * <tr><td> </td><td>server.dashboardPort </td><td> port on adaptor's
  *     machine for accessing adaptor's dashboard.   Defaults to  5679
  * <tr><td> </td><td>server.docIdPath </td><td> part of URL preceding
@@ -140,11 +244,27 @@ import java.util.logging.Logger;
  *     hostname of adaptor machine for URL generation. 
  *     The GSA will use this hostname to crawl the adaptor.
  *     Defaults to lowercase of automatically detected hostname
+ * <tr><td> </td><td>server.executor </td><td> how retrieval requests are
+ *     run.  FIXED uses server.maxWorkerThreads threads and queues up to
+ *     server.queueCapacity waiting requests.  CACHED starts a thread for each
+ *     request, reusing idle threads, and answers requests beyond
+ *     server.maxConcurrentRequests with 503 Service Unavailable.  Defaults to
+ *     FIXED
  * <tr><td> </td><td>server.keyAlias </td><td> keystore alias where
  *     encryption (public and private) keys are stored.
  *     Defaults to adaptor
  * <tr><td> </td><td>server.maxWorkerThreads </td><td> number of maximum
  *     simultenous retrievals  allowed.  Defaults to 16
+ * <tr><td> </td><td>server.maxConcurrentRequests </td><td> number of
+ *     maximum simultaneous retrievals allowed with the CACHED
+ *     server.executor.  Defaults to 256
+ * <tr><td> </td><td>server.busyRetryAfterSecs </td><td> seconds the GSA is
+ *     asked to wait, in the Retry-After header, before retrying a request
+ *     rejected because server.maxConcurrentRequests were already being
+ *     processed.  Defaults to 5
+ * <tr><td> </td><td>server.metricsEnabled </td><td> serves statistics at
+ *     /metrics on the dashboard port, in Prometheus text format, without
+ *     requiring authentication.  Defaults to false
  * <tr><td> </td><td>server.port </td><td> retriever port.  Defaults to 5678
  * <tr><td> </td><td>server.queueCapacity </td><td> max retriever queue size.
  *     Defaults to  160
@@ -241,6 +361,10 @@ public class Config {
     // A queue that takes one second to drain, assuming 16 threads and 100 ms
     // for each request.
     addKey("server.queueCapacity", "160");
+    addKey("server.executor", "FIXED");
+    addKey("server.maxConcurrentRequests", "256");
+    addKey("server.busyRetryAfterSecs", "5");
+    addKey("server.metricsEnabled", "false");
     addKey("server.useCompression", "true");
     addKey("server.asyncDocIdSenderQueueSize", "GENERATE",
         new ValueComputer() {
@@ -252,6 +376,15 @@ public class Config {
             return rawValue;
           }
         });
+    addKey("server.asyncDocIdSenderMinBatchSize", "100");
+    addKey("server.asyncDocIdSenderMinLatencySecs", "300");
+    addKey("server.asyncDocIdSenderMaxLatencySecs", "300");
+    addKey("server.asyncDocIdSenderOverflowPolicy", "DROP");
+    addKey("server.asyncDocIdSenderBlockTimeoutSecs", "30");
+    addKey("server.asyncDocIdSenderSpillFile", "");
+    addKey("server.contentCacheMaxBytes", "0");
+    addKey("server.contentCacheMaxEntryBytes", "1048576");
+    addKey("server.contentCacheSecs", "300");
     addKey("server.samlEntityId", "http://google.com/enterprise/gsa/adaptor");
     addKey("gsa.hostname", null);
     addKey("gsa.admin.hostname", "");
@@ -264,6 +397,9 @@ public class Config {
     addKey("gsa.scoringType", "content");
     addKey("docId.isUrl", "false");
     addKey("feed.archiveDirectory", "");
+    addKey("feed.spoolDirectory", "");
+    addKey("feed.fingerprintFile", "");
+    addKey("feed.deleteUnlistedDocIds", "false");
     addKey("feed.name", "GENERATE", new ValueComputer() {
           public String compute(String rawValue) {
             if ("GENERATE".equals(rawValue)) {
@@ -277,14 +413,28 @@ public class Config {
     addKey("feed.crawlImmediatelyBitEnabled", "");
     //addKey("feed.noFollowBitEnabled", "false");
     addKey("feed.maxUrls", "5000");
+    addKey("feed.maxInFlight", "1");
     addKey("adaptor.pushDocIdsOnStartup", "true");
     addKey("adaptor.domainFormat", "DNS");
     // 3:00 AM every day.
     addKey("adaptor.fullListingSchedule", "0 3 * * *");
+    addKey("adaptor.fullListingCheckpointFile", "");
+    addKey("adaptor.fullListingMaxPartitionThreads", "4");
     // 15 minutes.
     addKey("adaptor.incrementalPollPeriodSecs", "900");
     addKey("adaptor.docContentTimeoutSecs", "180");
     addKey("adaptor.docHeaderTimeoutSecs", "30");
+    addKey("adaptor.authzBatchChunkSize", "0");
+    addKey("adaptor.authzBatchThreads", "8");
+    addKey("adaptor.authzBatchTimeoutMillis", "5000");
+    addKey("adaptor.authzCacheSize", "0");
+    addKey("adaptor.authzCacheSecs", "30");
+    addKey("adaptor.authzCacheDenials", "false");
+    addKey("adaptor.groupIndexSize", "0");
+    addKey("adaptor.inheritedAclCacheSize", "0");
+    addKey("adaptor.inheritedAclCacheSecs", "60");
+    addKey("adaptor.lastModifiedCacheSecs", "60");
+    addKey("adaptor.lastModifiedCacheSize", "10000");
     addKey("transform.pipeline", "");
     addKey("journal.reducedMem", "true");
     addKey("gsa.acceptsDocControlsHeader", "GENERATE", new ValueComputer() {
@@ -338,6 +488,18 @@ public class Config {
     return getValue("feed.archiveDirectory");
   }
 
+  String getFeedSpoolDirectory() {
+    return getValue("feed.spoolDirectory");
+  }
+
+  String getFeedFingerprintFile() {
+    return getValue("feed.fingerprintFile");
+  }
+
+  boolean isFeedDeleteUnlistedDocIds() {
+    return Boolean.parseBoolean(getValue("feed.deleteUnlistedDocIds"));
+  }
+
   String getFeedName() {
     return getValue("feed.name");
   }
@@ -346,6 +508,44 @@ public class Config {
     return Integer.parseInt(getValue("server.asyncDocIdSenderQueueSize"));
   }
 
+  int getAsyncDocIdSenderMinBatchSize() {
+    return Integer.parseInt(getValue("server.asyncDocIdSenderMinBatchSize"));
+  }
+
+  long getAsyncDocIdSenderMinLatencySecs() {
+    return Long.parseLong(getValue("server.asyncDocIdSenderMinLatencySecs"));
+  }
+
+  long getAsyncDocIdSenderMaxLatencySecs() {
+    return Long.parseLong(getValue("server.asyncDocIdSenderMaxLatencySecs"));
+  }
+
+  AsyncDocIdSender.OverflowPolicy getAsyncDocIdSenderOverflowPolicy() {
+    return AsyncDocIdSender.OverflowPolicy.valueOf(
+        getValue("server.asyncDocIdSenderOverflowPolicy"));
+  }
+
+  long getAsyncDocIdSenderBlockTimeoutMillis() {
+    return Long.parseLong(getValue("server.asyncDocIdSenderBlockTimeoutSecs"))
+        * 1000;
+  }
+
+  String getAsyncDocIdSenderSpillFile() {
+    return getValue("server.asyncDocIdSenderSpillFile");
+  }
+
+  long getServerContentCacheMaxBytes() {
+    return Long.parseLong(getValue("server.contentCacheMaxBytes"));
+  }
+
+  int getServerContentCacheMaxEntryBytes() {
+    return Integer.parseInt(getValue("server.contentCacheMaxEntryBytes"));
+  }
+
+  long getServerContentCacheMillis() {
+    return Long.parseLong(getValue("server.contentCacheSecs")) * 1000;
+  }
+
   /**
    * Suggested to be set: Local port, on this computer, onto which requests from
    * GSA come in on.
@@ -485,6 +685,33 @@ public class Config {
     return Integer.parseInt(getValue("server.queueCapacity"));
   }
 
+  Application.ExecutorMode getServerExecutor() {
+    return Application.ExecutorMode.valueOf(getValue("server.executor"));
+  }
+
+  /**
+   * The maximum number of concurrent requests with the CACHED executor.
+   */
+  int getServerMaxConcurrentRequests() {
+    return Integer.parseInt(getValue("server.maxConcurrentRequests"));
+  }
+
+  /**
+   * Seconds to ask clients to wait before retrying a request that was rejected
+   * because too many requests were being processed.
+   */
+  long getServerBusyRetryAfterSecs() {
+    return Long.parseLong(getValue("server.busyRetryAfterSecs"));
+  }
+
+  /**
+   * Whether statistics are served on the dashboard port for monitoring systems
+   * to scrape. They are served without authentication.
+   */
+  boolean isServerMetricsEnabled() {
+    return Boolean.parseBoolean(getValue("server.metricsEnabled"));
+  }
+
   String getServerSamlEntityId() {
     return getValue("server.samlEntityId");
   }
@@ -571,6 +798,59 @@ public class Config {
     return getValue("adaptor.fullListingSchedule");
   }
 
+  String getAdaptorFullListingCheckpointFile() {
+    return getValue("adaptor.fullListingCheckpointFile");
+  }
+
+  int getAdaptorFullListingMaxPartitionThreads() {
+    return Integer.parseInt(
+        getValue("adaptor.fullListingMaxPartitionThreads"));
+  }
+
+  int getAdaptorAuthzBatchChunkSize() {
+    return Integer.parseInt(getValue("adaptor.authzBatchChunkSize"));
+  }
+
+  int getAdaptorAuthzBatchThreads() {
+    return Integer.parseInt(getValue("adaptor.authzBatchThreads"));
+  }
+
+  long getAdaptorAuthzBatchTimeoutMillis() {
+    return Long.parseLong(getValue("adaptor.authzBatchTimeoutMillis"));
+  }
+
+  int getAdaptorAuthzCacheSize() {
+    return Integer.parseInt(getValue("adaptor.authzCacheSize"));
+  }
+
+  long getAdaptorAuthzCacheMillis() {
+    return Long.parseLong(getValue("adaptor.authzCacheSecs")) * 1000;
+  }
+
+  boolean isAdaptorAuthzCacheDenials() {
+    return Boolean.parseBoolean(getValue("adaptor.authzCacheDenials"));
+  }
+
+  int getAdaptorGroupIndexSize() {
+    return Integer.parseInt(getValue("adaptor.groupIndexSize"));
+  }
+
+  int getAdaptorInheritedAclCacheSize() {
+    return Integer.parseInt(getValue("adaptor.inheritedAclCacheSize"));
+  }
+
+  long getAdaptorInheritedAclCacheMillis() {
+    return Long.parseLong(getValue("adaptor.inheritedAclCacheSecs")) * 1000;
+  }
+
+  long getAdaptorLastModifiedCacheMillis() {
+    return Long.parseLong(getValue("adaptor.lastModifiedCacheSecs")) * 1000;
+  }
+
+  int getAdaptorLastModifiedCacheSize() {
+    return Integer.parseInt(getValue("adaptor.lastModifiedCacheSize"));
+  }
+
   long getAdaptorIncrementalPollPeriodMillis() {
     return Long.parseLong(getValue("adaptor.incrementalPollPeriodSecs")) * 1000;
   }
@@ -697,6 +977,14 @@ public class Config {
     return Integer.parseInt(getValue("feed.maxUrls"));
   }
 
+  /**
+   * Provides max number of feed files that are concurrently being sent to the
+   * GSA by a single push. A value of 1 sends feed files one at a time.
+   */
+  int getFeedMaxInFlight() {
+    return Integer.parseInt(getValue("feed.maxInFlight"));
+  }
+
   /**
    * Provides the type of algorithm GSA is to use to rank documents sent by
    * adaptor.
@@ -0,0 +1,525 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bounded cache of the responses produced by {@link Adaptor#getDocContent}, so
+ * that documents fetched again by the GSA or users can be served without
+ * calling the adaptor. The cache is disabled unless {@code
+ * server.contentCacheMaxBytes} is set. An entry is dropped whenever its DocId
+ * is pushed to the GSA, as described by {@link CacheInvalidations}, and
+ * otherwise expires {@code server.contentCacheSecs} after its retrieval
+ * started.
+ *
+ * <p>Eviction follows W-TinyLFU. New entries go into a small LRU window.
+ * Entries leaving the window only enter the main LRU region if they have been
+ * requested more often than the entry they would evict, as estimated by a
+ * periodically-aged count-min sketch. This keeps a scan of rarely-requested
+ * documents from flushing the popular ones.
+ */
+class ContentCache {
+  /** Rough bookkeeping cost of an entry, beyond its content. */
+  private static final int ENTRY_OVERHEAD = 512;
+
+  private final long maxWindowBytes;
+  private final long maxMainBytes;
+  private final int maxEntryBytes;
+  private final Map<DocId, Entry> window
+      = new LinkedHashMap<DocId, Entry>(16, 0.75f, true);
+  private final Map<DocId, Entry> main
+      = new LinkedHashMap<DocId, Entry>(16, 0.75f, true);
+  private long windowBytes;
+  private long mainBytes;
+  private final FrequencySketch sketch;
+  private final long ttlMillis;
+  private final TimeProvider timeProvider;
+  private final CacheInvalidations invalidations;
+
+  /**
+   * {@code maxBytes} or {@code ttlMillis} of zero disables the cache.
+   * Responses with more than {@code maxEntryBytes} of content are not cached.
+   */
+  public ContentCache(long maxBytes, int maxEntryBytes, long ttlMillis,
+      TimeProvider timeProvider) {
+    if (maxBytes < 0 || maxEntryBytes < 0) {
+      throw new IllegalArgumentException("Sizes must not be negative");
+    }
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must not be negative");
+    }
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    this.ttlMillis = ttlMillis;
+    this.timeProvider = timeProvider;
+    this.maxWindowBytes = maxBytes / 100;
+    this.maxMainBytes = maxBytes - maxWindowBytes;
+    this.maxEntryBytes = (int) Math.min(maxEntryBytes, maxBytes);
+    // Assume an average entry of around 8 KiB when sizing the sketch.
+    long expectedEntries = Math.max(64, Math.min(1 << 18, maxBytes / 8192));
+    this.sketch = new FrequencySketch(
+        Integer.highestOneBit((int) expectedEntries - 1) << 1);
+    this.invalidations = new CacheInvalidations(ttlMillis,
+        (int) expectedEntries, timeProvider);
+  }
+
+  public boolean isEnabled() {
+    return maxMainBytes > 0 && ttlMillis > 0;
+  }
+
+  /**
+   * Returns the cached response for {@code docId}, or {@code null} if there
+   * is none.
+   */
+  public synchronized Entry get(DocId docId) {
+    sketch.increment(docId);
+    Entry entry = window.get(docId);
+    if (entry == null) {
+      entry = main.get(docId);
+    }
+    if (entry != null && timeProvider.currentTimeMillis() >= entry.expiresAt) {
+      remove(docId);
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Returns a value to provide to {@link #put} to avoid caching a response
+   * that was invalidated while it was being retrieved. It must be called
+   * before calling the adaptor.
+   */
+  public synchronized CacheInvalidations.Retrieval startRetrieval() {
+    return invalidations.startRetrieval();
+  }
+
+  /**
+   * Caches {@code entry}, unless {@code docId} was invalidated since {@code
+   * retrieval} started. The entry may be evicted immediately if it is less
+   * popular than the entries already cached.
+   */
+  public synchronized void put(DocId docId, Entry entry,
+      CacheInvalidations.Retrieval retrieval) {
+    if (!isEnabled()) {
+      return;
+    }
+    long now = timeProvider.currentTimeMillis();
+    invalidations.forgetOld(now);
+    long expiresAt = retrieval.startMillis + ttlMillis;
+    if (now >= expiresAt
+        || !invalidations.isCurrent(docId, retrieval.generation)) {
+      return;
+    }
+    entry.expiresAt = expiresAt;
+    remove(docId);
+    window.put(docId, entry);
+    windowBytes += entry.size;
+    while (windowBytes > maxWindowBytes) {
+      Iterator<Map.Entry<DocId, Entry>> it = window.entrySet().iterator();
+      Map.Entry<DocId, Entry> eldest = it.next();
+      it.remove();
+      windowBytes -= eldest.getValue().size;
+      admit(eldest.getKey(), eldest.getValue());
+    }
+  }
+
+  /** Moves an entry leaving the window into the main region, if worthwhile. */
+  private void admit(DocId docId, Entry entry) {
+    int frequency = sketch.frequency(docId);
+    while (mainBytes + entry.size > maxMainBytes) {
+      Iterator<Map.Entry<DocId, Entry>> it = main.entrySet().iterator();
+      if (!it.hasNext()) {
+        return;
+      }
+      Map.Entry<DocId, Entry> victim = it.next();
+      if (sketch.frequency(victim.getKey()) >= frequency) {
+        return;
+      }
+      it.remove();
+      mainBytes -= victim.getValue().size;
+    }
+    main.put(docId, entry);
+    mainBytes += entry.size;
+  }
+
+  /** Drops any cached response for {@code docId}. */
+  public synchronized void invalidate(DocId docId) {
+    if (!isEnabled()) {
+      return;
+    }
+    invalidations.forgetOld(timeProvider.currentTimeMillis());
+    // Cached entries are removed individually, so when too many DocIds are
+    // invalidated to track, only retrievals in progress are affected.
+    invalidations.invalidate(docId);
+    remove(docId);
+  }
+
+  private void remove(DocId docId) {
+    Entry entry = window.remove(docId);
+    if (entry != null) {
+      windowBytes -= entry.size;
+    }
+    entry = main.remove(docId);
+    if (entry != null) {
+      mainBytes -= entry.size;
+    }
+  }
+
+  /** Returns the number of bytes accounted to cached entries. */
+  synchronized long getWeightedSize() {
+    return windowBytes + mainBytes;
+  }
+
+  /**
+   * The parts of a response provided by the adaptor. Values are copied so that
+   * later changes made by the adaptor have no effect.
+   */
+  static class Entry {
+    private final String contentType;
+    private final Date lastModified;
+    private final Metadata metadata;
+    private final Acl acl;
+    private final boolean secure;
+    private final List<URI> anchorUris;
+    private final List<String> anchorTexts;
+    private final boolean noIndex;
+    private final boolean noFollow;
+    private final boolean noArchive;
+    private final URI displayUrl;
+    private final boolean crawlOnce;
+    private final boolean lock;
+    private final Map<String, Acl> fragments;
+    private final byte[] content;
+    private final int size;
+    /** Set when the entry is cached. */
+    private long expiresAt;
+
+    private Entry(RecordingResponse response, byte[] content) {
+      this.contentType = response.contentType;
+      this.lastModified = response.lastModified == null
+          ? null : new Date(response.lastModified.getTime());
+      this.metadata = new Metadata(response.metadata);
+      this.acl = response.acl;
+      this.secure = response.secure;
+      this.anchorUris = Collections.unmodifiableList(
+          new ArrayList<URI>(response.anchorUris));
+      this.anchorTexts = Collections.unmodifiableList(
+          new ArrayList<String>(response.anchorTexts));
+      this.noIndex = response.noIndex;
+      this.noFollow = response.noFollow;
+      this.noArchive = response.noArchive;
+      this.displayUrl = response.displayUrl;
+      this.crawlOnce = response.crawlOnce;
+      this.lock = response.lock;
+      this.fragments = Collections.unmodifiableMap(
+          new TreeMap<String, Acl>(response.fragments));
+      this.content = content;
+      this.size = content.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Provides the cached response to {@code response}. If {@code request} is
+     * conditional and the document has not changed since, the content is not
+     * sent, as an adaptor using {@link Request#canRespondWithNoContent} would
+     * do.
+     */
+    public void replay(Request request, Response response) throws IOException {
+      response.setContentType(contentType);
+      response.setLastModified(
+          lastModified == null ? null : new Date(lastModified.getTime()));
+      for (Map.Entry<String, String> item : metadata) {
+        response.addMetadata(item.getKey(), item.getValue());
+      }
+      response.setAcl(acl);
+      response.setSecure(secure);
+      for (int i = 0; i < anchorUris.size(); i++) {
+        response.addAnchor(anchorUris.get(i), anchorTexts.get(i));
+      }
+      response.setNoIndex(noIndex);
+      response.setNoFollow(noFollow);
+      response.setNoArchive(noArchive);
+      response.setDisplayUrl(displayUrl);
+      response.setCrawlOnce(crawlOnce);
+      response.setLock(lock);
+      for (Map.Entry<String, Acl> fragment : fragments.entrySet()) {
+        response.putNamedResource(fragment.getKey(), fragment.getValue());
+      }
+      if (lastModified != null
+          && request.canRespondWithNoContent(lastModified)) {
+        response.respondNoContent();
+        return;
+      }
+      OutputStream os = response.getOutputStream();
+      os.write(content);
+      os.close();
+    }
+  }
+
+  /**
+   * Response that notes everything the adaptor provides while passing it on
+   * to another response, so that it can be cached with {@link #toEntry}.
+   */
+  class RecordingResponse implements Response {
+    private final Response response;
+    /** Whether the adaptor responded with anything other than content. */
+    private boolean uncacheable;
+    private RecordingOutputStream os;
+    private String contentType;
+    private Date lastModified;
+    private final Metadata metadata = new Metadata();
+    private Acl acl;
+    private boolean secure;
+    private final List<URI> anchorUris = new ArrayList<URI>();
+    private final List<String> anchorTexts = new ArrayList<String>();
+    private boolean noIndex;
+    private boolean noFollow;
+    private boolean noArchive;
+    private URI displayUrl;
+    private boolean crawlOnce;
+    private boolean lock;
+    private final Map<String, Acl> fragments = new TreeMap<String, Acl>();
+
+    public RecordingResponse(Response response) {
+      if (response == null) {
+        throw new NullPointerException();
+      }
+      this.response = response;
+    }
+
+    @Override
+    public void respondNotModified() throws IOException {
+      uncacheable = true;
+      response.respondNotModified();
+    }
+
+    @Override
+    public void respondNotFound() throws IOException {
+      uncacheable = true;
+      response.respondNotFound();
+    }
+
+    @Override
+    public void respondNoContent() throws IOException {
+      uncacheable = true;
+      response.respondNoContent();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      OutputStream out = response.getOutputStream();
+      if (os == null) {
+        os = new RecordingOutputStream(out);
+      }
+      return os;
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+      response.setContentType(contentType);
+      this.contentType = contentType;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+      response.setLastModified(lastModified);
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public void addMetadata(String key, String value) {
+      response.addMetadata(key, value);
+      metadata.add(key, value);
+    }
+
+    @Override
+    public void setAcl(Acl acl) {
+      response.setAcl(acl);
+      this.acl = acl;
+    }
+
+    @Override
+    public void putNamedResource(String fragment, Acl acl) {
+      response.putNamedResource(fragment, acl);
+      fragments.put(fragment, acl);
+    }
+
+    @Override
+    public void setSecure(boolean secure) {
+      response.setSecure(secure);
+      this.secure = secure;
+    }
+
+    @Override
+    public void addAnchor(URI uri, String text) {
+      response.addAnchor(uri, text);
+      anchorUris.add(uri);
+      anchorTexts.add(text);
+    }
+
+    @Override
+    public void setNoIndex(boolean noIndex) {
+      response.setNoIndex(noIndex);
+      this.noIndex = noIndex;
+    }
+
+    @Override
+    public void setNoFollow(boolean noFollow) {
+      response.setNoFollow(noFollow);
+      this.noFollow = noFollow;
+    }
+
+    @Override
+    public void setNoArchive(boolean noArchive) {
+      response.setNoArchive(noArchive);
+      this.noArchive = noArchive;
+    }
+
+    @Override
+    public void setDisplayUrl(URI displayUrl) {
+      response.setDisplayUrl(displayUrl);
+      this.displayUrl = displayUrl;
+    }
+
+    @Override
+    public void setCrawlOnce(boolean crawlOnce) {
+      response.setCrawlOnce(crawlOnce);
+      this.crawlOnce = crawlOnce;
+    }
+
+    @Override
+    public void setLock(boolean lock) {
+      response.setLock(lock);
+      this.lock = lock;
+    }
+
+    /**
+     * Returns an entry for the recorded response, or {@code null} if it can't
+     * be cached. Must only be called after the response is complete.
+     */
+    public Entry toEntry() {
+      if (uncacheable || os == null || os.buffer == null) {
+        return null;
+      }
+      return new Entry(this, os.buffer.toByteArray());
+    }
+  }
+
+  /**
+   * Copies content into a buffer as it is written, until it grows beyond
+   * {@link #maxEntryBytes}.
+   */
+  private class RecordingOutputStream extends FastFilterOutputStream {
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    public RecordingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (buffer != null) {
+        if (buffer.size() + len > maxEntryBytes) {
+          buffer = null;
+        } else {
+          buffer.write(b, off, len);
+        }
+      }
+    }
+  }
+
+  /**
+   * Count-min sketch of how often DocIds are requested. Counters are {@code
+   * int}s capped at 15, so that they saturate like the four-bit counters of
+   * W-TinyLFU without the bit packing. All counters are halved periodically
+   * so that the popularity of documents adapts over time.
+   */
+  static class FrequencySketch {
+    private static final int[] SEEDS = new int[] {
+        0x97cb3127, 0xc0a1bc5f, 0x8aa3d1a9, 0xd2f0ad35};
+    private static final int MAX_COUNT = 15;
+
+    private final int[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /** {@code width} must be a power of two. */
+    public FrequencySketch(int width) {
+      if (Integer.bitCount(width) != 1) {
+        throw new IllegalArgumentException("width must be a power of two");
+      }
+      this.table = new int[SEEDS.length * width];
+      this.mask = width - 1;
+      this.sampleSize = 10 * width;
+    }
+
+    public void increment(Object key) {
+      int hash = spread(key.hashCode());
+      boolean added = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = indexOf(hash, i);
+        if (table[index] < MAX_COUNT) {
+          table[index]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        reset();
+      }
+    }
+
+    public int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, table[indexOf(hash, i)]);
+      }
+      return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+      int h = hash * SEEDS[row];
+      h ^= h >>> 16;
+      return row * (mask + 1) + (h & mask);
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] >>>= 1;
+      }
+      additions /= 2;
+    }
+
+    private static int spread(int hash) {
+      hash ^= (hash >>> 17);
+      hash *= 0xed5ad4bb;
+      return hash ^ (hash >>> 11);
+    }
+  }
+}
@@ -95,6 +95,13 @@ class Dashboard {
         createAdminSecurityHandler(new DownloadDumpHandler(config,
             config.getFeedName().replace('_', '-'), statRpcMethod),
             config, sessionManager, secure)));
+    if (config.isServerMetricsEnabled()) {
+      // Not behind the admin security handler, since monitoring systems can
+      // not log in.
+      addFilters(scope.createContext("/metrics", new MetricsHandler(journal,
+          gsaCommHandler.getAsyncDocIdSender(), gsaCommHandler.getWatchdog(),
+          gsaCommHandler.getRetrieverExecutor())));
+    }
     addFilters(scope.createContext("/",
         new RedirectHandler(dashboardContext.getPath())));
 
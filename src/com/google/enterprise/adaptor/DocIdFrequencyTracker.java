@@ -0,0 +1,326 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximately counts how often each {@link DocId} is seen, using a fixed
+ * amount of memory no matter how many distinct DocIds there are. Three
+ * structures are updated for each DocId seen:
+ * <ul>
+ * <li>a Count-Min sketch, which estimates the count of any DocId and never
+ *     underestimates it;
+ * <li>Space-Saving summaries, which keep the DocIds most likely to be the most
+ *     frequent, along with bounds on their counts; and
+ * <li>a HyperLogLog sketch, which estimates the number of distinct DocIds.
+ * </ul>
+ *
+ * <p>This class is thread-safe. The sketches are updated atomically, and the
+ * Space-Saving summaries are split into stripes that are only combined when
+ * they are read, so recording threads rarely contend.
+ */
+class DocIdFrequencyTracker {
+  /** Rows in the Count-Min sketch. */
+  private static final int DEPTH = 4;
+  /** log2 of the number of HyperLogLog registers. */
+  private static final int REGISTER_BITS = 12;
+  private static final int REGISTERS = 1 << REGISTER_BITS;
+
+  private final int widthMask;
+  /** Count-Min sketch, with {@code DEPTH} rows stored one after another. */
+  private final AtomicLongArray sketch;
+  private final AtomicIntegerArray registers
+      = new AtomicIntegerArray(REGISTERS);
+  private final SpaceSaving[] summaries;
+
+  /**
+   * @param width columns in the Count-Min sketch; must be a power of two. An
+   *     estimated count exceeds the true count by at most {@code e / width} of
+   *     all counts, with high probability
+   * @param capacity DocIds tracked by each Space-Saving stripe
+   * @param stripes number of Space-Saving stripes
+   */
+  public DocIdFrequencyTracker(int width, int capacity, int stripes) {
+    if (width <= 0 || Integer.bitCount(width) != 1) {
+      throw new IllegalArgumentException("width must be a power of two");
+    }
+    if (capacity <= 0 || stripes <= 0) {
+      throw new IllegalArgumentException(
+          "capacity and stripes must be positive");
+    }
+    this.widthMask = width - 1;
+    this.sketch = new AtomicLongArray(DEPTH * width);
+    this.summaries = new SpaceSaving[stripes];
+    for (int i = 0; i < summaries.length; i++) {
+      summaries[i] = new SpaceSaving(capacity);
+    }
+  }
+
+  /** Record that {@code docId} was seen once. */
+  public void record(DocId docId) {
+    long hash = hash(docId);
+    for (int i = 0; i < DEPTH; i++) {
+      sketch.incrementAndGet(sketchIndex(hash, i));
+    }
+    int register = (int) (hash >>> (64 - REGISTER_BITS));
+    int rank = Long.numberOfLeadingZeros(
+        (hash << REGISTER_BITS) | (1L << (REGISTER_BITS - 1))) + 1;
+    while (true) {
+      int current = registers.get(register);
+      if (current >= rank
+          || registers.compareAndSet(register, current, rank)) {
+        break;
+      }
+    }
+    summaries[(int) (Thread.currentThread().getId() % summaries.length)]
+        .offer(docId);
+  }
+
+  /**
+   * Estimate how many times {@code docId} was seen. The estimate is never less
+   * than the true count.
+   */
+  public long estimateCount(DocId docId) {
+    long hash = hash(docId);
+    long estimate = Long.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++) {
+      estimate = Math.min(estimate, sketch.get(sketchIndex(hash, i)));
+    }
+    return estimate;
+  }
+
+  /** Estimate the number of distinct DocIds seen. */
+  public long estimateDistinct() {
+    double sum = 0;
+    int zeros = 0;
+    for (int i = 0; i < REGISTERS; i++) {
+      int rank = registers.get(i);
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros != 0) {
+      // Linear counting is more accurate for small cardinalities.
+      estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Returns up to {@code k} of the most frequently seen DocIds, most frequent
+   * first. Each count is an upper bound on the true count, and exceeds it by
+   * no more than the reported error.
+   */
+  public List<HotDocId> getTop(int k) {
+    Map<DocId, long[]> bounds = new HashMap<DocId, long[]>();
+    long minSum = 0;
+    for (SpaceSaving summary : summaries) {
+      long min;
+      List<Counter> counters;
+      synchronized (summary) {
+        min = summary.getMinCount();
+        counters = summary.copyCounters();
+      }
+      // A DocId missing from a summary may have been seen up to min times by
+      // it. Add min to every DocId, and replace it later for those present.
+      minSum += min;
+      for (Counter counter : counters) {
+        long[] bound = bounds.get(counter.docId);
+        if (bound == null) {
+          bound = new long[2];
+          bounds.put(counter.docId, bound);
+        }
+        bound[0] += counter.count - min;
+        bound[1] += counter.count - counter.error;
+      }
+    }
+    List<HotDocId> top = new ArrayList<HotDocId>(bounds.size());
+    for (Map.Entry<DocId, long[]> me : bounds.entrySet()) {
+      long upper = Math.min(me.getValue()[0] + minSum,
+          estimateCount(me.getKey()));
+      long lower = Math.min(me.getValue()[1], upper);
+      top.add(new HotDocId(me.getKey(), upper, upper - lower));
+    }
+    Collections.sort(top, new Comparator<HotDocId>() {
+      @Override
+      public int compare(HotDocId a, HotDocId b) {
+        if (a.count != b.count) {
+          return a.count > b.count ? -1 : 1;
+        }
+        return a.docId.compareTo(b.docId);
+      }
+    });
+    return top.size() > k ? new ArrayList<HotDocId>(top.subList(0, k)) : top;
+  }
+
+  private int sketchIndex(long hash, int row) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    return row * (widthMask + 1) + ((h1 + row * h2) & widthMask);
+  }
+
+  /** 64-bit FNV-1a of the unique id, followed by a mixing step. */
+  private static long hash(DocId docId) {
+    String id = docId.getUniqueId();
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      hash ^= id.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** A frequently seen DocId. */
+  static class HotDocId {
+    final DocId docId;
+    /** Upper bound on the number of times the DocId was seen. */
+    final long count;
+    /** Maximum amount by which {@link #count} exceeds the true count. */
+    final long error;
+
+    HotDocId(DocId docId, long count, long error) {
+      this.docId = docId;
+      this.count = count;
+      this.error = error;
+    }
+
+    @Override
+    public String toString() {
+      return "HotDocId(" + docId + "," + count + "," + error + ")";
+    }
+  }
+
+  private static class Counter {
+    DocId docId;
+    long count;
+    /** Amount by which count may exceed the true count. */
+    long error;
+    /** Position in the heap. */
+    int index;
+
+    Counter(DocId docId, long count, long error) {
+      this.docId = docId;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Space-Saving summary: a fixed number of counters, where an untracked DocId
+   * takes over the counter with the lowest count. The counters form a min-heap
+   * on their counts, so each update is {@code O(log capacity)}.
+   */
+  private static class SpaceSaving {
+    private final Map<DocId, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+      this.counters = new HashMap<DocId, Counter>(capacity * 2);
+      this.heap = new Counter[capacity];
+    }
+
+    public synchronized void offer(DocId docId) {
+      Counter counter = counters.get(docId);
+      if (counter != null) {
+        counter.count++;
+        siftDown(counter.index);
+        return;
+      }
+      if (size < heap.length) {
+        counter = new Counter(docId, 1, 0);
+        counter.index = size;
+        heap[size++] = counter;
+        counters.put(docId, counter);
+        siftUp(counter.index);
+        return;
+      }
+      counter = heap[0];
+      counters.remove(counter.docId);
+      counter.docId = docId;
+      counter.error = counter.count;
+      counter.count++;
+      counters.put(docId, counter);
+      siftDown(0);
+    }
+
+    /** The count a DocId not in this summary could have. */
+    public synchronized long getMinCount() {
+      return size < heap.length ? 0 : heap[0].count;
+    }
+
+    public synchronized List<Counter> copyCounters() {
+      List<Counter> copy = new ArrayList<Counter>(size);
+      for (int i = 0; i < size; i++) {
+        copy.add(new Counter(heap[i].docId, heap[i].count, heap[i].error));
+      }
+      return copy;
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (heap[parent].count <= heap[i].count) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int smallest = i;
+        int left = 2 * i + 1;
+        int right = left + 1;
+        if (left < size && heap[left].count < heap[smallest].count) {
+          smallest = left;
+        }
+        if (right < size && heap[right].count < heap[smallest].count) {
+          smallest = right;
+        }
+        if (smallest == i) {
+          return;
+        }
+        swap(i, smallest);
+        i = smallest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      Counter tmp = heap[i];
+      heap[i] = heap[j];
+      heap[j] = tmp;
+      heap[i].index = i;
+      heap[j].index = j;
+    }
+  }
+}
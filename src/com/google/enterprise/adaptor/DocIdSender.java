@@ -14,13 +14,27 @@
 
 package com.google.enterprise.adaptor;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,26 +49,105 @@ class DocIdSender extends AbstractDocIdPusher
   private final GsaFeedFileMaker fileMaker;
   private final GsaFeedFileSender fileSender;
   private final FeedArchiver fileArchiver;
+  private final FeedSpool spool;
   private final Journal journal;
   private final Config config;
   private final Adaptor adaptor;
   private final ExceptionHandler defaultErrorHandler
       = ExceptionHandlers.defaultHandler();
+  /** Whether feeds left in {@link #spool} by a previous run have been sent. */
+  private volatile boolean spoolReplayed;
+  private final FullPushCheckpoint checkpoint;
+  private final FingerprintStore fingerprints;
+  private final ContentCache contentCache;
+  /** {@code null} unless the adaptor is a {@link LastModifiedProvider}. */
+  private final LastModifiedCache lastModifiedCache;
+  private final AuthzCache authzCache;
+  private final InheritedAclCache inheritedAclCache;
+  private final GroupMembershipIndex groupIndex;
+  /**
+   * Threads sending pipelined batches, shared by all pushes. Created when
+   * first needed and shut down by {@link #stop}.
+   */
+  private ExecutorService pushExecutor;
 
   public DocIdSender(GsaFeedFileMaker fileMaker, GsaFeedFileSender fileSender,
-      FeedArchiver fileArchiver, Journal journal, Config config,
-      Adaptor adaptor) {
+      FeedArchiver fileArchiver, FeedSpool spool, Journal journal,
+      Config config, Adaptor adaptor) {
     this.fileMaker = fileMaker;
     this.fileSender = fileSender;
     this.fileArchiver = fileArchiver;
+    this.spool = spool;
     this.journal = journal;
     this.config = config;
     this.adaptor = adaptor;
+    this.checkpoint = new FullPushCheckpoint(
+        config.getAdaptorFullListingCheckpointFile());
+    this.fingerprints = new FingerprintStore(config.getFeedFingerprintFile());
+    this.contentCache = new ContentCache(
+        config.getServerContentCacheMaxBytes(),
+        config.getServerContentCacheMaxEntryBytes(),
+        config.getServerContentCacheMillis(), new SystemTimeProvider());
+    this.lastModifiedCache = adaptor instanceof LastModifiedProvider
+        ? new LastModifiedCache((LastModifiedProvider) adaptor,
+            config.getAdaptorLastModifiedCacheSize(),
+            config.getAdaptorLastModifiedCacheMillis(),
+            new SystemTimeProvider())
+        : null;
+    this.authzCache = new AuthzCache(config.getAdaptorAuthzCacheSize(),
+        config.getAdaptorAuthzCacheMillis(),
+        config.isAdaptorAuthzCacheDenials(), journal,
+        new SystemTimeProvider());
+    this.inheritedAclCache = new InheritedAclCache(
+        config.getAdaptorInheritedAclCacheSize(),
+        config.getAdaptorInheritedAclCacheMillis(), new SystemTimeProvider());
+    this.groupIndex
+        = new GroupMembershipIndex(config.getAdaptorGroupIndexSize());
+  }
+
+  /**
+   * Cache of retrieved documents, which is invalidated as DocIds are pushed.
+   */
+  ContentCache getContentCache() {
+    return contentCache;
+  }
+
+  /**
+   * Cache of authorization decisions, which is invalidated as DocIds are
+   * pushed.
+   */
+  AuthzCache getAuthzCache() {
+    return authzCache;
+  }
+
+  /**
+   * Cache of ACLs inherited by other ACLs, which is invalidated as DocIds are
+   * pushed.
+   */
+  InheritedAclCache getInheritedAclCache() {
+    return inheritedAclCache;
   }
 
   /**
-   * Calls {@link Adaptor#getDocIds}. This method blocks until all DocIds are
-   * sent or retrying failed.
+   * Index of the pushed group definitions, which is updated as groups are
+   * pushed.
+   */
+  GroupMembershipIndex getGroupIndex() {
+    return groupIndex;
+  }
+
+  /**
+   * Cache of document modification times, which is invalidated as DocIds are
+   * pushed. {@code null} if the adaptor doesn't provide modification times.
+   */
+  LastModifiedCache getLastModifiedCache() {
+    return lastModifiedCache;
+  }
+
+  /**
+   * Calls {@link Adaptor#getDocIds}, or lists each partition if the adaptor is
+   * a {@link PartitionedLister}. This method blocks until all DocIds are sent
+   * or retrying failed.
    */
   public void pushFullDocIdsFromAdaptor(ExceptionHandler handler)
       throws InterruptedException {
@@ -63,15 +156,62 @@ class DocIdSender extends AbstractDocIdPusher
     }
     log.info("Beginning getDocIds");
     journal.recordFullPushStarted();
+    // When resuming a listing started before a restart, earlier DocIds won't
+    // be listed again, so this push can't tell what was removed.
+    boolean listingFromStart = checkpoint.get() == null;
+    fingerprints.startFullPush();
+    FullPushPusher pusher;
+    boolean success;
+    try {
+      if (adaptor instanceof PartitionedLister) {
+        pusher = new FullPushPusher();
+        success = listPartitions((PartitionedLister) adaptor, pusher, handler);
+      } else {
+        CheckpointingPusher checkpointingPusher = new CheckpointingPusher();
+        pusher = checkpointingPusher;
+        success = listDocIds(checkpointingPusher, handler);
+      }
+      if (success && fingerprints.isEnabled()) {
+        log.log(Level.INFO, "Skipped {0} unchanged items",
+            pusher.skipped.get());
+        if (listingFromStart) {
+          removeUnlistedFingerprints(handler);
+        }
+      }
+    } catch (InterruptedException ex) {
+      // Stop early.
+      journal.recordFullPushInterrupted();
+      log.info("Interrupted. Aborted getDocIds");
+      saveFingerprints();
+      throw ex;
+    }
+    saveFingerprints();
+    if (!success) {
+      journal.recordFullPushFailed();
+      log.warning("Gave up. Failed getDocIds");
+      return; // Bail
+    }
+    journal.recordFullPushSuccessful();
+    log.info("Completed getDocIds");
+  }
+
+  /**
+   * Calls {@link Adaptor#getDocIds} until it succeeds or {@code handler} gives
+   * up. Returns whether it succeeded.
+   */
+  private boolean listDocIds(CheckpointingPusher pusher,
+      ExceptionHandler handler) throws InterruptedException {
     for (int ntries = 1;; ntries++) {
       boolean keepGoing = true;
+      String resumeFrom = checkpoint.get();
+      if (resumeFrom != null) {
+        log.log(Level.INFO, "Resuming getDocIds from checkpoint: {0}",
+            resumeFrom);
+      }
       try {
-        adaptor.getDocIds(this);
+        adaptor.getDocIds(pusher);
         break; // Success
       } catch (InterruptedException ex) {
-        // Stop early.
-        journal.recordFullPushInterrupted();
-        log.info("Interrupted. Aborted getDocIds");
         throw ex;
       } catch (Exception ex) {
         log.log(Level.WARNING, "Exception during getDocIds", ex);
@@ -80,13 +220,219 @@ class DocIdSender extends AbstractDocIdPusher
       if (keepGoing) {
         log.log(Level.INFO, "Trying again... Number of attemps: {0}", ntries);
       } else {
-        journal.recordFullPushFailed();
-        log.warning("Gave up. Failed getDocIds");
-        return; // Bail
+        return false;
       }
     }
-    journal.recordFullPushSuccessful();
-    log.info("Completed getDocIds");
+    // The next full push should list everything again.
+    checkpoint.set(null);
+    return true;
+  }
+
+  /**
+   * Lists the partitions of {@code lister} in parallel, retrying each
+   * partition separately. Partitions that are given up on don't stop the
+   * others from being listed. Returns whether every partition succeeded.
+   */
+  private boolean listPartitions(final PartitionedLister lister,
+      final DocIdPusher pusher, final ExceptionHandler handler)
+      throws InterruptedException {
+    Collection<String> partitions;
+    for (int ntries = 1;; ntries++) {
+      boolean keepGoing = true;
+      try {
+        partitions = lister.getPartitions();
+        break; // Success
+      } catch (InterruptedException ex) {
+        throw ex;
+      } catch (Exception ex) {
+        log.log(Level.WARNING, "Exception during getPartitions", ex);
+        keepGoing = handler.handleException(ex, ntries);
+      }
+      if (keepGoing) {
+        log.log(Level.INFO, "Trying again... Number of attemps: {0}", ntries);
+      } else {
+        return false;
+      }
+    }
+    if (partitions.isEmpty()) {
+      return true;
+    }
+    int threads = Math.min(config.getAdaptorFullListingMaxPartitionThreads(),
+        partitions.size());
+    log.log(Level.INFO, "Listing {0} partitions using {1} threads",
+        new Object[] {partitions.size(), threads});
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("partitionLister-%d").build());
+    try {
+      List<Future<Boolean>> results
+          = new ArrayList<Future<Boolean>>(partitions.size());
+      for (final String partition : partitions) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws InterruptedException {
+            return listPartition(lister, partition, pusher, handler);
+          }
+        }));
+      }
+      boolean success = true;
+      for (Future<Boolean> result : results) {
+        try {
+          success &= result.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof InterruptedException) {
+            // The listing thread was interrupted, so the partition may not
+            // have been completely listed.
+            success = false;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          } else {
+            throw new AssertionError(cause);
+          }
+        }
+      }
+      return success;
+    } finally {
+      // Stops the remaining partitions when interrupted.
+      executor.shutdownNow();
+    }
+  }
+
+  private boolean listPartition(PartitionedLister lister, String partition,
+      DocIdPusher pusher, ExceptionHandler handler)
+      throws InterruptedException {
+    log.log(Level.FINE, "Beginning partition {0}", partition);
+    for (int ntries = 1;; ntries++) {
+      boolean keepGoing = true;
+      try {
+        lister.getPartitionDocIds(partition, pusher);
+        break; // Success
+      } catch (InterruptedException ex) {
+        throw ex;
+      } catch (Exception ex) {
+        log.log(Level.WARNING, "Exception listing partition " + partition,
+            ex);
+        keepGoing = handler.handleException(ex, ntries);
+      }
+      if (keepGoing) {
+        journal.recordPartitionListingRetry(partition);
+        log.log(Level.INFO, "Trying partition {0} again... Number of attemps: "
+            + "{1}", new Object[] {partition, ntries});
+      } else {
+        journal.recordPartitionListingFailed(partition);
+        log.log(Level.WARNING, "Gave up. Failed listing partition {0}",
+            partition);
+        return false;
+      }
+    }
+    log.log(Level.FINE, "Completed partition {0}", partition);
+    return true;
+  }
+
+  /**
+   * Forgets records that the adaptor stopped listing, first sending deletes
+   * for them if {@code feed.deleteUnlistedDocIds} is enabled.
+   */
+  private void removeUnlistedFingerprints(ExceptionHandler handler)
+      throws InterruptedException {
+    if (config.isFeedDeleteUnlistedDocIds()) {
+      List<Record> deletes = new ArrayList<Record>();
+      for (DocId id : fingerprints.getUnseenRecords()) {
+        deletes.add(new Record.Builder(id).setDeleteFromIndex(true).build());
+      }
+      if (!deletes.isEmpty()) {
+        log.log(Level.INFO, "Deleting {0} DocIds no longer listed",
+            deletes.size());
+        if (pushRecords(deletes, handler) != null) {
+          // Keep the remaining fingerprints, so the deletes are retried next
+          // time.
+          return;
+        }
+      }
+    }
+    fingerprints.removeUnseen();
+  }
+
+  private void saveFingerprints() {
+    if (fingerprints.isEnabled()) {
+      fingerprints.save();
+    }
+  }
+
+  /**
+   * Pusher provided to full listings, which skips items that have not changed
+   * since they were last sent.
+   */
+  private class FullPushPusher extends AbstractDocIdPusher {
+    /** Number of items not sent because they were unchanged. */
+    private final AtomicLong skipped = new AtomicLong();
+
+    @Override
+    public Record pushRecords(Iterable<Record> records,
+        ExceptionHandler handler) throws InterruptedException {
+      if (fingerprints.isEnabled()) {
+        List<Record> all = new ArrayList<Record>();
+        for (Record record : records) {
+          all.add(record);
+        }
+        List<Record> changed = fingerprints.filterUnchanged(all);
+        skipped.addAndGet(all.size() - changed.size());
+        records = changed;
+      }
+      return DocIdSender.this.pushRecords(records, handler);
+    }
+
+    @Override
+    public DocId pushNamedResources(Map<DocId, Acl> resources,
+        ExceptionHandler handler) throws InterruptedException {
+      if (fingerprints.isEnabled() && !config.markAllDocsAsPublic()) {
+        List<AclItem> all = new ArrayList<AclItem>(resources.size());
+        for (Map.Entry<DocId, Acl> me : resources.entrySet()) {
+          all.add(new AclItem(me.getKey(), me.getValue()));
+        }
+        List<AclItem> changed = fingerprints.filterUnchanged(all);
+        skipped.addAndGet(all.size() - changed.size());
+        if (changed.size() != all.size()) {
+          // Preserve the iteration order of resources.
+          Map<DocId, Acl> changedResources
+              = new LinkedHashMap<DocId, Acl>(changed.size() * 2);
+          for (AclItem item : changed) {
+            changedResources.put(item.getDocId(), item.getAcl());
+          }
+          resources = changedResources;
+        }
+      }
+      return DocIdSender.this.pushNamedResources(resources, handler);
+    }
+
+    @Override
+    public GroupPrincipal pushGroupDefinitions(
+        Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+        boolean caseSensitive, ExceptionHandler handler)
+        throws InterruptedException {
+      return DocIdSender.this.pushGroupDefinitions(defs, caseSensitive,
+          handler);
+    }
+  }
+
+  /**
+   * Pusher provided to {@link Adaptor#getDocIds}, which additionally allows
+   * the listing to save its progress.
+   */
+  private class CheckpointingPusher extends FullPushPusher
+      implements CheckpointingDocIdPusher {
+    @Override
+    public String getCheckpoint() {
+      return checkpoint.get();
+    }
+
+    @Override
+    public void saveCheckpoint(String newCheckpoint) {
+      checkpoint.set(newCheckpoint);
+    }
   }
 
   /**
@@ -109,6 +455,7 @@ class DocIdSender extends AbstractDocIdPusher
         // Stop early.
         journal.recordIncrementalPushInterrupted();
         log.info("Interrupted. Aborted getModifiedDocIds");
+        saveFingerprints();
         throw ex;
       } catch (Exception ex) {
         log.log(Level.WARNING, "Exception during getModifiedDocIds", ex);
@@ -119,10 +466,12 @@ class DocIdSender extends AbstractDocIdPusher
       } else {
         journal.recordIncrementalPushFailed();
         log.warning("Gave up. Failed getModifiedDocIds");
+        saveFingerprints();
         return; // Bail
       }
     }
     journal.recordIncrementalPushSuccessful();
+    saveFingerprints();
     log.info("Completed getModifiedDocIds");
   }
 
@@ -165,15 +514,16 @@ class DocIdSender extends AbstractDocIdPusher
     if (handler == null) {
       handler = defaultErrorHandler;
     }
-    boolean firstBatch = true;
+    replaySpooledFeeds(handler);
     final int max = config.getFeedMaxUrls();
+    final int maxInFlight = config.getFeedMaxInFlight();
+    boolean firstBatch = true;
     while (items.hasNext()) {
-      List<T> batch = new ArrayList<T>();
-      for (int j = 0; j < max; j++) {
-        if (!items.hasNext()) {
-          break;
-        }
-        batch.add(items.next());
+      List<T> batch = nextBatch(items, max);
+      if (maxInFlight > 1 && items.hasNext()) {
+        // There is more than one batch left, so there is something to overlap.
+        return pushItemsPipelined(batch, items, handler, firstBatch,
+            maxInFlight);
       }
       log.log(Level.INFO, "Pushing group of {0} items", batch.size());
       T failedId;
@@ -198,11 +548,252 @@ class DocIdSender extends AbstractDocIdPusher
       }
       firstBatch = false;
       journal.recordDocIdPush(batch);
+      fingerprints.recordPushed(batch);
+    }
+    log.info("Pushed items");
+    return null;
+  }
+
+  private static <T> List<T> nextBatch(Iterator<T> items, int max) {
+    List<T> batch = new ArrayList<T>();
+    for (int j = 0; j < max; j++) {
+      if (!items.hasNext()) {
+        break;
+      }
+      batch.add(items.next());
+    }
+    return batch;
+  }
+
+  /**
+   * Pushes {@code firstBatch} and the rest of {@code items} with up to {@code
+   * maxInFlight} feed files being sent at once, while the calling thread
+   * continues pulling the next batch from {@code items}. Batches are confirmed
+   * in the order they were pulled, so the return value and interruption
+   * behavior match the sequential case: the first item of the earliest batch
+   * that failed is returned. A batch is not sent while an earlier batch
+   * containing one of its DocIds is still being sent, so that the GSA receives
+   * updates for a single DocId in order.
+   */
+  private <T extends Item> T pushItemsPipelined(List<T> batch,
+      Iterator<T> items, ExceptionHandler handler, boolean firstBatch,
+      int maxInFlight) throws InterruptedException {
+    final int max = config.getFeedMaxUrls();
+    ExecutorService executor = getPushExecutor();
+    // Batches that have been started but not confirmed, in push order.
+    Queue<InFlightBatch<T>> inFlight = new LinkedList<InFlightBatch<T>>();
+    try {
+      while (true) {
+        InFlightBatch<T> next = new InFlightBatch<T>(batch);
+        while (inFlight.size() >= maxInFlight || next.dependsOn(inFlight)) {
+          T failedId = awaitHead(inFlight);
+          if (failedId != null) {
+            return failedId;
+          }
+          firstBatch = false;
+        }
+        log.log(Level.INFO, "Pushing group of {0} items", batch.size());
+        try {
+          next.start(executor, handler);
+        } catch (RejectedExecutionException ex) {
+          // stop() was called during the push, which is much like being
+          // interrupted, except that nothing may have been sent yet.
+          log.log(Level.INFO, "Pushing items stopped");
+          return inFlight.isEmpty() ? batch.get(0)
+              : inFlight.peek().firstItem();
+        }
+        inFlight.add(next);
+        if (!items.hasNext()) {
+          break;
+        }
+        batch = nextBatch(items, max);
+      }
+      while (!inFlight.isEmpty()) {
+        T failedId = awaitHead(inFlight);
+        if (failedId != null) {
+          return failedId;
+        }
+        firstBatch = false;
+      }
+    } catch (InterruptedException ex) {
+      if (firstBatch) {
+        throw ex;
+      } else {
+        // Some items have already been sent. Thus, return gracefully instead
+        // of throwing an exception so that the caller can discover what was
+        // sent.
+        log.log(Level.INFO, "Pushing items interrupted");
+        Thread.currentThread().interrupt();
+        return inFlight.isEmpty() ? batch.get(0) : inFlight.peek().firstItem();
+      }
+    } finally {
+      // Stops any batches after a failed one.
+      for (InFlightBatch<T> abandoned : inFlight) {
+        abandoned.cancel();
+      }
     }
     log.info("Pushed items");
     return null;
   }
 
+  private synchronized ExecutorService getPushExecutor() {
+    if (pushExecutor == null) {
+      // Each push limits itself to feed.maxInFlight batches, so the pool only
+      // grows with the number of concurrent pushes.
+      pushExecutor = Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("feedPush-%d").build());
+    }
+    return pushExecutor;
+  }
+
+  /**
+   * Stops the threads sending pipelined batches, interrupting any batches in
+   * progress. Later pushes start new threads.
+   */
+  synchronized void stop() {
+    if (pushExecutor != null) {
+      pushExecutor.shutdownNow();
+      pushExecutor = null;
+    }
+  }
+
+  /**
+   * Waits for the oldest in-flight batch to complete. It is only removed from
+   * {@code inFlight} when it completes without interruption.
+   *
+   * @return {@code null} on success, otherwise the failed item
+   */
+  private <T extends Item> T awaitHead(Queue<InFlightBatch<T>> inFlight)
+      throws InterruptedException {
+    InFlightBatch<T> head = inFlight.peek();
+    T failedId = head.await();
+    inFlight.remove();
+    if (failedId != null) {
+      log.log(Level.INFO, "Failed to push all items. Failed on: {0}",
+          failedId);
+    } else {
+      journal.recordDocIdPush(head.items);
+      fingerprints.recordPushed(head.items);
+    }
+    return failedId;
+  }
+
+  /** A batch of items being sent by {@link #pushItemsPipelined}. */
+  private class InFlightBatch<T extends Item> {
+    private final List<T> items;
+    /** DocIds in the batch, or {@code null} if they could not be determined. */
+    private final Set<DocId> docIds;
+    private Future<T> future;
+
+    public InFlightBatch(List<T> items) {
+      this.items = items;
+      this.docIds = docIdsOf(items);
+    }
+
+    public T firstItem() {
+      return items.get(0);
+    }
+
+    public void start(ExecutorService executor,
+        final ExceptionHandler handler) {
+      future = executor.submit(new Callable<T>() {
+        @Override
+        public T call() throws InterruptedException {
+          return pushSizedBatchOfItems(items, handler);
+        }
+      });
+    }
+
+    /** Interrupts sending this batch, if it has not completed. */
+    public void cancel() {
+      future.cancel(true);
+    }
+
+    /** Whether this batch must wait for any of {@code earlier} to complete. */
+    public boolean dependsOn(Collection<InFlightBatch<T>> earlier) {
+      for (InFlightBatch<T> other : earlier) {
+        if (docIds == null || other.docIds == null) {
+          return true;
+        }
+        for (DocId id : docIds) {
+          if (other.docIds.contains(id)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    public T await() throws InterruptedException {
+      try {
+        return future.get();
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof InterruptedException) {
+          // The sending thread was interrupted, so the batch may not have been
+          // sent.
+          return firstItem();
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else {
+          throw new AssertionError(cause);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops cached content, modification times and authorization decisions of
+   * the documents being pushed, as described by {@link CacheInvalidations}.
+   * Named resources other than the document itself don't affect its cached
+   * response, but do change who may see it.
+   */
+  private void invalidateCaches(List<? extends Item> items) {
+    if (!contentCache.isEnabled() && lastModifiedCache == null
+        && !authzCache.isEnabled() && !inheritedAclCache.isEnabled()) {
+      return;
+    }
+    for (Item item : items) {
+      DocId docId;
+      if (item instanceof Record) {
+        docId = ((Record) item).getDocId();
+      } else if (item instanceof AclItem) {
+        docId = ((AclItem) item).getDocId();
+        if (((AclItem) item).getDocIdFragment() != null) {
+          authzCache.invalidate(docId);
+          inheritedAclCache.invalidate(docId);
+          continue;
+        }
+      } else {
+        continue;
+      }
+      authzCache.invalidate(docId);
+      inheritedAclCache.invalidate(docId);
+      contentCache.invalidate(docId);
+      if (lastModifiedCache != null) {
+        lastModifiedCache.invalidate(docId);
+      }
+    }
+  }
+
+  private static Set<DocId> docIdsOf(List<? extends Item> items) {
+    Set<DocId> docIds = new HashSet<DocId>(items.size() * 2);
+    for (Item item : items) {
+      if (item instanceof Record) {
+        docIds.add(((Record) item).getDocId());
+      } else if (item instanceof AclItem) {
+        docIds.add(((AclItem) item).getDocId());
+      } else {
+        return null;
+      }
+    }
+    return docIds;
+  }
+
   public GroupPrincipal pushGroupDefinitions(
       Map<GroupPrincipal, ? extends Collection<Principal>> defs,
       boolean caseSensitive, ExceptionHandler handler) 
@@ -212,7 +803,16 @@ class DocIdSender extends AbstractDocIdPusher
                  + "markAllDocsAsPublic is true.");
       return null;
     }
-    return pushGroupDefinitionsInternal(defs, caseSensitive, handler);
+    GroupPrincipal failed
+        = pushGroupDefinitionsInternal(defs, caseSensitive, handler);
+    // Only index what the GSA also has. The adaptor is expected to push the
+    // groups again after a failure.
+    if (failed == null && groupIndex.isEnabled()) {
+      groupIndex.update(defs, caseSensitive);
+      // Decisions may depend on the old memberships.
+      authzCache.invalidateAll();
+    }
+    return failed;
   }
 
   /*
@@ -268,6 +868,7 @@ class DocIdSender extends AbstractDocIdPusher
     if (null == handler) {
       handler = defaultErrorHandler;
     }
+    replaySpooledFeeds(handler);
     boolean firstBatch = true;
     final int max = config.getFeedMaxUrls();
     Iterator<Map.Entry<GroupPrincipal, T>> defsIterator
@@ -315,34 +916,51 @@ class DocIdSender extends AbstractDocIdPusher
       boolean caseSensitive, ExceptionHandler handler)
       throws InterruptedException {
     String feedSourceName = config.getFeedName();
-    String groupsDefXml
-        = fileMaker.makeGroupDefinitionsXml(defs, caseSensitive);
+    FeedContent groupsDefXml
+        = fileMaker.makeGroupDefinitionsFeed(defs, caseSensitive);
+    FeedSpool.Entry spooled
+        = spool.add(FeedSpool.Type.GROUPS, feedSourceName, groupsDefXml);
+    if (spooled != null) {
+      groupsDefXml = spooled.getContent();
+    }
     boolean keepGoing = true;
     boolean success = false;
+    GroupPrincipal last = null;
     log.log(Level.INFO, "pushing groups");
-    for (int ntries = 1; keepGoing; ntries++) {
-      try {
-        log.info("sending groups to GSA host name: " + config.getGsaHostname());
-        fileSender.sendGroups(feedSourceName,
-            groupsDefXml, config.isServerToUseCompression());
-        keepGoing = false;  // Sent.
-        success = true;
-      } catch (IOException ex) {
-        log.log(Level.WARNING, "failed to send groups", ex);
-        keepGoing = handler.handleException(ex, ntries);
+    try {
+      for (int ntries = 1; keepGoing; ntries++) {
+        try {
+          log.info("sending groups to GSA host name: "
+              + config.getGsaHostname());
+          fileSender.sendGroups(feedSourceName,
+              groupsDefXml, config.isServerToUseCompression());
+          keepGoing = false;  // Sent.
+          success = true;
+        } catch (IOException ex) {
+          log.log(Level.WARNING, "failed to send groups", ex);
+          keepGoing = handler.handleException(ex, ntries);
+        }
+        if (keepGoing) {
+          log.log(Level.INFO, "trying again... number of attemps: {0}",
+              ntries);
+        }
       }
-      if (keepGoing) {
-        log.log(Level.INFO, "trying again... number of attemps: {0}", ntries);
+      if (success) {
+        log.info("pushing groups batch succeeded");
+        fileArchiver.saveFeed(feedSourceName, groupsDefXml);
+      } else {
+        // checked in pushGroupDefinitionsInternal()
+        last = defs.get(0).getKey();
+        log.log(Level.WARNING, "gave up pushing groups. First item: {0}",
+            last);
+        fileArchiver.saveFailedFeed(feedSourceName, groupsDefXml);
+      }
+    } finally {
+      // Once we return the caller knows whether the groups were sent, so the
+      // spool is only needed if the adaptor stops before then.
+      if (spooled != null) {
+        spooled.remove();
       }
-    }
-    GroupPrincipal last = null;
-    if (success) {
-      log.info("pushing groups batch succeeded");
-      fileArchiver.saveFeed(feedSourceName, groupsDefXml);
-    } else {
-      last = defs.get(0).getKey();  // checked in pushGroupDefinitionsInternal()
-      log.log(Level.WARNING, "gave up pushing groups. First item: {0}", last);
-      fileArchiver.saveFailedFeed(feedSourceName, groupsDefXml);
     }
     log.info("finished pushing batch of groups");
     return last;
@@ -352,37 +970,107 @@ class DocIdSender extends AbstractDocIdPusher
   private <T extends Item> T pushSizedBatchOfItems(List<T> items,
                                          ExceptionHandler handler)
       throws InterruptedException {
+    invalidateCaches(items);
     String feedSourceName = config.getFeedName();
-    String xmlFeedFile = fileMaker.makeMetadataAndUrlXml(feedSourceName, items);
+    FeedContent xmlFeedFile
+        = fileMaker.makeMetadataAndUrlFeed(feedSourceName, items);
+    FeedSpool.Entry spooled = spool.add(
+        FeedSpool.Type.METADATA_AND_URL, feedSourceName, xmlFeedFile);
+    if (spooled != null) {
+      xmlFeedFile = spooled.getContent();
+    }
     boolean keepGoing = true;
     boolean success = false;
     log.log(Level.INFO, "Pushing batch of {0} items to GSA", items.size());
-    for (int ntries = 1; keepGoing; ntries++) {
-      try {
-        log.info("Sending items to GSA host: " + config.getGsaHostname());
-        fileSender.sendMetadataAndUrl(feedSourceName, xmlFeedFile,
-                                      config.isServerToUseCompression());
-        keepGoing = false;  // Sent.
-        success = true;
-      } catch (IOException ex) {
-        log.log(Level.WARNING, "Failed to send items", ex);
-        keepGoing = handler.handleException(ex, ntries);
+    try {
+      for (int ntries = 1; keepGoing; ntries++) {
+        try {
+          log.info("Sending items to GSA host: " + config.getGsaHostname());
+          fileSender.sendMetadataAndUrl(feedSourceName, xmlFeedFile,
+                                        config.isServerToUseCompression());
+          keepGoing = false;  // Sent.
+          success = true;
+        } catch (IOException ex) {
+          log.log(Level.WARNING, "Failed to send items", ex);
+          keepGoing = handler.handleException(ex, ntries);
+        }
+        if (keepGoing) {
+          log.log(Level.INFO, "Trying again... Number of attemps: {0}",
+              ntries);
+        }
       }
-      if (keepGoing) {
-        log.log(Level.INFO, "Trying again... Number of attemps: {0}", ntries);
+      if (success) {
+        log.info("Pushing batch succeeded");
+        fileArchiver.saveFeed(feedSourceName, xmlFeedFile);
+      } else {
+        log.log(Level.WARNING, "Gave up. First item in list: {0}",
+            items.get(0));
+        fileArchiver.saveFailedFeed(feedSourceName, xmlFeedFile);
+      }
+    } finally {
+      // Once we return the caller knows whether the items were sent, so the
+      // spool is only needed if the adaptor stops before then.
+      if (spooled != null) {
+        spooled.remove();
       }
-    }
-    if (success) {
-      log.info("Pushing batch succeeded");
-      fileArchiver.saveFeed(feedSourceName, xmlFeedFile);
-    } else {
-      log.log(Level.WARNING, "Gave up. First item in list: {0}", items.get(0));
-      fileArchiver.saveFailedFeed(feedSourceName, xmlFeedFile);
     }
     log.info("Finished pushing batch of items");
     return success ? null : items.get(0);
   }
 
+  /**
+   * Sends the feeds that a previous run of the adaptor spooled but did not
+   * finish sending. This is done before any new feed is sent so that the
+   * older feeds can't overwrite newer information on the GSA. Only the first
+   * call does any work; concurrent callers wait for it to complete.
+   */
+  void replaySpooledFeeds(ExceptionHandler handler)
+      throws InterruptedException {
+    if (spoolReplayed) {
+      return;
+    }
+    synchronized (spool) {
+      if (spoolReplayed) {
+        return;
+      }
+      if (handler == null) {
+        handler = defaultErrorHandler;
+      }
+      for (FeedSpool.Entry entry : spool.getEntries()) {
+        log.log(Level.INFO, "Resending spooled feed: {0}", entry);
+        FeedContent xml = entry.getContent();
+        boolean keepGoing = true;
+        boolean success = false;
+        for (int ntries = 1; keepGoing; ntries++) {
+          try {
+            if (entry.getType() == FeedSpool.Type.GROUPS) {
+              fileSender.sendGroups(entry.getSourceName(), xml,
+                  config.isServerToUseCompression());
+            } else {
+              fileSender.sendMetadataAndUrl(entry.getSourceName(), xml,
+                  config.isServerToUseCompression());
+            }
+            keepGoing = false;  // Sent.
+            success = true;
+          } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to resend spooled feed", ex);
+            // Any InterruptedException leaves this and later entries in the
+            // spool, to be sent by the next caller.
+            keepGoing = handler.handleException(ex, ntries);
+          }
+        }
+        if (success) {
+          fileArchiver.saveFeed(entry.getSourceName(), xml);
+        } else {
+          log.log(Level.WARNING, "Gave up resending spooled feed: {0}", entry);
+          fileArchiver.saveFailedFeed(entry.getSourceName(), xml);
+        }
+        entry.remove();
+      }
+      spoolReplayed = true;
+    }
+  }
+
   /** Marker interface for an item that can exist in a feed. */
   interface Item {}
 
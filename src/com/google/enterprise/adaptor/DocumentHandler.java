@@ -25,6 +25,7 @@ import com.sun.net.httpserver.HttpsExchange;
 import org.json.simple.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -32,6 +33,8 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,6 +59,7 @@ import javax.security.auth.x500.X500Principal;
 class DocumentHandler implements HttpHandler {
   private static final Logger log
       = Logger.getLogger(DocumentHandler.class.getName());
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
 
   private final DocIdDecoder docIdDecoder;
   private final DocIdEncoder docIdEncoder;
@@ -86,9 +90,12 @@ class DocumentHandler implements HttpHandler {
   private final boolean alwaysGiveAcl;
   private final GsaVersion gsaVersion;
   private final boolean gsaSupports204;
+  private final ContentCache contentCache;
+  private final LastModifiedCache lastModifiedCache;
 
   /**
-   * {@code samlServiceProvider} and {@code transform} may be {@code null}.
+   * {@code samlServiceProvider}, {@code transform}, and {@code
+   * lastModifiedCache} may be {@code null}.
    */
   public DocumentHandler(DocIdDecoder docIdDecoder, DocIdEncoder docIdEncoder,
                          Journal journal, Adaptor adaptor,
@@ -102,10 +109,12 @@ class DocumentHandler implements HttpHandler {
                          long headerTimeoutMillis,
                          long contentTimeoutMillis, String scoringType,
                          boolean provideAclsAndMetadata,
-                         GsaVersion gsaVersion) {
+                         GsaVersion gsaVersion, ContentCache contentCache,
+                         LastModifiedCache lastModifiedCache) {
     if (docIdDecoder == null || docIdEncoder == null || journal == null
         || adaptor == null || aclTransform == null || watchdog == null
-        || pusher == null || scoringType == null || gsaVersion == null) {
+        || pusher == null || scoringType == null || gsaVersion == null
+        || contentCache == null) {
       throw new NullPointerException();
     }
     this.docIdDecoder = docIdDecoder;
@@ -127,6 +136,8 @@ class DocumentHandler implements HttpHandler {
     this.alwaysGiveAcl = provideAclsAndMetadata;
     this.gsaVersion = gsaVersion;
     this.gsaSupports204 = gsaVersion.isAtLeast("7.4.0-0");
+    this.contentCache = contentCache;
+    this.lastModifiedCache = lastModifiedCache;
     initFullAccess(gsaHostname, fullAccessHosts);
   }
 
@@ -231,10 +242,30 @@ class DocumentHandler implements HttpHandler {
       DocumentRequest request = new DocumentRequest(ex, docId);
       DocumentResponse response
           = new DocumentResponse(ex, docId, Thread.currentThread());
+      ContentCache.RecordingResponse recording = null;
+      CacheInvalidations.Retrieval cacheRetrieval = null;
       journal.recordRequestProcessingStart();
       watchdog.processingStarting(headerTimeoutMillis);
       try {
-        adaptor.getDocContent(request, response);
+        if (isUnmodified(request)) {
+          response.respondNotModified();
+        } else if (contentCache.isEnabled()) {
+          cacheRetrieval = contentCache.startRetrieval();
+          ContentCache.Entry cached = contentCache.get(docId);
+          if (cached != null) {
+            journal.recordContentCacheHit();
+            cached.replay(request, response);
+          } else {
+            journal.recordContentCacheMiss();
+            if ("GET".equals(requestMethod)) {
+              recording = contentCache.new RecordingResponse(response);
+            }
+            adaptor.getDocContent(request,
+                recording == null ? response : recording);
+          }
+        } else {
+          adaptor.getDocContent(request, response);
+        }
       } catch (InterruptedException e) {
         journal.recordRequestProcessingFailure();
         throw new RuntimeException("Retriever interrupted: " + docId, e);
@@ -250,12 +281,41 @@ class DocumentHandler implements HttpHandler {
       journal.recordRequestProcessingEnd(response.getWrittenContentSize());
 
       response.complete();
+      if (recording != null) {
+        ContentCache.Entry entry = recording.toEntry();
+        if (entry != null) {
+          contentCache.put(docId, entry, cacheRetrieval);
+        }
+      }
     } else {
       HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_METHOD,
           Translation.HTTP_BAD_METHOD);
     }
   }
 
+  /**
+   * Returns whether the client's copy of the document is current, according
+   * to the adaptor's {@link LastModifiedProvider}. This allows answering
+   * without retrieving the document. Failures are logged and leave the
+   * decision to {@link Adaptor#getDocContent}.
+   */
+  private boolean isUnmodified(DocumentRequest request)
+      throws InterruptedException {
+    if (lastModifiedCache == null || request.getLastAccessTime() == null) {
+      return false;
+    }
+    Date lastModified;
+    try {
+      lastModified = lastModifiedCache.getLastModified(request.getDocId());
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to get last modified time of "
+          + request.getDocId() + "; retrieving document instead", e);
+      return false;
+    }
+    return lastModified != null
+        && !request.hasChangedSinceLastAccess(lastModified);
+  }
+
   /**
    * Check authz of user to access document. If the user is not authzed, the
    * method handles responding to the HttpExchange.
@@ -286,8 +346,14 @@ class DocumentHandler implements HttpHandler {
         identity = samlServiceProvider.getUserIdentity(ex);
       }
 
-      Map<DocId, AuthzStatus> authzMap = authzAuthority.isUserAuthorized(
-          identity, Collections.singletonList(docId));
+      Map<DocId, AuthzStatus> authzMap;
+      journal.recordAuthzStart();
+      try {
+        authzMap = authzAuthority.isUserAuthorized(
+            identity, Collections.singletonList(docId));
+      } finally {
+        journal.recordAuthzEnd();
+      }
 
       AuthzStatus status = authzMap != null ? authzMap.get(docId) : null;
       if (status == null) {
@@ -590,7 +656,7 @@ class DocumentHandler implements HttpHandler {
    * <p>{@link #getOutputStream} and {@link #complete} are the main methods that
    * need to be very aware of all the different possibilities.
    */
-  private class DocumentResponse implements Response {
+  private class DocumentResponse implements FileContentResponse {
     private Thread workingThread;
     private State state = State.SETUP;
     private HttpExchange ex;
@@ -616,6 +682,8 @@ class DocumentHandler implements HttpHandler {
     private boolean crawlOnce;
     private boolean lock;
     private Map<String, Acl> fragments = new TreeMap<String, Acl>();
+    /** Length of the content provided to respondWithFile, or -1. */
+    private long fileLength = -1;
 
     public DocumentResponse(HttpExchange ex, DocId docId, Thread thread) {
       this.ex = ex;
@@ -690,6 +758,33 @@ class DocumentHandler implements HttpHandler {
       return os;
     }
 
+    @Override
+    public void respondWithFile(FileChannel channel, long position,
+        long count) throws IOException {
+      if (state != State.SETUP) {
+        throw new IllegalStateException("Already responded");
+      }
+      if (channel == null) {
+        throw new NullPointerException();
+      }
+      if (position < 0 || count < 0) {
+        throw new IllegalArgumentException(
+            "position and count must not be negative");
+      }
+      if ("HEAD".equals(ex.getRequestMethod())) {
+        getOutputStream();
+        return;
+      }
+      state = State.SEND_BODY;
+      fileLength = count;
+      startSending(true);
+      countingOs = new CountingOutputStream(new CloseNotifyOutputStream(
+          ex.getResponseBody()));
+      os = countingOs;
+      transferFile(channel, position, count, os);
+      os.close();
+    }
+
     @Override
     public void setContentType(String contentType) {
       if (state != State.SETUP) {
@@ -941,7 +1036,14 @@ class DocumentHandler implements HttpHandler {
       } else {
         throw new IllegalStateException("Unexpected state " + state);
       }
-      HttpExchanges.startResponse(ex, responseCode, contentType, hasContent);
+      if (hasContent && fileLength > 0
+          && !ex.getResponseHeaders().containsKey("Content-Encoding")) {
+        // The length is known in advance, unless the content is compressed.
+        HttpExchanges.startFixedLengthResponse(
+            ex, responseCode, contentType, fileLength);
+      } else {
+        HttpExchanges.startResponse(ex, responseCode, contentType, hasContent);
+      }
       for (Map.Entry<String, Acl> fragment : fragments.entrySet()) {
         pusher.asyncPushItem(new DocIdSender.AclItem(docId,
             fragment.getKey(), fragment.getValue()));
@@ -1017,6 +1119,29 @@ class DocumentHandler implements HttpHandler {
     }
   }
 
+  /**
+   * Copies {@code count} bytes of {@code channel}, starting at {@code
+   * position}, to {@code out}, without changing the channel's position. The
+   * HTTP server only exposes the response body as a stream, so the content
+   * passes through a heap buffer here, as with any other response.
+   */
+  static void transferFile(FileChannel channel, long position, long count,
+      OutputStream out) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(count, TRANSFER_BUFFER_SIZE)];
+    ByteBuffer bb = ByteBuffer.wrap(buffer);
+    long end = position + count;
+    while (position < end) {
+      bb.clear();
+      bb.limit((int) Math.min(buffer.length, end - position));
+      int read = channel.read(bb, position);
+      if (read < 0) {
+        throw new EOFException("File ended before all content was sent");
+      }
+      out.write(buffer, 0, read);
+      position += read;
+    }
+  }
+
   /**
    * OutputStream that forgets all input. It is equivalent to using /dev/null.
    */
@@ -32,6 +32,7 @@ import java.net.HttpURLConnection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -276,10 +277,47 @@ class DownloadDumpHandler implements HttpHandler {
       prettyPrintMap(writer, sMap);
     }
 
+    if (null != map.get("stats")) {
+      @SuppressWarnings("unchecked")
+      List<Map<String, Object>> statsList
+          = (List<Map<String, Object>>) map.get("stats");
+      for (Map<String, Object> stats : statsList) {
+        dumpPercentiles(writer, stats);
+      }
+    }
+
     writer.flush();
     zos.closeEntry();
   }
 
+  /**
+   * Output the percentiles of one time window, as one line per metric and
+   * percentile (e.g., {@code authzDuration.p99}).
+   */
+  private void dumpPercentiles(PrintWriter writer, Map<String, Object> stats) {
+    Object percentiles = stats.get("percentiles");
+    Object duration = stats.get("snapshotDuration");
+    Object statData = stats.get("statData");
+    if (!(percentiles instanceof Map) || !(duration instanceof Number)
+        || !(statData instanceof List)) {
+      log.log(Level.INFO, "Did not find percentiles in stats: {0}", stats);
+      return;
+    }
+    long windowSecs
+        = ((Number) duration).longValue() * ((List<?>) statData).size() / 1000;
+    Map<String, Object> flattened = new TreeMap<String, Object>();
+    for (Map.Entry<?, ?> metric : ((Map<?, ?>) percentiles).entrySet()) {
+      if (!(metric.getValue() instanceof Map)) {
+        continue;
+      }
+      for (Map.Entry<?, ?> me : ((Map<?, ?>) metric.getValue()).entrySet()) {
+        flattened.put(metric.getKey() + "." + me.getKey(), me.getValue());
+      }
+    }
+    writer.format("Percentiles over the last %d seconds%n", windowSecs);
+    prettyPrintMap(writer, flattened);
+  }
+
   /**
    * Pretty-prints a map
    */
@@ -21,22 +21,22 @@ package com.google.enterprise.adaptor;
  */
 interface FeedArchiver {
   /**
-   * Save the supplied XML string as a file in the feed archive
+   * Save the supplied XML as a file in the feed archive
    * directory.  The file's name will start with the feed name
    * and have a {@code .xml} extension.
    *
    * @param feedName the name of the feed or datasource
-   * @param feedXml the XML string that will be saved
+   * @param feedXml the XML that will be saved
    */
-  public void saveFeed(String feedName, String feedXml);
+  public void saveFeed(String feedName, FeedContent feedXml);
 
   /**
-   * Save the supplied XML string as a file in the feed archive
+   * Save the supplied XML as a file in the feed archive
    * directory.  The file's name will start with {@code FAILED-},
    * followed by the feed name, and have a {@code .xml} extension.
    *
    * @param feedName the name of the feed or datasource
-   * @param feedXml the XML string that will be saved
+   * @param feedXml the XML that will be saved
    */
-  public void saveFailedFeed(String feedName, String feedXml);
+  public void saveFailedFeed(String feedName, FeedContent feedXml);
 }
@@ -0,0 +1,53 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * XML of a feed file that is written out on demand, instead of being held in
+ * memory as a {@code String}. Since a feed may need to be sent more than once
+ * and also archived, {@link #writeTo} must produce the same content every time
+ * it is called.
+ */
+interface FeedContent {
+  /**
+   * Write the feed's XML to {@code out}. {@code out} is not flushed or closed.
+   */
+  public void writeTo(Writer out) throws IOException;
+
+  /** Feed content that has already been generated as a {@code String}. */
+  static final class FromString implements FeedContent {
+    private final String content;
+
+    public FromString(String content) {
+      if (content == null) {
+        throw new NullPointerException();
+      }
+      this.content = content;
+    }
+
+    @Override
+    public void writeTo(Writer out) throws IOException {
+      out.write(content);
+    }
+
+    @Override
+    public String toString() {
+      return content;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.base.Strings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a copy of each feed on disk from just before it is sent until the GSA
+ * accepts it, so that feeds that were being sent when the adaptor stopped can
+ * be sent once it starts again. The spool directory is specified using the
+ * {@code feed.spoolDirectory} configuration property. If no directory is
+ * specified, feeds are not spooled.
+ *
+ * <p>Each feed is stored in its own file, named by an increasing sequence
+ * number so that sorting the names gives the order the feeds were spooled in.
+ * A feed is first written to a temporary file and then renamed, so a partially
+ * written feed is never replayed.
+ *
+ * <p>The file is synced before the rename, but the directory is not synced
+ * after it, since Java 6 has no way to open a directory for syncing. So if the
+ * machine crashes, rather than just the adaptor, a feed spooled shortly before
+ * may be lost, depending on the file system.
+ */
+class FeedSpool {
+  private static final Logger log
+      = Logger.getLogger(FeedSpool.class.getName());
+
+  private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".feed";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /** The GSA feed handler a spooled feed is destined for. */
+  enum Type {
+    METADATA_AND_URL,
+    GROUPS,
+  }
+
+  private final File spoolDir;
+  /** Sequence number for the next feed, or {@code -1} if not yet known. */
+  private long nextSequence = -1;
+
+  public FeedSpool(String spoolDirectory) {
+    this.spoolDir = Strings.isNullOrEmpty(spoolDirectory)
+        ? null : new File(spoolDirectory);
+  }
+
+  /**
+   * Writes {@code feedXml} to the spool. The returned entry's content should
+   * be sent instead of {@code feedXml}, to avoid generating the feed again.
+   *
+   * @param type handler the feed is being sent to
+   * @param sourceName the name of the feed's datasource or groupsource
+   * @param feedXml the XML to spool
+   * @return the spooled feed, or {@code null} if spooling is disabled or the
+   *     feed could not be written
+   */
+  public Entry add(Type type, String sourceName, FeedContent feedXml) {
+    if (spoolDir == null) {
+      return null;
+    }
+    File file;
+    File tempFile;
+    synchronized (this) {
+      if (nextSequence == -1) {
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+          log.log(Level.WARNING, "failed to create feed spool directory {0}",
+              spoolDir);
+          return null;
+        }
+        nextSequence = 0;
+        for (File existing : listEntryFiles()) {
+          nextSequence = Math.max(nextSequence,
+              parseSequence(existing.getName()) + 1);
+        }
+      }
+      String name = String.format("%019d", nextSequence++);
+      file = new File(spoolDir, name + SUFFIX);
+      tempFile = new File(spoolDir, name + TEMP_SUFFIX);
+    }
+    try {
+      FileOutputStream fos = new FileOutputStream(tempFile);
+      try {
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(fos, CHARSET_UTF8));
+        writer.write(type.name());
+        writer.write('\n');
+        writer.write(sourceName);
+        writer.write('\n');
+        feedXml.writeTo(writer);
+        writer.flush();
+        // The feed must be on disk before it is sent.
+        fos.getFD().sync();
+      } finally {
+        fos.close();
+      }
+      // The rename itself is not synced; see the class documentation.
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("could not rename " + tempFile + " to " + file);
+      }
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to spool feed file", ex);
+      tempFile.delete();
+      return null;
+    }
+    return new Entry(file, type, sourceName);
+  }
+
+  /**
+   * Returns the feeds left in the spool, oldest first. These are feeds that
+   * were not known to be sent when the adaptor last stopped. Partially written
+   * feeds are deleted.
+   */
+  public List<Entry> getEntries() {
+    List<Entry> entries = new ArrayList<Entry>();
+    if (spoolDir == null || !spoolDir.isDirectory()) {
+      return entries;
+    }
+    File[] temps = spoolDir.listFiles();
+    if (temps != null) {
+      for (File temp : temps) {
+        if (temp.getName().endsWith(TEMP_SUFFIX)) {
+          temp.delete();
+        }
+      }
+    }
+    for (File file : listEntryFiles()) {
+      try {
+        BufferedReader reader = openEntry(file);
+        try {
+          Type type = Type.valueOf(reader.readLine());
+          String sourceName = reader.readLine();
+          if (sourceName == null) {
+            throw new IOException("missing source name");
+          }
+          entries.add(new Entry(file, type, sourceName));
+        } finally {
+          reader.close();
+        }
+      } catch (IOException ex) {
+        log.log(Level.WARNING, "ignoring unreadable spooled feed " + file, ex);
+      } catch (RuntimeException ex) {
+        // Thrown by valueOf() for an unknown type.
+        log.log(Level.WARNING, "ignoring unreadable spooled feed " + file, ex);
+      }
+    }
+    return entries;
+  }
+
+  /** Files of completely written feeds, sorted oldest first. */
+  private List<File> listEntryFiles() {
+    File[] files = spoolDir.listFiles();
+    if (files == null) {
+      return new ArrayList<File>();
+    }
+    List<File> entryFiles = new ArrayList<File>(files.length);
+    for (File file : files) {
+      if (file.getName().endsWith(SUFFIX)
+          && parseSequence(file.getName()) != -1) {
+        entryFiles.add(file);
+      }
+    }
+    File[] sorted = entryFiles.toArray(new File[entryFiles.size()]);
+    // Names are zero-padded, so sorting by name sorts by sequence number.
+    Arrays.sort(sorted);
+    return Arrays.asList(sorted);
+  }
+
+  private static long parseSequence(String name) {
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  private static BufferedReader openEntry(File file) throws IOException {
+    return new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), CHARSET_UTF8));
+  }
+
+  /** A feed in the spool. */
+  class Entry {
+    private final File file;
+    private final Type type;
+    private final String sourceName;
+
+    private Entry(File file, Type type, String sourceName) {
+      this.file = file;
+      this.type = type;
+      this.sourceName = sourceName;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public String getSourceName() {
+      return sourceName;
+    }
+
+    /** The spooled XML, read from disk each time it is written. */
+    public FeedContent getContent() {
+      return new FeedContent() {
+        @Override
+        public void writeTo(Writer out) throws IOException {
+          BufferedReader reader = openEntry(file);
+          try {
+            // Skip the type and source name.
+            reader.readLine();
+            reader.readLine();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+              out.write(buffer, 0, read);
+            }
+          } finally {
+            reader.close();
+          }
+        }
+      };
+    }
+
+    /** Removes the feed from the spool, because it no longer needs sending. */
+    public void remove() {
+      if (!file.delete() && file.exists()) {
+        log.log(Level.WARNING, "failed to remove spooled feed {0}", file);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "FeedSpool.Entry(" + file + "," + type + "," + sourceName + ")";
+    }
+  }
+}
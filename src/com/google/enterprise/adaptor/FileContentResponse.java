@@ -0,0 +1,49 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Response} that can send document content directly from a file.
+ * The content is still copied through a buffer, just as it would be when
+ * written to {@link #getOutputStream}. The only benefit is that the length of
+ * the content is known up front, so when the response is not compressed it is
+ * sent with a fixed {@code Content-Length} instead of chunked encoding. The
+ * {@code Response} provided to {@link Adaptor#getDocContent} may implement
+ * this interface, so adaptors serving files should check with {@code
+ * instanceof} and fall back to {@link #getOutputStream} otherwise.
+ */
+public interface FileContentResponse extends Response {
+  /**
+   * Respond with {@code count} bytes of {@code channel}, starting at {@code
+   * position}, as the content of the document. The channel is not closed, and
+   * its position is not changed. Metadata and other values must be provided
+   * before calling this method.
+   *
+   * <p>If called, this must be the last call to this interface. Once you call
+   * this method, for the rest of the processing, exceptions may no longer be
+   * communicated to clients cleanly.
+   *
+   * @param channel file containing the content
+   * @param position offset in {@code channel} of the content
+   * @param count length of the content
+   * @throws IOException if reading the file or communicating with the client
+   *     fails
+   */
+  public void respondWithFile(FileChannel channel, long position, long count)
+      throws IOException;
+}
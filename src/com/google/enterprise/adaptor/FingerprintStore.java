@@ -0,0 +1,718 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fingerprints of the records and named resources last sent to the GSA, so
+ * that a full push can skip the ones that have not changed. The store is
+ * kept in the file specified by the {@code feed.fingerprintFile} configuration
+ * property. If no file is specified, the store is disabled and everything is
+ * always sent. Deleting the file causes the next full push to send
+ * everything.
+ *
+ * <p>A fingerprint is a 64-bit hash of every field that is sent in the feed
+ * for the item. Items are keyed by a 64-bit hash of their DocId, with named
+ * resources kept separate from records, so memory use does not depend on the
+ * length of DocIds. Should two keys ever collide, one of the items may be
+ * skipped until it changes again.
+ *
+ * <p>The file is a log of changes, which {@link #save} appends to. Records
+ * are logged with their DocIds, since those are needed to delete records
+ * that are no longer listed; the DocIds are only read back from the file
+ * when that happens. Once the log holds many more changes than there are
+ * fingerprints, it is rewritten with just the current ones.
+ */
+class FingerprintStore {
+  private static final Logger log
+      = Logger.getLogger(FingerprintStore.class.getName());
+  private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  /** Changed whenever the file format or fingerprint computation changes. */
+  private static final int VERSION = 2;
+  private static final String RECORD_PREFIX = "r:";
+  private static final String ACL_PREFIX = "a:";
+  /** The log is never rewritten while it has fewer changes than this. */
+  private static final int MIN_CHANGES_TO_COMPACT = 1000;
+
+  private static final byte PUT_RECORD = 0;
+  private static final byte PUT_ACL = 1;
+  private static final byte REMOVE = 2;
+
+  private final File file;
+  /** Fingerprint by key hash. {@code null} until loaded. */
+  private FingerprintTable fingerprints;
+  /** Changes not yet written to the file. */
+  private final List<Change> pending = new ArrayList<Change>();
+  /** Number of changes in the file. */
+  private int changesInFile;
+  /** Whether the file has to be rewritten instead of appended to. */
+  private boolean rewriteNeeded;
+
+  public FingerprintStore(String fingerprintFile) {
+    this.file = Strings.isNullOrEmpty(fingerprintFile)
+        ? null : new File(fingerprintFile);
+  }
+
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /** Forgets which items were seen by any previous full push. */
+  public synchronized void startFullPush() {
+    if (fingerprints != null) {
+      fingerprints.startFullPush();
+    }
+  }
+
+  /**
+   * Returns the items that need to be sent, which are those that are new or
+   * have changed since they were last sent. All of {@code items} are noted as
+   * seen in the current full push.
+   */
+  public synchronized <T extends DocIdSender.Item> List<T> filterUnchanged(
+      Collection<T> items) {
+    loadIfNeeded();
+    List<T> changed = new ArrayList<T>(items.size());
+    for (T item : items) {
+      long key = hashKey(keyOf(item));
+      if (!fingerprints.markSeen(key, fingerprintOf(item))) {
+        changed.add(item);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Records that {@code items} were accepted by the GSA. Deleted records are
+   * forgotten so that they are sent again if they reappear.
+   */
+  public synchronized void recordPushed(
+      Collection<? extends DocIdSender.Item> items) {
+    if (!isEnabled()) {
+      return;
+    }
+    loadIfNeeded();
+    for (DocIdSender.Item item : items) {
+      long key = hashKey(keyOf(item));
+      if (item instanceof DocIdPusher.Record
+          && ((DocIdPusher.Record) item).isToBeDeleted()) {
+        if (fingerprints.remove(key)) {
+          pending.add(new Change(REMOVE, key, 0, null));
+        }
+        continue;
+      }
+      long fingerprint = fingerprintOf(item);
+      boolean record = item instanceof DocIdPusher.Record;
+      if (fingerprints.put(key, fingerprint, record)) {
+        pending.add(record
+            ? new Change(PUT_RECORD, key, fingerprint,
+                ((DocIdPusher.Record) item).getDocId().getUniqueId())
+            : new Change(PUT_ACL, key, fingerprint, null));
+      }
+    }
+  }
+
+  /**
+   * Returns the DocIds of records that were sent previously but not seen
+   * during the current full push, since the adaptor no longer lists them.
+   */
+  public synchronized List<DocId> getUnseenRecords() {
+    loadIfNeeded();
+    final List<DocId> unseen = new ArrayList<DocId>();
+    final BitSet found = new BitSet();
+    try {
+      readNames(new NameVisitor() {
+        @Override
+        public void visit(int slot, String name) {
+          if (!fingerprints.isSeen(slot) && !found.get(slot)) {
+            found.set(slot);
+            unseen.add(new DocId(name));
+          }
+        }
+      });
+    } catch (IOException ex) {
+      // The visitor doesn't throw, so only closing the file failed.
+      log.log(Level.FINE, "failed to close " + file, ex);
+    }
+    return unseen;
+  }
+
+  /**
+   * Forgets every item not seen during the current full push, so that they
+   * are sent if they are listed again.
+   */
+  public synchronized void removeUnseen() {
+    loadIfNeeded();
+    for (long key : fingerprints.getUnseenKeys()) {
+      fingerprints.remove(key);
+      pending.add(new Change(REMOVE, key, 0, null));
+    }
+  }
+
+  /**
+   * Writes changed fingerprints to disk, appending them to the file unless it
+   * is time to rewrite it. Failures are logged.
+   */
+  public synchronized void save() {
+    if (fingerprints == null) {
+      return;
+    }
+    try {
+      if (rewriteNeeded || !file.exists()
+          || (changesInFile + pending.size() >= MIN_CHANGES_TO_COMPACT
+              && changesInFile + pending.size() > 2 * fingerprints.size())) {
+        rewrite();
+      } else if (!pending.isEmpty()) {
+        append();
+      }
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to save fingerprints to " + file, ex);
+    }
+  }
+
+  private void append() throws IOException {
+    // Should the append fail part way through, rewrite the file next time.
+    rewriteNeeded = true;
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file, true)));
+    try {
+      for (Change change : pending) {
+        change.writeTo(out);
+      }
+    } finally {
+      out.close();
+    }
+    changesInFile += pending.size();
+    pending.clear();
+    rewriteNeeded = false;
+  }
+
+  /** Replaces the file with one holding only the current fingerprints. */
+  private void rewrite() throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    FileOutputStream fos = new FileOutputStream(temp);
+    final DataOutputStream out
+        = new DataOutputStream(new BufferedOutputStream(fos));
+    final BitSet written = new BitSet();
+    int changes;
+    try {
+      out.writeInt(VERSION);
+      readNames(new NameVisitor() {
+        @Override
+        public void visit(int slot, String name) throws IOException {
+          if (!written.get(slot)) {
+            written.set(slot);
+            new Change(PUT_RECORD, fingerprints.keyAt(slot),
+                fingerprints.fingerprintAt(slot), name).writeTo(out);
+          }
+        }
+      });
+      changes = written.cardinality();
+      List<Long> nameless = new ArrayList<Long>();
+      for (int slot = 0; slot < fingerprints.capacity(); slot++) {
+        if (!fingerprints.isSent(slot) || written.get(slot)) {
+          continue;
+        }
+        if (fingerprints.isRecord(slot)) {
+          // Its DocId was lost with the old file, so it can't be kept.
+          nameless.add(fingerprints.keyAt(slot));
+          continue;
+        }
+        new Change(PUT_ACL, fingerprints.keyAt(slot),
+            fingerprints.fingerprintAt(slot), null).writeTo(out);
+        changes++;
+      }
+      for (long key : nameless) {
+        fingerprints.remove(key);
+      }
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      out.close();
+    }
+    // Windows does not replace existing files when renaming.
+    if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+      throw new IOException("could not rename " + temp + " to " + file);
+    }
+    changesInFile = changes;
+    pending.clear();
+    rewriteNeeded = false;
+  }
+
+  private void loadIfNeeded() {
+    if (fingerprints != null) {
+      return;
+    }
+    fingerprints = new FingerprintTable();
+    if (!file.exists()) {
+      return;
+    }
+    // Whatever happens, the file needs to be rewritten unless it is read
+    // completely.
+    rewriteNeeded = true;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          log.log(Level.INFO, "ignoring fingerprints from older version in {0}",
+              file);
+          return;
+        }
+        Change change;
+        while ((change = Change.readFrom(in)) != null) {
+          if (change.op == REMOVE) {
+            fingerprints.remove(change.key);
+          } else {
+            fingerprints.put(change.key, change.fingerprint,
+                change.op == PUT_RECORD);
+          }
+          changesInFile++;
+        }
+        rewriteNeeded = false;
+      } finally {
+        in.close();
+      }
+    } catch (EOFException ex) {
+      log.log(Level.WARNING, "ignoring truncated end of fingerprint file "
+          + file, ex);
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to read fingerprints from " + file, ex);
+      fingerprints = new FingerprintTable();
+    }
+  }
+
+  /** Receives the DocIds of records with current fingerprints. */
+  private interface NameVisitor {
+    /** {@code slot} is the record's slot in the table. */
+    void visit(int slot, String name) throws IOException;
+  }
+
+  /**
+   * Calls {@code visitor} for each record change in the file and in {@code
+   * pending} that put the record's current fingerprint. A record may be
+   * visited more than once. Problems reading the file are logged, and only
+   * exceptions thrown by {@code visitor} are propagated.
+   */
+  private void readNames(NameVisitor visitor) throws IOException {
+    DataInputStream in = openToRead();
+    if (in != null) {
+      try {
+        while (true) {
+          Change change;
+          try {
+            change = Change.readFrom(in);
+          } catch (EOFException ex) {
+            // The truncation was logged when loading.
+            break;
+          } catch (IOException ex) {
+            log.log(Level.WARNING, "failed to read DocIds from " + file, ex);
+            break;
+          }
+          if (change == null) {
+            break;
+          }
+          visitName(change, visitor);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    for (Change change : pending) {
+      visitName(change, visitor);
+    }
+  }
+
+  /**
+   * Opens the file, positioned after its version. Returns {@code null} if it
+   * does not exist, can't be read, or is from another version.
+   */
+  private DataInputStream openToRead() {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      boolean current = false;
+      try {
+        current = in.readInt() == VERSION;
+      } finally {
+        if (!current) {
+          in.close();
+        }
+      }
+      return current ? in : null;
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to read DocIds from " + file, ex);
+      return null;
+    }
+  }
+
+  private void visitName(Change change, NameVisitor visitor)
+      throws IOException {
+    if (change.op != PUT_RECORD) {
+      return;
+    }
+    int slot = fingerprints.indexOf(change.key);
+    if (slot >= 0 && fingerprints.isSent(slot)
+        && fingerprints.fingerprintAt(slot) == change.fingerprint) {
+      visitor.visit(slot, change.name);
+    }
+  }
+
+  private static long hashKey(String key) {
+    long hash = HASH_FUNCTION.hashString(key).asLong();
+    // Zero marks empty slots in the table.
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static String keyOf(DocIdSender.Item item) {
+    if (item instanceof DocIdPusher.Record) {
+      return RECORD_PREFIX + ((DocIdPusher.Record) item).getDocId()
+          .getUniqueId();
+    } else if (item instanceof DocIdSender.AclItem) {
+      DocIdSender.AclItem acl = (DocIdSender.AclItem) item;
+      String key = ACL_PREFIX + acl.getDocId().getUniqueId();
+      return acl.getDocIdFragment() == null
+          ? key : key + "#" + acl.getDocIdFragment();
+    } else {
+      throw new IllegalArgumentException("Unsupported class: "
+                                         + item.getClass().getName());
+    }
+  }
+
+  static long fingerprintOf(DocIdSender.Item item) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    if (item instanceof DocIdPusher.Record) {
+      DocIdPusher.Record record = (DocIdPusher.Record) item;
+      hasher.putBoolean(record.isToBeDeleted());
+      hasher.putLong(record.getLastModified() == null
+          ? -1 : record.getLastModified().getTime());
+      putNullable(hasher, record.getResultLink() == null
+          ? null : record.getResultLink().toString());
+      hasher.putBoolean(record.isToBeCrawledImmediately());
+      hasher.putBoolean(record.isToBeCrawledOnce());
+      hasher.putBoolean(record.isToBeLocked());
+    } else if (item instanceof DocIdSender.AclItem) {
+      Acl acl = ((DocIdSender.AclItem) item).getAcl();
+      hasher.putBoolean(acl.isEverythingCaseSensitive());
+      putNullable(hasher, acl.getInheritFrom() == null
+          ? null : acl.getInheritFrom().getUniqueId());
+      putNullable(hasher, acl.getInheritFromFragment());
+      putNullable(hasher, acl.getInheritanceType().name());
+      putPrincipals(hasher, acl.getPermitGroups());
+      putPrincipals(hasher, acl.getDenyGroups());
+      putPrincipals(hasher, acl.getPermitUsers());
+      putPrincipals(hasher, acl.getDenyUsers());
+    } else {
+      throw new IllegalArgumentException("Unsupported class: "
+                                         + item.getClass().getName());
+    }
+    return hasher.hash().asLong();
+  }
+
+  private static void putNullable(Hasher hasher, String value) {
+    hasher.putBoolean(value != null);
+    if (value != null) {
+      hasher.putInt(value.length());
+      hasher.putString(value);
+    }
+  }
+
+  private static void putPrincipals(Hasher hasher,
+      Collection<? extends Principal> principals) {
+    // Sets may be unordered, so sort for a stable fingerprint.
+    List<String> names = new ArrayList<String>(principals.size());
+    for (Principal principal : principals) {
+      names.add(principal.getNamespace() + "\u0000" + principal.getName());
+    }
+    Collections.sort(names);
+    hasher.putInt(names.size());
+    for (String name : names) {
+      putNullable(hasher, name);
+    }
+  }
+
+  /** An entry in the fingerprint file. */
+  private static final class Change {
+    final byte op;
+    final long key;
+    final long fingerprint;
+    /** The record's DocId for {@code PUT_RECORD}, otherwise {@code null}. */
+    final String name;
+
+    Change(byte op, long key, long fingerprint, String name) {
+      this.op = op;
+      this.key = key;
+      this.fingerprint = fingerprint;
+      this.name = name;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeByte(op);
+      out.writeLong(key);
+      if (op == REMOVE) {
+        return;
+      }
+      out.writeLong(fingerprint);
+      if (op == PUT_RECORD) {
+        // Unlike writeUTF, not limited to 64 KB.
+        byte[] bytes = name.getBytes(CHARSET_UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    /**
+     * Returns the next change, or {@code null} at the end of the file.
+     *
+     * @throws EOFException if the file ends part way through a change
+     */
+    static Change readFrom(DataInputStream in) throws IOException {
+      int op = in.read();
+      if (op == -1) {
+        return null;
+      }
+      long key = in.readLong();
+      if (op == REMOVE) {
+        return new Change(REMOVE, key, 0, null);
+      }
+      long fingerprint = in.readLong();
+      if (op == PUT_ACL) {
+        return new Change(PUT_ACL, key, fingerprint, null);
+      } else if (op != PUT_RECORD) {
+        throw new IOException("unknown change type " + op);
+      }
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("invalid DocId length " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new Change(PUT_RECORD, key, fingerprint,
+          new String(bytes, CHARSET_UTF8));
+    }
+  }
+
+  /**
+   * Open addressing hash table from key hash to fingerprint, using linear
+   * probing. Besides sent fingerprints, it holds unsent placeholders for keys
+   * seen during a full push, so that they are still known to be seen once
+   * they are sent.
+   */
+  private static final class FingerprintTable {
+    private static final long EMPTY = 0;
+    private static final byte SEEN = 1;
+    private static final byte RECORD = 2;
+    private static final byte SENT = 4;
+
+    private long[] keys = new long[16];
+    private long[] values = new long[16];
+    private byte[] flags = new byte[16];
+    /** Number of keys, including unsent placeholders. */
+    private int used;
+    /** Number of sent fingerprints. */
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    int capacity() {
+      return keys.length;
+    }
+
+    long keyAt(int slot) {
+      return keys[slot];
+    }
+
+    long fingerprintAt(int slot) {
+      return values[slot];
+    }
+
+    boolean isSent(int slot) {
+      return (flags[slot] & SENT) != 0;
+    }
+
+    boolean isSeen(int slot) {
+      return (flags[slot] & SEEN) != 0;
+    }
+
+    boolean isRecord(int slot) {
+      return (flags[slot] & RECORD) != 0;
+    }
+
+    /** Returns the slot holding {@code key}, or -1. */
+    int indexOf(long key) {
+      int mask = keys.length - 1;
+      for (int i = (int) key & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Notes {@code key} as seen, and returns whether it was sent with {@code
+     * fingerprint}.
+     */
+    boolean markSeen(long key, long fingerprint) {
+      int slot = indexOf(key);
+      if (slot < 0) {
+        slot = insert(key);
+      }
+      flags[slot] |= SEEN;
+      return isSent(slot) && values[slot] == fingerprint;
+    }
+
+    /** Returns whether the sent fingerprint of {@code key} changed. */
+    boolean put(long key, long fingerprint, boolean record) {
+      int slot = indexOf(key);
+      if (slot < 0) {
+        slot = insert(key);
+      } else if (isSent(slot) && values[slot] == fingerprint
+          && isRecord(slot) == record) {
+        return false;
+      }
+      if (!isSent(slot)) {
+        size++;
+      }
+      values[slot] = fingerprint;
+      flags[slot] = (byte) ((flags[slot] & SEEN) | SENT
+          | (record ? RECORD : 0));
+      return true;
+    }
+
+    /** Returns whether {@code key} had been sent. */
+    boolean remove(long key) {
+      int slot = indexOf(key);
+      if (slot < 0) {
+        return false;
+      }
+      boolean sent = isSent(slot);
+      if (sent) {
+        size--;
+      }
+      used--;
+      // Shift later keys of the same probe sequence back into the gap.
+      int mask = keys.length - 1;
+      int gap = slot;
+      for (int i = (gap + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+        int home = (int) keys[i] & mask;
+        boolean movable = gap <= i ? (home <= gap || home > i)
+            : (home <= gap && home > i);
+        if (movable) {
+          keys[gap] = keys[i];
+          values[gap] = values[i];
+          flags[gap] = flags[i];
+          gap = i;
+        }
+      }
+      keys[gap] = EMPTY;
+      values[gap] = 0;
+      flags[gap] = 0;
+      return sent;
+    }
+
+    /** Returns the sent keys not seen in the current full push. */
+    long[] getUnseenKeys() {
+      long[] unseen = new long[size];
+      int count = 0;
+      for (int slot = 0; slot < keys.length; slot++) {
+        if (isSent(slot) && !isSeen(slot)) {
+          unseen[count++] = keys[slot];
+        }
+      }
+      return Arrays.copyOf(unseen, count);
+    }
+
+    /** Forgets what was seen, along with unsent placeholders. */
+    void startFullPush() {
+      for (int slot = 0; slot < keys.length; slot++) {
+        flags[slot] &= ~SEEN;
+      }
+      if (used != size) {
+        rehash(keys.length);
+      }
+    }
+
+    private int insert(long key) {
+      if (2 * (used + 1) > keys.length) {
+        rehash(2 * keys.length);
+      }
+      int mask = keys.length - 1;
+      int i = (int) key & mask;
+      while (keys[i] != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      used++;
+      return i;
+    }
+
+    /** Moves the sent fingerprints into tables of {@code capacity}. */
+    private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      byte[] oldFlags = flags;
+      keys = new long[capacity];
+      values = new long[capacity];
+      flags = new byte[capacity];
+      used = 0;
+      size = 0;
+      for (int slot = 0; slot < oldKeys.length; slot++) {
+        if (oldKeys[slot] == EMPTY) {
+          continue;
+        }
+        if ((oldFlags[slot] & SENT) == 0 && (oldFlags[slot] & SEEN) == 0) {
+          continue;
+        }
+        int i = insert(oldKeys[slot]);
+        values[i] = oldValues[slot];
+        flags[i] = oldFlags[slot];
+        if ((oldFlags[slot] & SENT) != 0) {
+          size++;
+        }
+      }
+    }
+  }
+}
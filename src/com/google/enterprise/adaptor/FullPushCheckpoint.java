@@ -0,0 +1,105 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.base.Strings;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the checkpoint of an incomplete full listing, for {@link
+ * CheckpointingDocIdPusher}. If a file is configured with {@code
+ * adaptor.fullListingCheckpointFile}, the checkpoint is also stored there so
+ * that it survives restarts.
+ */
+class FullPushCheckpoint {
+  private static final Logger log
+      = Logger.getLogger(FullPushCheckpoint.class.getName());
+  private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private String checkpoint;
+  private boolean loaded;
+
+  public FullPushCheckpoint(String checkpointFile) {
+    this.file = Strings.isNullOrEmpty(checkpointFile)
+        ? null : new File(checkpointFile);
+  }
+
+  /** Returns the saved checkpoint, or {@code null} if there is none. */
+  public synchronized String get() {
+    if (!loaded) {
+      loaded = true;
+      if (file != null && file.exists()) {
+        try {
+          InputStream is = new FileInputStream(file);
+          try {
+            checkpoint = IOHelper.readInputStreamToString(is, CHARSET_UTF8);
+          } finally {
+            is.close();
+          }
+        } catch (IOException ex) {
+          log.log(Level.WARNING, "failed to read full listing checkpoint from "
+              + file + "; listing from the beginning", ex);
+        }
+      }
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Replaces the saved checkpoint. {@code null} clears it. Failing to write the
+   * file is logged, but the checkpoint is still used until the adaptor stops.
+   */
+  public synchronized void set(String newCheckpoint) {
+    loaded = true;
+    checkpoint = newCheckpoint;
+    if (file == null) {
+      return;
+    }
+    try {
+      if (newCheckpoint == null) {
+        if (!file.delete() && file.exists()) {
+          throw new IOException("could not delete " + file);
+        }
+        return;
+      }
+      File temp = new File(file.getPath() + ".tmp");
+      FileOutputStream os = new FileOutputStream(temp);
+      try {
+        os.write(newCheckpoint.getBytes(CHARSET_UTF8));
+        // Make sure the new checkpoint is on disk before it replaces the old
+        // one, so a crash can't leave an empty or partial file behind.
+        os.getFD().sync();
+      } finally {
+        os.close();
+      }
+      // Windows does not replace existing files when renaming.
+      if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+        throw new IOException("could not rename " + temp + " to " + file);
+      }
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to save full listing checkpoint to "
+          + file, ex);
+    }
+  }
+}
@@ -0,0 +1,319 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the group definitions pushed with {@link
+ * DocIdPusher#pushGroupDefinitions}, used to add the groups a user is only
+ * indirectly a member of to their identity before it is given to the adaptor's
+ * {@link AuthzAuthority}. Then ACL checks see nested groups without the
+ * adaptor resolving them on each request.
+ *
+ * <p>Each member is stored once, with the ids of the groups that directly
+ * contain it. Each group's transitive ancestors are computed when first needed
+ * and remembered until the next push. The number of memberships is bounded; if
+ * pushes exceed it, the whole index is dropped until restart. A partial index
+ * could miss a nested deny group, so it is not used.
+ *
+ * <p>Definitions are only indexed once the GSA accepted all of them. The index
+ * is only kept in memory, so after a restart it is empty until the adaptor
+ * pushes its groups again; until then, identities are not expanded.
+ */
+class GroupMembershipIndex {
+  private static final Logger log
+      = Logger.getLogger(GroupMembershipIndex.class.getName());
+  private static final int[] NO_IDS = new int[0];
+  private static final String[] NO_KEYS = new String[0];
+
+  private final int maxSize;
+  /** Defined groups, by id. */
+  private final List<GroupPrincipal> groups = new ArrayList<GroupPrincipal>();
+  private final Map<GroupPrincipal, Integer> groupIds
+      = new HashMap<GroupPrincipal, Integer>();
+  /** Keys of the members of each group, by id of the group. */
+  private final List<String[]> memberKeys = new ArrayList<String[]>();
+  /** Sorted ids of the groups directly containing a member, by its key. */
+  private final Map<String, int[]> parents = new HashMap<String, int[]>();
+  private int memberships;
+  /** Sorted ids of all groups containing a group, by its id. */
+  private final Map<Integer, int[]> ancestors = new HashMap<Integer, int[]>();
+  private int ancestorsSize;
+  private boolean overflowed;
+
+  /** {@code maxSize} of zero disables the index. */
+  public GroupMembershipIndex(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Size must not be negative");
+    }
+    this.maxSize = maxSize;
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Returns an authority that expands the groups of identities with {@link
+   * #expand} before calling {@code authority}. Returns {@code authority}
+   * itself if the index is disabled or {@code authority} is {@code null}.
+   */
+  public AuthzAuthority wrap(final AuthzAuthority authority) {
+    if (authority == null || !isEnabled()) {
+      return authority;
+    }
+    return new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        return authority.isUserAuthorized(expand(userIdentity), ids);
+      }
+    };
+  }
+
+  /**
+   * Returns {@code identity} with the groups it is indirectly a member of
+   * added, or {@code identity} itself if there are none.
+   */
+  public AuthnIdentity expand(AuthnIdentity identity) {
+    if (identity == null || !isEnabled()) {
+      return identity;
+    }
+    Set<GroupPrincipal> expanded
+        = expandGroups(identity.getUser(), identity.getGroups());
+    if (expanded == identity.getGroups()) {
+      return identity;
+    }
+    return new AuthnIdentityImpl.Builder(identity.getUser())
+        .setPassword(identity.getPassword()).setGroups(expanded).build();
+  }
+
+  /**
+   * Returns {@code groups} plus all defined groups that contain {@code user}
+   * or one of {@code groups}, directly or through other groups. Returns {@code
+   * groups} itself if that adds nothing.
+   */
+  synchronized Set<GroupPrincipal> expandGroups(UserPrincipal user,
+      Set<GroupPrincipal> groups) {
+    if (overflowed || this.groups.isEmpty()) {
+      return groups;
+    }
+    BitSet found = new BitSet(this.groups.size());
+    addAncestors(user, found);
+    if (groups != null) {
+      for (GroupPrincipal group : groups) {
+        addAncestors(group, found);
+      }
+    }
+    Set<GroupPrincipal> expanded = groups == null
+        ? new HashSet<GroupPrincipal>() : new HashSet<GroupPrincipal>(groups);
+    int sizeBefore = expanded.size();
+    for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+      expanded.add(this.groups.get(id));
+    }
+    return expanded.size() == sizeBefore ? groups : expanded;
+  }
+
+  /**
+   * Replaces the definitions of the groups in {@code defs}, as they were
+   * pushed to the GSA.
+   */
+  public synchronized void update(
+      Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+      boolean caseSensitive) {
+    if (!isEnabled() || overflowed) {
+      return;
+    }
+    ancestors.clear();
+    ancestorsSize = 0;
+    for (Map.Entry<GroupPrincipal, ? extends Collection<Principal>> me
+        : defs.entrySet()) {
+      int id = getOrCreateId(me.getKey());
+      Set<String> keys = keys(me.getValue(), caseSensitive);
+      for (String key : memberKeys.get(id)) {
+        if (!keys.contains(key)) {
+          removeParent(key, id);
+        }
+      }
+      for (String key : keys) {
+        addParent(key, id);
+      }
+      memberKeys.set(id, keys.toArray(NO_KEYS));
+      if (memberships + this.groups.size() > maxSize) {
+        log.log(Level.WARNING, "More than {0} group memberships were pushed, "
+            + "so nested groups are no longer resolved for authorization. "
+            + "Increase adaptor.groupIndexSize to resolve them.", maxSize);
+        overflowed = true;
+        this.groups.clear();
+        groupIds.clear();
+        memberKeys.clear();
+        parents.clear();
+        memberships = 0;
+        return;
+      }
+    }
+  }
+
+  private static Set<String> keys(Collection<Principal> members,
+      boolean caseSensitive) {
+    Set<String> keys = new HashSet<String>(members.size() * 2);
+    for (Principal member : members) {
+      keys.add(key(member, caseSensitive));
+    }
+    return keys;
+  }
+
+  private int getOrCreateId(GroupPrincipal group) {
+    Integer id = groupIds.get(group);
+    if (id == null) {
+      id = groups.size();
+      groups.add(group);
+      groupIds.put(group, id);
+      memberKeys.add(NO_KEYS);
+    }
+    return id;
+  }
+
+  private void addParent(String key, int id) {
+    int[] ids = parents.get(key);
+    if (ids == null) {
+      ids = NO_IDS;
+    }
+    int index = Arrays.binarySearch(ids, id);
+    if (index >= 0) {
+      return;
+    }
+    index = -index - 1;
+    int[] newIds = new int[ids.length + 1];
+    System.arraycopy(ids, 0, newIds, 0, index);
+    newIds[index] = id;
+    System.arraycopy(ids, index, newIds, index + 1, ids.length - index);
+    parents.put(key, newIds);
+    memberships++;
+  }
+
+  private void removeParent(String key, int id) {
+    int[] ids = parents.get(key);
+    int index = ids == null ? -1 : Arrays.binarySearch(ids, id);
+    if (index < 0) {
+      return;
+    }
+    if (ids.length == 1) {
+      parents.remove(key);
+    } else {
+      int[] newIds = new int[ids.length - 1];
+      System.arraycopy(ids, 0, newIds, 0, index);
+      System.arraycopy(ids, index + 1, newIds, index, newIds.length - index);
+      parents.put(key, newIds);
+    }
+    memberships--;
+  }
+
+  /**
+   * Adds the ids of all groups containing {@code principal} to {@code found}.
+   * Must hold the lock on this object.
+   */
+  private void addAncestors(Principal principal, BitSet found) {
+    for (int id : getParents(principal)) {
+      if (!found.get(id)) {
+        found.set(id);
+        for (int ancestor : getAncestors(id)) {
+          found.set(ancestor);
+        }
+      }
+    }
+  }
+
+  /** Must hold the lock on this object. */
+  private int[] getAncestors(int id) {
+    int[] ids = ancestors.get(id);
+    if (ids != null) {
+      return ids;
+    }
+    // Walk up without using other groups' ancestors, since groups may form
+    // cycles.
+    BitSet found = new BitSet(groups.size());
+    List<Integer> pending = new ArrayList<Integer>();
+    pending.add(id);
+    while (!pending.isEmpty()) {
+      int current = pending.remove(pending.size() - 1);
+      for (int parent : getParents(groups.get(current))) {
+        if (!found.get(parent)) {
+          found.set(parent);
+          pending.add(parent);
+        }
+      }
+    }
+    ids = new int[found.cardinality()];
+    int i = 0;
+    for (int p = found.nextSetBit(0); p >= 0; p = found.nextSetBit(p + 1)) {
+      ids[i++] = p;
+    }
+    if (ancestorsSize + ids.length > maxSize) {
+      ancestors.clear();
+      ancestorsSize = 0;
+    }
+    ancestors.put(id, ids);
+    ancestorsSize += ids.length;
+    return ids;
+  }
+
+  /**
+   * Returns the ids of the groups directly containing {@code principal}, as
+   * pushed either case sensitively or not. Must hold the lock on this object.
+   */
+  private int[] getParents(Principal principal) {
+    int[] sensitive = parents.get(key(principal, true));
+    int[] insensitive = parents.get(key(principal, false));
+    if (sensitive == null) {
+      return insensitive == null ? NO_IDS : insensitive;
+    }
+    if (insensitive == null) {
+      return sensitive;
+    }
+    int[] both = new int[sensitive.length + insensitive.length];
+    System.arraycopy(sensitive, 0, both, 0, sensitive.length);
+    System.arraycopy(insensitive, 0, both, sensitive.length,
+        insensitive.length);
+    return both;
+  }
+
+  /**
+   * Returns a key that is equal for two members exactly when they are the
+   * same kind of principal and equal under the given case sensitivity, which
+   * is also part of the key.
+   */
+  private static String key(Principal principal, boolean caseSensitive) {
+    String type = principal.isGroup() ? "g" : "u";
+    if (!caseSensitive) {
+      return type + "i" + Acl.foldedKey(principal);
+    }
+    String ns = principal.getNamespace();
+    return type + "s" + ns.length() + ":" + ns + principal.getName();
+  }
+}
@@ -28,6 +28,7 @@ import com.sun.net.httpserver.HttpsServer;
 import org.opensaml.DefaultBootstrap;
 import org.opensaml.xml.ConfigurationException;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -53,6 +54,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -113,9 +115,14 @@ public final class GsaCommunicationHandler {
    * purpose and is commonly used in conjunction with {@link #scheduleExecutor}.
    */
   private ExecutorService backgroundExecutor;
+  /** Only set when SAML batch authorization is split into chunks. */
+  private ExecutorService authzExecutor;
   private DocIdCodec docIdCodec;
   private DocIdSender docIdSender;
   private AsyncDocIdSender asyncDocIdSender;
+  private Watchdog watchdog;
+  /** Only set when the async sender spills overflowing items to disk. */
+  private ItemSpill itemSpill;
   private HttpServerScope dashboardScope;
   private Dashboard dashboard;
   private SensitiveValueCodec secureValueCodec;
@@ -123,6 +130,8 @@ public final class GsaCommunicationHandler {
   private AclTransform aclTransform;
 
   private ShutdownWaiter waiter;
+  /** Limits concurrent retriever requests with the CACHED executor. */
+  private AdmissionFilter admissionFilter;
   private final List<Filter> commonFilters = Arrays.asList(new Filter[] {
     new AbortImmediatelyFilter(),
     new LoggingFilter(),
@@ -189,6 +198,11 @@ public final class GsaCommunicationHandler {
 
     scope = new HttpServerScope(server, contextPrefix);
     waiter = new ShutdownWaiter();
+    if (config.getServerExecutor() == Application.ExecutorMode.CACHED) {
+      admissionFilter = new AdmissionFilter(
+          config.getServerMaxConcurrentRequests(),
+          config.getServerBusyRetryAfterSecs());
+    }
 
     sessionManager = new SessionManager<HttpExchange>(
           new SessionManager.HttpExchangeClientStore("sessid_" + port, secure),
@@ -206,7 +220,7 @@ public final class GsaCommunicationHandler {
     docIdCodec = new DocIdCodec(baseUri.resolve(docUri), config.isDocIdUrl());
     GsaFeedFileSender fileSender = new GsaFeedFileSender(
         config.getGsaHostname(), config.isServerSecure(), // use secure bool?
-        config.getGsaCharacterEncoding());
+        config.getGsaCharacterEncoding(), journal);
     aclTransform = createAclTransform();
     GsaFeedFileMaker fileMaker = new GsaFeedFileMaker(docIdCodec, aclTransform,
         config.isGsa614FeedWorkaroundEnabled(),
@@ -217,12 +231,29 @@ public final class GsaCommunicationHandler {
         config.isFeedNoRecrawlBitEnabled().value);
     GsaFeedFileArchiver fileArchiver =
         new GsaFeedFileArchiver(config.getFeedArchiveDirectory());
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-        config, adaptor);
-    asyncDocIdSender = new AsyncDocIdSender(docIdSender,
-        config.getFeedMaxUrls() /* batch size */,
-        5 /* max latency */, TimeUnit.MINUTES,
-        config.getAsyncDocIdSenderQueueSize());
+    FeedSpool feedSpool = new FeedSpool(config.getFeedSpoolDirectory());
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver,
+        feedSpool, journal, config, adaptor);
+    int maxBatchSize = config.getFeedMaxUrls();
+    long maxLatencySecs = config.getAsyncDocIdSenderMaxLatencySecs();
+    AdaptiveBatchPolicy batchPolicy = new AdaptiveBatchPolicy(
+        Math.min(config.getAsyncDocIdSenderMinBatchSize(), maxBatchSize),
+        maxBatchSize,
+        Math.min(config.getAsyncDocIdSenderMinLatencySecs(), maxLatencySecs),
+        maxLatencySecs, TimeUnit.SECONDS);
+    AsyncDocIdSender.OverflowPolicy overflowPolicy
+        = config.getAsyncDocIdSenderOverflowPolicy();
+    if (overflowPolicy == AsyncDocIdSender.OverflowPolicy.SPILL) {
+      if ("".equals(config.getAsyncDocIdSenderSpillFile())) {
+        throw new IllegalStateException("server.asyncDocIdSenderSpillFile "
+            + "must be set when using the SPILL overflow policy");
+      }
+      itemSpill = new ItemSpill(
+          new File(config.getAsyncDocIdSenderSpillFile()));
+    }
+    asyncDocIdSender = new AsyncDocIdSender(docIdSender, batchPolicy,
+        config.getAsyncDocIdSenderQueueSize(), overflowPolicy,
+        config.getAsyncDocIdSenderBlockTimeoutMillis(), itemSpill);
 
     // Could be done during start(), but then we would have to save
     // dashboardServer and contextPrefix.
@@ -243,6 +274,9 @@ public final class GsaCommunicationHandler {
     // Since the Adaptor has been started, we can now issue other calls to it.
     // Usages of 'adaptor' are completely safe after this point.
     adaptorContext.freeze();
+    // Cache hits skip expanding groups; pushing groups clears the cache.
+    AuthzAuthority authzAuthority = docIdSender.getAuthzCache().wrap(
+        docIdSender.getGroupIndex().wrap(adaptorContext.authzAuthority));
 
     // Since we are white-listing particular keys for auto-update, things aren't
     // ready enough to expose to adaptors.
@@ -273,10 +307,24 @@ public final class GsaCommunicationHandler {
           = new SamlServiceProvider(sessionManager, metadata, keyPair, dmfmt);
       addFilters(scope.createContext("/samlassertionconsumer",
           samlServiceProvider.getAssertionConsumer()));
-      if (adaptorContext.authzAuthority != null) {
+      if (authzAuthority != null) {
         log.config("Adaptor-based authorization supported");
+        AuthzAuthority batchAuthzAuthority = authzAuthority;
+        int chunkSize = config.getAdaptorAuthzBatchChunkSize();
+        if (chunkSize > 0) {
+          authzExecutor = Executors.newFixedThreadPool(
+              config.getAdaptorAuthzBatchThreads(),
+              new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("authz-%d").build());
+          // Check the cache before splitting, so only misses are fanned out.
+          batchAuthzAuthority = docIdSender.getAuthzCache().wrap(
+              docIdSender.getGroupIndex().wrap(new ParallelAuthzAuthority(
+                  adaptorContext.authzAuthority, chunkSize,
+                  config.getAdaptorAuthzBatchTimeoutMillis(),
+                  authzExecutor)));
+        }
         addFilters(scope.createContext("/saml-authz", new SamlBatchAuthzHandler(
-            adaptorContext.authzAuthority, docIdCodec, metadata, dmfmt)));
+            batchAuthzAuthority, docIdCodec, metadata, dmfmt, journal)));
       } else {
         log.config("Adaptor-based authorization not supported");
       }
@@ -284,7 +332,7 @@ public final class GsaCommunicationHandler {
     scheduleExecutor = Executors.newSingleThreadScheduledExecutor(
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("schedule")
         .build());
-    Watchdog watchdog = new Watchdog(scheduleExecutor);
+    watchdog = new Watchdog(scheduleExecutor);
 
     // The cachedThreadPool implementation created here is considerably better
     // than using ThreadPoolExecutor. ThreadPoolExecutor does not create threads
@@ -293,8 +341,10 @@ public final class GsaCommunicationHandler {
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("background")
         .build());
     backgroundExecutor.execute(waiter.runnable(asyncDocIdSender.worker()));
+    // Resend feeds left over from the last run, even if nothing new is pushed.
+    backgroundExecutor.execute(waiter.runnable(new ReplaySpoolRunnable()));
     DocumentHandler docHandler = new DocumentHandler(
-        docIdCodec, docIdCodec, journal, adaptor, adaptorContext.authzAuthority,
+        docIdCodec, docIdCodec, journal, adaptor, authzAuthority,
         config.getGsaHostname(),
         config.getServerFullAccessHosts(),
         samlServiceProvider, createTransformPipeline(), aclTransform,
@@ -306,7 +356,9 @@ public final class GsaCommunicationHandler {
         config.getAdaptorDocContentTimeoutMillis(),
         config.getScoringType(),
         config.requireHttpBasicAuthn(),
-        new GsaVersion(config.getGsaVersion()));
+        new GsaVersion(config.getGsaVersion()),
+        docIdSender.getContentCache(),
+        docIdSender.getLastModifiedCache());
     String handlerPath = config.getServerBaseUri().getPath()
         + config.getServerDocIdPath();
     HttpContext docContext
@@ -630,6 +682,11 @@ public final class GsaCommunicationHandler {
         backgroundExecutor.shutdownNow();
         backgroundExecutor = null;
       }
+      if (authzExecutor != null) {
+        authzExecutor.shutdownNow();
+        authzExecutor = null;
+      }
+      docIdSender.stop();
 
       scheduler = null;
       sendDocIdsFuture = null;
@@ -666,6 +723,7 @@ public final class GsaCommunicationHandler {
     keyPair = null;
     aclTransform = null;
     waiter = null;
+    admissionFilter = null;
 
     // Wait until after adaptor.destroy() to shutdown things accessible by
     // AdaptorContext, so that the AdaptorContext is usable until the very
@@ -675,6 +733,14 @@ public final class GsaCommunicationHandler {
     docIdCodec = null;
     docIdSender = null;
     adaptorContext = null;
+    if (itemSpill != null) {
+      try {
+        itemSpill.close();
+      } catch (IOException ex) {
+        log.log(Level.WARNING, "Failed to close " + itemSpill, ex);
+      }
+      itemSpill = null;
+    }
   }
 
   /**
@@ -746,9 +812,26 @@ public final class GsaCommunicationHandler {
     return adaptor;
   }
 
+  AsyncDocIdSender getAsyncDocIdSender() {
+    return asyncDocIdSender;
+  }
+
+  Watchdog getWatchdog() {
+    return watchdog;
+  }
+
+  /** The executor running retriever requests, if one was set on the server. */
+  Executor getRetrieverExecutor() {
+    return scope.getHttpServer().getExecutor();
+  }
+
   HttpContext addFilters(HttpContext context) {
     context.getFilters().add(waiter.filter());
     context.getFilters().addAll(commonFilters);
+    if (admissionFilter != null
+        && context.getServer() == scope.getHttpServer()) {
+      context.getFilters().add(admissionFilter);
+    }
     return context;
   }
 
@@ -792,6 +875,20 @@ public final class GsaCommunicationHandler {
     }
   }
 
+  /**
+   * Runnable that sends feeds left in the spool when the adaptor last stopped.
+   */
+  private class ReplaySpoolRunnable implements Runnable {
+    @Override
+    public void run() {
+      try {
+        docIdSender.replaySpooledFeeds(null);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   /**
    * Runnable that performs incremental feed push.
    */
@@ -936,6 +1033,11 @@ public final class GsaCommunicationHandler {
       return secureValueCodec;
     }
 
+    @Override
+    public InheritedAclCache getInheritedAclCache() {
+      return docIdSender.getInheritedAclCache();
+    }
+
     @Override
     public synchronized HttpContext createHttpContext(String path,
         HttpHandler handler) {
@@ -15,10 +15,13 @@
 package com.google.enterprise.adaptor;
 
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,18 +43,24 @@ class GsaFeedFileArchiver implements FeedArchiver {
         ? null : new File(archiveDirectory);
   }
 
-  public void saveFeed(String feedName, String feedXml) {
+  public void saveFeed(String feedName, FeedContent feedXml) {
     if (archiveDir != null) {
       try {
         File file = File.createTempFile(feedName + "-", ".xml", archiveDir);
-        Files.write(feedXml, file, CHARSET_UTF8);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file), CHARSET_UTF8));
+        try {
+          feedXml.writeTo(writer);
+        } finally {
+          writer.close();
+        }
       } catch (IOException e) {
         log.log(Level.WARNING, "failed to archive feed file", e);
       }
     }
   }
 
-  public void saveFailedFeed(String feedName, String feedXml) {
+  public void saveFailedFeed(String feedName, FeedContent feedXml) {
     saveFeed("FAILED-" + feedName, feedXml);
   }
 }
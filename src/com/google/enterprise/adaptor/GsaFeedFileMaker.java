@@ -14,12 +14,9 @@
 
 package com.google.enterprise.adaptor;
 
-import org.w3c.dom.Comment;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
-
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
@@ -30,22 +27,16 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeSet;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 
 /** Makes XML metadata-and-url feed file from DocIds.
   This code is based on information provided by Google at
   http://code.google.com/apis/searchappliance/documentation/64/feedsguide.html
+
+  <p>Feeds are streamed to a {@link Writer} as they are generated instead of
+  being built up as a DOM tree. The output is identical to what the JDK's
+  identity {@code Transformer} produced for the DOM we used to build: one
+  element per line, attributes in alphabetical order, and the same escaping of
+  markup and control characters.
  */
 class GsaFeedFileMaker {
   // DateFormats are relatively expensive to create, and cannot be used from
@@ -61,6 +52,9 @@ class GsaFeedFileMaker {
         }
       };
 
+  private static final String DOCTYPE_PUBLIC = "-//Google//DTD GSA Feeds//EN";
+  private static final String NEWLINE = System.getProperty("line.separator");
+
   private final DocIdEncoder idEncoder;
   private final AclTransform aclTransform;
   private final boolean separateClosingRecordTagWorkaround;
@@ -99,81 +93,102 @@ class GsaFeedFileMaker {
     this.crawlOnceOverrideValue = crawlOnce;
   }
 
-  /** Adds header to document's root.
+  /** Writes the XML declaration, doctype, and opening root tag. */
+  private void writeFeedFileHead(Writer out, String rootName)
+      throws IOException {
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+    out.write(NEWLINE);
+    out.write("<!DOCTYPE ");
+    out.write(rootName);
+    out.write(" PUBLIC \"");
+    out.write(DOCTYPE_PUBLIC);
+    out.write("\" \"\">");
+    out.write(NEWLINE);
+    out.write("<");
+    out.write(rootName);
+    out.write(">");
+    out.write(NEWLINE);
+    out.write("<!--GSA EasyConnector-->");
+    out.write(NEWLINE);
+  }
+
+  /** Writes header of metadata-and-url feed.
       @param srcName Used as datasource name. */
-  private void constructMetadataAndUrlFeedFileHead(Document doc,
-      Element root, String srcName) {
-    Comment comment = doc.createComment("GSA EasyConnector");
-    root.appendChild(comment);
-    Element header = doc.createElement("header");
-    root.appendChild(header);
-    Element datasource = doc.createElement("datasource");
-    header.appendChild(datasource);
-    Element feedtype = doc.createElement("feedtype");
-    header.appendChild(feedtype);
-    Text srcText = doc.createTextNode(srcName);
-    datasource.appendChild(srcText);
-    Text feedText = doc.createTextNode("metadata-and-url");
-    feedtype.appendChild(feedText);
+  private void writeMetadataAndUrlFeedFileHeader(Writer out, String srcName)
+      throws IOException {
+    out.write("<header>");
+    out.write(NEWLINE);
+    if (srcName.isEmpty()) {
+      out.write("<datasource/>");
+    } else {
+      out.write("<datasource>");
+      writeText(out, srcName);
+      out.write("</datasource>");
+    }
+    out.write(NEWLINE);
+    out.write("<feedtype>metadata-and-url</feedtype>");
+    out.write(NEWLINE);
+    out.write("</header>");
+    out.write(NEWLINE);
   }
 
-  /** Adds a single record to feed-file-document's group,
-      communicating the information represented by DocId. */
-  private void constructSingleMetadataAndUrlFeedFileRecord(
-      Document doc, Element group, DocIdPusher.Record docRecord) {
+  /** Writes a single record communicating the information represented by
+      DocId. Attributes are written in alphabetical order. */
+  private void writeSingleMetadataAndUrlFeedFileRecord(Writer out,
+      DocIdPusher.Record docRecord) throws IOException {
     DocId docForGsa = docRecord.getDocId();
-    Element record = doc.createElement("record");
-    group.appendChild(record);
-    record.setAttribute("url", "" + idEncoder.encodeDocId(docForGsa));
-    // We are no longer automatically clearing the displayurl if unset. We are
-    // moving the setting of displayurl to crawl-time and we don't want a lister
-    // and retriever to fight.
-    if (null != docRecord.getResultLink()) {
-      record.setAttribute("displayurl", "" + docRecord.getResultLink());
-    }
+    out.write("<record");
     if (docRecord.isToBeDeleted()) {
-      record.setAttribute("action", "delete");
+      writeAttribute(out, "action", "delete");
     }
-    record.setAttribute("mimetype", "text/plain"); // Required but ignored :)
-    if (null != docRecord.getLastModified()) {
-      String dateStr = rfc822Format.get().format(docRecord.getLastModified());
-      record.setAttribute("last-modified", dateStr);
-    }
-    if (docRecord.isToBeLocked()) {
-      record.setAttribute("lock", "true");
+    if (useAuthMethodWorkaround) {
+      writeAttribute(out, "authmethod", "httpsso");
     }
     if (crawlImmediatelyIsOverriden) {
-      record.setAttribute("crawl-immediately",
+      writeAttribute(out, "crawl-immediately",
           "" + crawlImmediatelyOverrideValue);
     } else if (docRecord.isToBeCrawledImmediately()) {
-      record.setAttribute("crawl-immediately", "true");
+      writeAttribute(out, "crawl-immediately", "true");
     }
     if (crawlOnceIsOverriden) {
-      record.setAttribute("crawl-once", "" + crawlOnceOverrideValue);
+      writeAttribute(out, "crawl-once", "" + crawlOnceOverrideValue);
     } else if (docRecord.isToBeCrawledOnce()) {
-      record.setAttribute("crawl-once", "true");
+      writeAttribute(out, "crawl-once", "true");
     }
-    if (useAuthMethodWorkaround) {
-      record.setAttribute("authmethod", "httpsso");
+    // We are no longer automatically clearing the displayurl if unset. We are
+    // moving the setting of displayurl to crawl-time and we don't want a lister
+    // and retriever to fight.
+    if (null != docRecord.getResultLink()) {
+      writeAttribute(out, "displayurl", "" + docRecord.getResultLink());
     }
+    if (null != docRecord.getLastModified()) {
+      String dateStr = rfc822Format.get().format(docRecord.getLastModified());
+      writeAttribute(out, "last-modified", dateStr);
+    }
+    if (docRecord.isToBeLocked()) {
+      writeAttribute(out, "lock", "true");
+    }
+    writeAttribute(out, "mimetype", "text/plain"); // Required but ignored :)
+    writeAttribute(out, "url", "" + idEncoder.encodeDocId(docForGsa));
     // TODO(pjo): record.setAttribute(no-follow,);
 
     if (separateClosingRecordTagWorkaround) {
       // GSA 6.14 has a feed parsing bug (fixed in patch 2) that fails to parse
       // self-closing record tags. Thus, here we force record to have a separate
       // close tag.
-      record.appendChild(doc.createTextNode(" "));
+      out.write("> </record>");
+    } else {
+      out.write("/>");
     }
+    out.write(NEWLINE);
   }
 
   /**
-   * Adds a single ACL tag to the provided group, communicating the named
-   * resource's information provided in {@code docAcl}.
+   * Writes a single ACL tag, communicating the named resource's information
+   * provided in {@code docAcl}.
    */
-  private void constructSingleMetadataAndUrlFeedFileAcl(
-      Document doc, Element group, DocIdSender.AclItem docAcl) {
-    Element aclElement = doc.createElement("acl");
-    group.appendChild(aclElement);
+  private void writeSingleMetadataAndUrlFeedFileAcl(Writer out,
+      DocIdSender.AclItem docAcl) throws IOException {
     URI uri = idEncoder.encodeDocId(docAcl.getDocId());
     try {
       // Although it is named "fragment", we put the docIdFragment in the query
@@ -184,9 +199,9 @@ class GsaFeedFileMaker {
     } catch (URISyntaxException ex) {
       throw new AssertionError(ex);
     }
-    aclElement.setAttribute("url", uri.toString());
     Acl acl = docAcl.getAcl();
     acl = aclTransform.transform(acl);
+    out.write("<acl");
     if (acl.getInheritFrom() != null) {
       URI inheritFrom = idEncoder.encodeDocId(acl.getInheritFrom());
       try {
@@ -198,93 +213,106 @@ class GsaFeedFileMaker {
       } catch (URISyntaxException ex) {
         throw new AssertionError(ex);
       }
-      aclElement.setAttribute("inherit-from", inheritFrom.toString());
+      writeAttribute(out, "inherit-from", inheritFrom.toString());
     }
     if (acl.getInheritanceType() != Acl.InheritanceType.LEAF_NODE) {
-      aclElement.setAttribute("inheritance-type",
+      writeAttribute(out, "inheritance-type",
           acl.getInheritanceType().getCommonForm());
     }
+    writeAttribute(out, "url", uri.toString());
+    if (acl.getPermitUsers().isEmpty() && acl.getPermitGroups().isEmpty()
+        && acl.getDenyUsers().isEmpty() && acl.getDenyGroups().isEmpty()) {
+      out.write("/>");
+      out.write(NEWLINE);
+      return;
+    }
+    out.write(">");
+    out.write(NEWLINE);
     boolean noCase = acl.isEverythingCaseInsensitive();
     for (UserPrincipal permitUser : acl.getPermitUsers()) {
-      constructMetadataAndUrlPrincipal(doc, aclElement, "permit",
-          permitUser, noCase);
+      writeMetadataAndUrlPrincipal(out, "permit", permitUser, noCase);
     }
     for (GroupPrincipal permitGroup : acl.getPermitGroups()) {
-      constructMetadataAndUrlPrincipal(doc, aclElement, "permit",
-          permitGroup, noCase);
+      writeMetadataAndUrlPrincipal(out, "permit", permitGroup, noCase);
     }
     for (UserPrincipal denyUser : acl.getDenyUsers()) {
-      constructMetadataAndUrlPrincipal(doc, aclElement, "deny",
-          denyUser, noCase);
+      writeMetadataAndUrlPrincipal(out, "deny", denyUser, noCase);
     }
     for (GroupPrincipal denyGroup : acl.getDenyGroups()) {
-      constructMetadataAndUrlPrincipal(doc, aclElement, "deny",
-          denyGroup, noCase);
+      writeMetadataAndUrlPrincipal(out, "deny", denyGroup, noCase);
     }
+    out.write("</acl>");
+    out.write(NEWLINE);
   }
 
-  private void constructMetadataAndUrlPrincipal(Document doc, Element acl,
-      String access, Principal principal, boolean everythingCaseInsensitive) {
+  private void writeMetadataAndUrlPrincipal(Writer out, String access,
+      Principal principal, boolean everythingCaseInsensitive)
+      throws IOException {
     String scope = principal.isUser() ? "user" : "group";
-    Element principalElement = doc.createElement("principal");
-    principalElement.setAttribute("scope", scope);
-    principalElement.setAttribute("access", access);
-    if (!Principal.DEFAULT_NAMESPACE.equals(principal.getNamespace())) {
-      principalElement.setAttribute("namespace", principal.getNamespace());
-    }
+    out.write("<principal");
+    writeAttribute(out, "access", access);
     if (everythingCaseInsensitive) {
-      principalElement.setAttribute(
-          "case-sensitivity-type", "everything-case-insensitive");
+      writeAttribute(out, "case-sensitivity-type",
+          "everything-case-insensitive");
     }
-    principalElement.appendChild(doc.createTextNode(principal.getName()));
-    acl.appendChild(principalElement);
+    if (!Principal.DEFAULT_NAMESPACE.equals(principal.getNamespace())) {
+      writeAttribute(out, "namespace", principal.getNamespace());
+    }
+    writeAttribute(out, "scope", scope);
+    out.write(">");
+    writeText(out, principal.getName());
+    out.write("</principal>");
+    out.write(NEWLINE);
   }
 
-  /** Adds all the DocIds into feed-file-document one record
-    at a time. */
-  private void constructMetadataAndUrlFeedFileBody(Document doc,
-      Element root, List<? extends DocIdSender.Item> items) {
-    Element group = doc.createElement("group");
-    root.appendChild(group);
+  /** Writes all the DocIds into feed-file one record at a time. */
+  private void writeMetadataAndUrlFeedFileBody(Writer out,
+      List<? extends DocIdSender.Item> items) throws IOException {
+    if (items.isEmpty()) {
+      out.write("<group/>");
+      out.write(NEWLINE);
+      return;
+    }
+    out.write("<group>");
+    out.write(NEWLINE);
     for (DocIdSender.Item item : items) {
       if (item instanceof DocIdPusher.Record) {
-        constructSingleMetadataAndUrlFeedFileRecord(doc, group,
-                                                    (DocIdPusher.Record) item);
+        writeSingleMetadataAndUrlFeedFileRecord(out,
+            (DocIdPusher.Record) item);
       } else if (item instanceof DocIdSender.AclItem) {
-        constructSingleMetadataAndUrlFeedFileAcl(doc, group,
-                                                 (DocIdSender.AclItem) item);
+        writeSingleMetadataAndUrlFeedFileAcl(out, (DocIdSender.AclItem) item);
       } else {
         throw new IllegalArgumentException("Unable to process class: "
                                            + item.getClass().getName());
       }
     }
+    out.write("</group>");
+    out.write(NEWLINE);
   }
 
-  /** Puts all DocId into metadata-and-url GSA feed file. */
-  private void constructMetadataAndUrlFeedFile(Document doc,
-      String srcName, List<? extends DocIdSender.Item> items) {
-    Element root = doc.createElement("gsafeed");
-    doc.appendChild(root);
-    constructMetadataAndUrlFeedFileHead(doc, root, srcName);
-    constructMetadataAndUrlFeedFileBody(doc, root, items);
+  /** Writes a metadata-and-url feed file with provided DocIds and source name
+     to {@code out}. Nothing is buffered beyond what {@code out} itself
+     buffers, so callers should provide a buffered writer. */
+  public void writeMetadataAndUrlXml(Writer out, String srcName,
+      List<? extends DocIdSender.Item> items) throws IOException {
+    writeFeedFileHead(out, "gsafeed");
+    writeMetadataAndUrlFeedFileHeader(out, srcName);
+    writeMetadataAndUrlFeedFileBody(out, items);
+    out.write("</gsafeed>");
+    out.write(NEWLINE);
   }
 
-  /** Makes a Java String from the XML feed-file-document passed in. */
-  private String documentToString(Document doc)
-      throws TransformerConfigurationException, TransformerException {
-    TransformerFactory transfac = TransformerFactory.newInstance();
-    Transformer trans = transfac.newTransformer();
-    String doctype = "-//Google//DTD GSA Feeds//EN";
-    trans.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, doctype);
-    trans.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "");
-    trans.setOutputProperty(OutputKeys.INDENT, "yes");
-    trans.setOutputProperty(OutputKeys.STANDALONE, "no");
-    StringWriter sw = new StringWriter();
-    StreamResult result = new StreamResult(sw);
-    DOMSource source = new DOMSource(doc);
-    trans.transform(source, result);
-    String xmlString = "" + sw;
-    return xmlString;
+  /** Returns a metadata-and-url feed file with provided DocIds and source
+     name that is generated each time it is written, instead of being held in
+     memory. {@code items} must not be modified while the feed is in use. */
+  public FeedContent makeMetadataAndUrlFeed(final String srcName,
+      final List<? extends DocIdSender.Item> items) {
+    return new FeedContent() {
+      @Override
+      public void writeTo(Writer out) throws IOException {
+        writeMetadataAndUrlXml(out, srcName, items);
+      }
+    };
   }
 
   /** Makes a metadata-and-url feed file from upto 
@@ -292,97 +320,164 @@ class GsaFeedFileMaker {
      GsaCommunicationHandler.pushDocIds(). */
   public String makeMetadataAndUrlXml(String srcName,
       List<? extends DocIdSender.Item> items) {
+    StringWriter sw = new StringWriter();
     try {
-      DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
-      DocumentBuilder docBuilder = dbfac.newDocumentBuilder();
-      Document doc = docBuilder.newDocument();
-      constructMetadataAndUrlFeedFile(doc, srcName, items);
-      String xmlString = documentToString(doc); 
-      return xmlString;
-    } catch (TransformerConfigurationException tce) {
-      throw new IllegalStateException(tce);
-    } catch (TransformerException te) {
-      throw new IllegalStateException(te);
-    } catch (ParserConfigurationException pce) {
-      throw new IllegalStateException(pce);
+      writeMetadataAndUrlXml(sw, srcName, items);
+    } catch (IOException ex) {
+      throw new AssertionError(ex);
     }
+    return sw.toString();
   }
 
-  /** Creates single group definition of group principal key and members. */
-  private void constructSingleMembership(Document doc, Element root,
+  /** Writes single group definition of group principal key and members. */
+  private void writeSingleMembership(Writer out,
       GroupPrincipal groupPrincipal, Collection<Principal> members,
-      boolean caseSensitiveMembers) {
+      boolean caseSensitiveMembers) throws IOException {
     groupPrincipal = aclTransform.transform(groupPrincipal);
     members = new TreeSet<Principal>(aclTransform.transform(members));
-    Element groupWithDef = doc.createElement("membership");
-    root.appendChild(groupWithDef);
-    Element groupKey = doc.createElement("principal");
-    groupWithDef.appendChild(groupKey);
-    groupKey.setAttribute("namespace", groupPrincipal.getNamespace());
-    groupKey.setAttribute("scope", "GROUP");
-    groupKey.appendChild(doc.createTextNode(groupPrincipal.getName()));
-    Element groupDef = doc.createElement("members");
-    groupWithDef.appendChild(groupDef);
-    for (Principal member : members) {
-      Element groupDefElement = doc.createElement("principal");
-      groupDefElement.setAttribute("namespace", member.getNamespace());
-      String scope = member.isUser() ? "USER" : "GROUP";
-      groupDefElement.setAttribute("scope", scope);
-      if (caseSensitiveMembers) {
-        groupDefElement.setAttribute(
-            "case-sensitivity-type", "EVERYTHING_CASE_SENSITIVE");
-      } else {
-        groupDefElement.setAttribute(
-            "case-sensitivity-type", "EVERYTHING_CASE_INSENSITIVE");
+    out.write("<membership>");
+    out.write(NEWLINE);
+    out.write("<principal");
+    writeAttribute(out, "namespace", groupPrincipal.getNamespace());
+    writeAttribute(out, "scope", "GROUP");
+    out.write(">");
+    writeText(out, groupPrincipal.getName());
+    out.write("</principal>");
+    out.write(NEWLINE);
+    if (members.isEmpty()) {
+      out.write("<members/>");
+      out.write(NEWLINE);
+    } else {
+      out.write("<members>");
+      out.write(NEWLINE);
+      String caseSensitivity = caseSensitiveMembers
+          ? "EVERYTHING_CASE_SENSITIVE" : "EVERYTHING_CASE_INSENSITIVE";
+      for (Principal member : members) {
+        out.write("<principal");
+        writeAttribute(out, "case-sensitivity-type", caseSensitivity);
+        writeAttribute(out, "namespace", member.getNamespace());
+        writeAttribute(out, "scope", member.isUser() ? "USER" : "GROUP");
+        out.write(">");
+        writeText(out, member.getName());
+        out.write("</principal>");
+        out.write(NEWLINE);
       }
-      groupDefElement.appendChild(doc.createTextNode(member.getName()));
-      groupDef.appendChild(groupDefElement);
+      out.write("</members>");
+      out.write(NEWLINE);
     }
+    out.write("</membership>");
+    out.write(NEWLINE);
   }
 
-  /** Adds all the groups' definitions into body. */
-  private <T extends Collection<Principal>> void
-      constructGroupDefinitionsFileBody(Document doc, Element root,
-      Collection<Map.Entry<GroupPrincipal, T>> items,
-      boolean caseSensitiveMembers) {
+  // This and all the methods it calls with things from 'items' requires the
+  // parameter T even though ? would normally suffice. See comment in
+  // DocIdSender to learn about the Java limitation causing the need for T.
+  /** Writes feed file with groups and their definitions to {@code out}. */
+  public <T extends Collection<Principal>> void writeGroupDefinitionsXml(
+      Writer out, Collection<Map.Entry<GroupPrincipal, T>> items,
+      boolean caseSensitiveMembers) throws IOException {
+    writeFeedFileHead(out, "xmlgroups");
     for (Map.Entry<GroupPrincipal, T> group : items) {
-      constructSingleMembership(doc, root, group.getKey(), group.getValue(),
+      writeSingleMembership(out, group.getKey(), group.getValue(),
           caseSensitiveMembers);
     }
+    out.write("</xmlgroups>");
+    out.write(NEWLINE);
   }
 
-  /** Puts all groups' definitions into document. */
-  private <T extends Collection<Principal>> void
-      constructGroupDefinitionsFeedFile(Document doc,
-      Collection<Map.Entry<GroupPrincipal, T>> items,
-      boolean caseSensitiveMembers) {
-    Element root = doc.createElement("xmlgroups");
-    doc.appendChild(root);
-    Comment comment = doc.createComment("GSA EasyConnector");
-    root.appendChild(comment);
-    constructGroupDefinitionsFileBody(doc, root, items, caseSensitiveMembers);
+  /** Returns feed file with groups and their definitions that is generated
+      each time it is written, instead of being held in memory. {@code items}
+      must not be modified while the feed is in use. */
+  public <T extends Collection<Principal>> FeedContent makeGroupDefinitionsFeed(
+      final Collection<Map.Entry<GroupPrincipal, T>> items,
+      final boolean caseSensitiveMembers) {
+    return new FeedContent() {
+      @Override
+      public void writeTo(Writer out) throws IOException {
+        writeGroupDefinitionsXml(out, items, caseSensitiveMembers);
+      }
+    };
   }
 
-  // This and all the methods it calls with things from 'items' requires the
-  // parameter T even though ? would normally suffice. See comment in
-  // DocIdSender to learn about the Java limitation causing the need for T.
   /** Makes feed file with groups and their definitions. */
   public <T extends Collection<Principal>> String makeGroupDefinitionsXml(
       Collection<Map.Entry<GroupPrincipal, T>> items,
       boolean caseSensitiveMembers) {
+    StringWriter sw = new StringWriter();
     try {
-      DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
-      DocumentBuilder docBuilder = dbfac.newDocumentBuilder();
-      Document doc = docBuilder.newDocument();
-      constructGroupDefinitionsFeedFile(doc, items, caseSensitiveMembers);
-      String xmlString = documentToString(doc); 
-      return xmlString;
-    } catch (TransformerConfigurationException tce) {
-      throw new IllegalStateException(tce);
-    } catch (TransformerException te) {
-      throw new IllegalStateException(te);
-    } catch (ParserConfigurationException pce) {
-      throw new IllegalStateException(pce);
+      writeGroupDefinitionsXml(sw, items, caseSensitiveMembers);
+    } catch (IOException ex) {
+      throw new AssertionError(ex);
+    }
+    return sw.toString();
+  }
+
+  private static void writeAttribute(Writer out, String name, String value)
+      throws IOException {
+    out.write(" ");
+    out.write(name);
+    out.write("=\"");
+    writeEscaped(out, value, true);
+    out.write("\"");
+  }
+
+  private static void writeText(Writer out, String value) throws IOException {
+    writeEscaped(out, value, false);
+  }
+
+  /**
+   * Escapes {@code s} the same way the JDK's serializer does for UTF-8
+   * output. Runs of characters needing no escaping are written in one call.
+   */
+  private static void writeEscaped(Writer out, String s, boolean inAttribute)
+      throws IOException {
+    int len = s.length();
+    int runStart = 0;
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      String replacement;
+      int codePoint = -1;
+      if (c == '&') {
+        replacement = "&amp;";
+      } else if (c == '<') {
+        replacement = "&lt;";
+      } else if (c == '>') {
+        replacement = "&gt;";
+      } else if (c == '"' && inAttribute) {
+        replacement = "&quot;";
+      } else if ((c == '\t' || c == '\n') && !inAttribute) {
+        continue;
+      } else if (c < 0x20 || (!inAttribute && c >= 0x7f && c <= 0x9f)) {
+        replacement = null;
+        codePoint = c;
+      } else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        replacement = null;
+        codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+      } else if (Character.isHighSurrogate(c)
+          || Character.isLowSurrogate(c)) {
+        throw new IllegalArgumentException(
+            "Invalid UTF-16 surrogate detected: " + Integer.toHexString(c));
+      } else {
+        continue;
+      }
+      if (runStart < i) {
+        out.write(s, runStart, i - runStart);
+      }
+      if (replacement != null) {
+        out.write(replacement);
+      } else {
+        out.write("&#");
+        out.write(Integer.toString(codePoint));
+        out.write(";");
+        if (codePoint > 0xffff) {
+          i++;
+        }
+      }
+      runStart = i + 1;
+    }
+    if (runStart < len) {
+      out.write(s, runStart, len - runStart);
     }
   }
 }
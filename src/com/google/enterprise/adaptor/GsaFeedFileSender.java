@@ -16,20 +16,38 @@ package com.google.enterprise.adaptor;
 
 import com.google.common.annotations.VisibleForTesting;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
 /** Takes an XML feed file for the GSA, sends it to GSA and
-  then reads reply from GSA. */
+  then reads reply from GSA. The multipart message is written directly to the
+  connection as the feed is generated, so no copy of the whole feed is made.
+
+  <p>Connections are kept alive and reused for later posts by the JVM's HTTP
+  keep-alive cache, which holds up to {@code http.maxConnections} idle
+  connections per destination and drops them once they exceed the GSA's
+  keep-alive timeout. A connection is only returned to that cache once the
+  GSA's reply has been fully read, so it is only closed when the exchange
+  itself failed. A post on a connection the GSA had already closed fails like
+  any other, and is not resent here since the GSA may have received the feed;
+  retrying is left to the caller's {@link ExceptionHandler}. */
 class GsaFeedFileSender {
   private static final Logger log
       = Logger.getLogger(GsaFeedFileSender.class.getName());
@@ -44,9 +62,20 @@ class GsaFeedFileSender {
   // Another frequently used constant of sent message.
   private static final String CRLF = "\r\n";
 
+  // GSA only allows request content up to 1 MB to be compressed.
+  private static final int MAX_COMPRESSIBLE_LENGTH = 1 * 1024 * 1024;
+
   private Charset gsaCharEncoding;
   private URL feedDest;
   private URL groupsDest;
+  private final Journal journal;
+  /**
+   * Used for all HTTPS posts. The JVM only reuses a kept-alive HTTPS
+   * connection for requests using the same socket factory, so one instance
+   * must be shared. Lazily created so that it uses the SSL configuration in
+   * place when the first feed is sent.
+   */
+  private SSLSocketFactory sslSocketFactory;
 
   private static URL makeHandlerUrl(String host, boolean secure, String path) {
     if (null == host || null == path) {
@@ -63,92 +92,151 @@ class GsaFeedFileSender {
     }
   }
 
-  GsaFeedFileSender(String host, boolean secure, Charset gsaCharSet) {
+  GsaFeedFileSender(String host, boolean secure, Charset gsaCharSet,
+      Journal journal) {
     this(makeHandlerUrl(host, secure, "xmlfeed"),
-        makeHandlerUrl(host, secure, "xmlgroups"), gsaCharSet);
+        makeHandlerUrl(host, secure, "xmlgroups"), gsaCharSet, journal);
   }
 
   @VisibleForTesting
-  GsaFeedFileSender(URL feedUrl, URL groupsUrl, Charset gsaCharSet) {
-    if (null == gsaCharSet) {
+  GsaFeedFileSender(URL feedUrl, URL groupsUrl, Charset gsaCharSet,
+      Journal journal) {
+    if (null == gsaCharSet || null == journal) {
       throw new NullPointerException();
     }
     feedDest = feedUrl;
     groupsDest = groupsUrl;
     gsaCharEncoding = gsaCharSet;
+    this.journal = journal;
   }
 
-  // Get bytes of string in communication's encoding.
-  private byte[] toEncodedBytes(String s) {
-    return s.getBytes(gsaCharEncoding);
+  /** Helper method for creating a multipart/form-data HTTP post.
+    Writes a post parameter made of a name and value. */
+  private static void writePostParameter(Writer out, String name,
+      String mimetype, String value) throws IOException {
+    writePostParameter(out, name, mimetype, new FeedContent.FromString(value));
   }
 
-  /** Helper method for creating a multipart/form-data HTTP post.
-    Creates a post parameter made of a name and value. */
-  private void buildPostParameter(StringBuilder sb, String name,
-      String mimetype, String value) {
-    sb.append("--").append(BOUNDARY).append(CRLF);
-    sb.append("Content-Disposition: form-data;");
-    sb.append(" name=\"").append(name).append("\"").append(CRLF);
-    sb.append("Content-Type: ").append(mimetype).append(CRLF);
-    sb.append(CRLF).append(value).append(CRLF);
-  }
-
-  private byte[] buildMetadataAndUrlMessage(String datasource,
-      String feedtype, String xmlDocument) {
-    StringBuilder sb = new StringBuilder();
-    buildPostParameter(sb, "datasource", "text/plain", datasource);
-    buildPostParameter(sb, "feedtype", "text/plain", feedtype);
-    buildPostParameter(sb, "data", "text/xml", xmlDocument);
-    sb.append("--").append(BOUNDARY).append("--").append(CRLF);
-    return toEncodedBytes("" + sb);
-  }
-
-  private byte[] buildGroupsXmlMessage(String groupsource,
-      String xmlDocument) {
-    StringBuilder sb = new StringBuilder();
-    buildPostParameter(sb, "groupsource", "text/plain", groupsource);
-    buildPostParameter(sb, "data", "text/xml", xmlDocument);
-    sb.append("--").append(BOUNDARY).append("--").append(CRLF);
-    return toEncodedBytes("" + sb);
+  private static void writePostParameter(Writer out, String name,
+      String mimetype, FeedContent value) throws IOException {
+    out.write("--");
+    out.write(BOUNDARY);
+    out.write(CRLF);
+    out.write("Content-Disposition: form-data;");
+    out.write(" name=\"");
+    out.write(name);
+    out.write("\"");
+    out.write(CRLF);
+    out.write("Content-Type: ");
+    out.write(mimetype);
+    out.write(CRLF);
+    out.write(CRLF);
+    value.writeTo(out);
+    out.write(CRLF);
+  }
+
+  private static void writeEndBoundary(Writer out) throws IOException {
+    out.write("--");
+    out.write(BOUNDARY);
+    out.write("--");
+    out.write(CRLF);
+  }
+
+  private static FeedContent metadataAndUrlMessage(final String datasource,
+      final String feedtype, final FeedContent xmlDocument) {
+    return new FeedContent() {
+      @Override
+      public void writeTo(Writer out) throws IOException {
+        writePostParameter(out, "datasource", "text/plain", datasource);
+        writePostParameter(out, "feedtype", "text/plain", feedtype);
+        writePostParameter(out, "data", "text/xml", xmlDocument);
+        writeEndBoundary(out);
+      }
+    };
+  }
+
+  private static FeedContent groupsXmlMessage(final String groupsource,
+      final FeedContent xmlDocument) {
+    return new FeedContent() {
+      @Override
+      public void writeTo(Writer out) throws IOException {
+        writePostParameter(out, "groupsource", "text/plain", groupsource);
+        writePostParameter(out, "data", "text/xml", xmlDocument);
+        writeEndBoundary(out);
+      }
+    };
+  }
+
+  /**
+   * Encodes {@code msg} into memory if it is small enough to be compressed.
+   * Returns {@code null} if the encoded message would be {@code limit} bytes
+   * or larger, without holding more than {@code limit} bytes at any point.
+   */
+  private ByteArrayOutputStream encodeIfSmallerThan(FeedContent msg,
+      int limit) throws IOException {
+    CappedByteArrayOutputStream buffer = new CappedByteArrayOutputStream(limit);
+    Writer writer = new OutputStreamWriter(buffer, gsaCharEncoding);
+    try {
+      msg.writeTo(writer);
+      writer.flush();
+    } catch (CapacityExceededException ex) {
+      return null;
+    }
+    return buffer;
   }
 
   /** Tries to get in touch with our GSA. */
-  private HttpURLConnection setupConnection(URL url, int len,
-                                            boolean useCompression)
+  private HttpURLConnection setupConnection(URL url, boolean useCompression)
       throws IOException {
     HttpURLConnection uc = (HttpURLConnection) url.openConnection();
+    if (uc instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) uc).setSSLSocketFactory(getSslSocketFactory());
+      journal.recordSecureFeedPost();
+    }
     uc.setDoInput(true);
     uc.setDoOutput(true);
+    // The length isn't known ahead of time since the message is generated as
+    // it is sent.
+    uc.setChunkedStreamingMode(0);
     if (useCompression) {
-      uc.setChunkedStreamingMode(0);
       // GSA can handle gziped content, although there isn't a way to find out
       // other than just trying
       uc.setRequestProperty("Content-Encoding", "gzip");
-    } else {
-      uc.setFixedLengthStreamingMode(len);
     }
     uc.setRequestProperty("Content-Type",
         "multipart/form-data; boundary=" + BOUNDARY);
     return uc;
   }
 
-  /** Put bytes onto output stream. */
-  private void writeToGsa(HttpURLConnection uc, byte msgbytes[],
-                          boolean useCompression)
-      throws IOException {
+  private synchronized SSLSocketFactory getSslSocketFactory() {
+    if (sslSocketFactory == null) {
+      sslSocketFactory = new CountingSSLSocketFactory(
+          HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+    return sslSocketFactory;
+  }
+
+  /** Put message onto output stream. */
+  private void writeToGsa(HttpURLConnection uc, FeedContent msg,
+      ByteArrayOutputStream encodedMsg) throws IOException {
     OutputStream outputStream = uc.getOutputStream();
     try {
-      if (useCompression) {
+      if (encodedMsg != null) {
         // setupConnection set Content-Encoding: gzip
         outputStream = new GZIPOutputStream(outputStream);
+        // The deflater writes its output in small pieces, so errors
+        // propagate during writing instead of being discovered at read time.
+        encodedMsg.writeTo(outputStream);
+      } else {
+        // Writing incrementally allows errors to propagate during writing,
+        // instead of being discovered at read time. It isn't perfect though,
+        // in that if buffered data eventually causes an error, then that will
+        // still be discovered at read time.
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(outputStream, gsaCharEncoding));
+        msg.writeTo(writer);
+        writer.flush();
       }
-      // Use copyStream(), because using a single write() prevents errors from
-      // propagating during writing and causes them to be discovered at read
-      // time. Using copyStream() isn't perfect either though, in that if
-      // buffered data eventually causes an error, then that will still be
-      // discovered at read time.
-      IOHelper.copyStream(new ByteArrayInputStream(msgbytes), outputStream);
       outputStream.flush();
     } finally {
       outputStream.close();
@@ -195,17 +283,24 @@ class GsaFeedFileSender {
    */
   void sendMetadataAndUrl(String datasource, String xmlString,
       boolean useCompression) throws IOException {
+    sendMetadataAndUrl(datasource, new FeedContent.FromString(xmlString),
+        useCompression);
+  }
+
+  /**
+   * Sends XML with provided datasource name and feedtype "metadata-and-url".
+   * The XML is generated while it is being sent. Datasource name is limited to
+   * [a-zA-Z_][a-zA-Z0-9_-]*.
+   */
+  void sendMetadataAndUrl(String datasource, FeedContent xml,
+      boolean useCompression) throws IOException {
     if (!DATASOURCE_FORMAT.matcher(datasource).matches()) {
       throw new IllegalArgumentException("Data source contains illegal "
           + "characters: " + datasource);
     }
     String feedtype = "metadata-and-url";
-    byte msg[] = buildMetadataAndUrlMessage(datasource, feedtype, xmlString);
-    // GSA only allows request content up to 1 MB to be compressed
-    if (msg.length >= 1 * 1024 * 1024) {
-      useCompression = false;
-    }
-    sendMessage(feedDest, msg, useCompression);
+    sendMessage(feedDest, metadataAndUrlMessage(datasource, feedtype, xml),
+        useCompression);
   }
 
   /**
@@ -214,34 +309,152 @@ class GsaFeedFileSender {
    */
   void sendGroups(String groupsource, String xmlString,
       boolean useCompression) throws IOException {
+    sendGroups(groupsource, new FeedContent.FromString(xmlString),
+        useCompression);
+  }
+
+  /**
+   * Sends XML with provided groupsource name to xmlgroups recipient. The XML is
+   * generated while it is being sent. Groupsource name is limited to
+   * [a-zA-Z_][a-zA-Z0-9_-]*.
+   */
+  void sendGroups(String groupsource, FeedContent xml,
+      boolean useCompression) throws IOException {
     if (!GROUPSOURCE_FORMAT.matcher(groupsource).matches()) {
       throw new IllegalArgumentException("Group source is invalid: "
           + groupsource);
     }
-    byte msg[] = buildGroupsXmlMessage(groupsource, xmlString);
-    // GSA only allows request content up to 1 MB to be compressed
-    if (msg.length >= 1 * 1024 * 1024) {
-      useCompression = false;
-    }
-    sendMessage(groupsDest, msg, useCompression);
+    sendMessage(groupsDest, groupsXmlMessage(groupsource, xml),
+        useCompression);
   }
 
-  private void sendMessage(URL destUrl, byte msg[], boolean useCompression)
-      throws IOException {
+  private void sendMessage(URL destUrl, FeedContent msg,
+      boolean useCompression) throws IOException {
+    ByteArrayOutputStream encodedMsg = null;
+    if (useCompression) {
+      // Larger messages are instead streamed uncompressed, so at most
+      // MAX_COMPRESSIBLE_LENGTH bytes are ever held in memory.
+      encodedMsg = encodeIfSmallerThan(msg, MAX_COMPRESSIBLE_LENGTH);
+    }
+    String reply;
     HttpURLConnection uc;
+    journal.recordFeedPostStart();
     try {
-      uc = setupConnection(destUrl, msg.length, useCompression);
-      uc.connect();
-    } catch (IOException ioe) {
-      throw GsaCommunicationHandler.handleGsaException(destUrl.toString(), ioe);
+      try {
+        uc = setupConnection(destUrl, encodedMsg != null);
+        uc.connect();
+      } catch (IOException ioe) {
+        throw GsaCommunicationHandler.handleGsaException(destUrl.toString(),
+            ioe);
+      }
+      try {
+        writeToGsa(uc, msg, encodedMsg);
+        reply = readGsaReply(uc);
+      } catch (IOException ioe) {
+        uc.disconnect();
+        throw ioe;
+      } catch (RuntimeException ex) {
+        // Feed generation failed part way through.
+        uc.disconnect();
+        throw ex;
+      }
+    } finally {
+      journal.recordFeedPostEnd();
     }
-    try {
-      writeToGsa(uc, msg, useCompression);
-      String reply = readGsaReply(uc);
-      handleGsaReply(reply, uc.getResponseCode());
-    } catch (IOException ioe) {
-      uc.disconnect();
-      throw ioe;
+    // The reply has been completely read, so the connection is left to be
+    // reused even if the GSA rejected the feed.
+    handleGsaReply(reply, uc.getResponseCode());
+  }
+
+  /**
+   * Records each new connection, since each one requires a TLS handshake.
+   */
+  private class CountingSSLSocketFactory extends SSLSocketFactory {
+    private final SSLSocketFactory delegate;
+
+    public CountingSSLSocketFactory(SSLSocketFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+      return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+      return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port,
+        boolean autoClose) throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket(s, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost,
+        int localPort) throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port,
+        InetAddress localAddress, int localPort) throws IOException {
+      journal.recordFeedConnectionOpened();
+      return delegate.createSocket(address, port, localAddress, localPort);
     }
   }
+
+  /**
+   * {@code ByteArrayOutputStream} that refuses to grow to {@code limit} bytes
+   * or more.
+   */
+  private static class CappedByteArrayOutputStream
+      extends ByteArrayOutputStream {
+    private final int limit;
+
+    public CappedByteArrayOutputStream(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      if (count + 1 >= limit) {
+        throw new CapacityExceededException();
+      }
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      if (count + len >= limit) {
+        throw new CapacityExceededException();
+      }
+      super.write(b, off, len);
+    }
+  }
+
+  /** Thrown when {@link CappedByteArrayOutputStream} would reach its limit. */
+  private static class CapacityExceededException extends RuntimeException {}
 }
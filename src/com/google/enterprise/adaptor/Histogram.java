@@ -0,0 +1,125 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of non-negative values, using buckets whose width grows
+ * with the values they hold. Values smaller than {@code 2^SUB_BUCKET_BITS} each
+ * have a bucket of their own; beyond that each power of two is split into
+ * {@code 2^SUB_BUCKET_BITS} buckets, so a bucket is never more than 25% wider
+ * than the values in it. Recording a value never allocates.
+ *
+ * <p>This class is not thread-safe.
+ */
+class Histogram implements Cloneable {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Values this large or larger share the last bucket. */
+  static final long MAX_TRACKED_VALUE = (1L << 32) - 1;
+  private static final int BUCKETS = bucketIndex(MAX_TRACKED_VALUE) + 1;
+
+  private int[] counts = new int[BUCKETS];
+  private long count;
+  private long max;
+
+  /** Record one occurrence of {@code value}. Negative values count as zero. */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts[bucketIndex(Math.min(value, MAX_TRACKED_VALUE))]++;
+    count++;
+    max = Math.max(max, value);
+  }
+
+  /** Number of values recorded. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Largest value recorded, or zero if none have been. */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Returns a value that at least {@code percentile} percent of the recorded
+   * values are less than or equal to. The value is the upper bound of the
+   * bucket holding that percentile, but never more than {@link #getMax}.
+   * Returns zero if no values have been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  /** Add the values recorded in {@code other} to this histogram. */
+  public void add(Histogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    max = Math.max(max, other.max);
+  }
+
+  /** Forget all recorded values. */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    max = 0;
+  }
+
+  @Override
+  public Histogram clone() {
+    Histogram histogram;
+    try {
+      histogram = (Histogram) super.clone();
+    } catch (CloneNotSupportedException ex) {
+      throw new AssertionError();
+    }
+    histogram.counts = counts.clone();
+    return histogram;
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /** Largest value that is placed in bucket {@code index}. */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long top = SUB_BUCKETS + index % SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+}
@@ -212,6 +212,22 @@ public final class HttpExchanges {
     }
   }
 
+  /**
+   * Sends headers for a response with a body of exactly {@code contentLength}
+   * bytes, so that the body is sent without chunked encoding.
+   */
+  static void startFixedLengthResponse(HttpExchange ex, int code,
+      String contentType, long contentLength) throws IOException {
+    if (contentLength <= 0) {
+      throw new IllegalArgumentException("contentLength must be positive");
+    }
+    log.finest("Starting response");
+    if (contentType != null) {
+      ex.getResponseHeaders().set("Content-Type", contentType);
+    }
+    ex.sendResponseHeaders(code, contentLength);
+  }
+
   /**
    * Sends response to GSA. Should not be used directly if the request method
    * is HEAD.
@@ -0,0 +1,137 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.Map;
+
+/**
+ * Size- and time-bounded cache of the ACLs that other ACLs inherit from, so
+ * that {@link Acl#isAuthorizedBatch(AuthnIdentity, java.util.Collection,
+ * Acl.BatchRetriever, InheritedAclCache) Acl.isAuthorizedBatch()} does not ask
+ * its {@link Acl.BatchRetriever} for the same folders' ACLs on every request.
+ * The ACLs of the documents being checked are never served from here; only
+ * their ancestors are. Obtain the library's instance from {@link
+ * AdaptorContext#getInheritedAclCache}.
+ *
+ * <p>ACLs are dropped when their DocId is pushed, including by {@link
+ * DocIdPusher#pushNamedResources}, like the library's other caches (see
+ * {@code CacheInvalidations}).
+ */
+public final class InheritedAclCache {
+  private final long ttlMillis;
+  private final TimeProvider timeProvider;
+  private final Map<DocId, Entry> cache;
+  private final CacheInvalidations invalidations;
+
+  /**
+   * {@code maxSize} or {@code ttlMillis} of zero disables caching, so that the
+   * retriever is always called.
+   */
+  InheritedAclCache(int maxSize, long ttlMillis, TimeProvider timeProvider) {
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (maxSize < 0 || ttlMillis < 0) {
+      throw new IllegalArgumentException(
+          "Size and time to live must not be negative");
+    }
+    this.ttlMillis = maxSize == 0 ? 0 : ttlMillis;
+    this.timeProvider = timeProvider;
+    this.cache = CacheInvalidations.newLruMap(maxSize);
+    this.invalidations
+        = new CacheInvalidations(this.ttlMillis, maxSize, timeProvider);
+  }
+
+  boolean isEnabled() {
+    return ttlMillis > 0;
+  }
+
+  /**
+   * Returns the value to pass to {@link #put} for ACLs retrieved after this
+   * call. It must be called before calling the retriever.
+   */
+  synchronized CacheInvalidations.Retrieval startRetrieval() {
+    return invalidations.startRetrieval();
+  }
+
+  /** Returns the cached ACL of {@code docId}, or {@code null}. */
+  synchronized Acl get(DocId docId) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Entry entry = cache.get(docId);
+    if (entry == null) {
+      return null;
+    }
+    long now = timeProvider.currentTimeMillis();
+    invalidations.forgetOld(now);
+    if (now < entry.expiresAt
+        && invalidations.isCurrent(docId, entry.generation)) {
+      return entry.acl;
+    }
+    cache.remove(docId);
+    return null;
+  }
+
+  /**
+   * Caches {@code acl} for {@code docId}, unless {@code docId} was invalidated
+   * since {@code retrieval}, as returned by {@link #startRetrieval} before the
+   * ACL was retrieved, started. The ACL expires relative to that start.
+   */
+  synchronized void put(DocId docId, Acl acl,
+      CacheInvalidations.Retrieval retrieval) {
+    if (!isEnabled()) {
+      return;
+    }
+    long now = timeProvider.currentTimeMillis();
+    invalidations.forgetOld(now);
+    long expiresAt = retrieval.startMillis + ttlMillis;
+    if (now >= expiresAt
+        || !invalidations.isCurrent(docId, retrieval.generation)) {
+      return;
+    }
+    cache.put(docId, new Entry(acl, expiresAt, retrieval.generation));
+  }
+
+  /** Drops the cached ACL of {@code docId}. */
+  synchronized void invalidate(DocId docId) {
+    if (!isEnabled()) {
+      return;
+    }
+    cache.remove(docId);
+    if (!invalidations.invalidate(docId)) {
+      // Too many to track individually, so everything was invalidated.
+      cache.clear();
+    }
+  }
+
+  /** Drops all cached ACLs. */
+  synchronized void invalidateAll() {
+    invalidations.invalidateAll();
+    cache.clear();
+  }
+
+  private static class Entry {
+    final Acl acl;
+    final long expiresAt;
+    final long generation;
+
+    Entry(Acl acl, long expiresAt, long generation) {
+      this.acl = acl;
+      this.expiresAt = expiresAt;
+      this.generation = generation;
+    }
+  }
+}
@@ -0,0 +1,370 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * First-in, first-out queue of feed items kept in a file, used by {@link
+ * AsyncDocIdSender} to hold items that do not fit in its in-memory queue.
+ * Items left in the file when the adaptor stops are provided again when it
+ * next starts. Removed items are no longer in the file, so like items that were
+ * never spilled, items removed but not yet sent when the adaptor stops are
+ * lost.
+ *
+ * <p>The file starts with the offset of the first item not yet removed, which
+ * is updated by each removal. Each item is stored as its length followed by
+ * its fields. An item that was only partially written, because the adaptor
+ * stopped while writing it, is discarded when the file is opened. Once enough
+ * removed items have built up at the start of the file, the remaining items are
+ * copied to a new file that replaces it, so the file does not keep growing
+ * while items keep being spilled.
+ */
+class ItemSpill {
+  private static final Logger log
+      = Logger.getLogger(ItemSpill.class.getName());
+
+  private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+  private static final byte RECORD = 0;
+  private static final byte ACL = 1;
+
+  /** Size of the offset at the start of the file. */
+  private static final int HEADER_SIZE = 8;
+  /** Bytes of removed items that are always left in place. */
+  private static final long DEFAULT_COMPACT_THRESHOLD = 1024 * 1024;
+
+  private final File file;
+  private final long compactThreshold;
+  private RandomAccessFile raf;
+  private long readPosition;
+  private long writePosition;
+  private int size;
+
+  public ItemSpill(File file) throws IOException {
+    this(file, DEFAULT_COMPACT_THRESHOLD);
+  }
+
+  /**
+   * @param compactThreshold bytes of removed items allowed at the start of the
+   *     file before it is compacted, if they are also at least half of it
+   */
+  @VisibleForTesting
+  ItemSpill(File file, long compactThreshold) throws IOException {
+    this.file = file;
+    this.compactThreshold = compactThreshold;
+    this.raf = new RandomAccessFile(file, "rw");
+    long length = raf.length();
+    readPosition = HEADER_SIZE;
+    if (length >= HEADER_SIZE) {
+      readPosition = raf.readLong();
+      if (readPosition < HEADER_SIZE || readPosition > length) {
+        log.log(Level.WARNING, "Invalid read offset {0} in {1}; "
+            + "providing all items in it again",
+            new Object[] {readPosition, file});
+        readPosition = HEADER_SIZE;
+      }
+    } else {
+      raf.setLength(0);
+      length = HEADER_SIZE;
+    }
+    writeReadPosition();
+    writePosition = readPosition;
+    while (writePosition + 4 <= length) {
+      raf.seek(writePosition);
+      long end = writePosition + 4 + raf.readInt();
+      if (end > length || end < writePosition + 4) {
+        break;
+      }
+      writePosition = end;
+      size++;
+    }
+    if (writePosition != length) {
+      log.log(Level.WARNING, "Discarding partially written item in {0}",
+          file);
+      raf.setLength(writePosition);
+    }
+    if (size > 0) {
+      log.log(Level.INFO, "Found {0} items spilled to {1} before restart",
+          new Object[] {size, file});
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Adds {@code item} to the end of the queue. */
+  public synchronized void add(DocIdSender.Item item) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0); // Replaced by the length below.
+    writeItem(out, item);
+    out.close();
+    byte[] buffer = bytes.toByteArray();
+    int length = buffer.length - 4;
+    buffer[0] = (byte) (length >>> 24);
+    buffer[1] = (byte) (length >>> 16);
+    buffer[2] = (byte) (length >>> 8);
+    buffer[3] = (byte) length;
+    raf.seek(writePosition);
+    raf.write(buffer);
+    writePosition += buffer.length;
+    size++;
+  }
+
+  /**
+   * Removes and returns the item at the front of the queue, or returns {@code
+   * null} if the queue is empty.
+   */
+  public synchronized DocIdSender.Item remove() throws IOException {
+    if (size == 0) {
+      return null;
+    }
+    raf.seek(readPosition);
+    byte[] buffer = new byte[raf.readInt()];
+    raf.readFully(buffer);
+    readPosition += 4 + buffer.length;
+    size--;
+    if (size == 0) {
+      clear();
+    } else {
+      writeReadPosition();
+      long removedBytes = readPosition - HEADER_SIZE;
+      if (removedBytes >= compactThreshold
+          && removedBytes >= writePosition - readPosition) {
+        compact();
+      }
+    }
+    return readItem(new DataInputStream(new ByteArrayInputStream(buffer)));
+  }
+
+  /** Discards all items. */
+  public synchronized void clear() throws IOException {
+    raf.setLength(HEADER_SIZE);
+    readPosition = HEADER_SIZE;
+    writePosition = HEADER_SIZE;
+    size = 0;
+    writeReadPosition();
+  }
+
+  private void writeReadPosition() throws IOException {
+    raf.seek(0);
+    raf.writeLong(readPosition);
+  }
+
+  /**
+   * Replaces the file with one containing only the items not yet removed. The
+   * items are copied to a new file first, so that stopping part way through
+   * leaves the old file intact.
+   */
+  private void compact() throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    RandomAccessFile out = new RandomAccessFile(temp, "rw");
+    try {
+      out.setLength(0);
+      out.writeLong(HEADER_SIZE);
+      byte[] buffer = new byte[8192];
+      raf.seek(readPosition);
+      for (long left = writePosition - readPosition; left > 0;) {
+        int read = (int) Math.min(buffer.length, left);
+        raf.readFully(buffer, 0, read);
+        out.write(buffer, 0, read);
+        left -= read;
+      }
+    } finally {
+      out.close();
+    }
+    raf.close();
+    // Windows does not replace existing files when renaming.
+    if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+      // Keep using the old file, which is intact unless it was deleted above.
+      raf = new RandomAccessFile(file, "rw");
+      throw new IOException("could not rename " + temp + " to " + file);
+    }
+    raf = new RandomAccessFile(file, "rw");
+    writePosition -= readPosition - HEADER_SIZE;
+    readPosition = HEADER_SIZE;
+  }
+
+  public synchronized void close() throws IOException {
+    raf.close();
+  }
+
+  @Override
+  public String toString() {
+    return "ItemSpill(" + file + ")";
+  }
+
+  private static void writeItem(DataOutput out, DocIdSender.Item item)
+      throws IOException {
+    if (item instanceof DocIdPusher.Record) {
+      DocIdPusher.Record record = (DocIdPusher.Record) item;
+      out.writeByte(RECORD);
+      writeString(out, record.getDocId().getUniqueId());
+      out.writeBoolean(record.isToBeDeleted());
+      out.writeLong(record.getLastModified() == null
+          ? Long.MIN_VALUE : record.getLastModified().getTime());
+      writeNullable(out, record.getResultLink() == null
+          ? null : record.getResultLink().toString());
+      out.writeBoolean(record.isToBeCrawledImmediately());
+      out.writeBoolean(record.isToBeCrawledOnce());
+      out.writeBoolean(record.isToBeLocked());
+    } else if (item instanceof DocIdSender.AclItem) {
+      DocIdSender.AclItem aclItem = (DocIdSender.AclItem) item;
+      Acl acl = aclItem.getAcl();
+      out.writeByte(ACL);
+      writeString(out, aclItem.getDocId().getUniqueId());
+      writeNullable(out, aclItem.getDocIdFragment());
+      writeNullable(out, acl.getInheritFrom() == null
+          ? null : acl.getInheritFrom().getUniqueId());
+      writeNullable(out, acl.getInheritFromFragment());
+      writeString(out, acl.getInheritanceType().name());
+      out.writeBoolean(acl.isEverythingCaseSensitive());
+      writePrincipals(out, acl.getPermits());
+      writePrincipals(out, acl.getDenies());
+    } else {
+      throw new IllegalArgumentException("Unsupported class: "
+                                         + item.getClass().getName());
+    }
+  }
+
+  private static DocIdSender.Item readItem(DataInput in) throws IOException {
+    byte type = in.readByte();
+    if (type == RECORD) {
+      DocIdPusher.Record.Builder builder
+          = new DocIdPusher.Record.Builder(new DocId(readString(in)));
+      builder.setDeleteFromIndex(in.readBoolean());
+      long lastModified = in.readLong();
+      if (lastModified != Long.MIN_VALUE) {
+        builder.setLastModified(new Date(lastModified));
+      }
+      String resultLink = readNullable(in);
+      if (resultLink != null) {
+        try {
+          builder.setResultLink(new URI(resultLink));
+        } catch (URISyntaxException ex) {
+          throw new IOException("Invalid result link: " + resultLink, ex);
+        }
+      }
+      builder.setCrawlImmediately(in.readBoolean());
+      builder.setCrawlOnce(in.readBoolean());
+      builder.setLock(in.readBoolean());
+      return builder.build();
+    } else if (type == ACL) {
+      DocId docId = new DocId(readString(in));
+      String fragment = readNullable(in);
+      Acl.Builder builder = new Acl.Builder();
+      String inheritFrom = readNullable(in);
+      String inheritFromFragment = readNullable(in);
+      if (inheritFrom != null) {
+        builder.setInheritFrom(new DocId(inheritFrom), inheritFromFragment);
+      }
+      try {
+        builder.setInheritanceType(
+            Acl.InheritanceType.valueOf(readString(in)));
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("Invalid inheritance type", ex);
+      }
+      if (in.readBoolean()) {
+        builder.setEverythingCaseSensitive();
+      } else {
+        builder.setEverythingCaseInsensitive();
+      }
+      builder.setPermits(readPrincipals(in));
+      builder.setDenies(readPrincipals(in));
+      return new DocIdSender.AclItem(docId, fragment, builder.build());
+    } else {
+      throw new IOException("Unknown item type: " + type);
+    }
+  }
+
+  private static void writePrincipals(DataOutput out,
+      Collection<Principal> principals) throws IOException {
+    out.writeInt(principals.size());
+    for (Principal principal : principals) {
+      out.writeBoolean(principal.isGroup());
+      writeString(out, principal.getName());
+      writeString(out, principal.getNamespace());
+    }
+  }
+
+  private static List<Principal> readPrincipals(DataInput in)
+      throws IOException {
+    int count = in.readInt();
+    List<Principal> principals = new ArrayList<Principal>(count);
+    for (int i = 0; i < count; i++) {
+      boolean group = in.readBoolean();
+      String name = readString(in);
+      String namespace = readString(in);
+      principals.add(group ? new GroupPrincipal(name, namespace)
+          : new UserPrincipal(name, namespace));
+    }
+    return principals;
+  }
+
+  private static void writeNullable(DataOutput out, String value)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      writeString(out, value);
+    }
+  }
+
+  private static String readNullable(DataInput in) throws IOException {
+    return in.readBoolean() ? readString(in) : null;
+  }
+
+  /** Unlike {@link DataOutput#writeUTF}, not limited to 64 KB. */
+  private static void writeString(DataOutput out, String value)
+      throws IOException {
+    byte[] bytes = value.getBytes(CHARSET_UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, CHARSET_UTF8);
+  }
+}
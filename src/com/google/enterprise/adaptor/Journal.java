@@ -14,22 +14,60 @@
 
 package com.google.enterprise.adaptor;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Contains registers and stats regarding runtime.
+ *
+ * <p>Methods called for every document request avoid locking the journal as a
+ * whole. Their counters are atomic, and their time-based statistics are split
+ * into stripes that are only combined when they are read.
  */
 class Journal {
-  private Map<DocId, Integer> timesPushed;
-  private long totalPushes;
-
-  private Map<DocId, Integer> timesGsaRequested;
-  private long totalGsaRequests;
-
-  private Map<DocId, Integer> timesNonGsaRequested;
-  private long totalNonGsaRequests;
+  /**
+   * Columns in the Count-Min sketch of each {@link DocIdFrequencyTracker},
+   * making each use about 1 MB.
+   */
+  private static final int FREQUENCY_SKETCH_WIDTH = 1 << 15;
+  /** DocIds tracked by each stripe of a {@link DocIdFrequencyTracker}. */
+  private static final int FREQUENCY_SUMMARY_CAPACITY = 100;
+  /** Number of most frequent DocIds included in snapshots. */
+  private static final int TOP_DOC_IDS = 10;
+
+  /** {@code null} when using reduced memory. */
+  private final DocIdFrequencyTracker timesPushed;
+  private final AtomicLong totalPushes = new AtomicLong();
+
+  /** {@code null} when using reduced memory. */
+  private final DocIdFrequencyTracker timesGsaRequested;
+  private final AtomicLong totalGsaRequests = new AtomicLong();
+
+  /** {@code null} when using reduced memory. */
+  private final DocIdFrequencyTracker timesNonGsaRequested;
+  private final AtomicLong totalNonGsaRequests = new AtomicLong();
+
+  /** Feed and group posts made to the GSA over HTTPS. */
+  private final AtomicLong totalSecureFeedPosts = new AtomicLong();
+  /** HTTPS connections to the GSA opened for feed and group posts. */
+  private final AtomicLong totalFeedConnectionsOpened = new AtomicLong();
+
+  /** Document requests answered from the content cache. */
+  private final AtomicLong totalContentCacheHits = new AtomicLong();
+  /** Document requests that had to call the adaptor despite the cache. */
+  private final AtomicLong totalContentCacheMisses = new AtomicLong();
+
+  /** DocIds whose authorization was answered from the authz cache. */
+  private final AtomicLong totalAuthzCacheHits = new AtomicLong();
+  /** DocIds whose authorization had to be checked by the adaptor. */
+  private final AtomicLong totalAuthzCacheMisses = new AtomicLong();
+  /** Time the adaptor spent checking authorization of cache misses. */
+  private final AtomicLong totalAuthzCacheMissMillis = new AtomicLong();
 
   private final TimeProvider timeProvider;
   private final long startedAt;
@@ -39,14 +77,24 @@ class Journal {
   private final long timeResolution;
 
   /**
-   * Time-based bookkeeping for charts. Each element in the array is for a
-   * different time period.
+   * Time-based bookkeeping for charts. Each element of the outer array is a
+   * stripe used by a subset of threads, and is also the lock guarding the
+   * stripe. Each element in a stripe is for a different time period; all
+   * stripes have the same time periods, in the same order.
    */
-  private Stats[] timeStats;
-  private Stats dayStatsByHalfHour;
+  private final Stats[][] timeStatsStripes;
+  /** Index of the minute-long time period within each stripe. */
+  private static final int MINUTE_STATS_BY_SECOND = 0;
+  /** Index of the day-long time period within each stripe. */
+  private static final int DAY_STATS_BY_HALF_HOUR = 2;
+  private static final int MAX_STRIPES = 8;
 
   /** Request processing start time storage until processing completion. */
   private ThreadLocal<Long> requestProcessingStart = new ThreadLocal<Long>();
+  /** Feed post start time storage until the post completes. */
+  private ThreadLocal<Long> feedPostStart = new ThreadLocal<Long>();
+  /** Authorization start time storage until the adaptor answers. */
+  private ThreadLocal<Long> authzStart = new ThreadLocal<Long>();
 
   /**
    * Date in milliseconds of current full push start. If zero, then there is not
@@ -58,6 +106,14 @@ class Journal {
   /** Date in milliseconds. */
   private long lastSuccessfulFullPushEnd;
   private CompletionStatus lastFullPushStatus = CompletionStatus.SUCCESS;
+  /**
+   * Number of retries of each {@link PartitionedLister} partition during the
+   * current or last full push. Partitions listed without retrying are absent.
+   */
+  private Map<String, Integer> partitionRetries
+      = new TreeMap<String, Integer>();
+  /** Partitions that were given up on during the current or last full push. */
+  private Set<String> failedPartitions = new TreeSet<String>();
 
   private long currentIncrementalPushStart;
   private long lastSuccessfulIncrementalPushStart;
@@ -92,24 +148,81 @@ class Journal {
     // We want data within the Stats to agree with each other, so we provide the
     // same time to each of them.
     long time = startedAt;
-    this.timeStats = new Stats[] {
-      new Stats(60, 1000,           time), /* one minute, second granularity */
-      new Stats(60, 1000 * 60,      time), /* one hour, minute granularity */
-      new Stats(48, 1000 * 60 * 30, time), /* one day, half-hour granularity */
-    };
-    this.dayStatsByHalfHour = this.timeStats[this.timeStats.length - 1];
+    // Striping is independent of reducedMem: the number of stripes is capped,
+    // so the memory used stays fixed.
+    this.timeStatsStripes = new Stats[determineStripeCount()][];
+    for (int i = 0; i < timeStatsStripes.length; i++) {
+      timeStatsStripes[i] = new Stats[] {
+        new Stats(60, 1000,           time), /* one minute, by second */
+        new Stats(60, 1000 * 60,      time), /* one hour, by minute */
+        new Stats(48, 1000 * 60 * 30, time), /* one day, by half-hour */
+      };
+    }
     if (reducedMem) {
-      timesPushed = new NegSizeFakeMap<DocId, Integer>();
-      timesGsaRequested = new NegSizeFakeMap<DocId, Integer>();
-      timesNonGsaRequested = new NegSizeFakeMap<DocId, Integer>();
+      timesPushed = null;
+      timesGsaRequested = null;
+      timesNonGsaRequested = null;
     } else {
-      timesPushed = new HashMap<DocId, Integer>();
-      timesGsaRequested = new HashMap<DocId, Integer>();
-      timesNonGsaRequested = new HashMap<DocId, Integer>();
+      int stripes = timeStatsStripes.length;
+      timesPushed = new DocIdFrequencyTracker(FREQUENCY_SKETCH_WIDTH,
+          FREQUENCY_SUMMARY_CAPACITY, stripes);
+      timesGsaRequested = new DocIdFrequencyTracker(FREQUENCY_SKETCH_WIDTH,
+          FREQUENCY_SUMMARY_CAPACITY, stripes);
+      timesNonGsaRequested = new DocIdFrequencyTracker(FREQUENCY_SKETCH_WIDTH,
+          FREQUENCY_SUMMARY_CAPACITY, stripes);
     }
   }
 
-  synchronized void recordDocIdPush(List<? extends DocIdSender.Item> pushed) {
+  /**
+   * Use a stripe per processor, rounded up to a power of two, which is enough
+   * to make contention between request threads rare. Each stripe holds several
+   * hundred histograms, so the number of stripes is capped.
+   */
+  private static int determineStripeCount() {
+    int processors = Math.min(MAX_STRIPES,
+        Runtime.getRuntime().availableProcessors());
+    return processors <= 1 ? 1 : Integer.highestOneBit(processors - 1) << 1;
+  }
+
+  /** Returns the stripe of time-based stats used by the current thread. */
+  private Stats[] getTimeStatsStripe() {
+    return timeStatsStripes[
+        (int) (Thread.currentThread().getId() % timeStatsStripes.length)];
+  }
+
+  /**
+   * Combines the time-based stats of all stripes, after bringing them up to
+   * {@code currentTime}. The returned objects are new, and the stripes are
+   * added to them directly instead of being copied first.
+   */
+  private Stats[] mergeTimeStats(long currentTime) {
+    Stats[] merged = new Stats[timeStatsStripes[0].length];
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] = mergeTimeStats(currentTime, i);
+    }
+    return merged;
+  }
+
+  /**
+   * Same as {@link #mergeTimeStats(long)}, but only for the time period at
+   * {@code period} within each stripe.
+   */
+  private Stats mergeTimeStats(long currentTime, int period) {
+    Stats merged = null;
+    for (Stats[] stripe : timeStatsStripes) {
+      synchronized (stripe) {
+        if (merged == null) {
+          // Cause stats to update its internal structures
+          stripe[period].getCurrentStat(currentTime);
+          merged = stripe[period].emptyCopy();
+        }
+        merged.add(stripe[period]);
+      }
+    }
+    return merged;
+  }
+
+  void recordDocIdPush(List<? extends DocIdSender.Item> pushed) {
     for (Object item : pushed) {
       if (item instanceof DocIdPusher.Record) {
         DocIdPusher.Record record = (DocIdPusher.Record) item;
@@ -121,24 +234,66 @@ class Journal {
                                            + item.getClass().getName());
       }
     }
-    totalPushes += pushed.size();
+    totalPushes.addAndGet(pushed.size());
+  }
+
+  /**
+   * Record that a feed or group post is being made to the GSA over HTTPS. Along
+   * with {@link #recordFeedConnectionOpened}, this shows how often kept-alive
+   * connections are reused.
+   */
+  void recordSecureFeedPost() {
+    totalSecureFeedPosts.incrementAndGet();
+  }
+
+  /**
+   * Record that a new HTTPS connection, and thus a TLS handshake, was needed
+   * for a feed or group post.
+   */
+  void recordFeedConnectionOpened() {
+    totalFeedConnectionsOpened.incrementAndGet();
+  }
+
+  /** Record that a document request was answered from the content cache. */
+  void recordContentCacheHit() {
+    totalContentCacheHits.incrementAndGet();
+  }
+
+  /** Record that a document request was not found in the content cache. */
+  void recordContentCacheMiss() {
+    totalContentCacheMisses.incrementAndGet();
+  }
+
+  /** Record that the authz cache had decisions for {@code count} DocIds. */
+  void recordAuthzCacheHits(int count) {
+    totalAuthzCacheHits.addAndGet(count);
+  }
+
+  /**
+   * Record that the adaptor took {@code durationMillis} to check the
+   * authorization of {@code count} DocIds missing from the authz cache.
+   */
+  void recordAuthzCacheMisses(int count, long durationMillis) {
+    totalAuthzCacheMisses.addAndGet(count);
+    totalAuthzCacheMissMillis.addAndGet(durationMillis);
   }
 
   void recordGsaContentRequest(DocId docId) {
     long time = timeProvider.currentTimeMillis();
-    synchronized (this) {
-      increment(timesGsaRequested, docId);
-      totalGsaRequests++;
-      for (Stats stats : timeStats) {
+    increment(timesGsaRequested, docId);
+    totalGsaRequests.incrementAndGet();
+    Stats[] stripe = getTimeStatsStripe();
+    synchronized (stripe) {
+      for (Stats stats : stripe) {
         Stat stat = stats.getCurrentStat(time);
         stat.gsaRetrievedDocument = true;
       }
     }
   }
 
-  synchronized void recordNonGsaContentRequest(DocId requested) {
-    increment(timesNonGsaRequested, requested); 
-    totalNonGsaRequests++;
+  void recordNonGsaContentRequest(DocId requested) {
+    increment(timesNonGsaRequested, requested);
+    totalNonGsaRequests.incrementAndGet();
   }
 
   /**
@@ -159,14 +314,17 @@ class Journal {
 
   private void recordRequestProcessingEnd(long responseSize, long time) {
     long duration = endDuration(requestProcessingStart, time);
-    synchronized (this) {
-      for (Stats stats : timeStats) {
+    Stats[] stripe = getTimeStatsStripe();
+    synchronized (stripe) {
+      for (Stats stats : stripe) {
         Stat stat = stats.getCurrentStat(time);
         stat.requestProcessingsCount++;
         stat.requestProcessingsDurationSum += duration;
         stat.requestProcessingsMaxDuration = Math.max(
             stat.requestProcessingsMaxDuration, duration);
         stat.requestProcessingsThroughput += responseSize;
+        stat.requestProcessingsDurations.record(duration);
+        stat.requestProcessingsSizes.record(responseSize);
       }
     }
   }
@@ -177,15 +335,62 @@ class Journal {
    */
   void recordRequestProcessingFailure() {
     long time = timeProvider.currentTimeMillis();
-    synchronized (this) {
+    Stats[] stripe = getTimeStatsStripe();
+    synchronized (stripe) {
       recordRequestProcessingEnd(0, time);
-      for (Stats stats : timeStats) {
+      for (Stats stats : stripe) {
         Stat stat = stats.getCurrentStat(time);
         stat.requestProcessingsFailureCount++;
       }
     }
   }
 
+  /**
+   * Record that this thread is starting to post a feed or group definitions to
+   * the GSA.
+   */
+  void recordFeedPostStart() {
+    feedPostStart.set(timeProvider.currentTimeMillis());
+  }
+
+  /**
+   * Record that the feed post this thread was making has completed,
+   * successfully or not.
+   */
+  void recordFeedPostEnd() {
+    long time = timeProvider.currentTimeMillis();
+    long duration = endDuration(feedPostStart, time);
+    Stats[] stripe = getTimeStatsStripe();
+    synchronized (stripe) {
+      for (Stats stats : stripe) {
+        stats.getCurrentStat(time).feedPostDurations.record(duration);
+      }
+    }
+  }
+
+  /**
+   * Record that this thread is asking the adaptor to authorize a user's access
+   * to documents.
+   */
+  void recordAuthzStart() {
+    authzStart.set(timeProvider.currentTimeMillis());
+  }
+
+  /**
+   * Record that the adaptor answered, or failed to answer, the authorization
+   * request made by this thread.
+   */
+  void recordAuthzEnd() {
+    long time = timeProvider.currentTimeMillis();
+    long duration = endDuration(authzStart, time);
+    Stats[] stripe = getTimeStatsStripe();
+    synchronized (stripe) {
+      for (Stats stats : stripe) {
+        stats.getCurrentStat(time).authzDurations.record(duration);
+      }
+    }
+  }
+
   private long endDuration(ThreadLocal<Long> localStartTime, long endTime) {
     Long startTime = localStartTime.get();
     localStartTime.remove();
@@ -221,14 +426,23 @@ class Journal {
     return time - startTime;
   }
 
-  private static void increment(Map<DocId, Integer> counts, DocId id) {
-    if (!counts.containsKey(id)) {
-      counts.put(id, 1);
-    } else {
-      counts.put(id, 1 + counts.get(id));
+  private static void increment(DocIdFrequencyTracker counts, DocId id) {
+    if (counts != null) {
+      counts.record(id);
     }
   }
 
+  private static long estimateDistinct(DocIdFrequencyTracker counts) {
+    return counts == null ? -1 : counts.estimateDistinct();
+  }
+
+  private static List<DocIdFrequencyTracker.HotDocId> getTop(
+      DocIdFrequencyTracker counts) {
+    return counts == null
+        ? Collections.<DocIdFrequencyTracker.HotDocId>emptyList()
+        : Collections.unmodifiableList(counts.getTop(TOP_DOC_IDS));
+  }
+
   /**
    * Record that a full push has started. Only one is tracked at a time.
    */
@@ -237,6 +451,8 @@ class Journal {
       throw new IllegalStateException("Full push already started");
     }
     currentFullPushStart = timeProvider.currentTimeMillis();
+    partitionRetries.clear();
+    failedPartitions.clear();
   }
 
   /**
@@ -279,6 +495,21 @@ class Journal {
     return lastFullPushStatus;
   }
 
+  /**
+   * Record that listing a partition failed and is being retried.
+   */
+  synchronized void recordPartitionListingRetry(String partition) {
+    Integer retries = partitionRetries.get(partition);
+    partitionRetries.put(partition, retries == null ? 1 : retries + 1);
+  }
+
+  /**
+   * Record that listing a partition failed and was given up on.
+   */
+  synchronized void recordPartitionListingFailed(String partition) {
+    failedPartitions.add(partition);
+  }
+
   /**
    * Record that an incremental push has started.
    */
@@ -334,19 +565,14 @@ class Journal {
     long count = 0;
     long failures = 0;
 
-    synchronized (Journal.this) {
-      Stats stats = dayStatsByHalfHour;
-      // Update bookkeeping.
-      stats.getCurrentStat(currentTime);
-
-      for (int i = 0; i < stats.stats.length && count < maxCount; i++) {
-        // Walk through indexes in reverse order, starting with most current.
-        int index = (stats.currentStat - i + stats.stats.length)
-            % stats.stats.length;
-        Stat stat = stats.stats[index];
-        count += stat.requestProcessingsCount;
-        failures += stat.requestProcessingsFailureCount;
-      }
+    Stats stats = mergeTimeStats(currentTime, DAY_STATS_BY_HALF_HOUR);
+    for (int i = 0; i < stats.stats.length && count < maxCount; i++) {
+      // Walk through indexes in reverse order, starting with most current.
+      int index = (stats.currentStat - i + stats.stats.length)
+          % stats.stats.length;
+      Stat stat = stats.stats[index];
+      count += stat.requestProcessingsCount;
+      failures += stat.requestProcessingsFailureCount;
     }
 
     double rate = 0;
@@ -358,15 +584,10 @@ class Journal {
 
   boolean hasGsaCrawledWithinLastDay() {
     long currentTime = timeProvider.currentTimeMillis();
-    synchronized (Journal.this) {
-      Stats stats = dayStatsByHalfHour;
-      // Update bookkeeping.
-      stats.getCurrentStat(currentTime);
-
-      for (Stat stat : stats.stats) {
-        if (stat.gsaRetrievedDocument) {
-          return true;
-        }
+    Stats stats = mergeTimeStats(currentTime, DAY_STATS_BY_HALF_HOUR);
+    for (Stat stat : stats.stats) {
+      if (stat.gsaRetrievedDocument) {
+        return true;
       }
     }
     return false;
@@ -377,14 +598,37 @@ class Journal {
    */
   synchronized JournalSnapshot getSnapshot() {
     long currentTime = timeProvider.currentTimeMillis();
-    Stats[] timeStatsClone = new Stats[timeStats.length];
-    for (int i = 0; i < timeStats.length; i++) {
-      // Cause stats to update its internal structures
-      timeStats[i].getCurrentStat(currentTime);
-      timeStatsClone[i] = timeStats[i].clone();
-    }
+    return new JournalSnapshot(this, currentTime,
+        mergeTimeStats(currentTime), true);
+  }
+
+  /**
+   * Same as {@link #getSnapshot}, but without time-based stats or the most
+   * frequent DocIds, which are expensive to copy. Used for frequent polling.
+   */
+  synchronized JournalSnapshot getSummarySnapshot() {
+    return new JournalSnapshot(this, timeProvider.currentTimeMillis(),
+        new Stats[0], false);
+  }
 
-    return new JournalSnapshot(this, currentTime, timeStatsClone);
+  /**
+   * Returns the statistics of the last minute, summed directly from each
+   * stripe instead of copying every time period.
+   */
+  Stat getLastMinuteStat() {
+    long currentTime = timeProvider.currentTimeMillis();
+    Stat sum = new Stat();
+    for (Stats[] stripe : timeStatsStripes) {
+      synchronized (stripe) {
+        Stats stats = stripe[MINUTE_STATS_BY_SECOND];
+        // Cause stats to drop time periods older than a minute
+        stats.getCurrentStat(currentTime);
+        for (Stat stat : stats.stats) {
+          sum.add(stat);
+        }
+      }
+    }
+    return sum;
   }
 
   static class JournalSnapshot {
@@ -394,28 +638,71 @@ class Journal {
     final long numTotalGsaRequests;
     final long numUniqueNonGsaRequests;
     final long numTotalNonGsaRequests;
+    final long numFeedConnectionHits;
+    final long numFeedConnectionMisses;
+    final long numContentCacheHits;
+    final long numContentCacheMisses;
+    final long numAuthzCacheHits;
+    final long numAuthzCacheMisses;
+    /**
+     * Estimate of the time the authz cache saved the adaptor, assuming hits
+     * would have taken as long as misses did on average.
+     */
+    final long authzCacheMillisSaved;
+    /** Most frequently pushed DocIds; empty when using reduced memory. */
+    final List<DocIdFrequencyTracker.HotDocId> topDocIdsPushed;
+    final List<DocIdFrequencyTracker.HotDocId> topGsaRequests;
+    final List<DocIdFrequencyTracker.HotDocId> topNonGsaRequests;
     final long whenStarted;
     final long currentTime;
     final long timeResolution;
     final long lastSuccessfulFullPushStart;
     final long lastSuccessfulFullPushEnd;
     final long currentFullPushStart;
+    final Map<String, Integer> partitionRetries;
+    final Set<String> failedPartitions;
     final long lastSuccessfulIncrementalPushStart;
     final long lastSuccessfulIncrementalPushEnd;
     final long currentIncrementalPushStart;
     final Stats[] timeStats;
 
-    JournalSnapshot(Journal journal, long currentTime, Stats[] timeStatsClone) {
-      this.numUniqueDocIdsPushed = journal.timesPushed.size();
-      this.numTotalDocIdsPushed = journal.totalPushes;
-      this.numUniqueGsaRequests = journal.timesGsaRequested.size();
-      this.numTotalGsaRequests = journal.totalGsaRequests;
-      this.numUniqueNonGsaRequests = journal.timesNonGsaRequested.size();
-      this.numTotalNonGsaRequests = journal.totalNonGsaRequests;
+    JournalSnapshot(Journal journal, long currentTime, Stats[] timeStatsClone,
+        boolean includeTopDocIds) {
+      this.numUniqueDocIdsPushed = estimateDistinct(journal.timesPushed);
+      this.numTotalDocIdsPushed = journal.totalPushes.get();
+      this.numUniqueGsaRequests = estimateDistinct(journal.timesGsaRequested);
+      this.numTotalGsaRequests = journal.totalGsaRequests.get();
+      this.numUniqueNonGsaRequests
+          = estimateDistinct(journal.timesNonGsaRequested);
+      this.numTotalNonGsaRequests = journal.totalNonGsaRequests.get();
+      // Read opened first, since each post is counted after its connection.
+      long feedConnectionsOpened = journal.totalFeedConnectionsOpened.get();
+      // A connection may be opened and then fail before the post is made.
+      this.numFeedConnectionHits = Math.max(0,
+          journal.totalSecureFeedPosts.get() - feedConnectionsOpened);
+      this.numFeedConnectionMisses = feedConnectionsOpened;
+      this.numContentCacheHits = journal.totalContentCacheHits.get();
+      this.numContentCacheMisses = journal.totalContentCacheMisses.get();
+      // Read the time before the misses, since misses are counted first.
+      long authzMissMillis = journal.totalAuthzCacheMissMillis.get();
+      this.numAuthzCacheMisses = journal.totalAuthzCacheMisses.get();
+      this.numAuthzCacheHits = journal.totalAuthzCacheHits.get();
+      this.authzCacheMillisSaved = numAuthzCacheMisses == 0 ? 0
+          : numAuthzCacheHits * authzMissMillis / numAuthzCacheMisses;
+      this.topDocIdsPushed
+          = getTop(includeTopDocIds ? journal.timesPushed : null);
+      this.topGsaRequests
+          = getTop(includeTopDocIds ? journal.timesGsaRequested : null);
+      this.topNonGsaRequests
+          = getTop(includeTopDocIds ? journal.timesNonGsaRequested : null);
       this.timeResolution = journal.timeResolution;
       this.lastSuccessfulFullPushStart = journal.lastSuccessfulFullPushStart;
       this.lastSuccessfulFullPushEnd = journal.lastSuccessfulFullPushEnd;
       this.currentFullPushStart = journal.currentFullPushStart;
+      this.partitionRetries = Collections.unmodifiableMap(
+          new TreeMap<String, Integer>(journal.partitionRetries));
+      this.failedPartitions = Collections.unmodifiableSet(
+          new TreeSet<String>(journal.failedPartitions));
       this.lastSuccessfulIncrementalPushStart
           = journal.lastSuccessfulIncrementalPushStart;
       this.lastSuccessfulIncrementalPushEnd
@@ -468,8 +755,8 @@ class Journal {
     /**
      * Retrive the current {@code Stat} object that applies to {@code
      * currentTime}. {@code currentTime} is expected to be an actual point in
-     * time while the caller was holding the lock on {@link Journal}. It may
-     * never be less than the previous call.
+     * time while the caller was holding the lock on this object's stripe. It
+     * may never be less than the previous call.
      */
     public Stat getCurrentStat(long currentTime) {
       // Check if the current Stat object is still valid to write to
@@ -484,7 +771,12 @@ class Journal {
           stats[i].reset();
         }
         long duration = snapshotDurationMs;
-        pendingStatPeriodEnd = ((currentTime / duration) * duration) + duration;
+        long periodEnd = ((currentTime / duration) * duration) + duration;
+        // Advance currentStat as if we had walked through time, so that Stats
+        // created at the same time agree on which Stat is current.
+        currentStat = (int) ((currentStat
+            + (periodEnd - pendingStatPeriodEnd) / duration) % stats.length);
+        pendingStatPeriodEnd = periodEnd;
       }
       // Walk through time to get the current Stat object
       while (pendingStatPeriodEnd <= currentTime) {
@@ -496,6 +788,48 @@ class Journal {
       return stats[currentStat];
     }
 
+    /** Returns a new {@code Stat} combining every time period. */
+    Stat sum() {
+      Stat sum = new Stat();
+      for (Stat stat : stats) {
+        sum.add(stat);
+      }
+      return sum;
+    }
+
+    /**
+     * Add the statistics of {@code other}, which must have been created with
+     * the same parameters, to this object. Both objects are first brought up to
+     * the later of their two times, so {@code other} may be modified.
+     */
+    void add(Stats other) {
+      long periodEnd = Math.max(pendingStatPeriodEnd,
+          other.pendingStatPeriodEnd);
+      getCurrentStat(periodEnd - 1);
+      other.getCurrentStat(periodEnd - 1);
+      for (int i = 0; i < stats.length; i++) {
+        stats[i].add(other.stats[i]);
+      }
+    }
+
+    /**
+     * Returns an object with the same time periods as this one, with the same
+     * one current, but without any statistics.
+     */
+    Stats emptyCopy() {
+      Stats copy;
+      try {
+        copy = (Stats) super.clone();
+      } catch (CloneNotSupportedException ex) {
+        throw new AssertionError();
+      }
+      copy.stats = new Stat[stats.length];
+      for (int i = 0; i < stats.length; i++) {
+        copy.stats[i] = new Stat();
+      }
+      return copy;
+    }
+
     public Stats clone() {
       Stats statsClone;
       try {
@@ -540,6 +874,23 @@ class Journal {
      * True if the GSA requested a document.
      */
     boolean gsaRetrievedDocument;
+    /**
+     * Distribution of response processing durations.
+     */
+    Histogram requestProcessingsDurations = new Histogram();
+    /**
+     * Distribution of the number of bytes generated by the adaptor for each
+     * response.
+     */
+    Histogram requestProcessingsSizes = new Histogram();
+    /**
+     * Distribution of the durations of feed and group posts to the GSA.
+     */
+    Histogram feedPostDurations = new Histogram();
+    /**
+     * Distribution of the durations of authorization checks by the adaptor.
+     */
+    Histogram authzDurations = new Histogram();
 
     public Stat() {
       reset();
@@ -555,21 +906,39 @@ class Journal {
       requestProcessingsMaxDuration = 0;
       requestProcessingsThroughput = 0;
       gsaRetrievedDocument = false;
+      requestProcessingsDurations.reset();
+      requestProcessingsSizes.reset();
+      feedPostDurations.reset();
+      authzDurations.reset();
+    }
+
+    /** Add the statistics of {@code other} to this object. */
+    private void add(Stat other) {
+      requestProcessingsCount += other.requestProcessingsCount;
+      requestProcessingsFailureCount += other.requestProcessingsFailureCount;
+      requestProcessingsDurationSum += other.requestProcessingsDurationSum;
+      requestProcessingsMaxDuration = Math.max(requestProcessingsMaxDuration,
+          other.requestProcessingsMaxDuration);
+      requestProcessingsThroughput += other.requestProcessingsThroughput;
+      gsaRetrievedDocument |= other.gsaRetrievedDocument;
+      requestProcessingsDurations.add(other.requestProcessingsDurations);
+      requestProcessingsSizes.add(other.requestProcessingsSizes);
+      feedPostDurations.add(other.feedPostDurations);
+      authzDurations.add(other.authzDurations);
     }
 
     public Stat clone() {
+      Stat stat;
       try {
-        return (Stat) super.clone();
+        stat = (Stat) super.clone();
       } catch (CloneNotSupportedException ex) {
         throw new AssertionError();
       }
-    }
-  }
-
-  private static class NegSizeFakeMap<K, V> extends FakeMap<K, V> {
-    @Override
-    public int size() {
-      return -1;
+      stat.requestProcessingsDurations = requestProcessingsDurations.clone();
+      stat.requestProcessingsSizes = requestProcessingsSizes.clone();
+      stat.feedPostDurations = feedPostDurations.clone();
+      stat.authzDurations = authzDurations.clone();
+      return stat;
     }
   }
 }
@@ -0,0 +1,110 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Size- and time-bounded cache of the values returned by a {@link
+ * LastModifiedProvider}, so that a burst of requests for a document only
+ * asks the adaptor once. Values are dropped when their DocId is pushed, as
+ * described by {@link CacheInvalidations}.
+ */
+class LastModifiedCache {
+  private final LastModifiedProvider provider;
+  private final long ttlMillis;
+  private final TimeProvider timeProvider;
+  private final Map<DocId, CachedValue> cache;
+  private final CacheInvalidations invalidations;
+
+  /**
+   * {@code ttlMillis} of zero disables caching, so that {@code provider} is
+   * always called.
+   */
+  public LastModifiedCache(LastModifiedProvider provider, int maxSize,
+      long ttlMillis, TimeProvider timeProvider) {
+    if (provider == null || timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (maxSize < 0 || ttlMillis < 0) {
+      throw new IllegalArgumentException(
+          "Size and time to live must not be negative");
+    }
+    this.provider = provider;
+    this.ttlMillis = maxSize == 0 ? 0 : ttlMillis;
+    this.timeProvider = timeProvider;
+    this.cache = CacheInvalidations.newLruMap(maxSize);
+    this.invalidations
+        = new CacheInvalidations(this.ttlMillis, maxSize, timeProvider);
+  }
+
+  /**
+   * Returns the last modification time of {@code docId}, or {@code null} if
+   * unknown. Unknown values are not cached.
+   */
+  public Date getLastModified(DocId docId) throws IOException,
+      InterruptedException {
+    CacheInvalidations.Retrieval retrieval;
+    synchronized (this) {
+      retrieval = invalidations.startRetrieval();
+      CachedValue cached = cache.get(docId);
+      if (cached != null) {
+        if (retrieval.startMillis < cached.expiresAt) {
+          return new Date(cached.lastModified);
+        }
+        cache.remove(docId);
+      }
+    }
+    Date lastModified = provider.getLastModified(docId);
+    if (lastModified != null && ttlMillis > 0) {
+      synchronized (this) {
+        long expiresAt = retrieval.startMillis + ttlMillis;
+        long now = timeProvider.currentTimeMillis();
+        invalidations.forgetOld(now);
+        if (now < expiresAt
+            && invalidations.isCurrent(docId, retrieval.generation)) {
+          cache.put(docId,
+              new CachedValue(lastModified.getTime(), expiresAt));
+        }
+      }
+    }
+    return lastModified;
+  }
+
+  /** Drops any cached value for {@code docId}. */
+  public synchronized void invalidate(DocId docId) {
+    if (ttlMillis == 0) {
+      return;
+    }
+    invalidations.forgetOld(timeProvider.currentTimeMillis());
+    if (!invalidations.invalidate(docId)) {
+      cache.clear();
+      return;
+    }
+    cache.remove(docId);
+  }
+
+  private static class CachedValue {
+    final long lastModified;
+    final long expiresAt;
+
+    CachedValue(long lastModified, long expiresAt) {
+      this.lastModified = lastModified;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
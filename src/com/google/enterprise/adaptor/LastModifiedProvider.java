@@ -0,0 +1,48 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Interface for adaptors that can cheaply tell when a document was last
+ * modified, without retrieving it. When an {@link Adaptor} implements this
+ * interface, the library answers conditional requests from the GSA and other
+ * clients whose copy of the document is current with "Not Modified", without
+ * calling {@link Adaptor#getDocContent}. Since the GSA commonly recrawls
+ * unmodified content, this can avoid most retrievals.
+ *
+ * <p>Returned values are cached for {@code adaptor.lastModifiedCacheSecs}
+ * seconds, or until the document's {@code DocId} is pushed.
+ */
+public interface LastModifiedProvider {
+  /**
+   * Returns when the document, including its metadata and ACLs, was last
+   * modified, or {@code null} if that is unknown, in which case the document
+   * is retrieved as usual. This method must be much cheaper than retrieving
+   * the document and is called from multiple threads at once.
+   *
+   * <p>{@code docId} is client-provided and must not be trusted; return
+   * {@code null} if the document does not exist.
+   *
+   * @param docId the document being requested
+   * @return last modification time of the document, or {@code null}
+   * @throws IOException if determining the time fails
+   * @throws InterruptedException if an IO operation throws it
+   */
+  public Date getLastModified(DocId docId) throws IOException,
+      InterruptedException;
+}
@@ -0,0 +1,275 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Serves adaptor statistics in the Prometheus text exposition format, for
+ * monitoring systems to scrape. Metrics are written to the response as they
+ * are read, so each scrape only copies the counters it needs.
+ */
+class MetricsHandler implements HttpHandler {
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final Charset ENCODING = Charset.forName("UTF-8");
+  /** Quantiles exported for each histogram, along with their labels. */
+  private static final double[] QUANTILES = {50, 90, 99};
+  private static final String[] QUANTILE_LABELS
+      = {"{quantile=\"0.5\"}", "{quantile=\"0.9\"}", "{quantile=\"0.99\"}"};
+  private static final String MAX_LABEL = "{quantile=\"1\"}";
+  /** Labels for the type of push, left open for more labels. */
+  private static final String FULL_LABEL = "{type=\"full\"";
+  private static final String INCREMENTAL_LABEL = "{type=\"incremental\"";
+
+  private final Journal journal;
+  /** May be {@code null}, in which case queue metrics are omitted. */
+  private final AsyncDocIdSender asyncDocIdSender;
+  /** May be {@code null}, in which case watchdog metrics are omitted. */
+  private final Watchdog watchdog;
+  /**
+   * Executor running retriever requests. Metrics are omitted unless it is a
+   * {@link ThreadPoolExecutor}.
+   */
+  private final Executor retrieverExecutor;
+
+  public MetricsHandler(Journal journal, AsyncDocIdSender asyncDocIdSender,
+      Watchdog watchdog, Executor retrieverExecutor) {
+    if (journal == null) {
+      throw new NullPointerException();
+    }
+    this.journal = journal;
+    this.asyncDocIdSender = asyncDocIdSender;
+    this.watchdog = watchdog;
+    this.retrieverExecutor = retrieverExecutor;
+  }
+
+  @Override
+  public void handle(HttpExchange ex) throws IOException {
+    String requestMethod = ex.getRequestMethod();
+    if (!"GET".equals(requestMethod) && !"HEAD".equals(requestMethod)) {
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_METHOD,
+          Translation.HTTP_BAD_METHOD);
+      return;
+    }
+    if (!ex.getRequestURI().getPath().equals(ex.getHttpContext().getPath())) {
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_NOT_FOUND,
+          Translation.HTTP_NOT_FOUND);
+      return;
+    }
+    if ("HEAD".equals(requestMethod)) {
+      HttpExchanges.respondToHead(ex, HttpURLConnection.HTTP_OK,
+          CONTENT_TYPE);
+      return;
+    }
+    HttpExchanges.enableCompressionIfSupported(ex);
+    HttpExchanges.startResponse(ex, HttpURLConnection.HTTP_OK, CONTENT_TYPE,
+        true);
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(ex.getResponseBody(), ENCODING));
+    writeMetrics(writer);
+    writer.flush();
+    writer.close();
+    ex.close();
+  }
+
+  /** Writes all metrics to {@code out}, in the text exposition format. */
+  void writeMetrics(Writer out) throws IOException {
+    Journal.JournalSnapshot snapshot = journal.getSummarySnapshot();
+    writeCounter(out, "adaptor_docids_pushed_total",
+        "DocIds pushed to the GSA.", snapshot.numTotalDocIdsPushed);
+    writeCounter(out, "adaptor_gsa_requests_total",
+        "Document requests from the GSA.", snapshot.numTotalGsaRequests);
+    writeCounter(out, "adaptor_non_gsa_requests_total",
+        "Document requests from clients other than the GSA.",
+        snapshot.numTotalNonGsaRequests);
+    if (snapshot.numUniqueDocIdsPushed >= 0) {
+      writeHeader(out, "adaptor_unique_docids", "gauge",
+          "Estimated number of distinct DocIds, by how they were seen.");
+      writeSample(out, "adaptor_unique_docids", "{seen=\"pushed\"}",
+          snapshot.numUniqueDocIdsPushed);
+      writeSample(out, "adaptor_unique_docids", "{seen=\"gsa_requested\"}",
+          snapshot.numUniqueGsaRequests);
+      writeSample(out, "adaptor_unique_docids",
+          "{seen=\"non_gsa_requested\"}", snapshot.numUniqueNonGsaRequests);
+    }
+    writeCounter(out, "adaptor_feed_connections_opened_total",
+        "Connections opened to the GSA for feeds.",
+        snapshot.numFeedConnectionMisses);
+    writeCounter(out, "adaptor_feed_connections_reused_total",
+        "Feeds sent on a connection that was already open.",
+        snapshot.numFeedConnectionHits);
+    writeCounter(out, "adaptor_content_cache_hits_total",
+        "Document requests served from the content cache.",
+        snapshot.numContentCacheHits);
+    writeCounter(out, "adaptor_content_cache_misses_total",
+        "Document requests not found in the content cache.",
+        snapshot.numContentCacheMisses);
+    writeCounter(out, "adaptor_authz_cache_hits_total",
+        "DocIds whose authorization was answered from the authz cache.",
+        snapshot.numAuthzCacheHits);
+    writeCounter(out, "adaptor_authz_cache_misses_total",
+        "DocIds whose authorization was checked by the adaptor.",
+        snapshot.numAuthzCacheMisses);
+    writeGauge(out, "adaptor_authz_cache_saved_milliseconds",
+        "Estimated authorization time saved by the authz cache.",
+        snapshot.authzCacheMillisSaved);
+    writeGauge(out, "adaptor_start_time_seconds",
+        "Time the adaptor started, in seconds since the epoch.",
+        snapshot.whenStarted / 1000);
+
+    // Each metric's samples must be together, so push types are interleaved.
+    writeHeader(out, "adaptor_push_running", "gauge",
+        "Whether a push of DocIds is running, by type of push.");
+    writeSample(out, "adaptor_push_running", FULL_LABEL + "}",
+        snapshot.currentFullPushStart == 0 ? 0 : 1);
+    writeSample(out, "adaptor_push_running", INCREMENTAL_LABEL + "}",
+        snapshot.currentIncrementalPushStart == 0 ? 0 : 1);
+    writeHeader(out, "adaptor_push_last_success_timestamp_seconds", "gauge",
+        "Time the last successful push completed, by type of push.");
+    writeSample(out, "adaptor_push_last_success_timestamp_seconds",
+        FULL_LABEL + "}", snapshot.lastSuccessfulFullPushEnd / 1000);
+    writeSample(out, "adaptor_push_last_success_timestamp_seconds",
+        INCREMENTAL_LABEL + "}",
+        snapshot.lastSuccessfulIncrementalPushEnd / 1000);
+    writeHeader(out, "adaptor_push_last_status", "gauge",
+        "Outcome of the last completed push, by type of push.");
+    writePushStatus(out, FULL_LABEL, journal.getLastFullPushStatus());
+    writePushStatus(out, INCREMENTAL_LABEL,
+        journal.getLastIncrementalPushStatus());
+    writeGauge(out, "adaptor_failed_partitions",
+        "Partitions whose listing failed during the current full push.",
+        snapshot.failedPartitions.size());
+
+    Journal.Stat stat = journal.getLastMinuteStat();
+    writeGauge(out, "adaptor_requests_last_minute",
+        "Document requests completed in the last minute.",
+        stat.requestProcessingsCount);
+    writeGauge(out, "adaptor_request_failures_last_minute",
+        "Document requests that failed in the last minute.",
+        stat.requestProcessingsFailureCount);
+    writeQuantiles(out, "adaptor_request_duration_milliseconds",
+        "Duration of document requests in the last minute.",
+        stat.requestProcessingsDurations);
+    writeQuantiles(out, "adaptor_response_size_bytes",
+        "Size of document responses in the last minute.",
+        stat.requestProcessingsSizes);
+    writeQuantiles(out, "adaptor_feed_post_duration_milliseconds",
+        "Duration of feed posts to the GSA in the last minute.",
+        stat.feedPostDurations);
+    writeQuantiles(out, "adaptor_authz_duration_milliseconds",
+        "Duration of authorization checks in the last minute.",
+        stat.authzDurations);
+
+    if (asyncDocIdSender != null) {
+      writeGauge(out, "adaptor_async_sender_queue_size",
+          "Items waiting to be sent to the GSA.",
+          asyncDocIdSender.getQueueSize());
+      writeGauge(out, "adaptor_async_sender_queue_capacity",
+          "Maximum number of items waiting to be sent to the GSA.",
+          asyncDocIdSender.getQueueCapacity());
+      writeGauge(out, "adaptor_async_sender_spill_size",
+          "Items that overflowed the queue and wait on disk.",
+          asyncDocIdSender.getSpillSize());
+    }
+    if (retrieverExecutor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor executor = (ThreadPoolExecutor) retrieverExecutor;
+      writeGauge(out, "adaptor_retriever_threads_active",
+          "Retriever threads processing a request.",
+          executor.getActiveCount());
+      writeGauge(out, "adaptor_retriever_threads",
+          "Retriever threads, including idle ones.", executor.getPoolSize());
+      writeGauge(out, "adaptor_retriever_threads_max",
+          "Maximum number of retriever threads.",
+          executor.getMaximumPoolSize());
+      writeGauge(out, "adaptor_retriever_queue_size",
+          "Requests waiting for a retriever thread.",
+          executor.getQueue().size());
+      writeCounter(out, "adaptor_retriever_requests_completed_total",
+          "Requests completed by retriever threads.",
+          executor.getCompletedTaskCount());
+    }
+    if (watchdog != null) {
+      writeCounter(out, "adaptor_watchdog_interrupts_total",
+          "Retriever threads interrupted for taking too long.",
+          watchdog.getInterruptCount());
+    }
+  }
+
+  private static void writePushStatus(Writer out, String typeLabel,
+      Journal.CompletionStatus lastStatus) throws IOException {
+    for (Journal.CompletionStatus status : Journal.CompletionStatus.values()) {
+      writeSample(out, "adaptor_push_last_status", typeLabel + ",status=\""
+          + status.name().toLowerCase(Locale.ENGLISH) + "\"}",
+          status == lastStatus ? 1 : 0);
+    }
+  }
+
+  private static void writeQuantiles(Writer out, String name, String help,
+      Histogram histogram) throws IOException {
+    writeHeader(out, name, "gauge", help);
+    for (int i = 0; i < QUANTILES.length; i++) {
+      writeSample(out, name, QUANTILE_LABELS[i],
+          histogram.getValueAtPercentile(QUANTILES[i]));
+    }
+    writeSample(out, name, MAX_LABEL, histogram.getMax());
+    writeGauge(out, name + "_samples", "Number of values behind " + name + ".",
+        histogram.getCount());
+  }
+
+  private static void writeCounter(Writer out, String name, String help,
+      long value) throws IOException {
+    writeHeader(out, name, "counter", help);
+    writeSample(out, name, "", value);
+  }
+
+  private static void writeGauge(Writer out, String name, String help,
+      long value) throws IOException {
+    writeHeader(out, name, "gauge", help);
+    writeSample(out, name, "", value);
+  }
+
+  private static void writeHeader(Writer out, String name, String type,
+      String help) throws IOException {
+    out.write("# HELP ");
+    out.write(name);
+    out.write(' ');
+    out.write(help);
+    out.write("\n# TYPE ");
+    out.write(name);
+    out.write(' ');
+    out.write(type);
+    out.write('\n');
+  }
+
+  private static void writeSample(Writer out, String name, String labels,
+      long value) throws IOException {
+    out.write(name);
+    out.write(labels);
+    out.write(' ');
+    out.write(Long.toString(value));
+    out.write('\n');
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits large authorization requests into chunks that are checked
+ * concurrently by another {@link AuthzAuthority}, so that adaptors that check
+ * each document remotely answer a large batch from the GSA in time. Chunks
+ * not finished within the timeout are cancelled, and their DocIds are left
+ * out of the result, which callers must treat as {@code DENY}. The same
+ * happens to chunks that fail.
+ */
+class ParallelAuthzAuthority implements AuthzAuthority {
+  private static final Logger log
+      = Logger.getLogger(ParallelAuthzAuthority.class.getName());
+
+  private final AuthzAuthority authority;
+  private final int chunkSize;
+  private final long timeoutMillis;
+  private final ExecutorService executor;
+
+  /**
+   * @param authority authority to check each chunk
+   * @param chunkSize maximum number of DocIds in each chunk
+   * @param timeoutMillis time allowed for checking all chunks
+   * @param executor executor to check chunks with. Its number of threads
+   *     bounds the number of concurrent checks
+   */
+  public ParallelAuthzAuthority(AuthzAuthority authority, int chunkSize,
+      long timeoutMillis, ExecutorService executor) {
+    if (authority == null || executor == null) {
+      throw new NullPointerException();
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    if (timeoutMillis < 1) {
+      throw new IllegalArgumentException("timeoutMillis must be positive");
+    }
+    this.authority = authority;
+    this.chunkSize = chunkSize;
+    this.timeoutMillis = timeoutMillis;
+    this.executor = executor;
+  }
+
+  @Override
+  public Map<DocId, AuthzStatus> isUserAuthorized(
+      final AuthnIdentity userIdentity, Collection<DocId> ids) {
+    List<DocId> idList = new ArrayList<DocId>(ids);
+    List<Callable<Map<DocId, AuthzStatus>>> chunks
+        = new ArrayList<Callable<Map<DocId, AuthzStatus>>>();
+    for (int i = 0; i < idList.size(); i += chunkSize) {
+      final List<DocId> chunk
+          = idList.subList(i, Math.min(i + chunkSize, idList.size()));
+      chunks.add(new Callable<Map<DocId, AuthzStatus>>() {
+        @Override
+        public Map<DocId, AuthzStatus> call() throws IOException {
+          return authority.isUserAuthorized(userIdentity, chunk);
+        }
+      });
+    }
+
+    List<Future<Map<DocId, AuthzStatus>>> futures;
+    try {
+      // Cancels the chunks that are not done in time.
+      futures = executor.invokeAll(chunks, timeoutMillis,
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return new HashMap<DocId, AuthzStatus>();
+    }
+    Map<DocId, AuthzStatus> statuses
+        = new HashMap<DocId, AuthzStatus>(idList.size() * 2);
+    int timedOut = 0;
+    for (Future<Map<DocId, AuthzStatus>> future : futures) {
+      try {
+        Map<DocId, AuthzStatus> chunkStatuses = future.get();
+        if (chunkStatuses != null) {
+          statuses.putAll(chunkStatuses);
+        }
+      } catch (CancellationException ex) {
+        timedOut++;
+      } catch (ExecutionException ex) {
+        log.log(Level.WARNING, "Exception while checking authorization",
+            ex.getCause());
+      } catch (InterruptedException ex) {
+        // Can't happen, since invokeAll waited for every future.
+        throw new AssertionError(ex);
+      }
+    }
+    if (timedOut > 0) {
+      log.log(Level.WARNING, "{0} of {1} authorization chunks did not finish "
+          + "within {2} ms", new Object[] {timedOut, futures.size(),
+          timeoutMillis});
+    }
+    return statuses;
+  }
+}
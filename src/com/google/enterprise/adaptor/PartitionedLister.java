@@ -0,0 +1,57 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Interface for adaptors whose full listing can be split into independent
+ * partitions, like shards, tables, or root folders, that can be listed at the
+ * same time. When an {@link Adaptor} implements this interface, the library
+ * lists the partitions in parallel, using up to {@code
+ * adaptor.fullListingMaxPartitionThreads} threads, instead of calling {@link
+ * Adaptor#getDocIds}.
+ *
+ * <p>Each partition is retried separately, so a failure in one partition does
+ * not cause the others to be listed again. The full listing succeeds only if
+ * every partition is listed successfully.
+ */
+public interface PartitionedLister {
+  /**
+   * Returns the names of the partitions to list for this full listing. Names
+   * must be unique and are used in logs and statistics, so they should be
+   * short and meaningful to an administrator.
+   *
+   * @throws IOException on failure determining the partitions
+   * @throws InterruptedException may percolate from IO calls
+   */
+  public Collection<String> getPartitions() throws IOException,
+      InterruptedException;
+
+  /**
+   * Pushes all the DocIds in {@code partition}. This method is called from
+   * multiple threads at once, each for a different partition, and must be
+   * thread-safe. It is called again for the same partition if it throws an
+   * exception and the partition is retried.
+   *
+   * @param partition one of the names returned by {@link #getPartitions}
+   * @param pusher convenience reference to pusher
+   * @throws IOException on failure getting doc ids
+   * @throws InterruptedException may percolate from IO calls
+   */
+  public void getPartitionDocIds(String partition, DocIdPusher pusher)
+      throws IOException, InterruptedException;
+}
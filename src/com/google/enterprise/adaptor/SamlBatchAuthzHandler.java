@@ -65,14 +65,16 @@ class SamlBatchAuthzHandler implements HttpHandler {
   private final SamlMetadata metadata;
   private DocIdDecoder docIdDecoder;
   private final Principal.DomainFormat domainFormat;
+  private final Journal journal;
 
   public SamlBatchAuthzHandler(AuthzAuthority authzAuthority,
       DocIdDecoder docIdDecoder, SamlMetadata samlMetadata,
-      Principal.DomainFormat dmfmt) {
+      Principal.DomainFormat dmfmt, Journal journal) {
     this.authzAuthority = authzAuthority;
     this.docIdDecoder = docIdDecoder;
     this.metadata = samlMetadata;
     this.domainFormat = dmfmt;
+    this.journal = journal;
   }
 
   @Override
@@ -213,11 +215,14 @@ class SamlBatchAuthzHandler implements HttpHandler {
     log.info(identity.toString());
     docIds = Collections.unmodifiableMap(docIds);
     Map<DocId, AuthzStatus> statuses;
+    journal.recordAuthzStart();
     try {
       statuses = authzAuthority.isUserAuthorized(identity, docIds.values());
     } catch (Exception e) {
       log.log(Level.WARNING, "Exception while satisfying Authn query", e);
       statuses = null;
+    } finally {
+      journal.recordAuthzEnd();
     }
     if (statuses == null) {
       statuses = Collections.emptyMap();
@@ -72,6 +72,14 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
       simple.put("numTotalNonGsaRequests", journalSnap.numTotalNonGsaRequests);
       simple.put("numUniqueNonGsaRequests",
                  journalSnap.numUniqueNonGsaRequests);
+      simple.put("numFeedConnectionHits", journalSnap.numFeedConnectionHits);
+      simple.put("numFeedConnectionMisses",
+                 journalSnap.numFeedConnectionMisses);
+      simple.put("numContentCacheHits", journalSnap.numContentCacheHits);
+      simple.put("numContentCacheMisses", journalSnap.numContentCacheMisses);
+      simple.put("numAuthzCacheHits", journalSnap.numAuthzCacheHits);
+      simple.put("numAuthzCacheMisses", journalSnap.numAuthzCacheMisses);
+      simple.put("authzCacheMillisSaved", journalSnap.authzCacheMillisSaved);
       simple.put("timeResolution", journalSnap.timeResolution);
       simple.put("lastSuccessfulFullPushStart",
                  journalSnap.lastSuccessfulFullPushStart);
@@ -88,6 +96,38 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
       map.put("simpleStats", simple);
     }
 
+    {
+      // Only partitions that were retried or failed during the current or last
+      // full push.
+      Map<String, Object> partitions = new TreeMap<String, Object>();
+      for (Map.Entry<String, Integer> me
+          : journalSnap.partitionRetries.entrySet()) {
+        Map<String, Object> partition = new TreeMap<String, Object>();
+        partition.put("retries", me.getValue());
+        partition.put("failed", false);
+        partitions.put(me.getKey(), partition);
+      }
+      for (String name : journalSnap.failedPartitions) {
+        Map<String, Object> partition = new TreeMap<String, Object>();
+        Integer retries = journalSnap.partitionRetries.get(name);
+        partition.put("retries", retries == null ? 0 : retries);
+        partition.put("failed", true);
+        partitions.put(name, partition);
+      }
+      map.put("partitionStats", partitions);
+    }
+
+    {
+      // Empty lists when journal.reducedMem is true.
+      Map<String, Object> hotDocIds = new TreeMap<String, Object>();
+      hotDocIds.put("pushed", getHotDocIds(journalSnap.topDocIdsPushed));
+      hotDocIds.put("gsaRequested",
+                    getHotDocIds(journalSnap.topGsaRequests));
+      hotDocIds.put("nonGsaRequested",
+                    getHotDocIds(journalSnap.topNonGsaRequests));
+      map.put("hotDocIdStats", hotDocIds);
+    }
+
     {
       Map<String, Object> versionMap = new TreeMap<String, Object>();
 
@@ -121,6 +161,7 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
           time += stats.snapshotDurationMs;
         }
         stat.put("statData", statData);
+        stat.put("percentiles", getPercentiles(stats.sum()));
         statsList.add(stat);
       }
       map.put("stats", statsList);
@@ -142,6 +183,42 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
     return statMap;
   }
 
+  private List<Object> getHotDocIds(
+      List<DocIdFrequencyTracker.HotDocId> hotDocIds) {
+    List<Object> list = new ArrayList<Object>(hotDocIds.size());
+    for (DocIdFrequencyTracker.HotDocId hotDocId : hotDocIds) {
+      Map<String, Object> map = new TreeMap<String, Object>();
+      map.put("docId", hotDocId.docId.getUniqueId());
+      map.put("count", hotDocId.count);
+      map.put("error", hotDocId.error);
+      list.add(map);
+    }
+    return list;
+  }
+
+  /** Percentiles of each histogram, over a whole time window. */
+  private Map<String, Object> getPercentiles(Journal.Stat stat) {
+    Map<String, Object> percentiles = new TreeMap<String, Object>();
+    percentiles.put("requestProcessingsDuration",
+                    getPercentiles(stat.requestProcessingsDurations));
+    percentiles.put("requestProcessingsSize",
+                    getPercentiles(stat.requestProcessingsSizes));
+    percentiles.put("feedPostDuration",
+                    getPercentiles(stat.feedPostDurations));
+    percentiles.put("authzDuration", getPercentiles(stat.authzDurations));
+    return percentiles;
+  }
+
+  private Map<String, Object> getPercentiles(Histogram histogram) {
+    Map<String, Object> map = new TreeMap<String, Object>();
+    map.put("count", histogram.getCount());
+    map.put("p50", histogram.getValueAtPercentile(50));
+    map.put("p90", histogram.getValueAtPercentile(90));
+    map.put("p99", histogram.getValueAtPercentile(99));
+    map.put("max", histogram.getMax());
+    return map;
+  }
+
   private String getAdaptorLibraryVersion(Locale locale) {
     String version = this.getClass().getPackage().getImplementationVersion();
     return version == null
@@ -20,6 +20,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Calls Thread.interrupt() when a thread takes too long to complete a task.
@@ -39,6 +40,8 @@ class Watchdog {
   private final ScheduledExecutorService executor;
   private final ConcurrentMap<Thread, FutureInfo> inProcess
       = new ConcurrentHashMap<Thread, FutureInfo>();
+  /** Number of threads interrupted for taking too long. */
+  private final AtomicLong interruptCount = new AtomicLong();
 
   /**
    * @param executor executor to schedule tasks
@@ -102,7 +105,15 @@ class Watchdog {
     }
   }
 
-  private static class Interrupter implements Runnable {
+  /**
+   * Returns the number of times a thread has been interrupted for exceeding
+   * its timeout.
+   */
+  public long getInterruptCount() {
+    return interruptCount.get();
+  }
+
+  private class Interrupter implements Runnable {
     private final Thread thread;
     /**
      * Denotes the interrupter has responsibility to interrupt the thread. It
@@ -122,6 +133,7 @@ class Watchdog {
         if (interruptNeeded.get()) {
           thread.interrupt();
           interruptNeeded.set(false);
+          interruptCount.incrementAndGet();
         }
       }
     }
@@ -499,6 +499,11 @@ abstract class WrapperAdaptor implements Adaptor {
       return context.getSensitiveValueDecoder();
     }
 
+    @Override
+    public InheritedAclCache getInheritedAclCache() {
+      return context.getInheritedAclCache();
+    }
+
     @Override
     public HttpContext createHttpContext(String path, HttpHandler handler) {
       return context.createHttpContext(path, handler);
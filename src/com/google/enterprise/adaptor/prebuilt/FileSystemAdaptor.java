@@ -19,7 +19,9 @@ import com.google.enterprise.adaptor.AdaptorContext;
 import com.google.enterprise.adaptor.Config;
 import com.google.enterprise.adaptor.DocId;
 import com.google.enterprise.adaptor.DocIdPusher;
+import com.google.enterprise.adaptor.FileContentResponse;
 import com.google.enterprise.adaptor.IOHelper;
+import com.google.enterprise.adaptor.PollingIncrementalLister;
 import com.google.enterprise.adaptor.Request;
 import com.google.enterprise.adaptor.Response;
 
@@ -27,19 +29,28 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 /**
  * Adaptor serving files from current directory
  */
-public class FileSystemAdaptor extends AbstractAdaptor {
+public class FileSystemAdaptor extends AbstractAdaptor
+    implements PollingIncrementalLister {
   private static final String CONFIG_SRC = "filesystemadaptor.src";
   private static final String CONFIG_INCLUDE = "filesystemadaptor.include";
   private static final String CONFIG_EXCLUDE = "filesystemadaptor.exclude";
+  private static final String CONFIG_LISTING_THREADS
+      = "filesystemadaptor.listingThreads";
+  /** Number of records to collect during a listing before pushing them. */
+  private static final int PUSH_BATCH_SIZE = 1000;
 
   private static Logger log
       = Logger.getLogger(FileSystemAdaptor.class.getName());
@@ -47,6 +58,12 @@ public class FileSystemAdaptor extends AbstractAdaptor {
   private File serveDir;
   private Pattern include;
   private Pattern exclude;
+  private int listingThreads;
+  /**
+   * Last modified time of each file found by the most recent walk of
+   * serveDir, or {@code null} if serveDir has not been walked yet.
+   */
+  private volatile Map<DocId, Long> snapshot;
 
   @Override
   public void initConfig(Config config) {
@@ -63,6 +80,10 @@ public class FileSystemAdaptor extends AbstractAdaptor {
     // Black list (overrides white list) of files to not serve. See include.
     // This default matches nothing (meaning nothing is excluded).
     config.addKey(CONFIG_EXCLUDE, "$^");
+    // Number of directories to list concurrently when walking serveDir. On
+    // network file systems listing is bound by latency, so listing several
+    // directories at once makes walking large trees much faster.
+    config.addKey(CONFIG_LISTING_THREADS, "4");
   }
 
   @Override
@@ -78,31 +99,94 @@ public class FileSystemAdaptor extends AbstractAdaptor {
 
     String strExclude = config.getValue(CONFIG_EXCLUDE);
     exclude = Pattern.compile(strExclude, Pattern.DOTALL);
+
+    listingThreads = Integer.parseInt(config.getValue(CONFIG_LISTING_THREADS));
+    if (listingThreads < 1) {
+      throw new IllegalArgumentException(
+          CONFIG_LISTING_THREADS + " must be positive");
+    }
+
+    context.setPollingIncrementalLister(this);
   }
 
   @Override
   public void getDocIds(DocIdPusher pusher) throws IOException,
          InterruptedException {
-    ArrayList<DocId> mockDocIds = new ArrayList<DocId>();
-    String parent = serveDir.toString();
-    try {
-      for (File file : new RecursiveFileIterator(serveDir)) {
-        String name = file.toString();
-        if (!name.startsWith(parent)) {
-          throw new IllegalStateException(
-              "Internal problem: the file's path does not begin with parent.");
-        }
-        if (!isFileAllowed(file)) {
-          continue;
-        }
-        // +1 for slash
-        name = name.substring(parent.length() + 1);
-        mockDocIds.add(new DocId(name));
+    RecordBatcher batcher = new RecordBatcher(pusher);
+    Map<DocId, Long> files = walkServeDir(batcher);
+    batcher.flush();
+    batcher.checkPushed();
+    snapshot = files;
+  }
+
+  /**
+   * Finds files that were created, modified, or deleted since the previous
+   * listing by comparing last modified times against a snapshot taken during
+   * that listing. Only the differences are pushed. The snapshot is only
+   * replaced once they have all been pushed, so that failed pushes are
+   * retried by the next call.
+   */
+  @Override
+  public void getModifiedDocIds(DocIdPusher pusher) throws IOException,
+         InterruptedException {
+    Map<DocId, Long> previous = snapshot;
+    Map<DocId, Long> current = walkServeDir(null);
+    if (previous == null) {
+      // Nothing to compare against yet.
+      snapshot = current;
+      return;
+    }
+    RecordBatcher batcher = new RecordBatcher(pusher);
+    for (Map.Entry<DocId, Long> me : current.entrySet()) {
+      if (!me.getValue().equals(previous.get(me.getKey()))) {
+        batcher.add(new DocIdPusher.Record.Builder(me.getKey())
+            .setLastModified(new Date(me.getValue()))
+            .setCrawlImmediately(true).build());
       }
-    } catch (RecursiveFileIterator.WrappedIOException ex) {
-      throw ex.getCause();
     }
-    pusher.pushDocIds(mockDocIds);
+    for (DocId id : previous.keySet()) {
+      if (!current.containsKey(id)) {
+        batcher.add(new DocIdPusher.Record.Builder(id)
+            .setDeleteFromIndex(true).build());
+      }
+    }
+    batcher.flush();
+    batcher.checkPushed();
+    snapshot = current;
+  }
+
+  /**
+   * Walks serveDir, returning the last modified time of each allowed file
+   * keyed by its DocId. If {@code batcher} is non-{@code null}, a Record for
+   * each file is added to it as the file is found.
+   */
+  private Map<DocId, Long> walkServeDir(final RecordBatcher batcher)
+      throws IOException, InterruptedException {
+    final String parent = serveDir.toString();
+    final Map<DocId, Long> files = new ConcurrentHashMap<DocId, Long>();
+    new ParallelFileWalker(listingThreads).walk(serveDir,
+        new ParallelFileWalker.Visitor() {
+          @Override
+          public void visitFile(File file) throws InterruptedException {
+            String name = file.toString();
+            if (!name.startsWith(parent)) {
+              throw new IllegalStateException("Internal problem: the file's "
+                  + "path does not begin with parent.");
+            }
+            if (!isFileAllowed(file)) {
+              return;
+            }
+            // +1 for slash
+            DocId id = new DocId(name.substring(parent.length() + 1));
+            long lastModified = file.lastModified();
+            files.put(id, lastModified);
+            if (batcher != null) {
+              batcher.add(new DocIdPusher.Record.Builder(id)
+                  .setLastModified(new Date(lastModified)).build());
+            }
+          }
+        });
+    return files;
   }
 
   @Override
@@ -118,7 +202,7 @@ public class FileSystemAdaptor extends AbstractAdaptor {
       resp.respondNotModified();
       return;
     }
-    InputStream input;
+    FileInputStream input;
     try {
       input = new FileInputStream(file);
     } catch (FileNotFoundException ex) {
@@ -126,7 +210,16 @@ public class FileSystemAdaptor extends AbstractAdaptor {
       return;
     }
     try {
-      IOHelper.copyStream(input, resp.getOutputStream());
+      // Lets the file be sent with a Content-Length. This path is not taken
+      // when the content cache is enabled, since the response is then wrapped
+      // in a recording response that is not a FileContentResponse.
+      if (resp instanceof FileContentResponse) {
+        FileChannel channel = input.getChannel();
+        ((FileContentResponse) resp).respondWithFile(
+            channel, 0, channel.size());
+      } else {
+        IOHelper.copyStream(input, resp.getOutputStream());
+      }
     } finally {
       input.close();
     }
@@ -147,6 +240,71 @@ public class FileSystemAdaptor extends AbstractAdaptor {
         && !exclude.matcher(file.getPath()).find();
   }
 
+  /** Collects Records from multiple threads and pushes them in batches. */
+  private static class RecordBatcher {
+    private final DocIdPusher pusher;
+    private final List<DocIdPusher.Record> batch
+        = new ArrayList<DocIdPusher.Record>();
+    /** The first record that failed to be pushed, if any. */
+    private DocIdPusher.Record failed;
+
+    public RecordBatcher(DocIdPusher pusher) {
+      this.pusher = pusher;
+    }
+
+    public void add(DocIdPusher.Record record) throws InterruptedException {
+      List<DocIdPusher.Record> full = null;
+      synchronized (this) {
+        batch.add(record);
+        if (batch.size() >= PUSH_BATCH_SIZE) {
+          full = new ArrayList<DocIdPusher.Record>(batch);
+          batch.clear();
+        }
+      }
+      if (full != null) {
+        push(full);
+      }
+    }
+
+    /** Pushes any records that have not been pushed yet. */
+    public void flush() throws InterruptedException {
+      List<DocIdPusher.Record> rest;
+      synchronized (this) {
+        rest = new ArrayList<DocIdPusher.Record>(batch);
+        batch.clear();
+      }
+      if (!rest.isEmpty()) {
+        push(rest);
+      }
+    }
+
+    /**
+     * Throws if any record failed to be pushed.
+     *
+     * @throws IOException naming the first record that failed to be pushed
+     */
+    public synchronized void checkPushed() throws IOException {
+      if (failed != null) {
+        throw new IOException("Failed to push records, starting with "
+            + failed.getDocId());
+      }
+    }
+
+    private void push(List<DocIdPusher.Record> records)
+        throws InterruptedException {
+      DocIdPusher.Record result = pusher.pushRecords(records);
+      if (result != null) {
+        log.log(Level.WARNING, "Failed to push records, starting with {0}",
+            result.getDocId());
+        synchronized (this) {
+          if (failed == null) {
+            failed = result;
+          }
+        }
+      }
+    }
+  }
+
   /** Call default main for adaptors. */
   public static void main(String[] args) {
     AbstractAdaptor.main(new FileSystemAdaptor(), args);
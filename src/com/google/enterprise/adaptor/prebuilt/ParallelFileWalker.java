@@ -0,0 +1,152 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.prebuilt;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a directory tree, listing several directories at once. Directory
+ * listings on network file systems are dominated by round-trip latency, so
+ * walking a large tree one directory at a time leaves most of that time idle.
+ *
+ * <p>Each directory is listed by its own task; subdirectories found in a
+ * listing are queued as new tasks, and all other files are handed to the
+ * {@link Visitor}. The walk stops at the first failure.
+ */
+class ParallelFileWalker {
+  private final int threads;
+
+  /**
+   * @param threads maximum number of directories to list concurrently
+   */
+  public ParallelFileWalker(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive");
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Calls {@code visitor} for each non-directory file within {@code root},
+   * including files within subdirectories. If {@code root} is not a directory,
+   * it is the only file visited. The visitor is called concurrently from
+   * multiple threads and in no particular order. This method returns once
+   * every file has been visited.
+   *
+   * @throws IOException if a directory could not be listed
+   */
+  public void walk(File root, Visitor visitor) throws IOException,
+         InterruptedException {
+    if (!root.isDirectory()) {
+      visitor.visitFile(root);
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("fileWalker-%d").build());
+    Walk walk = new Walk(executor, visitor);
+    try {
+      walk.submit(root);
+      walk.done.await();
+    } finally {
+      executor.shutdownNow();
+    }
+    Exception failure = walk.failure;
+    if (failure == null) {
+      return;
+    } else if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof InterruptedException) {
+      throw (InterruptedException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else {
+      throw new AssertionError(failure);
+    }
+  }
+
+  /** Receives the files found during a walk. Must be thread-safe. */
+  public interface Visitor {
+    public void visitFile(File file) throws IOException, InterruptedException;
+  }
+
+  /** State of a single call to {@link #walk}. */
+  private static class Walk {
+    private final ExecutorService executor;
+    private final Visitor visitor;
+    /** Number of directories submitted but not yet listed. */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    /** The first failure encountered, which ends the walk. */
+    private volatile Exception failure;
+
+    public Walk(ExecutorService executor, Visitor visitor) {
+      this.executor = executor;
+      this.visitor = visitor;
+    }
+
+    public void submit(final File dir) {
+      pending.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (failure == null) {
+              list(dir);
+            }
+          } catch (Exception ex) {
+            fail(ex);
+          } finally {
+            if (pending.decrementAndGet() == 0) {
+              done.countDown();
+            }
+          }
+        }
+      });
+    }
+
+    private void list(File dir) throws IOException, InterruptedException {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        throw new IOException(
+            "Exception while getting directory listing for: " + dir);
+      }
+      for (File file : files) {
+        if (failure != null) {
+          return;
+        }
+        if (file.isDirectory()) {
+          submit(file);
+        } else {
+          visitor.visitFile(file);
+        }
+      }
+    }
+
+    private synchronized void fail(Exception ex) {
+      if (failure == null) {
+        failure = ex;
+      }
+      done.countDown();
+    }
+  }
+}
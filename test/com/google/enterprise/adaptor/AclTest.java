@@ -534,6 +534,56 @@ public class AclTest {
         Arrays.asList(file1, file2), retriever));
   }
 
+  @Test
+  public void testIsAuthorizedBatchInheritedAclCache() throws IOException {
+    final DocId root = new DocId("root");
+    final DocId folder = new DocId("folder");
+    final Map<DocId, Acl> acls = new HashMap<DocId, Acl>();
+    acls.put(root, new Acl.Builder().setPermitUsers(U("user"))
+        .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDES).build());
+    acls.put(folder, new Acl.Builder().setInheritFrom(root)
+        .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDES).build());
+    for (int i = 0; i < 3; i++) {
+      acls.put(new DocId("file" + i),
+          new Acl.Builder().setInheritFrom(folder).build());
+    }
+    final List<Set<DocId>> requests = new ArrayList<Set<DocId>>();
+    Acl.BatchRetriever retriever = new MockBatchRetriever(acls) {
+      @Override
+      public Map<DocId, Acl> retrieveAcls(Set<DocId> ids) {
+        requests.add(new HashSet<DocId>(ids));
+        return super.retrieveAcls(ids);
+      }
+    };
+    AuthnIdentity identity = createIdentity("user");
+    InheritedAclCache cache
+        = new InheritedAclCache(10, 60000, new MockTimeProvider());
+    assertEquals(AuthzStatus.PERMIT, Acl.isAuthorizedBatch(identity,
+        Arrays.asList(new DocId("file0")), retriever, cache).get(
+        new DocId("file0")));
+    assertEquals(3, requests.size());
+
+    // Only the file itself is retrieved once the folders are cached.
+    requests.clear();
+    assertEquals(AuthzStatus.PERMIT, Acl.isAuthorizedBatch(identity,
+        Arrays.asList(new DocId("file1")), retriever, cache).get(
+        new DocId("file1")));
+    assertEquals(Collections.singletonList(
+        Collections.singleton(new DocId("file1"))), requests);
+
+    // Pushing the folder drops its ACL, but not the root's.
+    cache.invalidate(folder);
+    acls.put(folder, new Acl.Builder().setInheritFrom(root)
+        .setDenyUsers(U("user"))
+        .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDES).build());
+    requests.clear();
+    assertEquals(AuthzStatus.DENY, Acl.isAuthorizedBatch(identity,
+        Arrays.asList(new DocId("file2")), retriever, cache).get(
+        new DocId("file2")));
+    assertEquals(2, requests.size());
+    assertEquals(Collections.singleton(folder), requests.get(1));
+  }
+
   @Test
   public void testEmptyIsAuthorized() {
     assertEquals(AuthzStatus.INDETERMINATE, Acl.isAuthorized(
@@ -1105,6 +1155,57 @@ public class AclTest {
         createIdentity("unknownUser")));
   }
 
+  @Test
+  public void testCaseInsensitiveGroups() {
+    Acl acl = new Acl.Builder()
+        .setPermitGroups(Arrays.asList(new GroupPrincipal("PermiTGroup"),
+            new GroupPrincipal("group", "NS")))
+        .setDenyGroups(G("DenYGroup"))
+        .setEverythingCaseInsensitive()
+        .build();
+    assertEquals(AuthzStatus.PERMIT, acl.isAuthorizedLocal(
+        createIdentity("user", "other", "permitgroup")));
+    assertEquals(AuthzStatus.DENY, acl.isAuthorizedLocal(
+        createIdentity("user", "permitgroup", "DENYGROUP")));
+    assertEquals(AuthzStatus.INDETERMINATE, acl.isAuthorizedLocal(
+        createIdentity("user", "group")));
+    assertEquals(AuthzStatus.PERMIT, acl.isAuthorizedLocal(
+        new AuthnIdentityImpl.Builder(new UserPrincipal("user"))
+        .setGroups(Collections.singleton(new GroupPrincipal("GROUP", "ns")))
+        .build()));
+    // Namespace and name must not run together.
+    assertEquals(AuthzStatus.INDETERMINATE, acl.isAuthorizedLocal(
+        new AuthnIdentityImpl.Builder(new UserPrincipal("user"))
+        .setGroups(Collections.singleton(new GroupPrincipal("sgroup", "n")))
+        .build()));
+  }
+
+  @Test
+  public void testCaseInsensitiveChain() {
+    Acl root = new Acl.Builder()
+        .setPermitGroups(G("Everyone"))
+        .setInheritanceType(Acl.InheritanceType.AND_BOTH_PERMIT)
+        .setEverythingCaseInsensitive().build();
+    Acl middle = new Acl.Builder()
+        .setDenyUsers(U("BadUser"))
+        .setInheritFrom(new DocId("root"))
+        .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDES)
+        .setEverythingCaseInsensitive().build();
+    Acl leaf = new Acl.Builder()
+        .setPermitGroups(G("Readers"))
+        .setInheritFrom(new DocId("middle"))
+        .setEverythingCaseInsensitive().build();
+    List<Acl> chain = Arrays.asList(root, middle, leaf);
+    assertEquals(AuthzStatus.PERMIT, Acl.isAuthorized(
+        createIdentity("user", "everyone", "READERS"), chain));
+    assertEquals(AuthzStatus.DENY, Acl.isAuthorized(
+        createIdentity("user", "READERS"), chain));
+    assertEquals(AuthzStatus.DENY, Acl.isAuthorized(
+        createIdentity("baduser", "everyone"), chain));
+    assertEquals(AuthzStatus.DENY, Acl.isAuthorized(
+        createIdentity("user", "everyone"), chain));
+  }
+
   private AuthnIdentity createIdentity(String username, String... groups) {
     return createIdentity(username, Arrays.asList(groups));
   }
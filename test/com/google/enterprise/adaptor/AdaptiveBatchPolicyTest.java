@@ -0,0 +1,118 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.TimeUnit;
+
+/** Tests for {@link AdaptiveBatchPolicy}. */
+public class AdaptiveBatchPolicyTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private AdaptiveBatchPolicy policy
+      = new AdaptiveBatchPolicy(10, 80, 1, 16, TimeUnit.SECONDS);
+
+  @Test
+  public void testInvalidBatchSizes() {
+    thrown.expect(IllegalArgumentException.class);
+    new AdaptiveBatchPolicy(10, 5, 1, 16, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testInvalidLatencies() {
+    thrown.expect(IllegalArgumentException.class);
+    new AdaptiveBatchPolicy(10, 80, 17, 16, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testInitial() {
+    assertEquals(80, policy.getBatchSize());
+    assertEquals(1, policy.getLatency(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFixed() {
+    policy = AdaptiveBatchPolicy.fixed(3, 5, TimeUnit.SECONDS);
+    policy.recordPush(false, true, 0, 1, TimeUnit.MINUTES);
+    policy.recordPush(true, false, 100, 1, TimeUnit.MINUTES);
+    assertEquals(3, policy.getBatchSize());
+    assertEquals(5, policy.getLatency(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBacklogGrowsLatency() {
+    recordPush(true, false, 80);
+    assertEquals(80, policy.getBatchSize());
+    assertEquals(2, policy.getLatency(TimeUnit.SECONDS));
+    recordPush(true, false, 200);
+    recordPush(true, false, 200);
+    recordPush(true, false, 200);
+    recordPush(true, false, 200);
+    assertEquals(16, policy.getLatency(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testIdleShrinksLatency() {
+    recordPush(true, false, 200);
+    recordPush(true, false, 200);
+    assertEquals(4, policy.getLatency(TimeUnit.SECONDS));
+    // Items still queued, so keep waiting as long.
+    recordPush(false, false, 5);
+    assertEquals(4, policy.getLatency(TimeUnit.SECONDS));
+    recordPush(false, false, 0);
+    assertEquals(2, policy.getLatency(TimeUnit.SECONDS));
+    recordPush(false, false, 0);
+    recordPush(false, false, 0);
+    assertEquals(1, policy.getLatency(TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFailureShrinksBatch() {
+    recordPush(false, true, 0);
+    assertEquals(40, policy.getBatchSize());
+    assertEquals(2, policy.getLatency(TimeUnit.SECONDS));
+    recordPush(false, true, 0);
+    recordPush(false, true, 0);
+    assertEquals(10, policy.getBatchSize());
+    recordPush(false, true, 0);
+    assertEquals(10, policy.getBatchSize());
+
+    // Filling batches grows them back.
+    recordPush(true, false, 0);
+    assertEquals(20, policy.getBatchSize());
+    recordPush(true, false, 0);
+    recordPush(true, false, 0);
+    recordPush(true, false, 0);
+    assertEquals(80, policy.getBatchSize());
+  }
+
+  @Test
+  public void testLatencyNotShorterThanPush() {
+    policy.recordPush(false, false, 0, 3, TimeUnit.SECONDS);
+    assertEquals(3, policy.getLatency(TimeUnit.SECONDS));
+    policy.recordPush(false, false, 0, 1, TimeUnit.MINUTES);
+    assertEquals(10, policy.getLatency(TimeUnit.SECONDS));
+  }
+
+  private void recordPush(boolean filled, boolean failed, int queueDepth) {
+    policy.recordPush(filled, failed, queueDepth, 1, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/** Test cases for {@link AdmissionFilter}. */
+public class AdmissionFilterTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private Filter filter = new AdmissionFilter(1, 7);
+  private List<Filter> filters = Arrays.asList(filter);
+  private MockHttpExchange ex = new MockHttpExchange("GET", "/",
+      new MockHttpContext("/"));
+
+  @Test
+  public void testDescription() {
+    assertNotNull(filter.description());
+  }
+
+  @Test
+  public void testInvalidLimit() {
+    thrown.expect(IllegalArgumentException.class);
+    new AdmissionFilter(0, 7);
+  }
+
+  @Test
+  public void testNormal() throws Exception {
+    new Filter.Chain(filters, new SuccessHandler()).doFilter(ex);
+    assertEquals(200, ex.getResponseCode());
+  }
+
+  @Test
+  public void testOverloaded() throws Exception {
+    final MockHttpExchange rejected = new MockHttpExchange("GET", "/",
+        new MockHttpContext("/"));
+    HttpHandler handler = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange ex) throws IOException {
+        // This request holds the only permit while the other arrives.
+        new Filter.Chain(filters, new SuccessHandler()).doFilter(rejected);
+        new SuccessHandler().handle(ex);
+      }
+    };
+    new Filter.Chain(filters, handler).doFilter(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(503, rejected.getResponseCode());
+    assertEquals("7", rejected.getResponseHeaders().getFirst("Retry-After"));
+
+    // The permit is returned once the request completes.
+    MockHttpExchange later = new MockHttpExchange("GET", "/",
+        new MockHttpContext("/"));
+    new Filter.Chain(filters, new SuccessHandler()).doFilter(later);
+    assertEquals(200, later.getResponseCode());
+  }
+
+  @Test
+  public void testPermitReturnedOnException() throws Exception {
+    HttpHandler handler = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange ex) throws IOException {
+        throw new IOException("failed");
+      }
+    };
+    try {
+      new Filter.Chain(filters, handler).doFilter(ex);
+    } catch (IOException expected) {
+      // expected
+    }
+    MockHttpExchange later = new MockHttpExchange("GET", "/",
+        new MockHttpContext("/"));
+    new Filter.Chain(filters, new SuccessHandler()).doFilter(later);
+    assertEquals(200, later.getResponseCode());
+  }
+
+  private static class SuccessHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange ex) throws IOException {
+      // Translation used in garbage.
+      HttpExchanges.cannedRespond(ex, 200, Translation.HTTP_NOT_FOUND);
+    }
+  }
+}
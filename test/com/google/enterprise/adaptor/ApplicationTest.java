@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -263,6 +264,36 @@ public class ApplicationTest {
     }
   }
 
+  @Test
+  public void testCachedExecutorListen() throws Exception {
+    config.setValue("server.executor", "CACHED");
+    app.start();
+    URL url = new URL("http", "localhost", config.getServerPort(), "/");
+    URLConnection conn = url.openConnection();
+    thrown.expect(java.io.FileNotFoundException.class);
+    conn.getContent();
+  }
+
+  @Test
+  public void testCreateExecutor() throws Exception {
+    config.setValue("server.maxWorkerThreads", "3");
+    config.setValue("server.queueCapacity", "7");
+    ThreadPoolExecutor executor = Application.createExecutor(config);
+    assertEquals(3, executor.getCorePoolSize());
+    assertEquals(3, executor.getMaximumPoolSize());
+    assertEquals(7, executor.getQueue().remainingCapacity());
+    executor.shutdown();
+
+    config.setValue("server.executor", "CACHED");
+    config.setValue("server.maxConcurrentRequests", "5");
+    executor = Application.createExecutor(config);
+    assertEquals(0, executor.getCorePoolSize());
+    // Leaves room for threads rejecting requests with 503.
+    assertEquals(10, executor.getMaximumPoolSize());
+    assertEquals(0, executor.getQueue().remainingCapacity());
+    executor.shutdown();
+  }
+
   @Test
   public void testBasicHttpsListen() throws Exception {
     config.setValue("server.secure", "true");
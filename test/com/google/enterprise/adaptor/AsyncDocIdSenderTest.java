@@ -21,17 +21,23 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /** Tests for {@link AsyncDocIdSender}. */
 public class AsyncDocIdSenderTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
 
   private AccumulatingPusher pusher = new AccumulatingPusher();
 
@@ -47,6 +53,12 @@ public class AsyncDocIdSenderTest {
     new AsyncDocIdSender(pusher, 3, 1, null, 5);
   }
 
+  @Test
+  public void testNullPolicy() {
+    thrown.expect(NullPointerException.class);
+    new AsyncDocIdSender(pusher, null, 5);
+  }
+
   @Test
   public void testZeroMaxBatchSize() {
     thrown.expect(IllegalArgumentException.class);
@@ -121,6 +133,137 @@ public class AsyncDocIdSenderTest {
     assertEquals(golden, pusher.getItems());
   }
 
+  @Test(timeout = 1000)
+  public void testPushUsesPolicy() throws Exception {
+    AdaptiveBatchPolicy policy
+        = new AdaptiveBatchPolicy(1, 2, 1, 1000, TimeUnit.MILLISECONDS);
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher, policy, 6);
+    final List<DocIdPusher.Record> golden = Arrays.asList(
+        new DocIdPusher.Record.Builder(new DocId("1")).build(),
+        new DocIdPusher.Record.Builder(new DocId("2")).build(),
+        new DocIdPusher.Record.Builder(new DocId("3")).build(),
+        new DocIdPusher.Record.Builder(new DocId("4")).build(),
+        new DocIdPusher.Record.Builder(new DocId("5")).build(),
+        new DocIdPusher.Record.Builder(new DocId("6")).build());
+    for (DocIdPusher.Record record : golden) {
+      assertTrue(sender.asyncPushItem(record));
+    }
+    Thread workerThread = new Thread(sender.worker());
+    workerThread.start();
+    // The first two batches leave at least a full batch behind, so the latency
+    // doubles twice. The last batch is full, so the latency is left alone
+    // while the worker waits for more items.
+    while (policy.getLatency(TimeUnit.MILLISECONDS) != 4) {
+      Thread.sleep(1);
+    }
+    workerThread.interrupt();
+    workerThread.join();
+    assertEquals(golden, pusher.getItems());
+  }
+
+  @Test(timeout = 5000)
+  public void testBlockOverflow() throws Exception {
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher,
+        AdaptiveBatchPolicy.fixed(1, 0, TimeUnit.SECONDS), 1,
+        AsyncDocIdSender.OverflowPolicy.BLOCK, 200, null);
+    final List<DocIdPusher.Record> golden = Arrays.asList(
+        new DocIdPusher.Record.Builder(new DocId("1")).build(),
+        new DocIdPusher.Record.Builder(new DocId("2")).build());
+    assertTrue(sender.asyncPushItem(golden.get(0)));
+    // Times out.
+    assertFalse(sender.asyncPushItem(golden.get(1)));
+
+    Thread workerThread = new Thread(sender.worker());
+    workerThread.start();
+    // Waits for the worker to make room.
+    assertTrue(sender.asyncPushItem(golden.get(1)));
+    workerThread.interrupt();
+    workerThread.join();
+    assertEquals(golden, pusher.getItems());
+  }
+
+  @Test
+  public void testSpillOverflow() throws Exception {
+    ItemSpill spill = new ItemSpill(temp.newFile("spill"));
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher,
+        AdaptiveBatchPolicy.fixed(1, 1, TimeUnit.SECONDS), 1,
+        AsyncDocIdSender.OverflowPolicy.SPILL, 0, spill);
+    List<DocIdPusher.Record> golden = Arrays.asList(
+        new DocIdPusher.Record.Builder(new DocId("1")).build(),
+        new DocIdPusher.Record.Builder(new DocId("2")).build(),
+        new DocIdPusher.Record.Builder(new DocId("3")).build());
+    List<Future<Boolean>> acks = new ArrayList<Future<Boolean>>();
+    for (DocIdPusher.Record record : golden) {
+      acks.add(sender.pushRecordWithAck(record));
+    }
+    assertEquals(2, spill.size());
+
+    Thread workerThread = new Thread(sender.worker());
+    workerThread.start();
+    for (Future<Boolean> ack : acks) {
+      assertTrue(ack.get(5, TimeUnit.SECONDS));
+    }
+    workerThread.interrupt();
+    workerThread.join();
+    assertEquals(golden, pusher.getItems());
+    assertTrue(spill.isEmpty());
+    spill.close();
+  }
+
+  @Test
+  public void testPushWithAck() throws Exception {
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher, 3, 1,
+        TimeUnit.SECONDS, 2);
+    DocIdPusher.Record record =
+        new DocIdPusher.Record.Builder(new DocId("1")).build();
+    Acl acl = new Acl.Builder().setInheritFrom(new DocId("2")).build();
+    Future<Boolean> recordAck = sender.pushRecordWithAck(record);
+    Future<Boolean> aclAck = sender.pushNamedResourceWithAck(
+        new DocId("2"), acl);
+    // The queue is full, so it is dropped instead of blocking.
+    Future<Boolean> droppedAck = sender.pushRecordWithAck(record);
+    assertTrue(droppedAck.isDone());
+    assertFalse(droppedAck.get());
+    assertFalse(recordAck.isDone());
+
+    verifyPushedItems(sender, Arrays.asList(record,
+        new DocIdSender.AclItem(new DocId("2"), null, acl)));
+    assertTrue(recordAck.get());
+    assertTrue(aclAck.get());
+  }
+
+  @Test
+  public void testPushWithAckFailed() throws Exception {
+    final DocIdPusher.Record failing =
+        new DocIdPusher.Record.Builder(new DocId("2")).build();
+    pusher = new AccumulatingPusher() {
+      @Override
+      public <T extends DocIdSender.Item> T pushItems(Iterator<T> items,
+          ExceptionHandler handler) throws InterruptedException {
+        while (items.hasNext()) {
+          T item = items.next();
+          if (item.equals(failing)) {
+            return item;
+          }
+          super.pushItems(Collections.singletonList(item).iterator(), handler);
+        }
+        return null;
+      }
+    };
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher, 3, 1,
+        TimeUnit.SECONDS, 3);
+    DocIdPusher.Record sent =
+        new DocIdPusher.Record.Builder(new DocId("1")).build();
+    Future<Boolean> sentAck = sender.pushRecordWithAck(sent);
+    Future<Boolean> failingAck = sender.pushRecordWithAck(failing);
+    Future<Boolean> laterAck = sender.pushRecordWithAck(
+        new DocIdPusher.Record.Builder(new DocId("3")).build());
+    verifyPushedItems(sender, Arrays.asList(sent));
+    assertTrue(sentAck.get());
+    assertFalse(failingAck.get());
+    assertFalse(laterAck.get());
+  }
+
   @Test
   public void testPushDocId() throws Exception {
     AsyncDocIdSender sender = new AsyncDocIdSender(pusher, 3, 1,
@@ -0,0 +1,261 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for {@link AuthzCache}.
+ */
+public class AuthzCacheTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final Journal journal = new Journal(new MockTimeProvider());
+  private final CountingAuthority authority = new CountingAuthority();
+  private final DocId permitted = new DocId("permitted");
+  private final DocId denied = new DocId("denied");
+  private final DocId missing = new DocId("missing");
+  private final AuthnIdentity user = new AuthnIdentityImpl.Builder(
+      new UserPrincipal("user")).build();
+
+  public AuthzCacheTest() {
+    timeProvider.autoIncrement = false;
+    authority.statuses.put(permitted, AuthzStatus.PERMIT);
+    authority.statuses.put(denied, AuthzStatus.DENY);
+    authority.statuses.put(missing, AuthzStatus.INDETERMINATE);
+  }
+
+  @Test
+  public void testNegativeSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new AuthzCache(-1, 1000, false, journal, timeProvider);
+  }
+
+  @Test
+  public void testDisabled() {
+    AuthzCache cache = new AuthzCache(0, 1000, false, journal, timeProvider);
+    assertFalse(cache.isEnabled());
+    assertSame(authority, cache.wrap(authority));
+    assertNull(cache.wrap(null));
+  }
+
+  @Test
+  public void testOnlyMissingDocIdsChecked() throws Exception {
+    AuthzAuthority cached = new AuthzCache(10, 1000, false, journal,
+        timeProvider).wrap(authority);
+    Map<DocId, AuthzStatus> statuses
+        = cached.isUserAuthorized(user, Arrays.asList(permitted, denied));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(permitted));
+    assertEquals(AuthzStatus.DENY, statuses.get(denied));
+    statuses = cached.isUserAuthorized(user,
+        Arrays.asList(permitted, denied, missing));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(permitted));
+    assertEquals(AuthzStatus.DENY, statuses.get(denied));
+    assertEquals(AuthzStatus.INDETERMINATE, statuses.get(missing));
+    // Denials are not cached by default.
+    assertEquals(2, authority.calls.size());
+    assertEquals(Arrays.asList(denied, missing), authority.calls.get(1));
+
+    Journal.JournalSnapshot snapshot = journal.getSummarySnapshot();
+    assertEquals(1, snapshot.numAuthzCacheHits);
+    assertEquals(4, snapshot.numAuthzCacheMisses);
+  }
+
+  @Test
+  public void testDenialsCached() throws Exception {
+    AuthzAuthority cached = new AuthzCache(10, 1000, true, journal,
+        timeProvider).wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(denied, missing));
+    Map<DocId, AuthzStatus> statuses
+        = cached.isUserAuthorized(user, Arrays.asList(denied, missing));
+    assertEquals(AuthzStatus.DENY, statuses.get(denied));
+    assertEquals(2, authority.calls.size());
+    assertEquals(Arrays.asList(missing), authority.calls.get(1));
+  }
+
+  @Test
+  public void testAllCached() throws Exception {
+    AuthzAuthority cached = new AuthzCache(10, 1000, false, journal,
+        timeProvider).wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    Map<DocId, AuthzStatus> statuses
+        = cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(permitted));
+    assertEquals(1, authority.calls.size());
+  }
+
+  @Test
+  public void testExpires() throws Exception {
+    AuthzAuthority cached = new AuthzCache(10, 1000, false, journal,
+        timeProvider).wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    timeProvider.time += 999;
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(1, authority.calls.size());
+    timeProvider.time += 1;
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(2, authority.calls.size());
+  }
+
+  @Test
+  public void testSizeBounded() throws Exception {
+    DocId other = new DocId("other");
+    authority.statuses.put(other, AuthzStatus.PERMIT);
+    AuthzAuthority cached = new AuthzCache(1, 1000, false, journal,
+        timeProvider).wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    cached.isUserAuthorized(user, Arrays.asList(other));
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(3, authority.calls.size());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    AuthzCache cache = new AuthzCache(10, 1000, false, journal, timeProvider);
+    AuthzAuthority cached = cache.wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    cache.invalidate(permitted);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(2, authority.calls.size());
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(2, authority.calls.size());
+    cache.invalidateAll();
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(3, authority.calls.size());
+  }
+
+  @Test
+  public void testInvalidateWhileChecking() throws Exception {
+    final AuthzCache cache
+        = new AuthzCache(10, 1000, false, journal, timeProvider);
+    AuthzAuthority cached = cache.wrap(new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        cache.invalidate(permitted);
+        return authority.isUserAuthorized(userIdentity, ids);
+      }
+    });
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    cache.wrap(authority).isUserAuthorized(user, Arrays.asList(permitted));
+    // The decision made during the invalidation was not kept.
+    assertEquals(2, authority.calls.size());
+  }
+
+  @Test
+  public void testNullResultIsIndeterminate() throws Exception {
+    final List<List<DocId>> calls = new ArrayList<List<DocId>>();
+    AuthzAuthority cached = new AuthzCache(10, 1000, true, journal,
+        timeProvider).wrap(new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids) {
+        calls.add(new ArrayList<DocId>(ids));
+        return null;
+      }
+    });
+    Map<DocId, AuthzStatus> statuses
+        = cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(AuthzStatus.INDETERMINATE, statuses.get(permitted));
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    assertEquals(2, calls.size());
+  }
+
+  @Test
+  public void testMissingResultIsIndeterminate() throws Exception {
+    authority.statuses.remove(missing);
+    AuthzAuthority cached = new AuthzCache(10, 1000, true, journal,
+        timeProvider).wrap(authority);
+    Map<DocId, AuthzStatus> statuses
+        = cached.isUserAuthorized(user, Arrays.asList(permitted, missing));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(permitted));
+    assertEquals(AuthzStatus.INDETERMINATE, statuses.get(missing));
+    cached.isUserAuthorized(user, Arrays.asList(permitted, missing));
+    assertEquals(Arrays.asList(missing), authority.calls.get(1));
+  }
+
+  @Test
+  public void testUsersDoNotShareDecisions() throws Exception {
+    AuthzAuthority cached = new AuthzCache(10, 1000, false, journal,
+        timeProvider).wrap(authority);
+    cached.isUserAuthorized(user, Arrays.asList(permitted));
+    cached.isUserAuthorized(null, Arrays.asList(permitted));
+    cached.isUserAuthorized(new AuthnIdentityImpl.Builder(
+        new UserPrincipal("user")).setGroups(new HashSet<GroupPrincipal>(
+        Arrays.asList(new GroupPrincipal("group")))).build(),
+        Arrays.asList(permitted));
+    cached.isUserAuthorized(new AuthnIdentityImpl.Builder(
+        new UserPrincipal("user")).setPassword("password").build(),
+        Arrays.asList(permitted));
+    assertEquals(4, authority.calls.size());
+    cached.isUserAuthorized(null, Arrays.asList(permitted));
+    assertEquals(4, authority.calls.size());
+  }
+
+  @Test
+  public void testFingerprintIgnoresGroupOrder() {
+    List<GroupPrincipal> groups = new ArrayList<GroupPrincipal>();
+    for (int i = 0; i < 100; i++) {
+      groups.add(new GroupPrincipal("group" + i));
+    }
+    AuthnIdentity identity1 = new AuthnIdentityImpl.Builder(
+        new UserPrincipal("user")).setGroups(
+        new HashSet<GroupPrincipal>(groups)).build();
+    List<GroupPrincipal> reversed = new ArrayList<GroupPrincipal>(groups);
+    Collections.reverse(reversed);
+    AuthnIdentity identity2 = new AuthnIdentityImpl.Builder(
+        new UserPrincipal("user")).setGroups(
+        new LinkedHashSet<GroupPrincipal>(reversed)).build();
+    assertEquals(AuthzCache.fingerprint(identity1),
+        AuthzCache.fingerprint(identity2));
+  }
+
+  private static class CountingAuthority implements AuthzAuthority {
+    final Map<DocId, AuthzStatus> statuses = new HashMap<DocId, AuthzStatus>();
+    final List<List<DocId>> calls = new ArrayList<List<DocId>>();
+
+    @Override
+    public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity userIdentity,
+        Collection<DocId> ids) {
+      calls.add(new ArrayList<DocId>(ids));
+      Map<DocId, AuthzStatus> result = new HashMap<DocId, AuthzStatus>();
+      for (DocId id : ids) {
+        result.put(id, statuses.get(id));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Map;
+
+/**
+ * Test cases for {@link CacheInvalidations}.
+ */
+public class CacheInvalidationsTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final DocId doc = new DocId("doc");
+  private final DocId other = new DocId("other");
+
+  public CacheInvalidationsTest() {
+    timeProvider.autoIncrement = false;
+  }
+
+  @Test
+  public void testNullTimeProvider() {
+    thrown.expect(NullPointerException.class);
+    new CacheInvalidations(1000, 10, null);
+  }
+
+  @Test
+  public void testInvalidate() {
+    CacheInvalidations invalidations
+        = new CacheInvalidations(1000, 10, timeProvider);
+    long generation = invalidations.getGeneration();
+    assertTrue(invalidations.isCurrent(doc, generation));
+    assertTrue(invalidations.invalidate(doc));
+    assertFalse(invalidations.isCurrent(doc, generation));
+    assertTrue(invalidations.isCurrent(other, generation));
+    assertTrue(invalidations.isCurrent(doc, invalidations.getGeneration()));
+  }
+
+  @Test
+  public void testInvalidateAll() {
+    CacheInvalidations invalidations
+        = new CacheInvalidations(1000, 10, timeProvider);
+    long generation = invalidations.getGeneration();
+    invalidations.invalidateAll();
+    assertFalse(invalidations.isCurrent(other, generation));
+    assertTrue(invalidations.isCurrent(other, invalidations.getGeneration()));
+  }
+
+  @Test
+  public void testTooManyInvalidations() {
+    CacheInvalidations invalidations
+        = new CacheInvalidations(1000, 1, timeProvider);
+    long generation = invalidations.getGeneration();
+    assertTrue(invalidations.invalidate(doc));
+    assertFalse(invalidations.invalidate(new DocId("another")));
+    assertFalse(invalidations.isCurrent(other, generation));
+  }
+
+  @Test
+  public void testForgetOld() {
+    CacheInvalidations invalidations
+        = new CacheInvalidations(1000, 10, timeProvider);
+    long generation = invalidations.getGeneration();
+    invalidations.invalidate(doc);
+    timeProvider.time += 999;
+    invalidations.forgetOld(timeProvider.currentTimeMillis());
+    assertFalse(invalidations.isCurrent(doc, generation));
+    timeProvider.time += 1;
+    invalidations.forgetOld(timeProvider.currentTimeMillis());
+    // Any entry this old has expired, so the invalidation is forgotten.
+    assertTrue(invalidations.isCurrent(doc, generation));
+  }
+
+  @Test
+  public void testLruMap() {
+    Map<String, String> map = CacheInvalidations.newLruMap(2);
+    map.put("a", "1");
+    map.put("b", "2");
+    map.get("a");
+    map.put("c", "3");
+    assertEquals(2, map.size());
+    assertNull(map.get("b"));
+    assertEquals("1", map.get("a"));
+  }
+}
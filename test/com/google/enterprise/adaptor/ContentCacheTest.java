@@ -0,0 +1,314 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Test cases for {@link ContentCache}.
+ */
+public class ContentCacheTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final DocId doc1 = new DocId("1");
+  private final DocId doc2 = new DocId("2");
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+
+  public ContentCacheTest() {
+    timeProvider.autoIncrement = false;
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    ContentCache cache = new ContentCache(0, 1024, 1000, timeProvider);
+    assertFalse(cache.isEnabled());
+    cache.put(doc1, record(cache, new byte[10]), cache.startRetrieval());
+    assertNull(cache.get(doc1));
+  }
+
+  @Test
+  public void testZeroTtlDisables() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 0, timeProvider);
+    assertFalse(cache.isEnabled());
+  }
+
+  @Test
+  public void testNegativeSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new ContentCache(-1, 1024, 1000, timeProvider);
+  }
+
+  @Test
+  public void testNegativeTtl() {
+    thrown.expect(IllegalArgumentException.class);
+    new ContentCache(1024 * 1024, 1024, -1, timeProvider);
+  }
+
+  @Test
+  public void testNullTimeProvider() {
+    thrown.expect(NullPointerException.class);
+    new ContentCache(1024 * 1024, 1024, 1000, null);
+  }
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    assertTrue(cache.isEnabled());
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+        new WrapperAdaptor.GetContentsResponse(original));
+    recording.setContentType("text/plain");
+    recording.setLastModified(new Date(1000));
+    recording.addMetadata("key", "value");
+    recording.setAcl(new Acl.Builder()
+        .setInheritFrom(new DocId("parent")).build());
+    recording.setSecure(true);
+    recording.addAnchor(URI.create("http://example.com/"), "text");
+    recording.setNoIndex(true);
+    recording.setNoFollow(true);
+    recording.setNoArchive(true);
+    recording.setDisplayUrl(URI.create("http://example.com/display"));
+    recording.setCrawlOnce(true);
+    recording.setLock(true);
+    recording.putNamedResource("frag", Acl.EMPTY);
+    recording.getOutputStream().write(new byte[] {1, 2, 3});
+    recording.getOutputStream().write(4);
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, original.toByteArray());
+    cache.put(doc1, recording.toEntry(), cache.startRetrieval());
+
+    ContentCache.Entry entry = cache.get(doc1);
+    assertNotNull(entry);
+    ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+    WrapperAdaptor.GetContentsResponse response
+        = new WrapperAdaptor.GetContentsResponse(replayed);
+    entry.replay(new WrapperAdaptor.GetContentsRequest(doc1), response);
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, replayed.toByteArray());
+    assertEquals("text/plain", response.getContentType());
+    assertEquals(new Date(1000), response.getLastModified());
+    assertEquals("value", response.getMetadata().getOneValue("key"));
+    assertEquals(new Acl.Builder()
+        .setInheritFrom(new DocId("parent")).build(), response.getAcl());
+    assertTrue(response.isSecure());
+    assertEquals(Arrays.asList(URI.create("http://example.com/")),
+        response.getAnchorUris());
+    assertEquals(Arrays.asList("text"), response.getAnchorTexts());
+    assertTrue(response.isNoIndex());
+    assertTrue(response.isNoFollow());
+    assertTrue(response.isNoArchive());
+    assertEquals(URI.create("http://example.com/display"),
+        response.getDisplayUrl());
+    assertTrue(response.isCrawlOnce());
+    assertTrue(response.isLock());
+  }
+
+  @Test
+  public void testNotFoundIsNotCached() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+        new WrapperAdaptor.GetContentsResponse(new ByteArrayOutputStream()));
+    recording.respondNotFound();
+    assertNull(recording.toEntry());
+  }
+
+  @Test
+  public void testNoContentStreamIsNotCached() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+        new WrapperAdaptor.GetContentsResponse(new ByteArrayOutputStream()));
+    recording.setContentType("text/plain");
+    assertNull(recording.toEntry());
+  }
+
+  @Test
+  public void testLargeContentIsNotCached() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 4, 1000, timeProvider);
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+        new WrapperAdaptor.GetContentsResponse(original));
+    recording.getOutputStream().write(new byte[] {1, 2, 3});
+    recording.getOutputStream().write(new byte[] {4, 5});
+    assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, original.toByteArray());
+    assertNull(recording.toEntry());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    cache.put(doc1, record(cache, new byte[10]), cache.startRetrieval());
+    cache.put(doc2, record(cache, new byte[10]), cache.startRetrieval());
+    assertNotNull(cache.get(doc1));
+    cache.invalidate(doc1);
+    assertNull(cache.get(doc1));
+    assertNotNull(cache.get(doc2));
+  }
+
+  @Test
+  public void testInvalidatedWhileRetrieving() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    ContentCache.Entry entry = record(cache, new byte[10]);
+    cache.invalidate(doc1);
+    cache.put(doc1, entry, retrieval);
+    assertNull(cache.get(doc1));
+    assertEquals(0, cache.getWeightedSize());
+  }
+
+  @Test
+  public void testOtherInvalidatedWhileRetrieving() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    ContentCache.Entry entry = record(cache, new byte[10]);
+    cache.invalidate(doc2);
+    cache.put(doc1, entry, retrieval);
+    assertNotNull(cache.get(doc1));
+  }
+
+  @Test
+  public void testExpires() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    cache.put(doc1, record(cache, new byte[10]), cache.startRetrieval());
+    timeProvider.time += 999;
+    assertNotNull(cache.get(doc1));
+    timeProvider.time += 1;
+    assertNull(cache.get(doc1));
+    assertEquals(0, cache.getWeightedSize());
+  }
+
+  @Test
+  public void testExpiresFromRetrievalStart() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    timeProvider.time += 600;
+    cache.put(doc1, record(cache, new byte[10]), retrieval);
+    timeProvider.time += 400;
+    assertNull(cache.get(doc1));
+  }
+
+  @Test
+  public void testSlowRetrievalIsNotCached() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    ContentCache.Entry entry = record(cache, new byte[10]);
+    timeProvider.time += 500;
+    cache.invalidate(doc1);
+    timeProvider.time += 1000;
+    cache.put(doc1, entry, retrieval);
+    assertNull(cache.get(doc1));
+  }
+
+  @Test
+  public void testReplace() throws Exception {
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 1000,
+        timeProvider);
+    cache.put(doc1, record(cache, new byte[10]), cache.startRetrieval());
+    long size = cache.getWeightedSize();
+    cache.put(doc1, record(cache, new byte[10]), cache.startRetrieval());
+    assertEquals(size, cache.getWeightedSize());
+  }
+
+  @Test
+  public void testPopularEntriesSurviveScan() throws Exception {
+    // Room for about ten entries.
+    int entrySize = 10 * 1024;
+    ContentCache cache = new ContentCache(10 * entrySize + 1024, entrySize,
+        1000, timeProvider);
+    for (int i = 0; i < 10; i++) {
+      DocId docId = new DocId("popular" + i);
+      for (int j = 0; j < 5; j++) {
+        cache.get(docId);
+      }
+      cache.put(docId, record(cache, new byte[entrySize - 1024]),
+          cache.startRetrieval());
+    }
+    for (int i = 0; i < 100; i++) {
+      DocId docId = new DocId("scan" + i);
+      assertNull(cache.get(docId));
+      cache.put(docId, record(cache, new byte[entrySize - 1024]),
+          cache.startRetrieval());
+    }
+    int popular = 0;
+    for (int i = 0; i < 10; i++) {
+      if (cache.get(new DocId("popular" + i)) != null) {
+        popular++;
+      }
+    }
+    assertTrue("Only " + popular + " popular entries remained", popular >= 8);
+    assertTrue(cache.getWeightedSize() <= 10 * entrySize + 1024);
+  }
+
+  @Test
+  public void testSketch() {
+    ContentCache.FrequencySketch sketch = new ContentCache.FrequencySketch(64);
+    assertEquals(0, sketch.frequency(doc1));
+    sketch.increment(doc1);
+    sketch.increment(doc1);
+    assertEquals(2, sketch.frequency(doc1));
+    for (int i = 0; i < 100; i++) {
+      sketch.increment(doc2);
+    }
+    assertEquals(15, sketch.frequency(doc2));
+  }
+
+  @Test
+  public void testSketchAges() {
+    ContentCache.FrequencySketch sketch = new ContentCache.FrequencySketch(64);
+    for (int i = 0; i < 8; i++) {
+      sketch.increment(doc1);
+    }
+    for (int i = 0; i < 10 * 64; i++) {
+      sketch.increment(new DocId("other" + i));
+    }
+    assertTrue(sketch.frequency(doc1) < 8);
+  }
+
+  @Test
+  public void testSketchWidth() {
+    thrown.expect(IllegalArgumentException.class);
+    new ContentCache.FrequencySketch(100);
+  }
+
+  private static ContentCache.Entry record(ContentCache cache, byte[] content)
+      throws IOException {
+    ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+        new WrapperAdaptor.GetContentsResponse(new ByteArrayOutputStream()));
+    recording.getOutputStream().write(content);
+    return recording.toEntry();
+  }
+}
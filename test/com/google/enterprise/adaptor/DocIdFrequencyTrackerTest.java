@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.List;
+
+/**
+ * Tests for {@link DocIdFrequencyTracker}.
+ */
+public class DocIdFrequencyTrackerTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testEmpty() {
+    DocIdFrequencyTracker tracker = new DocIdFrequencyTracker(1024, 10, 1);
+    assertEquals(0, tracker.estimateDistinct());
+    assertEquals(0, tracker.estimateCount(new DocId("a")));
+    assertEquals(0, tracker.getTop(5).size());
+  }
+
+  @Test
+  public void testSmallCountsAreExact() {
+    DocIdFrequencyTracker tracker = new DocIdFrequencyTracker(1024, 10, 1);
+    record(tracker, "a", 3);
+    record(tracker, "b", 5);
+    record(tracker, "c", 1);
+    assertEquals(3, tracker.estimateDistinct());
+    assertEquals(3, tracker.estimateCount(new DocId("a")));
+    assertEquals(5, tracker.estimateCount(new DocId("b")));
+
+    List<DocIdFrequencyTracker.HotDocId> top = tracker.getTop(2);
+    assertEquals(2, top.size());
+    assertHotDocId("b", 5, 0, top.get(0));
+    assertHotDocId("a", 3, 0, top.get(1));
+  }
+
+  @Test
+  public void testEvictionBoundsCounts() {
+    // Width large enough that the sketch has no collisions, so the bounds come
+    // from the Space-Saving summary.
+    DocIdFrequencyTracker tracker = new DocIdFrequencyTracker(1 << 16, 2, 1);
+    record(tracker, "hot", 100);
+    for (int i = 0; i < 50; i++) {
+      record(tracker, "cold" + i, 1);
+    }
+    List<DocIdFrequencyTracker.HotDocId> top = tracker.getTop(2);
+    assertHotDocId("hot", 100, 0, top.get(0));
+    // The summary only knows cold49 was seen between 1 and 50 times, but the
+    // sketch narrows that to once.
+    assertHotDocId("cold49", 1, 0, top.get(1));
+  }
+
+  @Test
+  public void testManyDocIds() {
+    DocIdFrequencyTracker tracker = new DocIdFrequencyTracker(1 << 12, 20, 1);
+    for (int i = 0; i < 100000; i++) {
+      record(tracker, "doc" + i, 1);
+    }
+    for (int i = 0; i < 10; i++) {
+      record(tracker, "hot" + i, 1000 + 100 * i);
+    }
+    long distinct = tracker.estimateDistinct();
+    assertTrue("estimate: " + distinct,
+        distinct > 95000 && distinct < 105000);
+    List<DocIdFrequencyTracker.HotDocId> top = tracker.getTop(10);
+    assertEquals(10, top.size());
+    for (int i = 0; i < 10; i++) {
+      DocIdFrequencyTracker.HotDocId hotDocId = top.get(i);
+      long trueCount = 1900 - 100 * i;
+      assertEquals(new DocId("hot" + (9 - i)), hotDocId.docId);
+      assertTrue(hotDocId.count >= trueCount);
+      assertTrue(hotDocId.count - hotDocId.error <= trueCount);
+    }
+  }
+
+  @Test
+  public void testStripesFromManyThreads() throws InterruptedException {
+    final DocIdFrequencyTracker tracker
+        = new DocIdFrequencyTracker(1 << 16, 10, 4);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final int threadNum = i;
+      threads[i] = new Thread() {
+        public void run() {
+          record(tracker, "shared", 10);
+          record(tracker, "own" + threadNum, threadNum + 1);
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(9, tracker.estimateDistinct());
+    List<DocIdFrequencyTracker.HotDocId> top = tracker.getTop(3);
+    assertHotDocId("shared", 80, 0, top.get(0));
+    assertHotDocId("own7", 8, 0, top.get(1));
+    assertHotDocId("own6", 7, 0, top.get(2));
+  }
+
+  @Test
+  public void testWidthNotPowerOfTwo() {
+    thrown.expect(IllegalArgumentException.class);
+    new DocIdFrequencyTracker(1000, 10, 1);
+  }
+
+  private static void record(DocIdFrequencyTracker tracker, String id,
+      int times) {
+    DocId docId = new DocId(id);
+    for (int i = 0; i < times; i++) {
+      tracker.record(docId);
+    }
+  }
+
+  private static void assertHotDocId(String id, long count, long error,
+      DocIdFrequencyTracker.HotDocId hotDocId) {
+    assertEquals(new DocId(id), hotDocId.docId);
+    assertEquals(count, hotDocId.count);
+    assertEquals(error, hotDocId.error);
+  }
+}
@@ -15,24 +15,36 @@
 package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -45,20 +57,159 @@ public class DocIdSenderTest {
   private Journal journal = new Journal(new MockTimeProvider());
   private Config config = new Config();
   private DocIdsMockAdaptor adaptor = new DocIdsMockAdaptor();
+  private FeedSpool spool = new FeedSpool(null);
   private DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender, 
-      fileArchiver, journal, config, adaptor);
+      fileArchiver, spool, journal, config, adaptor);
   private ExceptionHandler runtimeExceptionHandler
       = new RuntimeExceptionExceptionHandler();
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Before
   public void setup() {
     config.setValue("gsa.hostname", "localhost");
     config.setValue("gsa.version", "7.2.0-8");
   }
 
+  @After
+  public void clearInterrupt() {
+    // Some tests leave the thread interrupted, which would break later tests
+    // that block.
+    Thread.interrupted();
+  }
+
+  @Test
+  public void testPushInvalidatesContentCache() throws Exception {
+    config.setValue("server.contentCacheMaxBytes", "1048576");
+    DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender,
+        fileArchiver, spool, journal, config, adaptor);
+    ContentCache cache = docIdSender.getContentCache();
+    DocId doc1 = new DocId("1");
+    DocId doc2 = new DocId("2");
+    DocId doc3 = new DocId("3");
+    for (DocId docId : Arrays.asList(doc1, doc2, doc3)) {
+      ContentCache.RecordingResponse recording = cache.new RecordingResponse(
+          new WrapperAdaptor.GetContentsResponse(new ByteArrayOutputStream()));
+      recording.getOutputStream();
+      cache.put(docId, recording.toEntry(), cache.startRetrieval());
+    }
+
+    docIdSender.pushDocIds(Arrays.asList(doc1));
+    assertNull(cache.get(doc1));
+    assertNotNull(cache.get(doc2));
+
+    Map<DocId, Acl> resources = new TreeMap<DocId, Acl>();
+    resources.put(doc2, Acl.EMPTY);
+    docIdSender.pushNamedResources(resources);
+    assertNull(cache.get(doc2));
+    // Named resources within a document leave its content alone.
+    docIdSender.pushItems(Arrays.asList(
+        new DocIdSender.AclItem(doc3, "frag", Acl.EMPTY)).iterator(), null);
+    assertNotNull(cache.get(doc3));
+  }
+
+  @Test
+  public void testPushInvalidatesAuthzCache() throws Exception {
+    config.setValue("adaptor.authzCacheSize", "10");
+    DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender,
+        fileArchiver, spool, journal, config, adaptor);
+    final List<DocId> checked = new ArrayList<DocId>();
+    AuthzAuthority authority = docIdSender.getAuthzCache().wrap(
+        new AuthzAuthority() {
+          @Override
+          public Map<DocId, AuthzStatus> isUserAuthorized(
+              AuthnIdentity userIdentity, Collection<DocId> ids) {
+            checked.addAll(ids);
+            Map<DocId, AuthzStatus> statuses
+                = new TreeMap<DocId, AuthzStatus>();
+            for (DocId id : ids) {
+              statuses.put(id, AuthzStatus.PERMIT);
+            }
+            return statuses;
+          }
+        });
+    DocId doc1 = new DocId("1");
+    DocId doc2 = new DocId("2");
+    DocId doc3 = new DocId("3");
+    List<DocId> docIds = Arrays.asList(doc1, doc2, doc3);
+    authority.isUserAuthorized(null, docIds);
+    checked.clear();
+
+    docIdSender.pushDocIds(Arrays.asList(doc1));
+    Map<DocId, Acl> resources = new TreeMap<DocId, Acl>();
+    resources.put(doc2, Acl.EMPTY);
+    docIdSender.pushNamedResources(resources);
+    authority.isUserAuthorized(null, docIds);
+    assertEquals(Arrays.asList(doc1, doc2), checked);
+    checked.clear();
+    // Named resources within a document change who may see it.
+    docIdSender.pushItems(Arrays.asList(
+        new DocIdSender.AclItem(doc3, "frag", Acl.EMPTY)).iterator(), null);
+    authority.isUserAuthorized(null, docIds);
+    assertEquals(Arrays.asList(doc3), checked);
+  }
+
+  @Test
+  public void testPushNamedResourcesInvalidatesInheritedAclCache()
+      throws Exception {
+    config.setValue("adaptor.inheritedAclCacheSize", "10");
+    DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender,
+        fileArchiver, spool, journal, config, adaptor);
+    InheritedAclCache cache = docIdSender.getInheritedAclCache();
+    DocId folder = new DocId("folder");
+    DocId other = new DocId("other");
+    cache.put(folder, Acl.EMPTY, cache.startRetrieval());
+    cache.put(other, Acl.EMPTY, cache.startRetrieval());
+
+    Map<DocId, Acl> resources = new TreeMap<DocId, Acl>();
+    resources.put(folder, Acl.EMPTY);
+    docIdSender.pushNamedResources(resources);
+    assertNull(cache.get(folder));
+    assertSame(Acl.EMPTY, cache.get(other));
+  }
+
+  @Test
+  public void testPushGroupDefinitionsUpdatesGroupIndex() throws Exception {
+    config.setValue("adaptor.groupIndexSize", "10");
+    DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender,
+        fileArchiver, spool, journal, config, adaptor);
+    UserPrincipal user = new UserPrincipal("user");
+    GroupPrincipal group = new GroupPrincipal("group");
+    Map<GroupPrincipal, List<Principal>> defs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    defs.put(group, Collections.<Principal>singletonList(user));
+    assertNull(docIdSender.pushGroupDefinitions(defs, true, null));
+    assertEquals(Collections.singleton(group), docIdSender.getGroupIndex()
+        .expand(new AuthnIdentityImpl.Builder(user).build()).getGroups());
+  }
+
+  @Test
+  public void testFailedGroupPushLeavesGroupIndex() throws Exception {
+    config.setValue("adaptor.groupIndexSize", "10");
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendGroups(String groupsource, FeedContent xml,
+          boolean useCompression) throws IOException {
+        throw new IOException();
+      }
+    };
+    DocIdSender docIdSender = new DocIdSender(fileMaker, fileSender,
+        fileArchiver, spool, journal, config, adaptor);
+    UserPrincipal user = new UserPrincipal("user");
+    GroupPrincipal group = new GroupPrincipal("group");
+    Map<GroupPrincipal, List<Principal>> defs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    defs.put(group, Collections.<Principal>singletonList(user));
+    assertEquals(group, docIdSender.pushGroupDefinitions(defs, true,
+        new NeverRetryExceptionHandler()));
+    assertNull(docIdSender.getGroupIndex()
+        .expand(new AuthnIdentityImpl.Builder(user).build()).getGroups());
+  }
+
   @Test
   public void testPushDocIdsFromAdaptorNormal() throws Exception {
     adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
@@ -120,8 +271,8 @@ public class DocIdSenderTest {
         throw new InterruptedException();
       }
     };
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     thrown.expect(InterruptedException.class);
     docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
   }
@@ -138,33 +289,174 @@ public class DocIdSenderTest {
       }
     }
 
-    class TryTwiceExceptionHandler implements ExceptionHandler {
-      @Override
-      public boolean handleException(Exception ex, int ntries) {
-        return ntries < 2;
-      }
-    }
-
     FailureAdaptor adaptor = new FailureAdaptor();
     ExceptionHandler errorHandler = new TryTwiceExceptionHandler();
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     docIdSender.pushFullDocIdsFromAdaptor(errorHandler);
     assertEquals(2, adaptor.times);
   }
 
+  @Test
+  public void testPushDocIdsResumesFromCheckpoint() throws Exception {
+    final List<String> checkpoints = new ArrayList<String>();
+    MockAdaptor adaptor = new MockAdaptor() {
+      private boolean failed;
+
+      @Override
+      public void getDocIds(DocIdPusher pusher) throws InterruptedException,
+          IOException {
+        CheckpointingDocIdPusher checkpointer
+            = (CheckpointingDocIdPusher) pusher;
+        String checkpoint = checkpointer.getCheckpoint();
+        checkpoints.add(checkpoint);
+        int start = checkpoint == null ? 0 : Integer.parseInt(checkpoint) + 1;
+        for (int page = start; page < 3; page++) {
+          if (page == 2 && !failed) {
+            failed = true;
+            throw new IOException();
+          }
+          pusher.pushDocIds(Arrays.asList(new DocId("page" + page)));
+          checkpointer.saveCheckpoint("" + page);
+        }
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+
+    docIdSender.pushFullDocIdsFromAdaptor(new TryTwiceExceptionHandler());
+    assertEquals(Arrays.asList(null, "1"), checkpoints);
+    assertEquals(3, fileMaker.recordses.size());
+
+    // A complete listing clears the checkpoint.
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(Arrays.asList(null, "1", null), checkpoints);
+  }
+
+  @Test
+  public void testPushDocIdsSkipsUnchanged() throws Exception {
+    config.setValue("feed.fingerprintFile",
+        new File(temp.getRoot(), "fingerprints").toString());
+    config.setValue("feed.deleteUnlistedDocIds", "true");
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+    DocIdPusher.Record one = new DocIdPusher.Record.Builder(new DocId("1"))
+        .build();
+    DocIdPusher.Record two = new DocIdPusher.Record.Builder(new DocId("2"))
+        .build();
+    DocIdPusher.Record twoChanged = new DocIdPusher.Record.Builder(two)
+        .setCrawlImmediately(true).build();
+    adaptor.pushItems = Collections.singletonList(Arrays.asList(one, two));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(1, fileMaker.recordses.size());
+    assertEquals(Arrays.asList(one, two), fileMaker.recordses.get(0));
+
+    // Fingerprints survive a restart.
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+    adaptor.pushItems = Collections.singletonList(Arrays.asList(one, two));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(1, fileMaker.recordses.size());
+
+    adaptor.pushItems = Collections.singletonList(Arrays.asList(twoChanged));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(3, fileMaker.recordses.size());
+    assertEquals(Arrays.asList(twoChanged), fileMaker.recordses.get(1));
+    assertEquals(Arrays.asList(new DocIdPusher.Record.Builder(new DocId("1"))
+        .setDeleteFromIndex(true).build()), fileMaker.recordses.get(2));
+
+    // Once deleted, a record is sent again if it reappears.
+    adaptor.pushItems = Collections.singletonList(
+        Arrays.asList(one, twoChanged));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(4, fileMaker.recordses.size());
+    assertEquals(Arrays.asList(one), fileMaker.recordses.get(3));
+  }
+
+  @Test
+  public void testPushPartitioned() throws Exception {
+    config.setValue("adaptor.fullListingMaxPartitionThreads", "3");
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    PartitionedMockAdaptor adaptor = new PartitionedMockAdaptor() {
+      private final Set<String> started = new HashSet<String>();
+
+      @Override
+      public void getPartitionDocIds(String partition, DocIdPusher pusher)
+          throws IOException, InterruptedException {
+        boolean firstTry;
+        synchronized (this) {
+          firstTry = started.add(partition);
+        }
+        if (firstTry) {
+          // Only continues if all three partitions are being listed at once.
+          try {
+            barrier.await(5, TimeUnit.SECONDS);
+          } catch (Exception ex) {
+            throw new IOException(ex);
+          }
+          if (partition.equals("b")) {
+            throw new IOException();
+          }
+        }
+        pusher.pushDocIds(Arrays.asList(new DocId(partition + "1")));
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+
+    docIdSender.pushFullDocIdsFromAdaptor(new TryTwiceExceptionHandler());
+    assertEquals(Journal.CompletionStatus.SUCCESS,
+        journal.getLastFullPushStatus());
+    Set<DocId> pushed = new HashSet<DocId>();
+    for (List<? extends DocIdSender.Item> records : fileMaker.recordses) {
+      for (DocIdSender.Item item : records) {
+        pushed.add(((DocIdPusher.Record) item).getDocId());
+      }
+    }
+    assertEquals(new HashSet<DocId>(Arrays.asList(new DocId("a1"),
+        new DocId("b1"), new DocId("c1"))), pushed);
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(Collections.singletonMap("b", 1), snapshot.partitionRetries);
+    assertTrue(snapshot.failedPartitions.isEmpty());
+  }
+
+  @Test
+  public void testPushPartitionedFailed() throws Exception {
+    PartitionedMockAdaptor adaptor = new PartitionedMockAdaptor() {
+      @Override
+      public void getPartitionDocIds(String partition, DocIdPusher pusher)
+          throws IOException, InterruptedException {
+        if (partition.equals("b")) {
+          throw new IOException();
+        }
+        pusher.pushDocIds(Arrays.asList(new DocId(partition + "1")));
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+
+    docIdSender.pushFullDocIdsFromAdaptor(new TryTwiceExceptionHandler());
+    assertEquals(Journal.CompletionStatus.FAILURE,
+        journal.getLastFullPushStatus());
+    // The other partitions are still listed.
+    assertEquals(2, fileMaker.recordses.size());
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(Collections.singletonMap("b", 1), snapshot.partitionRetries);
+    assertEquals(Collections.singleton("b"), snapshot.failedPartitions);
+  }
+
   @Test
   public void testPushSizedBatchFailed() throws Exception {
     fileSender = new MockGsaFeedFileSender() {
       @Override
       public void sendMetadataAndUrl(String datasource,
-                                     String xmlString, boolean useCompression)
+                                     FeedContent xml, boolean useCompression)
           throws IOException {
         throw new IOException();
       }
     };
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     List<DocId> ids = Arrays.asList(new DocId[] {new DocId("test")});
     NeverRetryExceptionHandler errorHandler = new NeverRetryExceptionHandler();
 
@@ -177,13 +469,13 @@ public class DocIdSenderTest {
     fileSender = new MockGsaFeedFileSender() {
       @Override
       public void sendMetadataAndUrl(String datasource,
-                                     String xmlString, boolean useCompression)
+                                     FeedContent xml, boolean useCompression)
           throws IOException {
         throw new IOException();
       }
     };
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     List<DocId> ids = Arrays.asList(new DocId[] {new DocId("test")});
     NeverRetryExceptionHandler errorHandler = new NeverRetryExceptionHandler() {
       @Override
@@ -203,13 +495,13 @@ public class DocIdSenderTest {
     fileSender = new MockGsaFeedFileSender() {
       @Override
       public void sendMetadataAndUrl(String datasource,
-                                     String xmlString, boolean useCompression)
+                                     FeedContent xml, boolean useCompression)
           throws IOException {
         throw new IOException();
       }
     };
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     List<DocId> ids = Arrays.asList(new DocId("test"), new DocId("test2"));
 
     Thread.currentThread().interrupt();
@@ -224,7 +516,7 @@ public class DocIdSenderTest {
     fileSender = new MockGsaFeedFileSender() {
       @Override
       public void sendMetadataAndUrl(String datasource,
-                                     String xmlString, boolean useCompression)
+                                     FeedContent xml, boolean useCompression)
           throws IOException {
         long count = batchCount.incrementAndGet();
         if (count >= 2) {
@@ -233,8 +525,8 @@ public class DocIdSenderTest {
       }
     };
     config.setValue("feed.maxUrls", "1");
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
     List<DocId> ids = Arrays.asList(new DocId("test"), new DocId("test2"));
 
     Thread.currentThread().interrupt();
@@ -242,6 +534,146 @@ public class DocIdSenderTest {
     assertTrue(Thread.currentThread().isInterrupted());
   }
 
+  @Test
+  public void testPushPipelined() throws Exception {
+    // Each send waits for another to be in progress, so this only completes if
+    // two feeds are sent concurrently.
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendMetadataAndUrl(String datasource,
+                                     FeedContent xml, boolean useCompression)
+          throws IOException {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+          throw new IOException(ex);
+        }
+        super.sendMetadataAndUrl(datasource, xml, useCompression);
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.maxInFlight", "2");
+    List<DocId> ids = Arrays.asList(new DocId("test0"), new DocId("test1"),
+        new DocId("test2"), new DocId("test3"));
+
+    assertNull(docIdSender.pushDocIds(ids, new NeverRetryExceptionHandler()));
+    assertEquals(4, fileMaker.recordses.size());
+    assertEquals(4, fileSender.xmlStrings.size());
+    assertEquals(new HashSet<String>(Arrays.asList("0", "1", "2", "3")),
+        new HashSet<String>(fileArchiver.feeds));
+    assertTrue(fileArchiver.failedFeeds.isEmpty());
+  }
+
+  @Test
+  public void testPushPipelinedFailed() throws Exception {
+    // Batches are made on the sending threads, so name each feed after its
+    // contents instead of the order they were made in.
+    fileMaker = new MockGsaFeedFileMaker() {
+      @Override
+      public FeedContent makeMetadataAndUrlFeed(String name,
+          List<? extends DocIdSender.Item> items) {
+        super.makeMetadataAndUrlFeed(name, items);
+        return new FeedContent.FromString(
+            ((DocIdPusher.Record) items.get(0)).getDocId().getUniqueId());
+      }
+    };
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendMetadataAndUrl(String datasource,
+                                     FeedContent xml, boolean useCompression)
+          throws IOException {
+        if ("test1".equals(xml.toString())) {
+          throw new IOException();
+        }
+        super.sendMetadataAndUrl(datasource, xml, useCompression);
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.maxInFlight", "2");
+    List<DocId> ids = Arrays.asList(new DocId("test0"), new DocId("test1"),
+        new DocId("test2"), new DocId("test3"));
+
+    assertEquals(new DocId("test1"),
+        docIdSender.pushDocIds(ids, new NeverRetryExceptionHandler()));
+    assertEquals(Arrays.asList("test1"), fileArchiver.failedFeeds);
+  }
+
+  @Test
+  public void testPushPipelinedAfterStop() throws Exception {
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.maxInFlight", "2");
+    List<DocId> ids = Arrays.asList(new DocId("test0"), new DocId("test1"),
+        new DocId("test2"));
+
+    assertNull(docIdSender.pushDocIds(ids, new NeverRetryExceptionHandler()));
+    docIdSender.stop();
+    // A stopped sender starts new threads when pushed to again.
+    assertNull(docIdSender.pushDocIds(ids, new NeverRetryExceptionHandler()));
+    assertEquals(6, fileSender.xmlStrings.size());
+  }
+
+  @Test
+  public void testPushPipelinedStoppedDuringPush() throws Exception {
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.maxInFlight", "2");
+    final DocId stopAt = new DocId("test1");
+    final Iterator<DocIdPusher.Record> records = Arrays.asList(
+        new DocIdPusher.Record.Builder(new DocId("test0")).build(),
+        new DocIdPusher.Record.Builder(stopAt).build()).iterator();
+    Iterator<DocIdPusher.Record> stopping = new Iterator<DocIdPusher.Record>() {
+      @Override
+      public boolean hasNext() {
+        return records.hasNext();
+      }
+
+      @Override
+      public DocIdPusher.Record next() {
+        DocIdPusher.Record record = records.next();
+        if (stopAt.equals(record.getDocId())) {
+          docIdSender.stop();
+        }
+        return record;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    // The first batch may or may not have been sent before being stopped.
+    assertEquals(new DocId("test0"), docIdSender.pushItems(stopping,
+        new NeverRetryExceptionHandler()).getDocId());
+  }
+
+  @Test
+  public void testSpooledFeedsReplayedFirst() throws Exception {
+    // Left over from a previous run.
+    String spoolDir = temp.getRoot().toString();
+    new FeedSpool(spoolDir).add(FeedSpool.Type.METADATA_AND_URL, "old",
+        new FeedContent.FromString("<old/>"));
+    new FeedSpool(spoolDir).add(FeedSpool.Type.GROUPS, "oldgroups",
+        new FeedContent.FromString("<oldgroups/>"));
+    spool = new FeedSpool(spoolDir);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
+    config.setValue("feed.name", "testing");
+
+    assertNull(docIdSender.pushDocIds(Arrays.asList(new DocId("test"))));
+    assertEquals(Arrays.asList("old", "testing"), fileSender.datasources);
+    assertEquals(Arrays.asList("oldgroups"), fileSender.groupsources);
+    assertEquals(Arrays.asList("<old/>", "<oldgroups/>", "0"),
+        fileSender.xmlStrings);
+    assertEquals(Arrays.asList("<old/>", "<oldgroups/>", "0"),
+        fileArchiver.feeds);
+    assertTrue(spool.getEntries().isEmpty());
+  }
+
   @Test
   public void testPushGroupsNormal() throws Exception {
     // Order of iteration matters
@@ -349,13 +781,13 @@ public class DocIdSenderTest {
     fileSender = new MockGsaFeedFileSender() {
       @Override
       public void sendMetadataAndUrl(String datasource,
-                                     String xmlString, boolean useCompression)
+                                     FeedContent xml, boolean useCompression)
           throws IOException {
         throw new IOException();
       }
     };
-    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-                                  config, adaptor);
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, spool,
+                                  journal, config, adaptor);
 
     Map<DocId, Acl> resources = new TreeMap<DocId, Acl>();
     resources.put(new DocId("aaa"), Acl.EMPTY);
@@ -399,19 +831,20 @@ public class DocIdSenderTest {
     }
 
     @Override
-    public String makeMetadataAndUrlXml(String name,
+    public synchronized FeedContent makeMetadataAndUrlFeed(String name,
         List<? extends DocIdSender.Item> items) {
       names.add(name);
       recordses.add(items);
-      return "" + i++;
+      return new FeedContent.FromString("" + i++);
     }
 
     @Override
-    public <T extends Collection<Principal>> String makeGroupDefinitionsXml(
+    public <T extends Collection<Principal>> FeedContent
+        makeGroupDefinitionsFeed(
         Collection<Map.Entry<GroupPrincipal, T>> items,
         boolean caseSensitiveMembers) {
       groupses.add(new ArrayList<Map.Entry<GroupPrincipal, T>>(items));
-      return "" + i++;
+      return new FeedContent.FromString("" + i++);
     }
   }
 
@@ -421,22 +854,23 @@ public class DocIdSenderTest {
     List<String> xmlStrings = new ArrayList<String>();
 
     public MockGsaFeedFileSender() {
-      super("localhost", /*secure=*/ false, Charset.forName("UTF-8"));
+      super("localhost", /*secure=*/ false, Charset.forName("UTF-8"),
+          new Journal(new MockTimeProvider()));
     }
 
     @Override
-    public void sendMetadataAndUrl(String datasource,
-                                   String xmlString, boolean useCompression)
+    public synchronized void sendMetadataAndUrl(String datasource,
+                                   FeedContent xml, boolean useCompression)
         throws IOException {
       datasources.add(datasource);
-      xmlStrings.add(xmlString);
+      xmlStrings.add(contentOf(xml));
     }
 
     @Override
-    public void sendGroups(String groupsource, String xmlString,
+    public void sendGroups(String groupsource, FeedContent xml,
         boolean useCompression) throws IOException {
       groupsources.add(groupsource);
-      xmlStrings.add(xmlString);
+      xmlStrings.add(contentOf(xml));
     }
   }
 
@@ -445,13 +879,14 @@ public class DocIdSenderTest {
     List<String> failedFeeds = new ArrayList<String>();
 
     @Override
-    public void saveFeed(String feedName, String feedXml) {
-      feeds.add(feedXml);
+    public synchronized void saveFeed(String feedName, FeedContent feedXml) {
+      feeds.add(contentOf(feedXml));
     }
 
     @Override
-    public void saveFailedFeed(String feedName, String feedXml) {
-      failedFeeds.add(feedXml);
+    public synchronized void saveFailedFeed(String feedName,
+        FeedContent feedXml) {
+      failedFeeds.add(contentOf(feedXml));
     }
   }
 
@@ -469,6 +904,13 @@ public class DocIdSenderTest {
     }
   }
 
+  private static class TryTwiceExceptionHandler implements ExceptionHandler {
+    @Override
+    public boolean handleException(Exception ex, int ntries) {
+      return ntries < 2;
+    }
+  }
+
   private static class NeverRetryExceptionHandler implements ExceptionHandler {
     private int failed;
 
@@ -479,6 +921,19 @@ public class DocIdSenderTest {
     }
   }
 
+  private abstract static class PartitionedMockAdaptor extends MockAdaptor
+      implements PartitionedLister {
+    @Override
+    public Collection<String> getPartitions() {
+      return Arrays.asList("a", "b", "c");
+    }
+
+    @Override
+    public void getDocIds(DocIdPusher pusher) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   private static class DocIdsMockAdaptor extends MockAdaptor {
     public List<List<DocIdPusher.Record>> pushItems;
     public int timesGetDocIdsCalled;
@@ -496,4 +951,14 @@ public class DocIdSenderTest {
       }
     }
   }
+
+  private static String contentOf(FeedContent feed) {
+    StringWriter writer = new StringWriter();
+    try {
+      feed.writeTo(writer);
+    } catch (IOException ex) {
+      throw new AssertionError(ex);
+    }
+    return writer.toString();
+  }
 }
@@ -27,7 +27,11 @@ import com.sun.net.httpserver.HttpHandler;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -41,6 +45,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.security.auth.kerberos.KerberosPrincipal;
@@ -53,6 +58,9 @@ public class DocumentHandlerTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private MockAdaptor mockAdaptor = new MockAdaptor();
   private MockDocIdCodec docIdCodec = new MockDocIdCodec();
   private DocumentHandler handler = createDefaultHandlerForAdaptor(mockAdaptor);
@@ -1092,6 +1100,326 @@ public class DocumentHandlerTest {
     assertNull(ex.getResponseHeaders().getFirst("X-Gsa-External-Metadata"));
   }
 
+  @Test
+  public void testContentCache() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    MockAdaptor adaptor = new MockAdaptor() {
+          @Override
+          public void getDocContent(Request request, Response response)
+              throws IOException {
+            calls.incrementAndGet();
+            response.addMetadata("test", "ing");
+            response.setSecure(true);
+            response.getOutputStream().write(documentBytes);
+          }
+        };
+    Journal journal = new Journal(new MockTimeProvider());
+    ContentCache cache = new ContentCache(1024 * 1024, 1024, 60 * 1000,
+        new MockTimeProvider());
+    String remoteIp = ex.getRemoteAddress().getAddress().getHostAddress();
+    DocumentHandler handler = createHandlerBuilder()
+        .setAdaptor(adaptor)
+        .setJournal(journal)
+        .setFullAccessHosts(new String[] {remoteIp})
+        .setContentCache(cache)
+        .build();
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(1, calls.get());
+
+    MockHttpExchange ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertArrayEquals(adaptor.documentBytes, ex.getResponseBytes());
+    assertEquals(Arrays.asList("test=ing", ""),
+        ex.getResponseHeaders().get("X-Gsa-External-Metadata"));
+    assertEquals("secure",
+        ex.getResponseHeaders().getFirst("X-Gsa-Serve-Security"));
+    assertEquals(1, calls.get());
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(1, snapshot.numContentCacheHits);
+    assertEquals(1, snapshot.numContentCacheMisses);
+
+    cache.invalidate(defaultDocId);
+    ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testContentCacheConditionalRequest() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    MockAdaptor adaptor = new MockAdaptor() {
+          @Override
+          public void getDocContent(Request request, Response response)
+              throws IOException {
+            calls.incrementAndGet();
+            response.setLastModified(new Date(1 * 1000));
+            response.addMetadata("test", "ing");
+            response.getOutputStream().write(documentBytes);
+          }
+        };
+    String remoteIp = ex.getRemoteAddress().getAddress().getHostAddress();
+    DocumentHandler handler = createHandlerBuilder()
+        .setAdaptor(adaptor)
+        .setFullAccessHosts(new String[] {remoteIp})
+        .setSendDocControls(true)
+        .setGsaVersion("7.4.0-0")
+        .setContentCache(new ContentCache(1024 * 1024, 1024, 60 * 1000,
+            new MockTimeProvider()))
+        .build();
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+
+    // Unchanged since the GSA's copy, so the cached content isn't sent.
+    MockHttpExchange ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(204, ex.getResponseCode());
+    assertEquals(0, ex.getResponseBytes().length);
+    assertEquals(Arrays.asList("test=ing"),
+        ex.getResponseHeaders().get("X-Gsa-External-Metadata"));
+
+    // Changed since the GSA's copy, so the cached content is sent.
+    ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:00 GMT");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertArrayEquals(adaptor.documentBytes, ex.getResponseBytes());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testContentCacheSkipsNotFound() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    MockAdaptor adaptor = new MockAdaptor() {
+          @Override
+          public void getDocContent(Request request, Response response)
+              throws IOException {
+            calls.incrementAndGet();
+            response.respondNotFound();
+          }
+        };
+    DocumentHandler handler = createHandlerBuilder()
+        .setAdaptor(adaptor)
+        .setAuthzAuthority(adaptor)
+        .setContentCache(new ContentCache(1024 * 1024, 1024, 60 * 1000,
+            new MockTimeProvider()))
+        .build();
+    handler.handle(ex);
+    assertEquals(404, ex.getResponseCode());
+    MockHttpExchange ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    handler.handle(ex);
+    assertEquals(404, ex.getResponseCode());
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testLastModifiedProviderUnmodified() throws Exception {
+    LastModifiedMockAdaptor adaptor = new LastModifiedMockAdaptor();
+    adaptor.lastModified = new Date(1 * 1000);
+    DocumentHandler handler = createLastModifiedHandler(adaptor);
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(304, ex.getResponseCode());
+    assertEquals(1, adaptor.lastModifiedCalls);
+    assertEquals(0, adaptor.contentCalls);
+
+    // The cached value is used for the next request.
+    MockHttpExchange ex = new MockHttpExchange("GET", defaultPath,
+        new MockHttpContext(handler, "/"));
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(304, ex.getResponseCode());
+    assertEquals(1, adaptor.lastModifiedCalls);
+    assertEquals(0, adaptor.contentCalls);
+  }
+
+  @Test
+  public void testLastModifiedProviderModified() throws Exception {
+    LastModifiedMockAdaptor adaptor = new LastModifiedMockAdaptor();
+    adaptor.lastModified = new Date(2 * 1000);
+    DocumentHandler handler = createLastModifiedHandler(adaptor);
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertArrayEquals(adaptor.documentBytes, ex.getResponseBytes());
+    assertEquals(1, adaptor.lastModifiedCalls);
+    assertEquals(1, adaptor.contentCalls);
+  }
+
+  @Test
+  public void testLastModifiedProviderNotConditional() throws Exception {
+    LastModifiedMockAdaptor adaptor = new LastModifiedMockAdaptor();
+    adaptor.lastModified = new Date(1 * 1000);
+    DocumentHandler handler = createLastModifiedHandler(adaptor);
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(0, adaptor.lastModifiedCalls);
+    assertEquals(1, adaptor.contentCalls);
+  }
+
+  @Test
+  public void testLastModifiedProviderUnknown() throws Exception {
+    LastModifiedMockAdaptor adaptor = new LastModifiedMockAdaptor();
+    DocumentHandler handler = createLastModifiedHandler(adaptor);
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(1, adaptor.contentCalls);
+  }
+
+  @Test
+  public void testLastModifiedProviderFails() throws Exception {
+    LastModifiedMockAdaptor adaptor = new LastModifiedMockAdaptor() {
+          @Override
+          public Date getLastModified(DocId docId) throws IOException {
+            throw new IOException("testing");
+          }
+        };
+    DocumentHandler handler = createLastModifiedHandler(adaptor);
+    ex.getRequestHeaders().set("If-Modified-Since",
+        "Thu, 1 Jan 1970 00:00:01 GMT");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(1, adaptor.contentCalls);
+  }
+
+  private DocumentHandler createLastModifiedHandler(
+      LastModifiedMockAdaptor adaptor) {
+    return createHandlerBuilder()
+        .setAdaptor(adaptor)
+        .setAuthzAuthority(adaptor)
+        .setLastModifiedCache(new LastModifiedCache(
+            adaptor, 10, 60 * 1000, new MockTimeProvider()))
+        .build();
+  }
+
+  private static class LastModifiedMockAdaptor extends MockAdaptor
+      implements LastModifiedProvider {
+    public Date lastModified;
+    public int lastModifiedCalls;
+    public int contentCalls;
+
+    @Override
+    public Date getLastModified(DocId docId) throws IOException {
+      lastModifiedCalls++;
+      return lastModified;
+    }
+
+    @Override
+    public void getDocContent(Request request, Response response)
+        throws IOException, InterruptedException {
+      contentCalls++;
+      super.getDocContent(request, response);
+    }
+  }
+
+  @Test
+  public void testRespondWithFile() throws Exception {
+    byte[] contents = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+    DocumentHandler handler = createFileHandler(contents, 2, 5, false);
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(5, ex.getResponseLength());
+    assertArrayEquals(new byte[] {3, 4, 5, 6, 7}, ex.getResponseBytes());
+  }
+
+  @Test
+  public void testRespondWithLargeFile() throws Exception {
+    byte[] contents = new byte[1024 * 1024 + 17];
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) (i * 31);
+    }
+    DocumentHandler handler
+        = createFileHandler(contents, 0, contents.length, false);
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(contents.length, ex.getResponseLength());
+    assertArrayEquals(contents, ex.getResponseBytes());
+  }
+
+  @Test
+  public void testRespondWithFileCompressed() throws Exception {
+    byte[] contents = new byte[] {1, 2, 3};
+    DocumentHandler handler = createFileHandler(contents, 0, 3, true);
+    ex.getRequestHeaders().set("Accept-Encoding", "gzip");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    // Chunked, since the compressed length isn't known in advance.
+    assertEquals(0, ex.getResponseLength());
+    assertEquals("gzip", ex.getResponseHeaders().getFirst("Content-Encoding"));
+  }
+
+  @Test
+  public void testRespondWithFileHead() throws Exception {
+    byte[] contents = new byte[] {1, 2, 3};
+    DocumentHandler handler = createFileHandler(contents, 0, 3, false);
+    MockHttpExchange ex = new MockHttpExchange("HEAD", defaultPath,
+        new MockHttpContext(handler, "/"));
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertArrayEquals(new byte[] {}, ex.getResponseBytes());
+  }
+
+  @Test
+  public void testRespondWithEmptyFile() throws Exception {
+    DocumentHandler handler = createFileHandler(new byte[0], 0, 0, false);
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertArrayEquals(new byte[] {}, ex.getResponseBytes());
+  }
+
+  @Test
+  public void testRespondWithTruncatedFile() throws Exception {
+    DocumentHandler handler
+        = createFileHandler(new byte[] {1, 2, 3}, 0, 10, false);
+    thrown.expect(IOException.class);
+    handler.handle(ex);
+  }
+
+  private DocumentHandler createFileHandler(byte[] contents,
+      final long position, final long count, boolean useCompression)
+      throws IOException {
+    final File file = temp.newFile("content");
+    FileOutputStream fos = new FileOutputStream(file);
+    try {
+      fos.write(contents);
+    } finally {
+      fos.close();
+    }
+    MockAdaptor adaptor = new MockAdaptor() {
+          @Override
+          public void getDocContent(Request request, Response response)
+              throws IOException {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+              ((FileContentResponse) response).respondWithFile(
+                  fis.getChannel(), position, count);
+            } finally {
+              fis.close();
+            }
+          }
+        };
+    return createHandlerBuilder()
+        .setAdaptor(adaptor)
+        .setAuthzAuthority(adaptor)
+        .setUseCompression(useCompression)
+        .build();
+  }
+
   private DocumentHandlerBuilder createHandlerBuilder() {
     return new DocumentHandlerBuilder()
         .setDocIdDecoder(docIdCodec)
@@ -1776,6 +2104,9 @@ public class DocumentHandlerTest {
     private String scoring = "content";
     private boolean alwaysGiveAclsAndMetadata = false;
     private GsaVersion gsaVersion = new GsaVersion("7.2.0-0");
+    private ContentCache contentCache
+        = new ContentCache(0, 0, 0, new MockTimeProvider());
+    private LastModifiedCache lastModifiedCache;
     
     public DocumentHandlerBuilder setDocIdDecoder(DocIdDecoder docIdDecoder) {
       this.docIdDecoder = docIdDecoder;
@@ -1877,12 +2208,24 @@ public class DocumentHandlerTest {
       return this;
     }
 
+    public DocumentHandlerBuilder setContentCache(ContentCache contentCache) {
+      this.contentCache = contentCache;
+      return this;
+    }
+
+    public DocumentHandlerBuilder setLastModifiedCache(
+        LastModifiedCache lastModifiedCache) {
+      this.lastModifiedCache = lastModifiedCache;
+      return this;
+    }
+
     public DocumentHandler build() {
       return new DocumentHandler(docIdDecoder, docIdEncoder, journal, adaptor,
           authzAuthority, gsaHostname, fullAccessHosts, samlServiceProvider,
           transform, aclTransform, useCompression, watchdog, pusher,
           sendDocControls, markDocsPublic, headerTimeoutMillis,
-          contentTimeoutMillis, scoring, alwaysGiveAclsAndMetadata, gsaVersion);
+          contentTimeoutMillis, scoring, alwaysGiveAclsAndMetadata, gsaVersion,
+          contentCache, lastModifiedCache);
     }
   }
 }
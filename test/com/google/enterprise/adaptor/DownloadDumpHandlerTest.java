@@ -255,6 +255,45 @@ public class DownloadDumpHandlerTest {
     assertEquals(goldenStats, statsContents);
   }
 
+  @Test
+  public void testLogFilesWithPercentiles() throws Exception {
+    StatRpcMethod statRpcMethod = new MockStatRpcMethod(
+        new MockJournal(new MockTimeProvider()),
+        new MockAdaptor(),
+        /*isAdaptorIncremental=*/ false,
+        /*configFile=*/ new MockFile("no-such-dir").setExists(false)) {
+
+      /** generate only a one minute time window */
+      @Override
+      public Object run(List request) {
+        Map<String, Object> authz = new TreeMap<String, Object>();
+        authz.put("count", 2L);
+        authz.put("p99", 15L);
+        Map<String, Object> percentiles = new TreeMap<String, Object>();
+        percentiles.put("authzDuration", authz);
+        Map<String, Object> stat = new HashMap<String, Object>();
+        stat.put("snapshotDuration", 1000L);
+        stat.put("statData", Collections.nCopies(60, null));
+        stat.put("percentiles", percentiles);
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put("stats", Collections.singletonList(stat));
+        return Collections.unmodifiableMap(results);
+      }
+    };
+    handler = new ModifiedDownloadDumpHandler(config, "adaptor",
+        statRpcMethod, new MockFile("no-such-dir").setExists(false),
+        new MockTimeProvider());
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+
+    String goldenStats = "Percentiles over the last 60 seconds\n"
+        + "authzDuration.count = 2\n"
+        + "authzDuration.p99   = 15\n\n";
+    String statsContents
+        = extractFileFromZip("stats.txt", ex.getResponseBytes());
+    assertEquals(goldenStats, statsContents);
+  }
+
   private MockHttpExchange createExchange(String path) {
     return new MockHttpExchange("GET", pathPrefix + path, httpContext);
   }
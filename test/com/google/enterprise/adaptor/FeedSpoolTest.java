@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Test cases for {@link FeedSpool}.
+ */
+public class FeedSpoolTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File spoolDir;
+  private FeedSpool spool;
+
+  @Before
+  public void setUp() {
+    spoolDir = new File(temp.getRoot(), "spool");
+    spool = new FeedSpool(spoolDir.toString());
+  }
+
+  @Test
+  public void testNoSpoolDirectorySpecified() {
+    FeedSpool spool = new FeedSpool("");
+    assertNull(spool.add(FeedSpool.Type.METADATA_AND_URL, "test",
+        feed("<foo/>")));
+    assertTrue(spool.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testAddAndRemove() throws Exception {
+    FeedSpool.Entry entry
+        = spool.add(FeedSpool.Type.METADATA_AND_URL, "test", feed("<foo/>"));
+    assertEquals("<foo/>", contentOf(entry));
+    assertEquals(1, spool.getEntries().size());
+    entry.remove();
+    assertTrue(spool.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testEntriesSurviveRestartInOrder() throws Exception {
+    for (int i = 0; i < 12; i++) {
+      spool.add(i % 2 == 0 ? FeedSpool.Type.METADATA_AND_URL
+          : FeedSpool.Type.GROUPS, "src" + i, feed("<feed" + i + "/>\n"));
+    }
+    FeedSpool restarted = new FeedSpool(spoolDir.toString());
+    List<FeedSpool.Entry> entries = restarted.getEntries();
+    assertEquals(12, entries.size());
+    for (int i = 0; i < 12; i++) {
+      FeedSpool.Entry entry = entries.get(i);
+      assertEquals(i % 2 == 0 ? FeedSpool.Type.METADATA_AND_URL
+          : FeedSpool.Type.GROUPS, entry.getType());
+      assertEquals("src" + i, entry.getSourceName());
+      assertEquals("<feed" + i + "/>\n", contentOf(entry));
+    }
+
+    // New feeds are ordered after the ones already spooled.
+    entries.get(0).remove();
+    restarted.add(FeedSpool.Type.GROUPS, "new", feed("<new/>"));
+    entries = new FeedSpool(spoolDir.toString()).getEntries();
+    assertEquals(12, entries.size());
+    assertEquals("src1", entries.get(0).getSourceName());
+    assertEquals("new", entries.get(11).getSourceName());
+  }
+
+  @Test
+  public void testPartiallyWrittenFeedIgnored() throws Exception {
+    spool.add(FeedSpool.Type.METADATA_AND_URL, "test", feed("<foo/>"));
+    File partial = new File(spoolDir, "0000000000000000001.tmp");
+    assertTrue(partial.createNewFile());
+    File garbage = new File(spoolDir, "0000000000000000002.feed");
+    assertTrue(garbage.createNewFile());
+
+    List<FeedSpool.Entry> entries = spool.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("test", entries.get(0).getSourceName());
+    assertTrue(!partial.exists());
+  }
+
+  private static FeedContent feed(String xml) {
+    return new FeedContent.FromString(xml);
+  }
+
+  private static String contentOf(FeedSpool.Entry entry) throws IOException {
+    StringWriter writer = new StringWriter();
+    entry.getContent().writeTo(writer);
+    return writer.toString();
+  }
+}
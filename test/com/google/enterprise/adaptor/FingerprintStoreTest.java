@@ -0,0 +1,238 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Test cases for {@link FingerprintStore}.
+ */
+public class FingerprintStoreTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final DocIdPusher.Record one
+      = new DocIdPusher.Record.Builder(new DocId("1")).build();
+  private final DocIdPusher.Record two
+      = new DocIdPusher.Record.Builder(new DocId("2")).build();
+
+  @Test
+  public void testDisabled() {
+    assertFalse(new FingerprintStore("").isEnabled());
+    assertFalse(new FingerprintStore(null).isEnabled());
+  }
+
+  @Test
+  public void testFilterUnchanged() {
+    FingerprintStore store = newStore();
+    List<DocIdPusher.Record> records = Arrays.asList(one, two);
+    assertEquals(records, store.filterUnchanged(records));
+    store.recordPushed(Arrays.asList(one));
+    assertEquals(Arrays.asList(two), store.filterUnchanged(records));
+
+    DocIdPusher.Record oneChanged = new DocIdPusher.Record.Builder(one)
+        .setLastModified(new Date(1000)).build();
+    assertEquals(Arrays.asList(oneChanged),
+        store.filterUnchanged(Arrays.asList(oneChanged)));
+
+    DocIdPusher.Record oneDeleted = new DocIdPusher.Record.Builder(one)
+        .setDeleteFromIndex(true).build();
+    store.recordPushed(Arrays.asList(oneDeleted));
+    assertEquals(Arrays.asList(one),
+        store.filterUnchanged(Arrays.asList(one)));
+  }
+
+  @Test
+  public void testAclsKeptSeparateFromRecords() {
+    FingerprintStore store = newStore();
+    DocIdSender.AclItem acl = new DocIdSender.AclItem(new DocId("1"),
+        new Acl.Builder().setPermitUsers(Arrays.asList(
+            new UserPrincipal("alice"), new UserPrincipal("bob"))).build());
+    store.recordPushed(Arrays.asList(one));
+    assertEquals(Arrays.asList(acl),
+        store.filterUnchanged(Arrays.asList(acl)));
+    store.recordPushed(Arrays.asList(acl));
+
+    // Principal order does not matter.
+    DocIdSender.AclItem reordered = new DocIdSender.AclItem(new DocId("1"),
+        new Acl.Builder().setPermitUsers(Arrays.asList(
+            new UserPrincipal("bob"), new UserPrincipal("alice"))).build());
+    assertEquals(Collections.emptyList(),
+        store.filterUnchanged(Arrays.asList(reordered)));
+    DocIdSender.AclItem fragment = new DocIdSender.AclItem(new DocId("1"),
+        "frag", acl.getAcl());
+    assertEquals(Arrays.asList(fragment),
+        store.filterUnchanged(Arrays.asList(fragment)));
+  }
+
+  @Test
+  public void testFingerprintCoversFields() {
+    long base = FingerprintStore.fingerprintOf(one);
+    assertEquals(base, FingerprintStore.fingerprintOf(
+        new DocIdPusher.Record.Builder(new DocId("1")).build()));
+    assertTrue(base != FingerprintStore.fingerprintOf(
+        new DocIdPusher.Record.Builder(one).setCrawlOnce(true).build()));
+    assertTrue(base != FingerprintStore.fingerprintOf(
+        new DocIdPusher.Record.Builder(one).setLock(true).build()));
+    assertTrue(base != FingerprintStore.fingerprintOf(
+        new DocIdPusher.Record.Builder(one)
+        .setResultLink(URI.create("http://example.com/"))
+        .build()));
+  }
+
+  @Test
+  public void testUnseenRecords() {
+    FingerprintStore store = newStore();
+    store.recordPushed(Arrays.asList(one, two));
+    store.startFullPush();
+    store.filterUnchanged(Arrays.asList(two));
+    assertEquals(Arrays.asList(new DocId("1")), store.getUnseenRecords());
+    store.removeUnseen();
+    assertEquals(Arrays.asList(one),
+        store.filterUnchanged(Arrays.asList(one)));
+  }
+
+  @Test
+  public void testSurvivesRestart() {
+    File file = new File(temp.getRoot(), "fingerprints");
+    FingerprintStore store = new FingerprintStore(file.toString());
+    store.recordPushed(Arrays.asList(one));
+    store.save();
+    assertTrue(file.exists());
+
+    store = new FingerprintStore(file.toString());
+    assertEquals(Arrays.asList(two),
+        store.filterUnchanged(Arrays.asList(one, two)));
+  }
+
+  @Test
+  public void testCorruptFileIgnored() throws Exception {
+    File file = new File(temp.getRoot(), "fingerprints");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] {0, 0, 0, 1, 0, 0});
+    out.close();
+    FingerprintStore store = new FingerprintStore(file.toString());
+    assertEquals(Arrays.asList(one),
+        store.filterUnchanged(Arrays.asList(one)));
+  }
+
+  @Test
+  public void testSaveAppendsChanges() {
+    File file = new File(temp.getRoot(), "fingerprints");
+    FingerprintStore store = new FingerprintStore(file.toString());
+    store.recordPushed(Arrays.asList(one));
+    store.save();
+    long length = file.length();
+    store.save();
+    assertEquals(length, file.length());
+    store.recordPushed(Arrays.asList(one));
+    store.save();
+    assertEquals(length, file.length());
+
+    store.recordPushed(Arrays.asList(two));
+    store.save();
+    assertTrue(file.length() > length);
+    store = new FingerprintStore(file.toString());
+    assertEquals(Collections.emptyList(),
+        store.filterUnchanged(Arrays.asList(one, two)));
+  }
+
+  @Test
+  public void testUnseenRecordsAfterRestart() {
+    File file = new File(temp.getRoot(), "fingerprints");
+    FingerprintStore store = new FingerprintStore(file.toString());
+    store.recordPushed(Arrays.asList(one, two));
+    store.save();
+    DocIdPusher.Record oneDeleted = new DocIdPusher.Record.Builder(one)
+        .setDeleteFromIndex(true).build();
+    store.recordPushed(Arrays.asList(oneDeleted));
+    store.save();
+
+    store = new FingerprintStore(file.toString());
+    store.startFullPush();
+    assertEquals(Arrays.asList(new DocId("2")), store.getUnseenRecords());
+  }
+
+  @Test
+  public void testManyItemsSurviveCompaction() {
+    File file = new File(temp.getRoot(), "fingerprints");
+    FingerprintStore store = new FingerprintStore(file.toString());
+    List<DocIdPusher.Record> records = new ArrayList<DocIdPusher.Record>();
+    List<DocIdPusher.Record> deletes = new ArrayList<DocIdPusher.Record>();
+    for (int i = 0; i < 3000; i++) {
+      records.add(new DocIdPusher.Record.Builder(new DocId("" + i)).build());
+      if (i % 3 != 0) {
+        deletes.add(new DocIdPusher.Record.Builder(new DocId("" + i))
+            .setDeleteFromIndex(true).build());
+      }
+    }
+    store.recordPushed(records);
+    store.save();
+    long length = file.length();
+    store.recordPushed(deletes);
+    store.save();
+    // Only a third are left, so the file was rewritten.
+    assertTrue(file.length() < length);
+
+    store = new FingerprintStore(file.toString());
+    List<DocIdPusher.Record> expected = new ArrayList<DocIdPusher.Record>();
+    for (int i = 0; i < records.size(); i++) {
+      if (i % 3 != 0) {
+        expected.add(records.get(i));
+      }
+    }
+    assertEquals(expected, store.filterUnchanged(records));
+    store.startFullPush();
+    assertEquals(1000, store.getUnseenRecords().size());
+  }
+
+  @Test
+  public void testLongDocId() {
+    File file = new File(temp.getRoot(), "fingerprints");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 70000; i++) {
+      sb.append('x');
+    }
+    DocId id = new DocId(sb.toString());
+    FingerprintStore store = new FingerprintStore(file.toString());
+    store.recordPushed(
+        Arrays.asList(new DocIdPusher.Record.Builder(id).build()));
+    store.save();
+
+    store = new FingerprintStore(file.toString());
+    store.startFullPush();
+    assertEquals(Arrays.asList(id), store.getUnseenRecords());
+  }
+
+  private FingerprintStore newStore() {
+    return new FingerprintStore(
+        new File(temp.getRoot(), "fingerprints").toString());
+  }
+}
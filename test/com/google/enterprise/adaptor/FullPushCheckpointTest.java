@@ -0,0 +1,55 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link FullPushCheckpoint}.
+ */
+public class FullPushCheckpointTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testInMemory() {
+    FullPushCheckpoint checkpoint = new FullPushCheckpoint("");
+    assertNull(checkpoint.get());
+    checkpoint.set("page-7");
+    assertEquals("page-7", checkpoint.get());
+    checkpoint.set(null);
+    assertNull(checkpoint.get());
+  }
+
+  @Test
+  public void testSurvivesRestart() {
+    File file = new File(temp.getRoot(), "checkpoint");
+    new FullPushCheckpoint(file.toString()).set("/share/\u00e9t\u00e9/42");
+    assertEquals("/share/\u00e9t\u00e9/42",
+        new FullPushCheckpoint(file.toString()).get());
+
+    new FullPushCheckpoint(file.toString()).set(null);
+    assertFalse(file.exists());
+    assertNull(new FullPushCheckpoint(file.toString()).get());
+  }
+}
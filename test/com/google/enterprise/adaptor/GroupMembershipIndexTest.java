@@ -0,0 +1,193 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Test cases for {@link GroupMembershipIndex}.
+ */
+public class GroupMembershipIndexTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final UserPrincipal alice = new UserPrincipal("alice");
+  private final GroupPrincipal eng = new GroupPrincipal("eng");
+  private final GroupPrincipal tech = new GroupPrincipal("tech");
+  private final GroupPrincipal all = new GroupPrincipal("all");
+  private final GroupPrincipal other = new GroupPrincipal("other");
+
+  @Test
+  public void testNegativeSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new GroupMembershipIndex(-1);
+  }
+
+  @Test
+  public void testDisabled() {
+    GroupMembershipIndex index = new GroupMembershipIndex(0);
+    assertFalse(index.isEnabled());
+    index.update(defs(eng, alice), true);
+    AuthnIdentity identity = identity(alice);
+    assertSame(identity, index.expand(identity));
+    AuthzAuthority authority = new RecordingAuthority();
+    assertSame(authority, index.wrap(authority));
+    assertNull(index.wrap(null));
+  }
+
+  @Test
+  public void testNestedGroups() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    Map<GroupPrincipal, List<Principal>> defs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    defs.put(eng, Arrays.<Principal>asList(alice));
+    defs.put(tech, Arrays.<Principal>asList(eng));
+    defs.put(all, Arrays.<Principal>asList(tech));
+    defs.put(other, Arrays.<Principal>asList(new UserPrincipal("bob")));
+    index.update(defs, true);
+    assertEquals(set(eng, tech, all),
+        index.expand(identity(alice)).getGroups());
+    assertEquals(set(eng, tech, all, other),
+        index.expand(identity(new UserPrincipal("bob"), eng)).getGroups());
+    AuthnIdentity unknown = identity(new UserPrincipal("carol"));
+    assertSame(unknown, index.expand(unknown));
+    assertNull(index.expand(null));
+  }
+
+  @Test
+  public void testKeepsOtherIdentityFields() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    index.update(defs(all, eng), true);
+    AuthnIdentity identity = new AuthnIdentityImpl.Builder(alice)
+        .setPassword("secret").setGroups(set(eng)).build();
+    AuthnIdentity expanded = index.expand(identity);
+    assertEquals(alice, expanded.getUser());
+    assertEquals("secret", expanded.getPassword());
+    assertEquals(set(eng, all), expanded.getGroups());
+  }
+
+  @Test
+  public void testCycle() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    Map<GroupPrincipal, List<Principal>> defs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    defs.put(eng, Arrays.<Principal>asList(alice, all));
+    defs.put(all, Arrays.<Principal>asList(eng));
+    index.update(defs, true);
+    assertEquals(set(eng, all), index.expand(identity(alice)).getGroups());
+  }
+
+  @Test
+  public void testCaseSensitivity() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    index.update(defs(eng, new UserPrincipal("Alice")), true);
+    index.update(defs(all, new GroupPrincipal("TECH")), false);
+    assertNull(index.expand(identity(alice)).getGroups());
+    assertEquals(set(eng), index.expand(
+        identity(new UserPrincipal("Alice"))).getGroups());
+    assertEquals(set(tech, all),
+        index.expand(identity(alice, tech)).getGroups());
+  }
+
+  @Test
+  public void testUsersAndGroupsDiffer() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    index.update(defs(all, new GroupPrincipal("alice")), true);
+    assertNull(index.expand(identity(alice)).getGroups());
+  }
+
+  @Test
+  public void testRedefinitionReplacesMembers() {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    index.update(defs(eng, alice), true);
+    index.update(defs(tech, eng), true);
+    assertEquals(set(eng, tech), index.expand(identity(alice)).getGroups());
+    index.update(defs(eng, new UserPrincipal("bob")), true);
+    assertNull(index.expand(identity(alice)).getGroups());
+    assertEquals(set(eng, tech), index.expand(
+        identity(new UserPrincipal("bob"))).getGroups());
+  }
+
+  @Test
+  public void testOverflowDropsIndex() {
+    GroupMembershipIndex index = new GroupMembershipIndex(3);
+    index.update(defs(eng, alice), true);
+    assertEquals(set(eng), index.expand(identity(alice)).getGroups());
+    // Two groups and two memberships are more than fit.
+    index.update(defs(tech, eng), true);
+    assertNull(index.expand(identity(alice)).getGroups());
+    // Nothing more is indexed, since it would be incomplete.
+    index.update(defs(eng, alice), true);
+    assertNull(index.expand(identity(alice)).getGroups());
+  }
+
+  @Test
+  public void testWrap() throws Exception {
+    GroupMembershipIndex index = new GroupMembershipIndex(100);
+    index.update(defs(eng, alice), true);
+    RecordingAuthority authority = new RecordingAuthority();
+    index.wrap(authority).isUserAuthorized(identity(alice),
+        Collections.singleton(new DocId("doc")));
+    assertEquals(set(eng), authority.identity.getGroups());
+  }
+
+  private static Map<GroupPrincipal, List<Principal>> defs(
+      GroupPrincipal group, Principal member) {
+    return Collections.singletonMap(group,
+        Collections.singletonList(member));
+  }
+
+  private static AuthnIdentity identity(UserPrincipal user,
+      GroupPrincipal... groups) {
+    AuthnIdentityImpl.Builder builder = new AuthnIdentityImpl.Builder(user);
+    if (groups.length > 0) {
+      builder.setGroups(set(groups));
+    }
+    return builder.build();
+  }
+
+  private static Set<GroupPrincipal> set(GroupPrincipal... groups) {
+    return new HashSet<GroupPrincipal>(Arrays.asList(groups));
+  }
+
+  private static class RecordingAuthority implements AuthzAuthority {
+    AuthnIdentity identity;
+
+    @Override
+    public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity identity,
+        Collection<DocId> ids) {
+      this.identity = identity;
+      return new HashMap<DocId, AuthzStatus>();
+    }
+  }
+}
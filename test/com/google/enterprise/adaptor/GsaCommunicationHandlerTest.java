@@ -92,6 +92,7 @@ public class GsaCommunicationHandlerTest {
     assertNotNull(context.getAsyncDocIdPusher());
     assertNotNull(context.getDocIdEncoder());
     assertNotNull(context.getSensitiveValueDecoder());
+    assertNotNull(context.getInheritedAclCache());
     ExceptionHandler originalHandler
         = context.getGetDocIdsFullErrorHandler();
     ExceptionHandler replacementHandler
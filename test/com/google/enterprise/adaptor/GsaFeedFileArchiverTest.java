@@ -55,27 +55,27 @@ public class GsaFeedFileArchiverTest {
   @Test
   public void testNoArchiveDirectorySpecified() throws Exception {
     GsaFeedFileArchiver archiver = new GsaFeedFileArchiver("");
-    archiver.saveFeed("test", "foo");
-    archiver.saveFailedFeed("test", "bar");
+    archiver.saveFeed("test", feed("foo"));
+    archiver.saveFailedFeed("test", feed("bar"));
     assertEquals(0, getArchiveFeedFiles().length);
   }
 
   @Test
   public void testArchiveFeed() throws Exception {
-    archiver.saveFeed("test", "foo");
+    archiver.saveFeed("test", feed("foo"));
     checkOneFeed("test", "foo");
   }
 
   @Test
   public void testArchiveFailedFeed() throws Exception {
-    archiver.saveFailedFeed("test", "foo");
+    archiver.saveFailedFeed("test", feed("foo"));
     checkOneFeed("FAILED-test", "foo");
   }
 
   @Test
   public void testOneOfEachFeed() throws Exception {
-    archiver.saveFeed("test", "foo");
-    archiver.saveFailedFeed("test", "bar");
+    archiver.saveFeed("test", feed("foo"));
+    archiver.saveFailedFeed("test", feed("bar"));
     File[] feeds = getArchiveFeedFiles();
     assertEquals(2, feeds.length);
     for (File feed : feeds) {
@@ -89,9 +89,9 @@ public class GsaFeedFileArchiverTest {
 
   @Test
   public void testMultipleFeeds() throws Exception {
-    archiver.saveFeed("test", "foo");
-    archiver.saveFeed("test", "bar");
-    archiver.saveFeed("test", "baz");
+    archiver.saveFeed("test", feed("foo"));
+    archiver.saveFeed("test", feed("bar"));
+    archiver.saveFeed("test", feed("baz"));
     File[] feeds = getArchiveFeedFiles();
     assertEquals(3, feeds.length);
     Set<String> contents = new HashSet<String>();
@@ -104,6 +104,10 @@ public class GsaFeedFileArchiverTest {
     assertTrue(contents.contains("baz"));
   }
 
+  private static FeedContent feed(String contents) {
+    return new FeedContent.FromString(contents);
+  }
+
   private void checkOneFeed(String feedName, String contents)
       throws Exception {
     File[] files = getArchiveFeedFiles();
@@ -20,6 +20,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -659,4 +660,44 @@ public class GsaFeedFileMakerTest {
     xml = xml.replaceAll("\r\n", "\n");
     assertEquals(golden, xml);
   }
+
+  @Test
+  public void testEscapingMatchesTransformer() {
+    String golden
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+        + "<!DOCTYPE gsafeed PUBLIC \"-//Google//DTD GSA Feeds//EN\" \"\">\n"
+        + "<gsafeed>\n"
+        + "<!--GSA EasyConnector-->\n"
+        + "<header>\n"
+        + "<datasource>a&amp;b&lt;c&gt;d\"e\te\nf&#13;g&#1;h&#127;"
+        + "&#128512;</datasource>\n"
+        + "<feedtype>metadata-and-url</feedtype>\n"
+        + "</header>\n"
+        + "<group>\n"
+        + "<acl url=\"http://localhost/docid1\">\n"
+        + "<principal access=\"permit\""
+        + " namespace=\"a&amp;b&lt;c&gt;d&quot;e&#9;e&#10;f&#13;g&#1;h\u007f"
+        + "&#128512;\" scope=\"user\">user</principal>\n"
+        + "</acl>\n"
+        + "</group>\n"
+        + "</gsafeed>\n";
+    String tricky = "a&b<c>d\"e\te\nf\rg\u0001h\u007f\ud83d\ude00";
+    List<DocIdSender.AclItem> acls = new ArrayList<DocIdSender.AclItem>();
+    acls.add(new DocIdSender.AclItem(new DocId("docid1"), new Acl.Builder()
+        .setPermitUsers(Arrays.asList(new UserPrincipal("user", tricky)))
+        .build()));
+    String xml = meker.makeMetadataAndUrlXml(tricky, acls);
+    xml = xml.replace(System.getProperty("line.separator"), "\n");
+    assertEquals(golden, xml);
+  }
+
+  @Test
+  public void testWriteMetadataAndUrlXmlStreams() throws Exception {
+    List<DocIdPusher.Record> records = new ArrayList<DocIdPusher.Record>();
+    records.add(new DocIdPusher.Record.Builder(new DocId("docid1")).build());
+    StringWriter writer = new StringWriter();
+    meker.writeMetadataAndUrlXml(writer, "test", records);
+    assertEquals(meker.makeMetadataAndUrlXml("test", records),
+        writer.toString());
+  }
 }
@@ -15,6 +15,8 @@
 package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -31,6 +33,8 @@ import org.junit.rules.ExpectedException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
@@ -50,6 +54,7 @@ public class GsaFeedFileSenderTest {
   private HttpServer server;
   private int port;
   private GsaFeedFileSender sender;
+  private Journal journal = new Journal(new MockTimeProvider());
 
   @Before
   public void startup() throws IOException {
@@ -58,7 +63,8 @@ public class GsaFeedFileSenderTest {
     server.start();
     URL metadataAndUrlUrl = new URL("http://localhost:" + port + "/xmlfeed");
     URL groupsUrl = new URL("http://localhost:" + port + "/xmlgroups");
-    sender = new GsaFeedFileSender(metadataAndUrlUrl, groupsUrl, charset);
+    sender = new GsaFeedFileSender(metadataAndUrlUrl, groupsUrl, charset,
+        journal);
   }
 
   @After
@@ -138,7 +144,7 @@ public class GsaFeedFileSenderTest {
     URL metadataAndUrlUrl = new URL("https://localhost:19902/xmlfeed");
     URL groupsUrl = new URL("https://localhost:19902/xmlgroups");
     GsaFeedFileSender secureSender = new GsaFeedFileSender(metadataAndUrlUrl,
-        groupsUrl, charset);
+        groupsUrl, charset, journal);
     secureSender.sendMetadataAndUrl(datasource, payload, false);
     assertEquals("POST", handler.getRequestMethod());
     assertEquals(URI.create("/xmlfeed"), handler.getRequestUri());
@@ -148,6 +154,39 @@ public class GsaFeedFileSenderTest {
         new String(handler.getRequestBytes(), charset));
   }
 
+  @Test
+  public void testHttpsConnectionReused() throws Exception {
+    server.stop(0);
+    // Unfortunately this test requires a fixed port.
+    server = HttpsServer.create(new InetSocketAddress(19902), 0);
+    HttpsConfigurator httpsConf
+        = new HttpsConfigurator(SSLContext.getDefault());
+    ((HttpsServer) server).setHttpsConfigurator(httpsConf);
+    server.start();
+    server.createContext("/xmlfeed",
+        new MockHttpHandler(200, "Success".getBytes(charset)));
+    server.createContext("/xmlgroups",
+        new MockHttpHandler(200, "Internal Error".getBytes(charset)));
+
+    URL metadataAndUrlUrl = new URL("https://localhost:19902/xmlfeed");
+    URL groupsUrl = new URL("https://localhost:19902/xmlgroups");
+    GsaFeedFileSender secureSender = new GsaFeedFileSender(metadataAndUrlUrl,
+        groupsUrl, charset, journal);
+    secureSender.sendMetadataAndUrl("testDataSource", "<payload/>", false);
+    // The connection is still usable after the GSA rejects a feed.
+    try {
+      secureSender.sendGroups("testGroupSource", "<payload/>", false);
+      fail();
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+    secureSender.sendMetadataAndUrl("testDataSource", "<payload/>", true);
+
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(1, snapshot.numFeedConnectionMisses);
+    assertEquals(2, snapshot.numFeedConnectionHits);
+  }
+
   @Test
   public void testMetadataAndUrlSuccessGzipped() throws Exception {
     final String payload = "<someXmlString/>";
@@ -188,6 +227,47 @@ public class GsaFeedFileSenderTest {
     assertEquals(goldenResponse, response);
   }
 
+  @Test
+  public void testMetadataAndUrlTooLargeToGzip() throws Exception {
+    final String datasource = "testDataSource";
+    final FeedContent payload = new FeedContent() {
+      @Override
+      public void writeTo(Writer out) throws IOException {
+        for (int i = 0; i < 1024 * 64; i++) {
+          out.write("<some-really-long-element/>\n");
+        }
+      }
+    };
+    StringWriter expectedPayload = new StringWriter();
+    payload.writeTo(expectedPayload);
+    final String goldenResponse
+        = "--<<\r\n"
+        + "Content-Disposition: form-data; name=\"datasource\"\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "\r\n"
+        + datasource + "\r\n"
+        + "--<<\r\n"
+        + "Content-Disposition: form-data; name=\"feedtype\"\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "\r\n"
+        + "metadata-and-url\r\n"
+        + "--<<\r\n"
+        + "Content-Disposition: form-data; name=\"data\"\r\n"
+        + "Content-Type: text/xml\r\n"
+        + "\r\n"
+        + expectedPayload + "\r\n"
+        + "--<<--\r\n";
+
+    MockHttpHandler handler
+        = new MockHttpHandler(200, "Success".getBytes(charset));
+    server.createContext("/xmlfeed", handler);
+
+    sender.sendMetadataAndUrl(datasource, payload, true);
+    assertNull(handler.getRequestHeaders().getFirst("Content-Encoding"));
+    assertEquals(goldenResponse,
+        new String(handler.getRequestBytes(), charset));
+  }
+
   @Test
   public void testMetadataAndUrlInvalidDataSource() throws Exception {
     thrown.expect(IllegalArgumentException.class);
@@ -202,7 +282,7 @@ public class GsaFeedFileSenderTest {
 
   @Test(expected = IllegalArgumentException.class)
   public void testMetadataAndUrlInvalidUrl() throws Exception {
-    new GsaFeedFileSender("badname:", false, charset);
+    new GsaFeedFileSender("badname:", false, charset, journal);
   }
 
   @Test
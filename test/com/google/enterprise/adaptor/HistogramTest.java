@@ -0,0 +1,119 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Histogram}.
+ */
+public class HistogramTest {
+  @Test
+  public void testEmpty() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void testBuckets() {
+    // Small values are exact.
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, Histogram.bucketIndex(i));
+      assertEquals(i, Histogram.bucketUpperBound(i));
+    }
+    assertEquals(4, Histogram.bucketIndex(4));
+    assertEquals(8, Histogram.bucketIndex(8));
+    assertEquals(8, Histogram.bucketIndex(9));
+    assertEquals(9, Histogram.bucketIndex(10));
+    assertEquals(9, Histogram.bucketUpperBound(8));
+    // Every value is within the bounds of its bucket, and buckets are
+    // contiguous.
+    for (long value = 1; value < Histogram.MAX_TRACKED_VALUE; value *= 3) {
+      int index = Histogram.bucketIndex(value);
+      assertTrue(value <= Histogram.bucketUpperBound(index));
+      assertTrue(value > Histogram.bucketUpperBound(index - 1));
+      // At most 25% wider than the value.
+      assertTrue(Histogram.bucketUpperBound(index)
+          - Histogram.bucketUpperBound(index - 1) <= value / 4 + 1);
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000, histogram.getMax());
+    assertBetween(500, 625, histogram.getValueAtPercentile(50));
+    assertBetween(900, 1000, histogram.getValueAtPercentile(90));
+    assertBetween(990, 1000, histogram.getValueAtPercentile(99));
+    assertEquals(1000, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void testOutOfRangeValues() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    assertEquals(0, histogram.getValueAtPercentile(100));
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.getMax());
+    assertEquals(Histogram.MAX_TRACKED_VALUE,
+        histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testAddAndReset() {
+    Histogram histogram = new Histogram();
+    histogram.record(3);
+    Histogram other = new Histogram();
+    other.record(1000);
+    other.record(1000);
+    histogram.add(other);
+    assertEquals(3, histogram.getCount());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(3, histogram.getValueAtPercentile(33));
+    assertEquals(1000, histogram.getValueAtPercentile(34));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testClone() {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    Histogram clone = histogram.clone();
+    histogram.record(20);
+    assertEquals(1, clone.getCount());
+    assertEquals(10, clone.getValueAtPercentile(100));
+  }
+
+  private static void assertBetween(long low, long high, long value) {
+    if (value < low || value > high) {
+      throw new AssertionError(
+          value + " not between " + low + " and " + high);
+    }
+  }
+}
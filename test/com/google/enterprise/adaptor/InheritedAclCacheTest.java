@@ -0,0 +1,150 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Collections;
+
+/**
+ * Test cases for {@link InheritedAclCache}.
+ */
+public class InheritedAclCacheTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final DocId folder = new DocId("folder");
+  private final DocId other = new DocId("other");
+  private final Acl acl = new Acl.Builder().setPermitUsers(
+      Collections.singleton(new UserPrincipal("user"))).build();
+
+  public InheritedAclCacheTest() {
+    timeProvider.autoIncrement = false;
+  }
+
+  @Test
+  public void testNegativeSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new InheritedAclCache(-1, 1000, timeProvider);
+  }
+
+  @Test
+  public void testNullTimeProvider() {
+    thrown.expect(NullPointerException.class);
+    new InheritedAclCache(10, 1000, null);
+  }
+
+  @Test
+  public void testDisabled() {
+    InheritedAclCache cache = new InheritedAclCache(0, 1000, timeProvider);
+    assertFalse(cache.isEnabled());
+    cache.put(folder, acl, cache.startRetrieval());
+    assertNull(cache.get(folder));
+  }
+
+  @Test
+  public void testPutAndGet() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    assertTrue(cache.isEnabled());
+    assertNull(cache.get(folder));
+    cache.put(folder, acl, cache.startRetrieval());
+    assertSame(acl, cache.get(folder));
+    assertNull(cache.get(other));
+  }
+
+  @Test
+  public void testExpires() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    cache.put(folder, acl, cache.startRetrieval());
+    timeProvider.time += 999;
+    assertSame(acl, cache.get(folder));
+    timeProvider.time += 1;
+    assertNull(cache.get(folder));
+  }
+
+  @Test
+  public void testSizeBound() {
+    InheritedAclCache cache = new InheritedAclCache(1, 1000, timeProvider);
+    cache.put(folder, acl, cache.startRetrieval());
+    cache.put(other, acl, cache.startRetrieval());
+    assertNull(cache.get(folder));
+    assertSame(acl, cache.get(other));
+  }
+
+  @Test
+  public void testInvalidate() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    cache.put(folder, acl, cache.startRetrieval());
+    cache.put(other, acl, cache.startRetrieval());
+    cache.invalidate(folder);
+    assertNull(cache.get(folder));
+    assertSame(acl, cache.get(other));
+    cache.put(folder, acl, cache.startRetrieval());
+    assertSame(acl, cache.get(folder));
+  }
+
+  @Test
+  public void testExpiresFromRetrievalStart() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    timeProvider.time += 600;
+    cache.put(folder, acl, retrieval);
+    assertSame(acl, cache.get(folder));
+    timeProvider.time += 400;
+    assertNull(cache.get(folder));
+  }
+
+  @Test
+  public void testSlowRetrievalRacingInvalidation() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    timeProvider.time += 500;
+    cache.invalidate(folder);
+    // The invalidation would be forgotten by now, but so would the ACL.
+    timeProvider.time += 1000;
+    cache.put(folder, acl, retrieval);
+    assertNull(cache.get(folder));
+  }
+
+  @Test
+  public void testRetrievalRacingInvalidation() {
+    InheritedAclCache cache = new InheritedAclCache(10, 1000, timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    // Pushed while the retriever was running.
+    cache.invalidate(folder);
+    cache.put(folder, acl, retrieval);
+    cache.put(other, acl, retrieval);
+    assertNull(cache.get(folder));
+    assertSame(acl, cache.get(other));
+  }
+
+  @Test
+  public void testTooManyInvalidations() {
+    InheritedAclCache cache = new InheritedAclCache(1, 1000, timeProvider);
+    CacheInvalidations.Retrieval retrieval = cache.startRetrieval();
+    cache.invalidate(folder);
+    cache.invalidate(new DocId("another"));
+    cache.put(other, acl, retrieval);
+    assertNull(cache.get(other));
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+
+/** Tests for {@link ItemSpill}. */
+public class ItemSpillTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final DocIdPusher.Record record
+      = new DocIdPusher.Record.Builder(new DocId("a\u00e9"))
+      .setLastModified(new Date(1234)).setResultLink(URI.create("http://x/"))
+      .setCrawlImmediately(true).setLock(true).build();
+  private final DocIdPusher.Record deleted
+      = new DocIdPusher.Record.Builder(new DocId("gone"))
+      .setDeleteFromIndex(true).build();
+  private final DocIdSender.AclItem aclItem = new DocIdSender.AclItem(
+      new DocId("named"), "frag", new Acl.Builder()
+      .setInheritFrom(new DocId("parent"), "pfrag")
+      .setInheritanceType(Acl.InheritanceType.AND_BOTH_PERMIT)
+      .setEverythingCaseInsensitive()
+      .setPermits(Arrays.<Principal>asList(new UserPrincipal("alice"),
+          new GroupPrincipal("eng", "ns")))
+      .setDenies(Arrays.<Principal>asList(new UserPrincipal("bob")))
+      .build());
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    ItemSpill spill = new ItemSpill(temp.newFile("spill"));
+    assertTrue(spill.isEmpty());
+    spill.add(record);
+    spill.add(aclItem);
+    spill.add(deleted);
+    assertEquals(3, spill.size());
+    assertEquals(record, spill.remove());
+    assertEquals(aclItem, spill.remove());
+    spill.add(record);
+    assertEquals(deleted, spill.remove());
+    assertEquals(record, spill.remove());
+    assertNull(spill.remove());
+    assertTrue(spill.isEmpty());
+    spill.close();
+  }
+
+  @Test
+  public void testLongDocId() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 70000; i++) {
+      sb.append('x');
+    }
+    DocIdPusher.Record longRecord
+        = new DocIdPusher.Record.Builder(new DocId(sb.toString())).build();
+    ItemSpill spill = new ItemSpill(temp.newFile("spill"));
+    spill.add(longRecord);
+    assertEquals(longRecord, spill.remove());
+    spill.close();
+  }
+
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    File file = temp.newFile("spill");
+    ItemSpill spill = new ItemSpill(file);
+    spill.add(record);
+    spill.add(aclItem);
+    spill.add(deleted);
+    assertEquals(record, spill.remove());
+    spill.close();
+
+    // Simulate stopping while writing an item.
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 2);
+    raf.close();
+
+    // Removed items are not provided again.
+    spill = new ItemSpill(file);
+    assertEquals(1, spill.size());
+    assertEquals(aclItem, spill.remove());
+    assertTrue(spill.isEmpty());
+    spill.close();
+  }
+
+  @Test
+  public void testCompacts() throws Exception {
+    File file = temp.newFile("spill");
+    ItemSpill spill = new ItemSpill(file, 1);
+    spill.add(record);
+    spill.add(aclItem);
+    spill.add(deleted);
+    long length = file.length();
+    assertEquals(record, spill.remove());
+    // The removed record is only half of the file.
+    assertEquals(length, file.length());
+    assertEquals(aclItem, spill.remove());
+    assertTrue(file.length() < length);
+    spill.add(record);
+    spill.close();
+
+    spill = new ItemSpill(file, 1);
+    assertEquals(2, spill.size());
+    assertEquals(deleted, spill.remove());
+    assertEquals(record, spill.remove());
+    assertTrue(spill.isEmpty());
+    spill.close();
+  }
+}
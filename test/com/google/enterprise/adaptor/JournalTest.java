@@ -24,6 +24,8 @@ import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Tests for {@link Journal}.
@@ -117,6 +119,31 @@ public class JournalTest {
     assertEquals(3, snapshot.numTotalGsaRequests);
   }
 
+  @Test
+  public void testTopDocIds() {
+    Journal journal = new Journal(new MockTimeProvider());
+    DocId doc1 = new DocId("1");
+    DocId doc2 = new DocId("2");
+    journal.recordGsaContentRequest(doc1);
+    journal.recordGsaContentRequest(doc2);
+    journal.recordGsaContentRequest(doc2);
+    journal.recordDocIdPush(Collections.singletonList(
+        new DocIdPusher.Record.Builder(doc1).build()));
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(2, snapshot.topGsaRequests.size());
+    assertEquals(doc2, snapshot.topGsaRequests.get(0).docId);
+    assertEquals(2, snapshot.topGsaRequests.get(0).count);
+    assertEquals(doc1, snapshot.topGsaRequests.get(1).docId);
+    assertEquals(1, snapshot.topDocIdsPushed.size());
+    assertEquals(0, snapshot.topNonGsaRequests.size());
+
+    journal = new Journal(true, new MockTimeProvider());
+    journal.recordGsaContentRequest(doc1);
+    snapshot = journal.getSnapshot();
+    assertEquals(-1, snapshot.numUniqueGsaRequests);
+    assertEquals(0, snapshot.topGsaRequests.size());
+  }
+
   @Test
   public void testStats() throws InterruptedException {
     final MockTimeProvider timeProvider = new MockTimeProvider();
@@ -224,6 +251,29 @@ public class JournalTest {
     assertEquals(15, snapshot.lastSuccessfulFullPushEnd);
   }
 
+  @Test
+  public void testPartitionStats() {
+    Journal journal = new Journal(new MockTimeProvider());
+    journal.recordFullPushStarted();
+    journal.recordPartitionListingRetry("b");
+    journal.recordPartitionListingRetry("a");
+    journal.recordPartitionListingRetry("b");
+    journal.recordPartitionListingFailed("c");
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    Map<String, Integer> goldenRetries = new TreeMap<String, Integer>();
+    goldenRetries.put("a", 1);
+    goldenRetries.put("b", 2);
+    assertEquals(goldenRetries, snapshot.partitionRetries);
+    assertEquals(Collections.singleton("c"), snapshot.failedPartitions);
+    journal.recordFullPushFailed();
+
+    // Only the latest full push is reported.
+    journal.recordFullPushStarted();
+    snapshot = journal.getSnapshot();
+    assertTrue(snapshot.partitionRetries.isEmpty());
+    assertTrue(snapshot.failedPartitions.isEmpty());
+  }
+
   @Test
   public void testFullPushStartDouble() {
     final MockTimeProvider timeProvider = new MockTimeProvider();
@@ -390,6 +440,98 @@ public class JournalTest {
         journal.getLastIncrementalPushStatus());
   }
 
+  @Test
+  public void testStatsFromManyThreads() throws InterruptedException {
+    final MockTimeProvider timeProvider = new MockTimeProvider();
+    final Journal journal = new Journal(timeProvider);
+    timeProvider.autoIncrement = false;
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < 100; j++) {
+            journal.recordRequestProcessingStart();
+            journal.recordRequestProcessingEnd(3);
+          }
+          journal.recordGsaContentRequest(new DocId("" + getId()));
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertEquals(8, snapshot.numUniqueGsaRequests);
+    assertEquals(8, snapshot.numTotalGsaRequests);
+    for (Journal.Stats stats : snapshot.timeStats) {
+      Journal.Stat stat = stats.stats[stats.currentStat];
+      assertEquals(800, stat.requestProcessingsCount);
+      assertEquals(2400, stat.requestProcessingsThroughput);
+      assertTrue(stat.gsaRetrievedDocument);
+    }
+  }
+
+  @Test
+  public void testHistograms() {
+    MockTimeProvider timeProvider = new MockTimeProvider();
+    Journal journal = new Journal(timeProvider);
+    timeProvider.autoIncrement = false;
+    for (int i = 1; i <= 100; i++) {
+      journal.recordRequestProcessingStart();
+      timeProvider.time += i;
+      journal.recordRequestProcessingEnd(3);
+    }
+    journal.recordFeedPostStart();
+    timeProvider.time += 2;
+    journal.recordFeedPostEnd();
+    journal.recordAuthzStart();
+    timeProvider.time += 1;
+    journal.recordAuthzEnd();
+
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    // The day-long window holds everything.
+    Journal.Stat stat = snapshot.timeStats[2].sum();
+    assertEquals(100, stat.requestProcessingsDurations.getCount());
+    assertEquals(100, stat.requestProcessingsDurations.getMax());
+    assertEquals(100,
+        stat.requestProcessingsDurations.getValueAtPercentile(100));
+    long p50 = stat.requestProcessingsDurations.getValueAtPercentile(50);
+    assertTrue(p50 >= 50 && p50 < 63);
+    assertEquals(3, stat.requestProcessingsSizes.getValueAtPercentile(99));
+    assertEquals(1, stat.feedPostDurations.getCount());
+    assertEquals(2, stat.feedPostDurations.getMax());
+    assertEquals(1, stat.authzDurations.getCount());
+    assertEquals(1, stat.authzDurations.getMax());
+  }
+
+  @Test
+  public void testFeedPostEndNoStart() {
+    Journal journal = new Journal(new MockTimeProvider());
+    thrown.expect(IllegalStateException.class);
+    journal.recordFeedPostEnd();
+  }
+
+  @Test
+  public void testStatsAddAfterIdle() {
+    // Both skip ahead more than the length of the buffer, but to different
+    // periods.
+    Journal.Stats stats = new Journal.Stats(60, 1000, 0);
+    stats.getCurrentStat(100500).requestProcessingsCount = 1;
+    Journal.Stats other = new Journal.Stats(60, 1000, 0);
+    other.getCurrentStat(98500).requestProcessingsCount = 2;
+    stats.add(other);
+    assertEquals(101000, stats.pendingStatPeriodEnd);
+    assertEquals(1, stats.stats[stats.currentStat].requestProcessingsCount);
+    assertEquals(2, stats.stats[(stats.currentStat - 2 + stats.stats.length)
+        % stats.stats.length].requestProcessingsCount);
+    long total = 0;
+    for (Journal.Stat stat : stats.stats) {
+      total += stat.requestProcessingsCount;
+    }
+    assertEquals(3, total);
+  }
+
   @Test
   public void testRetrieverStatusSource() {
     final MockTimeProvider timeProvider = new MockTimeProvider();
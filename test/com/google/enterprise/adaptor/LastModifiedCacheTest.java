@@ -0,0 +1,178 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test cases for {@link LastModifiedCache}.
+ */
+public class LastModifiedCacheTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final CountingProvider provider = new CountingProvider();
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final DocId doc1 = new DocId("1");
+  private final DocId doc2 = new DocId("2");
+
+  public LastModifiedCacheTest() {
+    timeProvider.autoIncrement = false;
+    provider.times.put(doc1, new Date(1000));
+    provider.times.put(doc2, new Date(2000));
+  }
+
+  @Test
+  public void testCached() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    assertEquals(new Date(1000), cache.getLastModified(doc1));
+    assertEquals(new Date(1000), cache.getLastModified(doc1));
+    assertEquals(1, provider.calls);
+    assertEquals(new Date(2000), cache.getLastModified(doc2));
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testExpires() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    cache.getLastModified(doc1);
+    timeProvider.time += 999;
+    cache.getLastModified(doc1);
+    assertEquals(1, provider.calls);
+    timeProvider.time += 1;
+    cache.getLastModified(doc1);
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    cache.getLastModified(doc1);
+    provider.times.put(doc1, new Date(3000));
+    cache.invalidate(doc1);
+    assertEquals(new Date(3000), cache.getLastModified(doc1));
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testInvalidatedDuringCall() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    provider.cache = cache;
+    provider.toInvalidate = doc1;
+    cache.getLastModified(doc1);
+    provider.cache = null;
+    cache.getLastModified(doc1);
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testOtherInvalidatedDuringCall() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    provider.cache = cache;
+    provider.toInvalidate = doc2;
+    cache.getLastModified(doc1);
+    provider.cache = null;
+    cache.getLastModified(doc1);
+    assertEquals(1, provider.calls);
+  }
+
+  @Test
+  public void testExpiresFromCallStart() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    provider.delayMillis = 600;
+    cache.getLastModified(doc1);
+    provider.delayMillis = 0;
+    cache.getLastModified(doc1);
+    assertEquals(1, provider.calls);
+    timeProvider.time += 400;
+    cache.getLastModified(doc1);
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 1, 1000, timeProvider);
+    cache.getLastModified(doc1);
+    cache.getLastModified(doc2);
+    cache.getLastModified(doc1);
+    assertEquals(3, provider.calls);
+  }
+
+  @Test
+  public void testUnknownNotCached() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 1000, timeProvider);
+    DocId unknown = new DocId("unknown");
+    assertNull(cache.getLastModified(unknown));
+    assertNull(cache.getLastModified(unknown));
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    LastModifiedCache cache
+        = new LastModifiedCache(provider, 10, 0, timeProvider);
+    cache.getLastModified(doc1);
+    cache.getLastModified(doc1);
+    assertEquals(2, provider.calls);
+  }
+
+  @Test
+  public void testNegativeTtl() {
+    thrown.expect(IllegalArgumentException.class);
+    new LastModifiedCache(provider, 10, -1, timeProvider);
+  }
+
+  @Test
+  public void testNullProvider() {
+    thrown.expect(NullPointerException.class);
+    new LastModifiedCache(null, 10, 1000, timeProvider);
+  }
+
+  private class CountingProvider implements LastModifiedProvider {
+    public final Map<DocId, Date> times = new HashMap<DocId, Date>();
+    public int calls;
+    /** Cache to invalidate {@link #toInvalidate} in during each call. */
+    public LastModifiedCache cache;
+    public DocId toInvalidate;
+    public long delayMillis;
+
+    @Override
+    public Date getLastModified(DocId docId) {
+      calls++;
+      if (cache != null) {
+        cache.invalidate(toInvalidate);
+      }
+      timeProvider.time += delayMillis;
+      return times.get(docId);
+    }
+  }
+}
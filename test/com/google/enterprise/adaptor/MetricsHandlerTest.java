@@ -0,0 +1,201 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for {@link MetricsHandler}. */
+public class MetricsHandlerTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final Journal journal = new Journal(timeProvider);
+
+  @Test
+  public void testNullJournal() {
+    thrown.expect(NullPointerException.class);
+    new MetricsHandler(null, null, null, null);
+  }
+
+  @Test
+  public void testJournalMetrics() throws Exception {
+    timeProvider.autoIncrement = false;
+    journal.recordDocIdPush(Arrays.asList(new DocIdPusher.Record.Builder(
+        new DocId("a")).build(), new DocIdPusher.Record.Builder(
+        new DocId("b")).build()));
+    journal.recordGsaContentRequest(new DocId("a"));
+    journal.recordRequestProcessingStart();
+    timeProvider.time += 7;
+    journal.recordRequestProcessingEnd(100);
+    journal.recordFullPushStarted();
+
+    String metrics = writeMetrics(
+        new MetricsHandler(journal, null, null, null));
+    assertTrue(metrics.contains("# TYPE adaptor_docids_pushed_total counter\n"
+        + "adaptor_docids_pushed_total 2\n"));
+    assertTrue(metrics.contains("\nadaptor_gsa_requests_total 1\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_unique_docids{seen=\"pushed\"} 2\n"));
+    assertTrue(metrics.contains("\nadaptor_requests_last_minute 1\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_request_duration_milliseconds{quantile=\"0.5\"} 7\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_request_duration_milliseconds{quantile=\"1\"} 7\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_response_size_bytes_samples 1\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_push_running{type=\"full\"} 1\n"
+        + "adaptor_push_running{type=\"incremental\"} 0\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_push_last_status{type=\"full\",status=\"success\"} 1\n"));
+    // Optional metrics are left out.
+    assertFalse(metrics.contains("adaptor_async_sender_queue_size"));
+    assertFalse(metrics.contains("adaptor_retriever_threads"));
+    assertFalse(metrics.contains("adaptor_watchdog_interrupts_total"));
+  }
+
+  @Test
+  public void testMetricsAfterIdle() throws Exception {
+    journal.recordRequestProcessingStart();
+    journal.recordRequestProcessingEnd(100);
+    timeProvider.time += 2 * 60 * 1000;
+    String metrics = writeMetrics(
+        new MetricsHandler(journal, null, null, null));
+    assertTrue(metrics.contains("\nadaptor_requests_last_minute 0\n"));
+  }
+
+  @Test
+  public void testReducedMem() throws Exception {
+    Journal journal = new Journal(true, timeProvider);
+    String metrics = writeMetrics(
+        new MetricsHandler(journal, null, null, null));
+    assertFalse(metrics.contains("adaptor_unique_docids"));
+    assertTrue(metrics.contains("\nadaptor_docids_pushed_total 0\n"));
+  }
+
+  @Test
+  public void testQueuesAndExecutor() throws Exception {
+    AsyncDocIdSender sender = new AsyncDocIdSender(new NoopItemPusher(),
+        10, 1, TimeUnit.SECONDS, 5);
+    sender.pushDocId(new DocId("a"));
+    sender.pushDocId(new DocId("b"));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 3, 1,
+        TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(4));
+    Watchdog watchdog = new MockWatchdog();
+    try {
+      String metrics = writeMetrics(
+          new MetricsHandler(journal, sender, watchdog, executor));
+      assertTrue(metrics.contains("\nadaptor_async_sender_queue_size 2\n"));
+      assertTrue(metrics.contains(
+          "\nadaptor_async_sender_queue_capacity 5\n"));
+      assertTrue(metrics.contains("\nadaptor_async_sender_spill_size 0\n"));
+      assertTrue(metrics.contains("\nadaptor_retriever_threads_active 0\n"));
+      assertTrue(metrics.contains("\nadaptor_retriever_threads_max 3\n"));
+      assertTrue(metrics.contains("\nadaptor_retriever_queue_size 0\n"));
+      assertTrue(metrics.contains(
+          "\nadaptor_watchdog_interrupts_total 0\n"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testEachMetricHasHeader() throws Exception {
+    String metrics = writeMetrics(
+        new MetricsHandler(journal, null, null, null));
+    String lastName = null;
+    for (String line : metrics.split("\n")) {
+      if (line.startsWith("# TYPE ")) {
+        lastName = line.split(" ")[2];
+      } else if (!line.startsWith("# HELP ")) {
+        String name = line.split("[{ ]")[0];
+        assertEquals(lastName, name);
+      }
+    }
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    MetricsHandler handler = new MetricsHandler(journal, null, null, null);
+    MockHttpExchange ex = new MockHttpExchange("GET", "/metrics",
+        new MockHttpContext(handler, "/metrics"));
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(MetricsHandler.CONTENT_TYPE,
+        ex.getResponseHeaders().getFirst("Content-Type"));
+    String body = new String(ex.getResponseBytes(), UTF_8);
+    assertTrue(body.startsWith("# HELP adaptor_docids_pushed_total "));
+  }
+
+  @Test
+  public void testHead() throws Exception {
+    MetricsHandler handler = new MetricsHandler(journal, null, null, null);
+    MockHttpExchange ex = new MockHttpExchange("HEAD", "/metrics",
+        new MockHttpContext(handler, "/metrics"));
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(0, ex.getResponseBytes().length);
+  }
+
+  @Test
+  public void testBadMethod() throws Exception {
+    MetricsHandler handler = new MetricsHandler(journal, null, null, null);
+    MockHttpExchange ex = new MockHttpExchange("POST", "/metrics",
+        new MockHttpContext(handler, "/metrics"));
+    handler.handle(ex);
+    assertEquals(405, ex.getResponseCode());
+  }
+
+  @Test
+  public void testNotFound() throws Exception {
+    MetricsHandler handler = new MetricsHandler(journal, null, null, null);
+    MockHttpExchange ex = new MockHttpExchange("GET", "/metrics/other",
+        new MockHttpContext(handler, "/metrics"));
+    handler.handle(ex);
+    assertEquals(404, ex.getResponseCode());
+  }
+
+  private static String writeMetrics(MetricsHandler handler)
+      throws Exception {
+    StringWriter writer = new StringWriter();
+    handler.writeMetrics(writer);
+    return writer.toString();
+  }
+
+  private static class NoopItemPusher implements AsyncDocIdSender.ItemPusher {
+    @Override
+    public <T extends DocIdSender.Item> T pushItems(Iterator<T> items,
+        ExceptionHandler handler) {
+      return null;
+    }
+  }
+}
@@ -55,6 +55,7 @@ public class MockHttpExchange extends HttpExchange {
   private OutputStream responseBody
       = new ClosingFilterOutputStream(responseBodyOrig);
   private int responseCode = -1;
+  private long responseLength;
   private HttpContext httpContext;
   private InetSocketAddress remoteAddress;
 
@@ -188,7 +189,16 @@ public class MockHttpExchange extends HttpExchange {
     // The handler gets no choice of the date.
     getResponseHeaders().set("Date", HEADER_DATE_VALUE);
     responseCode = rCode;
-    // TODO(ejona): handle responseLengeth
+    this.responseLength = responseLength;
+    // TODO(ejona): enforce responseLength
+  }
+
+  /**
+   * Returns the length provided to {@link #sendResponseHeaders}: {@code 0} for
+   * chunked encoding and {@code -1} for no body.
+   */
+  public long getResponseLength() {
+    return responseLength;
   }
 
   @Override
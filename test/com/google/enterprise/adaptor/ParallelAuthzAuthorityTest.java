@@ -0,0 +1,172 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ParallelAuthzAuthority}.
+ */
+public class ParallelAuthzAuthorityTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final List<DocId> ids = new ArrayList<DocId>();
+
+  public ParallelAuthzAuthorityTest() {
+    for (int i = 0; i < 10; i++) {
+      ids.add(new DocId("" + i));
+    }
+  }
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testNullAuthority() {
+    thrown.expect(NullPointerException.class);
+    new ParallelAuthzAuthority(null, 1, 1000, executor);
+  }
+
+  @Test
+  public void testInvalidChunkSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new ParallelAuthzAuthority(new PermitAuthority(), 0, 1000, executor);
+  }
+
+  @Test
+  public void testChunksMerged() throws Exception {
+    PermitAuthority authority = new PermitAuthority();
+    Map<DocId, AuthzStatus> statuses = new ParallelAuthzAuthority(
+        authority, 3, 10000, executor).isUserAuthorized(null, ids);
+    assertEquals(10, statuses.size());
+    for (DocId id : ids) {
+      assertEquals(AuthzStatus.PERMIT, statuses.get(id));
+    }
+    List<Integer> chunkSizes = new ArrayList<Integer>(authority.chunkSizes);
+    Collections.sort(chunkSizes);
+    assertEquals(Arrays.asList(1, 3, 3, 3), chunkSizes);
+  }
+
+  @Test
+  public void testChunksConcurrent() throws Exception {
+    // Each chunk waits for all of them to start.
+    final CountDownLatch started = new CountDownLatch(4);
+    AuthzAuthority authority = new PermitAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        started.countDown();
+        try {
+          started.await();
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+        return super.isUserAuthorized(userIdentity, ids);
+      }
+    };
+    Map<DocId, AuthzStatus> statuses = new ParallelAuthzAuthority(
+        authority, 3, 10000, executor).isUserAuthorized(null, ids);
+    assertEquals(10, statuses.size());
+  }
+
+  @Test
+  public void testSlowChunkLeftOut() throws Exception {
+    final DocId slow = ids.get(0);
+    AuthzAuthority authority = new PermitAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        if (ids.contains(slow)) {
+          try {
+            Thread.sleep(10000);
+          } catch (InterruptedException ex) {
+            throw new IOException(ex);
+          }
+        }
+        return super.isUserAuthorized(userIdentity, ids);
+      }
+    };
+    long start = System.nanoTime();
+    Map<DocId, AuthzStatus> statuses = new ParallelAuthzAuthority(
+        authority, 5, 100, executor).isUserAuthorized(null, ids);
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(5, statuses.size());
+    assertNull(statuses.get(slow));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(ids.get(9)));
+  }
+
+  @Test
+  public void testFailedChunkLeftOut() throws Exception {
+    final DocId broken = ids.get(9);
+    AuthzAuthority authority = new PermitAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(
+          AuthnIdentity userIdentity, Collection<DocId> ids)
+          throws IOException {
+        if (ids.contains(broken)) {
+          throw new IOException("broken");
+        }
+        return super.isUserAuthorized(userIdentity, ids);
+      }
+    };
+    Map<DocId, AuthzStatus> statuses = new ParallelAuthzAuthority(
+        authority, 5, 10000, executor).isUserAuthorized(null, ids);
+    assertEquals(5, statuses.size());
+    assertNull(statuses.get(broken));
+    assertEquals(AuthzStatus.PERMIT, statuses.get(ids.get(0)));
+  }
+
+  private static class PermitAuthority implements AuthzAuthority {
+    final List<Integer> chunkSizes
+        = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Override
+    public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity userIdentity,
+        Collection<DocId> ids) throws IOException {
+      chunkSizes.add(ids.size());
+      Map<DocId, AuthzStatus> statuses = new HashMap<DocId, AuthzStatus>();
+      for (DocId id : ids) {
+        statuses.put(id, AuthzStatus.PERMIT);
+      }
+      return statuses;
+    }
+  }
+}
@@ -48,8 +48,10 @@ public class SamlBatchAuthzHandlerTest {
   private SamlMetadata samlMetadata = new SamlMetadata("localhost", 80,
       "localhost", "http://google.com/enterprise/gsa/security-manager",
       "http://google.com/enterprise/gsa/adaptor");
+  private Journal journal = new Journal(new MockTimeProvider());
   private SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
-      adaptor, new MockDocIdCodec(), samlMetadata, Principal.DomainFormat.DNS);
+      adaptor, new MockDocIdCodec(), samlMetadata, Principal.DomainFormat.DNS,
+      journal);
   private MockHttpExchange ex = new MockHttpExchange("POST", "/",
       new MockHttpContext(handler, "/"));
   private Charset charset = Charset.forName("UTF-8");
@@ -99,7 +101,7 @@ public class SamlBatchAuthzHandlerTest {
   public void testDenyAuthz() throws Exception {
     SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
         new PrivateMockAdaptor(), new MockDocIdCodec(), samlMetadata,
-        Principal.DomainFormat.DNS);
+        Principal.DomainFormat.DNS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
     String request
@@ -130,7 +132,7 @@ public class SamlBatchAuthzHandlerTest {
     SamlBatchAuthzHandler handler =
         new SamlBatchAuthzHandler(new AuthzByPasswordMockAdaptor(
             usernamePasswordMap), new MockDocIdCodec(), samlMetadata,
-            Principal.DomainFormat.DNS);
+            Principal.DomainFormat.DNS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
 
@@ -212,7 +214,8 @@ public class SamlBatchAuthzHandlerTest {
     
     SamlBatchAuthzHandler handler =
         new SamlBatchAuthzHandler(new AuthzByAclMockAdaptor(aclMap),
-            new MockDocIdCodec(), samlMetadata, Principal.DomainFormat.DNS);
+            new MockDocIdCodec(), samlMetadata, Principal.DomainFormat.DNS,
+            journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
 
@@ -274,7 +277,7 @@ public class SamlBatchAuthzHandlerTest {
     SamlBatchAuthzHandler handler =
         new SamlBatchAuthzHandler(new AuthzByAclMockAdaptor(aclMap),
             new MockDocIdCodec(), samlMetadata,
-            Principal.DomainFormat.NETBIOS);
+            Principal.DomainFormat.NETBIOS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
 
@@ -328,7 +331,7 @@ public class SamlBatchAuthzHandlerTest {
     };
     SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
         adaptor, new MockDocIdCodec(), samlMetadata,
-        Principal.DomainFormat.DNS);
+        Principal.DomainFormat.DNS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
     String request
@@ -362,7 +365,7 @@ public class SamlBatchAuthzHandlerTest {
     };
     SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
         adaptor, new MockDocIdCodec(), samlMetadata,
-        Principal.DomainFormat.DNS);
+        Principal.DomainFormat.DNS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
     String request
@@ -394,7 +397,7 @@ public class SamlBatchAuthzHandlerTest {
     };
     SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
         adaptor, new MockDocIdCodec(), samlMetadata,
-        Principal.DomainFormat.DNS);
+        Principal.DomainFormat.DNS, journal);
     MockHttpExchange ex = new MockHttpExchange("POST", "/",
         new MockHttpContext(handler, "/"));
     String request
@@ -44,6 +44,13 @@ public class StatRpcMethodTest {
       simpleStats.put("numUniqueDocIdsPushed", 0L);
       simpleStats.put("numUniqueGsaRequests", 0L);
       simpleStats.put("numUniqueNonGsaRequests", 0L);
+      simpleStats.put("numFeedConnectionHits", 0L);
+      simpleStats.put("numFeedConnectionMisses", 0L);
+      simpleStats.put("numContentCacheHits", 0L);
+      simpleStats.put("numContentCacheMisses", 0L);
+      simpleStats.put("numAuthzCacheHits", 0L);
+      simpleStats.put("numAuthzCacheMisses", 0L);
+      simpleStats.put("authzCacheMillisSaved", 0L);
       simpleStats.put("timeResolution", 1L);
       simpleStats.put("lastSuccessfulFullPushStart", 0L);
       simpleStats.put("lastSuccessfulFullPushEnd", 0L);
@@ -53,6 +60,12 @@ public class StatRpcMethodTest {
       simpleStats.put("currentIncrementalPushStart", 0L);
       simpleStats.put("whenStarted", 0L);
       golden.put("simpleStats", simpleStats);
+      golden.put("partitionStats", new HashMap<String, Object>());
+      Map<String, Object> hotDocIds = new HashMap<String, Object>();
+      hotDocIds.put("pushed", new ArrayList<Object>());
+      hotDocIds.put("gsaRequested", new ArrayList<Object>());
+      hotDocIds.put("nonGsaRequested", new ArrayList<Object>());
+      golden.put("hotDocIdStats", hotDocIds);
 
       Locale locale = Locale.ENGLISH;
       Map<String, Object> versionMap = new HashMap<String, Object>();
@@ -88,6 +101,18 @@ public class StatRpcMethodTest {
       data.put("time", 0L);
       datas.add(data);
       stat.put("statData", datas);
+      Map<String, Object> percentiles = new HashMap<String, Object>();
+      for (String name : new String[] {"requestProcessingsDuration",
+          "requestProcessingsSize", "feedPostDuration", "authzDuration"}) {
+        Map<String, Object> empty = new HashMap<String, Object>();
+        empty.put("count", 0L);
+        empty.put("p50", 0L);
+        empty.put("p90", 0L);
+        empty.put("p99", 0L);
+        empty.put("max", 0L);
+        percentiles.put(name, empty);
+      }
+      stat.put("percentiles", percentiles);
       stats.add(stat);
       golden.put("stats", stats);
 
@@ -107,7 +132,7 @@ public class StatRpcMethodTest {
     JournalSnapshot getSnapshot() {
       return new JournalSnapshot(this, 0, new Stats[] {
         new Stats(2, 100, 0),
-      });
+      }, true);
     }
   }
 
@@ -75,6 +75,10 @@ public class TestHelper {
 
       @Override
       public void setAuthzAuthority(AuthzAuthority authzAuthority) {}
+
+      @Override
+      public void setPollingIncrementalLister(
+          PollingIncrementalLister lister) {}
     });
     adaptor.getDocIds(pusher);
     return pusher.getDocIds();
@@ -85,6 +89,25 @@ public class TestHelper {
     return getDocIds(adaptor, Collections.<String, String>emptyMap());
   }
 
+  public static List<DocIdPusher.Record> getModifiedDocIds(
+      PollingIncrementalLister lister) throws Exception {
+    AccumulatingDocIdPusher pusher = new AccumulatingDocIdPusher();
+    lister.getModifiedDocIds(pusher);
+    return pusher.getRecords();
+  }
+
+  /** Calls {@code lister} with a pusher that fails to push any record. */
+  public static void getModifiedDocIdsFailingPushes(
+      PollingIncrementalLister lister) throws Exception {
+    lister.getModifiedDocIds(new AccumulatingDocIdPusher() {
+      @Override
+      public Record pushRecords(Iterable<Record> records,
+          ExceptionHandler handler) {
+        return records.iterator().next();
+      }
+    });
+  }
+
   public static byte[] getDocContent(Adaptor adaptor, DocId docId)
       throws IOException, InterruptedException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
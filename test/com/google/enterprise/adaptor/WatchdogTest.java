@@ -14,6 +14,7 @@
 
 package com.google.enterprise.adaptor;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
@@ -59,6 +60,23 @@ public class WatchdogTest {
     }
   }
 
+  @Test
+  public void testInterruptCount() {
+    watchdog = new Watchdog(executor);
+    watchdog.processingStarting(1);
+    try {
+      Thread.sleep(100);
+    } catch (InterruptedException ex) {
+      // Expected.
+    } finally {
+      watchdog.processingCompleted();
+    }
+    assertEquals(1, watchdog.getInterruptCount());
+    watchdog.processingStarting(1000);
+    watchdog.processingCompleted();
+    assertEquals(1, watchdog.getInterruptCount());
+  }
+
   @Test
   public void testDifferentThread() throws InterruptedException {
     watchdog = new Watchdog(executor);
@@ -0,0 +1,128 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.prebuilt;
+
+import static com.google.enterprise.adaptor.TestHelper.getDocIds;
+import static com.google.enterprise.adaptor.TestHelper.getModifiedDocIds;
+import static com.google.enterprise.adaptor.TestHelper.getModifiedDocIdsFailingPushes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.enterprise.adaptor.DocId;
+import com.google.enterprise.adaptor.DocIdPusher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link FileSystemAdaptor}.
+ */
+public class FileSystemAdaptorTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FileSystemAdaptor adaptor = new FileSystemAdaptor();
+  private Map<String, String> config = new HashMap<String, String>();
+
+  @Before
+  public void setUp() throws Exception {
+    folder.newFile("file1");
+    folder.newFile("skip.tmp");
+    File dir = folder.newFolder("dir");
+    new File(dir, "file2").createNewFile();
+    config.put("filesystemadaptor.src", folder.getRoot().getPath());
+    config.put("filesystemadaptor.exclude", "\\.tmp$");
+  }
+
+  @Test
+  public void testGetDocIds() throws Exception {
+    List<DocId> ids = getDocIds(adaptor, config);
+    assertEquals(new HashSet<DocId>(Arrays.asList(new DocId("file1"),
+          new DocId(new File("dir", "file2").getPath()))),
+        new HashSet<DocId>(ids));
+    assertEquals(2, ids.size());
+  }
+
+  @Test
+  public void testGetModifiedDocIdsNoChanges() throws Exception {
+    getDocIds(adaptor, config);
+    assertEquals(Collections.emptyList(), getModifiedDocIds(adaptor));
+  }
+
+  @Test
+  public void testGetModifiedDocIds() throws Exception {
+    File file1 = new File(folder.getRoot(), "file1");
+    assertTrue(file1.setLastModified(1000000));
+    getDocIds(adaptor, config);
+
+    assertTrue(file1.setLastModified(2000000));
+    assertTrue(new File(folder.getRoot(), "dir/file2").delete());
+    folder.newFile("file3");
+    folder.newFile("skip2.tmp");
+
+    Map<DocId, DocIdPusher.Record> changes
+        = new HashMap<DocId, DocIdPusher.Record>();
+    for (DocIdPusher.Record record : getModifiedDocIds(adaptor)) {
+      changes.put(record.getDocId(), record);
+    }
+    assertEquals(3, changes.size());
+
+    DocIdPusher.Record modified = changes.get(new DocId("file1"));
+    assertEquals(2000000, modified.getLastModified().getTime());
+    assertTrue(modified.isToBeCrawledImmediately());
+    assertFalse(modified.isToBeDeleted());
+
+    DocIdPusher.Record created = changes.get(new DocId("file3"));
+    assertTrue(created.isToBeCrawledImmediately());
+    assertFalse(created.isToBeDeleted());
+
+    DocIdPusher.Record deleted
+        = changes.get(new DocId(new File("dir", "file2").getPath()));
+    assertTrue(deleted.isToBeDeleted());
+
+    // Changes are only reported once.
+    assertEquals(Collections.emptyList(), getModifiedDocIds(adaptor));
+  }
+
+  @Test
+  public void testGetModifiedDocIdsRetriesFailedPushes() throws Exception {
+    getDocIds(adaptor, config);
+    folder.newFile("file3");
+    try {
+      getModifiedDocIdsFailingPushes(adaptor);
+      fail();
+    } catch (IOException expected) {
+      // expected
+    }
+    // The change is pushed again, since it failed to be pushed before.
+    List<DocIdPusher.Record> changes = getModifiedDocIds(adaptor);
+    assertEquals(1, changes.size());
+    assertEquals(new DocId("file3"), changes.get(0).getDocId());
+    assertEquals(Collections.emptyList(), getModifiedDocIds(adaptor));
+  }
+}
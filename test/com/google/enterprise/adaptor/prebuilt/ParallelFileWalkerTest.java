@@ -0,0 +1,158 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.prebuilt;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link ParallelFileWalker}.
+ */
+public class ParallelFileWalkerTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private File createTree() {
+    return new MockFile("parent", new File[] {
+      new MockFile("file2"),
+      new MockFile("dir1", new File[] {
+        new MockFile("dir2", new File[0]),
+        new MockFile("file3"),
+      }),
+      new MockFile("file1"),
+      new MockFile("dir3", new File[] {
+        new MockFile("file4"),
+        new MockFile("dir4", new File[] {
+          new MockFile("file5"),
+        }),
+      }),
+    });
+  }
+
+  @Test
+  public void testWalk() throws Exception {
+    CollectingVisitor visitor = new CollectingVisitor();
+    new ParallelFileWalker(4).walk(createTree(), visitor);
+    assertEquals(new HashSet<String>(Arrays.asList(
+        "file1", "file2", "file3", "file4", "file5")), visitor.names);
+  }
+
+  @Test
+  public void testWalkSingleThread() throws Exception {
+    CollectingVisitor visitor = new CollectingVisitor();
+    new ParallelFileWalker(1).walk(createTree(), visitor);
+    assertEquals(new HashSet<String>(Arrays.asList(
+        "file1", "file2", "file3", "file4", "file5")), visitor.names);
+  }
+
+  @Test
+  public void testWalkFile() throws Exception {
+    CollectingVisitor visitor = new CollectingVisitor();
+    new ParallelFileWalker(4).walk(new MockFile("file1"), visitor);
+    assertEquals(Collections.singleton("file1"), visitor.names);
+  }
+
+  @Test
+  public void testWalkEmptyDirectory() throws Exception {
+    CollectingVisitor visitor = new CollectingVisitor();
+    new ParallelFileWalker(4).walk(new MockFile("dir", new File[0]), visitor);
+    assertEquals(Collections.<String>emptySet(), visitor.names);
+  }
+
+  @Test
+  public void testListingFailure() throws Exception {
+    File dir = new MockFile("parent", new File[] {
+      new MockFile("file1"),
+      new MockFile("broken", null),
+    });
+    thrown.expect(IOException.class);
+    new ParallelFileWalker(4).walk(dir, new CollectingVisitor());
+  }
+
+  @Test
+  public void testVisitorFailure() throws Exception {
+    ParallelFileWalker.Visitor visitor = new ParallelFileWalker.Visitor() {
+      @Override
+      public void visitFile(File file) {
+        throw new IllegalStateException();
+      }
+    };
+    thrown.expect(IllegalStateException.class);
+    new ParallelFileWalker(4).walk(createTree(), visitor);
+  }
+
+  @Test
+  public void testInvalidThreads() {
+    thrown.expect(IllegalArgumentException.class);
+    new ParallelFileWalker(0);
+  }
+
+  private static class CollectingVisitor
+      implements ParallelFileWalker.Visitor {
+    public final Set<String> names
+        = Collections.synchronizedSet(new HashSet<String>());
+
+    @Override
+    public void visitFile(File file) {
+      names.add(file.getName());
+    }
+  }
+
+  private static class MockFile extends File {
+    private boolean isDirectory;
+    private String name;
+    private File[] children;
+
+    /** Constructor for mock files */
+    public MockFile(String name) {
+      super("trash");
+      isDirectory = false;
+      this.name = name;
+    }
+
+    /** Constructor for mock directories */
+    public MockFile(String name, File[] children) {
+      super("trash");
+      isDirectory = true;
+      this.name = name;
+      this.children = children;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return isDirectory;
+    }
+
+    @Override
+    public File[] listFiles() {
+      return children;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+}